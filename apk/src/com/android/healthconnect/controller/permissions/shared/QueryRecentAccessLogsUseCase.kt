@@ -63,7 +63,8 @@ constructor(
             try {
                 val accessLogs =
                     suspendCancellableCoroutine<List<AccessLog>> { continuation ->
-                        manager.queryAccessLogs(Runnable::run, continuation.asOutcomeReceiver())
+                        manager.queryLatestAccessLogs(
+                            Runnable::run, continuation.asOutcomeReceiver())
                     }
                 accessLogs.associate { it.packageName to it.accessTime }
             } catch (e: Exception) {
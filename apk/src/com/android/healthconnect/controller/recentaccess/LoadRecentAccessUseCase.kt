@@ -47,23 +47,22 @@ constructor(
     /** Returns a list of apps that have recently accessed Health Connect */
     override suspend fun invoke(): List<AccessLog> =
         withContext(dispatcher) {
-            val accessLogs =
-                try {
-                    suspendCancellableCoroutine<List<AccessLog>> { continuation ->
-                        manager.queryAccessLogs(Runnable::run, continuation.asOutcomeReceiver())
-                    }
-                } catch (e: Exception) {
-                    Log.e(TAG, "Load error ", e)
-                    listOf()
-                }
-
+            // only need the last 24 hours of access logs, which are returned latest first. All of
+            // them are needed to group the accesses of each app.
             val instant24Hours =
                 Instant.ofEpochMilli(timeSource.currentTimeMillis()).minus(Duration.ofDays(1))
-
-            // only need the last 24 hours of access logs
-            accessLogs
-                .filter { accessLog -> accessLog.accessTime.isAfter(instant24Hours) }
-                .sortedByDescending { it.accessTime }
+            try {
+                suspendCancellableCoroutine<List<AccessLog>> { continuation ->
+                    manager.queryAccessLogs(
+                        instant24Hours,
+                        Int.MAX_VALUE,
+                        Runnable::run,
+                        continuation.asOutcomeReceiver())
+                }
+            } catch (e: Exception) {
+                Log.e(TAG, "Load error ", e)
+                listOf()
+            }
         }
 }
 
@@ -52,6 +52,7 @@ import android.health.connect.aidl.IActivityDatesResponseCallback;
 import android.health.connect.aidl.IAggregateRecordsResponseCallback;
 import android.health.connect.aidl.IApplicationInfoResponseCallback;
 import android.health.connect.aidl.IChangeLogsResponseCallback;
+import android.health.connect.aidl.IChangeObserver;
 import android.health.connect.aidl.IDataStagingFinishedCallback;
 import android.health.connect.aidl.IEmptyResponseCallback;
 import android.health.connect.aidl.IGetChangeLogTokenCallback;
@@ -73,6 +74,7 @@ import android.health.connect.changelog.ChangeLogTokenRequest;
 import android.health.connect.changelog.ChangeLogTokenResponse;
 import android.health.connect.changelog.ChangeLogsRequest;
 import android.health.connect.changelog.ChangeLogsResponse;
+import android.health.connect.changelog.ChangeObserver;
 import android.health.connect.datatypes.AggregationType;
 import android.health.connect.datatypes.DataOrigin;
 import android.health.connect.datatypes.Record;
@@ -88,8 +90,11 @@ import android.os.Binder;
 import android.os.OutcomeReceiver;
 import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
+import android.util.ArrayMap;
 import android.util.Log;
 
+import com.android.internal.annotations.GuardedBy;
+
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.time.Duration;
@@ -298,6 +303,10 @@ public class HealthConnectManager {
     private final IHealthConnectService mService;
     private final InternalExternalRecordConverter mInternalExternalRecordConverter;
 
+    @GuardedBy("mChangeObservers")
+    private final Map<ChangeObserver, ChangeObserverTransport> mChangeObservers =
+            new ArrayMap<>();
+
     /** @hide */
     HealthConnectManager(@NonNull Context context, @NonNull IHealthConnectService service) {
         mContext = context;
@@ -854,6 +863,114 @@ public class HealthConnectManager {
         }
     }
 
+    /**
+     * Registers {@code observer} to be notified of the changes committed from now on to the records
+     * matching the record types and data origin filters of {@code request}, instead of polling
+     * {@link HealthConnectManager#getChangeLogs}. Registering an already registered observer
+     * replaces its filters.
+     *
+     * <p>The observer is notified at most once for a short burst of writes, and is only notified
+     * that there are changes: use a token from {@link HealthConnectManager#getChangeLogToken} with
+     * the same request to read them.
+     *
+     * @param request A request with the record types and data origins to observe the changes of
+     * @param executor Executor on which to invoke the observer and the callback.
+     * @param observer Observer to notify of the changes.
+     * @param callback Callback to receive result of performing this operation.
+     */
+    public void registerChangeObserver(
+            @NonNull ChangeLogTokenRequest request,
+            @NonNull Executor executor,
+            @NonNull ChangeObserver observer,
+            @NonNull OutcomeReceiver<Void, HealthConnectException> callback) {
+        Objects.requireNonNull(request);
+        Objects.requireNonNull(executor);
+        Objects.requireNonNull(observer);
+        Objects.requireNonNull(callback);
+
+        ChangeObserverTransport changeObserver;
+        ChangeObserverTransport previous;
+        boolean isNewTransport;
+        synchronized (mChangeObservers) {
+            previous = mChangeObservers.get(observer);
+            isNewTransport = previous == null || previous.mExecutor != executor;
+            if (!isNewTransport) {
+                // Registering the same binder again replaces its filters, and keeps the previous
+                // ones if it fails.
+                changeObserver = previous;
+                previous = null;
+            } else {
+                changeObserver = new ChangeObserverTransport(executor, observer);
+                mChangeObservers.put(observer, changeObserver);
+            }
+        }
+
+        try {
+            if (previous != null) {
+                // The observer is registered again with a new executor, which the service can't
+                // update on the binder it holds.
+                mService.unregisterChangeObserver(previous);
+            }
+            mService.registerChangeObserver(
+                    mContext.getAttributionSource(),
+                    request,
+                    changeObserver,
+                    new IEmptyResponseCallback.Stub() {
+                        @Override
+                        public void onResult() {
+                            Binder.clearCallingIdentity();
+                            executor.execute(() -> callback.onResult(null));
+                        }
+
+                        @Override
+                        public void onError(HealthConnectExceptionParcel exception) {
+                            if (isNewTransport) {
+                                removeChangeObserver(observer, changeObserver);
+                            }
+                            returnError(executor, exception, callback);
+                        }
+                    });
+        } catch (RemoteException e) {
+            if (isNewTransport) {
+                removeChangeObserver(observer, changeObserver);
+            }
+            throw e.rethrowFromSystemServer();
+        }
+    }
+
+    // Removes the failed registration of observer, unless it has been registered again since.
+    private void removeChangeObserver(
+            @NonNull ChangeObserver observer, @NonNull ChangeObserverTransport changeObserver) {
+        synchronized (mChangeObservers) {
+            mChangeObservers.remove(observer, changeObserver);
+        }
+    }
+
+    /**
+     * Unregisters {@code observer} registered with {@link
+     * HealthConnectManager#registerChangeObserver}. Does nothing if it isn't registered.
+     *
+     * @param observer Observer to stop notifying of the changes.
+     */
+    public void unregisterChangeObserver(@NonNull ChangeObserver observer) {
+        Objects.requireNonNull(observer);
+
+        ChangeObserverTransport changeObserver;
+        synchronized (mChangeObservers) {
+            changeObserver = mChangeObservers.remove(observer);
+        }
+
+        if (changeObserver == null) {
+            return;
+        }
+
+        try {
+            mService.unregisterChangeObserver(changeObserver);
+        } catch (RemoteException e) {
+            throw e.rethrowFromSystemServer();
+        }
+    }
+
     /**
      * Fetch the data priority order of the contributing {@link DataOrigin} for {@code
      * dataCategory}.
@@ -1049,19 +1166,62 @@ public class HealthConnectManager {
         Objects.requireNonNull(callback);
         try {
             mService.queryAccessLogs(
+                    mContext.getPackageName(), getAccessLogsResponseCallback(executor, callback));
+        } catch (RemoteException e) {
+            throw e.rethrowFromSystemServer();
+        }
+    }
+
+    /**
+     * Returns the latest access logs with an access time at or after {@code startTime}, latest
+     * first. Unlike {@link #queryAccessLogs(Executor, OutcomeReceiver)}, the cost of this query
+     * doesn't depend on the total number of access logs.
+     *
+     * @param startTime Minimum access time of the access logs to return.
+     * @param maxResults Maximum number of access logs to return, {@link Integer#MAX_VALUE} to
+     *     return all of them.
+     * @param executor Executor on which to invoke the callback.
+     * @param callback Callback to receive result of performing this operation.
+     * @hide
+     */
+    @SystemApi
+    @RequiresPermission(MANAGE_HEALTH_DATA_PERMISSION)
+    public void queryAccessLogs(
+            @NonNull Instant startTime,
+            @IntRange(from = 1) int maxResults,
+            @NonNull Executor executor,
+            @NonNull OutcomeReceiver<List<AccessLog>, HealthConnectException> callback) {
+        Objects.requireNonNull(startTime);
+        Objects.requireNonNull(executor);
+        Objects.requireNonNull(callback);
+        try {
+            mService.queryRecentAccessLogs(
                     mContext.getPackageName(),
-                    new IAccessLogsResponseCallback.Stub() {
-                        @Override
-                        public void onResult(AccessLogsResponseParcel parcel) {
-                            Binder.clearCallingIdentity();
-                            executor.execute(() -> callback.onResult(parcel.getAccessLogs()));
-                        }
+                    startTime.toEpochMilli(),
+                    maxResults,
+                    getAccessLogsResponseCallback(executor, callback));
+        } catch (RemoteException e) {
+            throw e.rethrowFromSystemServer();
+        }
+    }
 
-                        @Override
-                        public void onError(HealthConnectExceptionParcel exception) {
-                            returnError(executor, exception, callback);
-                        }
-                    });
+    /**
+     * Returns the latest access log of each package, latest first.
+     *
+     * @param executor Executor on which to invoke the callback.
+     * @param callback Callback to receive result of performing this operation.
+     * @hide
+     */
+    @SystemApi
+    @RequiresPermission(MANAGE_HEALTH_DATA_PERMISSION)
+    public void queryLatestAccessLogs(
+            @NonNull Executor executor,
+            @NonNull OutcomeReceiver<List<AccessLog>, HealthConnectException> callback) {
+        Objects.requireNonNull(executor);
+        Objects.requireNonNull(callback);
+        try {
+            mService.queryLatestAccessLogs(
+                    mContext.getPackageName(), getAccessLogsResponseCallback(executor, callback));
         } catch (RemoteException e) {
             throw e.rethrowFromSystemServer();
         }
@@ -1188,11 +1348,34 @@ public class HealthConnectManager {
     public void getContributorApplicationsInfo(
             @NonNull @CallbackExecutor Executor executor,
             @NonNull OutcomeReceiver<ApplicationInfoResponse, HealthConnectException> callback) {
+        getContributorApplicationsInfo(/* includeIcons= */ true, executor, callback);
+    }
+
+    /**
+     * Returns information, represented by {@code ApplicationInfoResponse}, for all the packages
+     * that have contributed to the health connect DB. If the application is does not have
+     * permissions to query other packages, a {@link java.lang.SecurityException} is thrown.
+     *
+     * <p>Reading the icons is expensive, callers that don't display them should not request them.
+     *
+     * @param includeIcons Whether to return the icons of the packages. If false, {@link
+     *     android.health.connect.datatypes.AppInfo#getIcon} returns null.
+     * @param executor Executor on which to invoke the callback.
+     * @param callback Callback to receive result of performing this operation.
+     * @hide
+     */
+    @SystemApi
+    @RequiresPermission(MANAGE_HEALTH_DATA_PERMISSION)
+    public void getContributorApplicationsInfo(
+            boolean includeIcons,
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<ApplicationInfoResponse, HealthConnectException> callback) {
         Objects.requireNonNull(executor);
         Objects.requireNonNull(callback);
 
         try {
             mService.getContributorApplicationsInfo(
+                    includeIcons,
                     new IApplicationInfoResponseCallback.Stub() {
                         @Override
                         public void onResult(ApplicationInfoResponseParcel parcel) {
@@ -1641,6 +1824,23 @@ public class HealthConnectManager {
         };
     }
 
+    private IAccessLogsResponseCallback.Stub getAccessLogsResponseCallback(
+            @NonNull Executor executor,
+            @NonNull OutcomeReceiver<List<AccessLog>, HealthConnectException> callback) {
+        return new IAccessLogsResponseCallback.Stub() {
+            @Override
+            public void onResult(AccessLogsResponseParcel parcel) {
+                Binder.clearCallingIdentity();
+                executor.execute(() -> callback.onResult(parcel.getAccessLogs()));
+            }
+
+            @Override
+            public void onError(HealthConnectExceptionParcel exception) {
+                returnError(executor, exception, callback);
+            }
+        };
+    }
+
     private List<Record> getRecordsWithUids(List<Record> records, List<String> uids) {
         int i = 0;
         for (Record record : records) {
@@ -1745,4 +1945,21 @@ public class HealthConnectManager {
             }
         };
     }
+
+    /** Forwards the change notifications of the service to a {@link ChangeObserver}. */
+    private static final class ChangeObserverTransport extends IChangeObserver.Stub {
+        private final Executor mExecutor;
+        private final ChangeObserver mObserver;
+
+        ChangeObserverTransport(@NonNull Executor executor, @NonNull ChangeObserver observer) {
+            mExecutor = executor;
+            mObserver = observer;
+        }
+
+        @Override
+        public void onChange() {
+            Binder.clearCallingIdentity();
+            mExecutor.execute(mObserver::onChange);
+        }
+    }
 }
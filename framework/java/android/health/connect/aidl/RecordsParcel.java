@@ -88,7 +88,8 @@ public class RecordsParcel implements Parcelable {
 
     @Override
     public void writeToParcel(@NonNull Parcel dest, int flags) {
-        ParcelUtils.putToRequiredMemory(dest, flags, this::writeToParcelInternal);
+        mRecordsChunkSize =
+                ParcelUtils.putToRequiredMemory(dest, flags, this::writeToParcelInternal);
     }
 
     @NonNull
@@ -105,7 +106,8 @@ public class RecordsParcel implements Parcelable {
     }
 
     /**
-     * @return size of the record parcel. Used for memory rate limiting.
+     * @return size of the record parcel, as read or last written. Used for memory and read cost
+     *     rate limiting.
      */
     public long getRecordsChunkSize() {
         return mRecordsChunkSize;
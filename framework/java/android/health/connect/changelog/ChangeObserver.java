@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.health.connect.changelog;
+
+import android.health.connect.HealthConnectManager;
+
+/**
+ * Observer of the changes to health data, registered with {@link
+ * HealthConnectManager#registerChangeObserver}.
+ *
+ * @see HealthConnectManager#registerChangeObserver
+ */
+public interface ChangeObserver {
+    /**
+     * Called when records matching the filters of the observer have been inserted, updated or
+     * deleted. The changes of a short burst of writes are notified once. Use {@link
+     * HealthConnectManager#getChangeLogs} to read them.
+     */
+    void onChange();
+}
@@ -50,6 +50,8 @@ public final class AggregationType<T> {
     public static final int SUM = 3;
     /** @hide */
     public static final int COUNT = 4;
+    /** @hide */
+    public static final int PERCENTILE = 5;
 
     @AggregationTypeIdentifier.Id private final int mId;
     @AggregateOperationType private final int mType;
@@ -187,6 +189,9 @@ public final class AggregationType<T> {
         int RESTING_HEART_RATE_RECORD_BPM_AVG = 65;
         int SLEEP_SESSION_DURATION_TOTAL = 66;
         int EXERCISE_SESSION_DURATION_TOTAL = 67;
+        int HEART_RATE_RECORD_BPM_PERCENTILE_5 = 68;
+        int HEART_RATE_RECORD_BPM_PERCENTILE_50 = 69;
+        int HEART_RATE_RECORD_BPM_PERCENTILE_95 = 70;
 
         /**
          * Valid set of values for this IntDef. Update this set when add new type or deprecate
@@ -263,7 +268,10 @@ public final class AggregationType<T> {
                         HEART_RATE_RECORD_MEASUREMENTS_COUNT,
                         RESTING_HEART_RATE_RECORD_BPM_AVG,
                         SLEEP_SESSION_DURATION_TOTAL,
-                        EXERCISE_SESSION_DURATION_TOTAL);
+                        EXERCISE_SESSION_DURATION_TOTAL,
+                        HEART_RATE_RECORD_BPM_PERCENTILE_5,
+                        HEART_RATE_RECORD_BPM_PERCENTILE_50,
+                        HEART_RATE_RECORD_BPM_PERCENTILE_95);
 
         /** @hide */
         @IntDef({
@@ -334,7 +342,10 @@ public final class AggregationType<T> {
             HEART_RATE_RECORD_MEASUREMENTS_COUNT,
             RESTING_HEART_RATE_RECORD_BPM_AVG,
             SLEEP_SESSION_DURATION_TOTAL,
-            EXERCISE_SESSION_DURATION_TOTAL
+            EXERCISE_SESSION_DURATION_TOTAL,
+            HEART_RATE_RECORD_BPM_PERCENTILE_5,
+            HEART_RATE_RECORD_BPM_PERCENTILE_50,
+            HEART_RATE_RECORD_BPM_PERCENTILE_95
         })
         @Retention(RetentionPolicy.SOURCE)
         @interface Id {}
@@ -346,10 +357,11 @@ public final class AggregationType<T> {
      *
      * @hide
      */
-    public static final Set<Integer> OPERATION_VALID_TYPES = Set.of(MAX, MIN, AVG, SUM, COUNT);
+    public static final Set<Integer> OPERATION_VALID_TYPES =
+            Set.of(MAX, MIN, AVG, SUM, COUNT, PERCENTILE);
 
     /** @hide */
-    @IntDef({MAX, MIN, AVG, SUM, COUNT})
+    @IntDef({MAX, MIN, AVG, SUM, COUNT, PERCENTILE})
     @Retention(RetentionPolicy.SOURCE)
     public @interface AggregateOperationType {}
 }
@@ -79,6 +79,42 @@ public final class HeartRateRecord extends IntervalRecord {
                     RECORD_TYPE_HEART_RATE,
                     Long.class);
 
+    /**
+     * Metric identifier to get the 5th percentile of heart rate in beats per minute using aggregate
+     * APIs in {@link HealthConnectManager}
+     */
+    @NonNull
+    public static final AggregationType<Long> BPM_PERCENTILE_5 =
+            new AggregationType<>(
+                    AggregationType.AggregationTypeIdentifier.HEART_RATE_RECORD_BPM_PERCENTILE_5,
+                    AggregationType.PERCENTILE,
+                    RECORD_TYPE_HEART_RATE,
+                    Long.class);
+
+    /**
+     * Metric identifier to get the median heart rate in beats per minute using aggregate APIs in
+     * {@link HealthConnectManager}
+     */
+    @NonNull
+    public static final AggregationType<Long> BPM_PERCENTILE_50 =
+            new AggregationType<>(
+                    AggregationType.AggregationTypeIdentifier.HEART_RATE_RECORD_BPM_PERCENTILE_50,
+                    AggregationType.PERCENTILE,
+                    RECORD_TYPE_HEART_RATE,
+                    Long.class);
+
+    /**
+     * Metric identifier to get the 95th percentile of heart rate in beats per minute using
+     * aggregate APIs in {@link HealthConnectManager}
+     */
+    @NonNull
+    public static final AggregationType<Long> BPM_PERCENTILE_95 =
+            new AggregationType<>(
+                    AggregationType.AggregationTypeIdentifier.HEART_RATE_RECORD_BPM_PERCENTILE_95,
+                    AggregationType.PERCENTILE,
+                    RECORD_TYPE_HEART_RATE,
+                    Long.class);
+
     private final List<HeartRateSample> mHeartRateSamples;
 
     private HeartRateRecord(
@@ -25,6 +25,7 @@ import android.system.ErrnoException;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
 
 /** @hide */
 public final class ParcelUtils {
@@ -34,6 +35,11 @@ public final class ParcelUtils {
     @VisibleForTesting
     public static final int IPC_PARCEL_LIMIT = IBinder.getSuggestedMaxIpcSizeBytes() / 2;
 
+    // Largest staging buffer kept for reuse by getParcelForSharedMemoryIfRequired.
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+    // Staging buffer for the payloads read from shared memory, null while in use.
+    private static final AtomicReference<byte[]> sPooledBuffer = new AtomicReference<>();
+
     public interface IPutToParcelRunnable {
         void writeToParcel(Parcel dest);
     }
@@ -45,9 +51,16 @@ public final class ParcelUtils {
             try (SharedMemory memory = SharedMemory.CREATOR.createFromParcel(in)) {
                 Parcel dataParcel = Parcel.obtain();
                 ByteBuffer buffer = memory.mapReadOnly();
-                byte[] payload = new byte[buffer.limit()];
-                buffer.get(payload);
-                dataParcel.unmarshall(payload, 0, payload.length);
+                try {
+                    int payloadSize = buffer.limit();
+                    byte[] payload = obtainBuffer(payloadSize);
+                    buffer.get(payload, 0, payloadSize);
+                    dataParcel.unmarshall(payload, 0, payloadSize);
+                    // The parcel has its own copy of the payload.
+                    releaseBuffer(payload);
+                } finally {
+                    SharedMemory.unmap(buffer);
+                }
                 dataParcel.setDataPosition(0);
                 return dataParcel;
             } catch (ErrnoException e) {
@@ -62,8 +75,11 @@ public final class ParcelUtils {
             SharedMemory sharedMemory =
                     SharedMemory.create("RecordsParcelSharedMemory", dataParcelSize);
             ByteBuffer buffer = sharedMemory.mapReadWrite();
-            byte[] data = dataParcel.marshall();
-            buffer.put(data, 0, dataParcelSize);
+            try {
+                buffer.put(dataParcel.marshall(), 0, dataParcelSize);
+            } finally {
+                SharedMemory.unmap(buffer);
+            }
             return sharedMemory;
         } catch (ErrnoException e) {
             throw new RuntimeException(e);
@@ -72,25 +88,45 @@ public final class ParcelUtils {
 
     /**
      * Determines which memory to use and puts the {@code parcel} in it, and details of it in {@code
-     * dest}
+     * dest}. The data is written by {@code parcelRunnable} only once, and then copied to the memory
+     * used.
+     *
+     * @return the size in bytes of the data put, regardless of the memory used.
      */
-    public static void putToRequiredMemory(
+    public static int putToRequiredMemory(
             Parcel dest, int flags, IPutToParcelRunnable parcelRunnable) {
         final Parcel dataParcel = Parcel.obtain();
         try {
             parcelRunnable.writeToParcel(dataParcel);
             final int dataParcelSize = dataParcel.dataSize();
             if (dataParcelSize > IPC_PARCEL_LIMIT) {
-                SharedMemory sharedMemory =
-                        ParcelUtils.getSharedMemoryForParcel(dataParcel, dataParcelSize);
-                dest.writeInt(USING_SHARED_MEMORY);
-                sharedMemory.writeToParcel(dest, flags);
+                // The parcel holds its own duplicate of the file descriptor.
+                try (SharedMemory sharedMemory =
+                        ParcelUtils.getSharedMemoryForParcel(dataParcel, dataParcelSize)) {
+                    dest.writeInt(USING_SHARED_MEMORY);
+                    sharedMemory.writeToParcel(dest, flags);
+                }
             } else {
                 dest.writeInt(USING_PARCEL);
-                parcelRunnable.writeToParcel(dest);
+                dest.appendFrom(dataParcel, 0, dataParcelSize);
             }
+            return dataParcelSize;
         } finally {
             dataParcel.recycle();
         }
     }
+
+    private static byte[] obtainBuffer(int size) {
+        byte[] buffer = sPooledBuffer.getAndSet(null);
+        if (buffer == null || buffer.length < size) {
+            return new byte[size];
+        }
+        return buffer;
+    }
+
+    private static void releaseBuffer(byte[] buffer) {
+        if (buffer.length <= MAX_POOLED_BUFFER_SIZE) {
+            sPooledBuffer.set(buffer);
+        }
+    }
 }
@@ -16,14 +16,19 @@
 
 package android.health.connect.internal.datatypes;
 
+import static android.health.connect.internal.datatypes.utils.CompactSampleEncoding.VALUE_DECIMALS;
+
 import android.annotation.NonNull;
 import android.health.connect.datatypes.CyclingPedalingCadenceRecord;
 import android.health.connect.datatypes.Identifier;
 import android.health.connect.datatypes.RecordTypeIdentifier;
+import android.health.connect.internal.datatypes.utils.CompactSampleEncoding;
 import android.os.Parcel;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
@@ -68,21 +73,35 @@ public class CyclingPedalingCadenceRecordInternal
     @Override
     void populateIntervalRecordFrom(@NonNull Parcel parcel) {
         int size = parcel.readInt();
+        CompactSampleEncoding.Reader reader = new CompactSampleEncoding.Reader(parcel);
+        long[] times = reader.readTimes(size);
+        double[] revolutionsPerMinute = reader.readDoubles(size, VALUE_DECIMALS);
         mCyclingPedalingCadenceRecordSamples = new HashSet<>(size);
         for (int i = 0; i < size; i++) {
             mCyclingPedalingCadenceRecordSamples.add(
-                    new CyclingPedalingCadenceRecordSample(parcel.readDouble(), parcel.readLong()));
+                    new CyclingPedalingCadenceRecordSample(revolutionsPerMinute[i], times[i]));
         }
     }
 
     @Override
     void populateIntervalRecordTo(@NonNull Parcel parcel) {
-        parcel.writeInt(mCyclingPedalingCadenceRecordSamples.size());
-        for (CyclingPedalingCadenceRecordSample cyclingPedalingCadenceRecordSample :
-                mCyclingPedalingCadenceRecordSamples) {
-            parcel.writeDouble(cyclingPedalingCadenceRecordSample.getRevolutionsPerMinute());
-            parcel.writeLong(cyclingPedalingCadenceRecordSample.getEpochMillis());
+        CyclingPedalingCadenceRecordSample[] samples =
+                mCyclingPedalingCadenceRecordSamples.toArray(
+                        new CyclingPedalingCadenceRecordSample[0]);
+        Arrays.sort(
+                samples,
+                Comparator.comparingLong(CyclingPedalingCadenceRecordSample::getEpochMillis));
+        long[] times = new long[samples.length];
+        double[] revolutionsPerMinute = new double[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            times[i] = samples[i].getEpochMillis();
+            revolutionsPerMinute[i] = samples[i].getRevolutionsPerMinute();
         }
+        parcel.writeInt(samples.length);
+        new CompactSampleEncoding.Writer(samples.length)
+                .writeTimes(times)
+                .writeDoubles(revolutionsPerMinute, VALUE_DECIMALS)
+                .writeTo(parcel);
     }
 
     private List<CyclingPedalingCadenceRecord.CyclingPedalingCadenceRecordSample>
@@ -16,12 +16,16 @@
 
 package android.health.connect.internal.datatypes;
 
+import static android.health.connect.internal.datatypes.utils.CompactSampleEncoding.COORDINATE_DECIMALS;
+import static android.health.connect.internal.datatypes.utils.CompactSampleEncoding.VALUE_DECIMALS;
+
 import android.annotation.FloatRange;
 import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.health.connect.Constants;
 import android.health.connect.datatypes.ExerciseRoute;
 import android.health.connect.datatypes.units.Length;
+import android.health.connect.internal.datatypes.utils.CompactSampleEncoding;
 import android.os.Parcel;
 
 import com.android.internal.annotations.VisibleForTesting;
@@ -58,9 +62,23 @@ public class ExerciseRouteInternal {
         }
 
         int routeSize = parcel.readInt();
+        CompactSampleEncoding.Reader reader = new CompactSampleEncoding.Reader(parcel);
+        long[] times = reader.readTimes(routeSize);
+        double[] latitudes = reader.readDoubles(routeSize, COORDINATE_DECIMALS);
+        double[] longitudes = reader.readDoubles(routeSize, COORDINATE_DECIMALS);
+        double[] horizontalAccuracies = reader.readDoubles(routeSize, VALUE_DECIMALS);
+        double[] verticalAccuracies = reader.readDoubles(routeSize, VALUE_DECIMALS);
+        double[] altitudes = reader.readDoubles(routeSize, VALUE_DECIMALS);
         ArrayList<LocationInternal> routeLocations = new ArrayList<>(routeSize);
         for (int i = 0; i < routeSize; i++) {
-            routeLocations.add(LocationInternal.readFromParcel(parcel));
+            routeLocations.add(
+                    new LocationInternal()
+                            .setTime(times[i])
+                            .setLatitude(latitudes[i])
+                            .setLongitude(longitudes[i])
+                            .setHorizontalAccuracy(horizontalAccuracies[i])
+                            .setVerticalAccuracy(verticalAccuracies[i])
+                            .setAltitude(altitudes[i]));
         }
         return new ExerciseRouteInternal(routeLocations);
     }
@@ -79,10 +97,32 @@ public class ExerciseRouteInternal {
     }
 
     private void writeToParcel(@NonNull Parcel parcel) {
-        parcel.writeInt(mRouteExerciseRouteLocations.size());
-        for (LocationInternal location : mRouteExerciseRouteLocations) {
-            location.writeToParcel(parcel);
+        // Written column by column, consecutive locations are close in time and space.
+        int routeSize = mRouteExerciseRouteLocations.size();
+        long[] times = new long[routeSize];
+        double[] latitudes = new double[routeSize];
+        double[] longitudes = new double[routeSize];
+        double[] horizontalAccuracies = new double[routeSize];
+        double[] verticalAccuracies = new double[routeSize];
+        double[] altitudes = new double[routeSize];
+        for (int i = 0; i < routeSize; i++) {
+            LocationInternal location = mRouteExerciseRouteLocations.get(i);
+            times[i] = location.getTime();
+            latitudes[i] = location.getLatitude();
+            longitudes[i] = location.getLongitude();
+            horizontalAccuracies[i] = location.getHorizontalAccuracy();
+            verticalAccuracies[i] = location.getVerticalAccuracy();
+            altitudes[i] = location.getAltitude();
         }
+        parcel.writeInt(routeSize);
+        new CompactSampleEncoding.Writer(routeSize)
+                .writeTimes(times)
+                .writeDoubles(latitudes, COORDINATE_DECIMALS)
+                .writeDoubles(longitudes, COORDINATE_DECIMALS)
+                .writeDoubles(horizontalAccuracies, VALUE_DECIMALS)
+                .writeDoubles(verticalAccuracies, VALUE_DECIMALS)
+                .writeDoubles(altitudes, VALUE_DECIMALS)
+                .writeTo(parcel);
     }
 
     /** Convert internal route to external route object. */
@@ -21,10 +21,13 @@ import android.annotation.Nullable;
 import android.health.connect.datatypes.HeartRateRecord;
 import android.health.connect.datatypes.Identifier;
 import android.health.connect.datatypes.RecordTypeIdentifier;
+import android.health.connect.internal.datatypes.utils.CompactSampleEncoding;
 import android.os.Parcel;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
@@ -97,20 +100,31 @@ public class HeartRateRecordInternal
     @Override
     void populateIntervalRecordFrom(@NonNull Parcel parcel) {
         int size = parcel.readInt();
+        CompactSampleEncoding.Reader reader = new CompactSampleEncoding.Reader(parcel);
+        long[] times = reader.readTimes(size);
+        long[] beatsPerMinute = reader.readLongs(size);
         mHeartRateHeartRateSamples = new HashSet<>(size);
         for (int i = 0; i < size; i++) {
-            mHeartRateHeartRateSamples.add(
-                    new HeartRateSample(parcel.readInt(), parcel.readLong()));
+            mHeartRateHeartRateSamples.add(new HeartRateSample((int) beatsPerMinute[i], times[i]));
         }
     }
 
     @Override
     void populateIntervalRecordTo(@NonNull Parcel parcel) {
-        parcel.writeInt(mHeartRateHeartRateSamples.size());
-        for (HeartRateSample heartRateSample : mHeartRateHeartRateSamples) {
-            parcel.writeInt(heartRateSample.getBeatsPerMinute());
-            parcel.writeLong(heartRateSample.getEpochMillis());
+        // Sorted by time, so that consecutive samples have small deltas.
+        HeartRateSample[] samples = mHeartRateHeartRateSamples.toArray(new HeartRateSample[0]);
+        Arrays.sort(samples, Comparator.comparingLong(HeartRateSample::getEpochMillis));
+        long[] times = new long[samples.length];
+        long[] beatsPerMinute = new long[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            times[i] = samples[i].getEpochMillis();
+            beatsPerMinute[i] = samples[i].getBeatsPerMinute();
         }
+        parcel.writeInt(samples.length);
+        new CompactSampleEncoding.Writer(samples.length)
+                .writeTimes(times)
+                .writeLongs(beatsPerMinute)
+                .writeTo(parcel);
     }
 
     private List<HeartRateRecord.HeartRateSample> getExternalSamples() {
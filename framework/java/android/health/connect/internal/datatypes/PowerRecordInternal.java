@@ -16,15 +16,20 @@
 
 package android.health.connect.internal.datatypes;
 
+import static android.health.connect.internal.datatypes.utils.CompactSampleEncoding.VALUE_DECIMALS;
+
 import android.annotation.NonNull;
 import android.health.connect.datatypes.Identifier;
 import android.health.connect.datatypes.PowerRecord;
 import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.datatypes.units.Power;
+import android.health.connect.internal.datatypes.utils.CompactSampleEncoding;
 import android.os.Parcel;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
@@ -42,9 +47,12 @@ public class PowerRecordInternal
     @Override
     void populateIntervalRecordFrom(@NonNull Parcel parcel) {
         int size = parcel.readInt();
+        CompactSampleEncoding.Reader reader = new CompactSampleEncoding.Reader(parcel);
+        long[] times = reader.readTimes(size);
+        double[] power = reader.readDoubles(size, VALUE_DECIMALS);
         mPowerRecordSamples = new HashSet<>(size);
         for (int i = 0; i < size; i++) {
-            mPowerRecordSamples.add(new PowerRecordSample(parcel.readDouble(), parcel.readLong()));
+            mPowerRecordSamples.add(new PowerRecordSample(power[i], times[i]));
         }
     }
 
@@ -74,11 +82,19 @@ public class PowerRecordInternal
 
     @Override
     void populateIntervalRecordTo(@NonNull Parcel parcel) {
-        parcel.writeInt(mPowerRecordSamples.size());
-        for (PowerRecordSample powerRecordSample : mPowerRecordSamples) {
-            parcel.writeDouble(powerRecordSample.getPower());
-            parcel.writeLong(powerRecordSample.getEpochMillis());
+        PowerRecordSample[] samples = mPowerRecordSamples.toArray(new PowerRecordSample[0]);
+        Arrays.sort(samples, Comparator.comparingLong(PowerRecordSample::getEpochMillis));
+        long[] times = new long[samples.length];
+        double[] power = new double[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            times[i] = samples[i].getEpochMillis();
+            power[i] = samples[i].getPower();
         }
+        parcel.writeInt(samples.length);
+        new CompactSampleEncoding.Writer(samples.length)
+                .writeTimes(times)
+                .writeDoubles(power, VALUE_DECIMALS)
+                .writeTo(parcel);
     }
 
     private List<PowerRecord.PowerRecordSample> getExternalSamples() {
@@ -16,15 +16,20 @@
 
 package android.health.connect.internal.datatypes;
 
+import static android.health.connect.internal.datatypes.utils.CompactSampleEncoding.VALUE_DECIMALS;
+
 import android.annotation.NonNull;
 import android.health.connect.datatypes.Identifier;
 import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.datatypes.SpeedRecord;
 import android.health.connect.datatypes.units.Velocity;
+import android.health.connect.internal.datatypes.utils.CompactSampleEncoding;
 import android.os.Parcel;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
@@ -42,9 +47,12 @@ public class SpeedRecordInternal
     @Override
     void populateIntervalRecordFrom(@NonNull Parcel parcel) {
         int size = parcel.readInt();
+        CompactSampleEncoding.Reader reader = new CompactSampleEncoding.Reader(parcel);
+        long[] times = reader.readTimes(size);
+        double[] speed = reader.readDoubles(size, VALUE_DECIMALS);
         mSpeedRecordSamples = new HashSet<>(size);
         for (int i = 0; i < size; i++) {
-            mSpeedRecordSamples.add(new SpeedRecordSample(parcel.readDouble(), parcel.readLong()));
+            mSpeedRecordSamples.add(new SpeedRecordSample(speed[i], times[i]));
         }
     }
 
@@ -74,11 +82,19 @@ public class SpeedRecordInternal
 
     @Override
     void populateIntervalRecordTo(@NonNull Parcel parcel) {
-        parcel.writeInt(mSpeedRecordSamples.size());
-        for (SpeedRecordSample speedRecordSample : mSpeedRecordSamples) {
-            parcel.writeDouble(speedRecordSample.getSpeed());
-            parcel.writeLong(speedRecordSample.getEpochMillis());
+        SpeedRecordSample[] samples = mSpeedRecordSamples.toArray(new SpeedRecordSample[0]);
+        Arrays.sort(samples, Comparator.comparingLong(SpeedRecordSample::getEpochMillis));
+        long[] times = new long[samples.length];
+        double[] speed = new double[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            times[i] = samples[i].getEpochMillis();
+            speed[i] = samples[i].getSpeed();
         }
+        parcel.writeInt(samples.length);
+        new CompactSampleEncoding.Writer(samples.length)
+                .writeTimes(times)
+                .writeDoubles(speed, VALUE_DECIMALS)
+                .writeTo(parcel);
     }
 
     private List<SpeedRecord.SpeedRecordSample> getExternalSamples() {
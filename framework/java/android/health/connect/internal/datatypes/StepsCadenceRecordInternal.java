@@ -16,14 +16,19 @@
 
 package android.health.connect.internal.datatypes;
 
+import static android.health.connect.internal.datatypes.utils.CompactSampleEncoding.VALUE_DECIMALS;
+
 import android.annotation.NonNull;
 import android.health.connect.datatypes.Identifier;
 import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.datatypes.StepsCadenceRecord;
+import android.health.connect.internal.datatypes.utils.CompactSampleEncoding;
 import android.os.Parcel;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
@@ -66,10 +71,12 @@ public class StepsCadenceRecordInternal
     @Override
     void populateIntervalRecordFrom(@NonNull Parcel parcel) {
         int size = parcel.readInt();
+        CompactSampleEncoding.Reader reader = new CompactSampleEncoding.Reader(parcel);
+        long[] times = reader.readTimes(size);
+        double[] rate = reader.readDoubles(size, VALUE_DECIMALS);
         mStepsCadenceRecordSamples = new HashSet<>(size);
         for (int i = 0; i < size; i++) {
-            mStepsCadenceRecordSamples.add(
-                    new StepsCadenceRecordSample(parcel.readDouble(), parcel.readLong()));
+            mStepsCadenceRecordSamples.add(new StepsCadenceRecordSample(rate[i], times[i]));
         }
     }
 
@@ -88,11 +95,20 @@ public class StepsCadenceRecordInternal
 
     @Override
     void populateIntervalRecordTo(@NonNull Parcel parcel) {
-        parcel.writeInt(mStepsCadenceRecordSamples.size());
-        for (StepsCadenceRecordSample stepsCadenceRecordSample : mStepsCadenceRecordSamples) {
-            parcel.writeDouble(stepsCadenceRecordSample.getRate());
-            parcel.writeLong(stepsCadenceRecordSample.getEpochMillis());
+        StepsCadenceRecordSample[] samples =
+                mStepsCadenceRecordSamples.toArray(new StepsCadenceRecordSample[0]);
+        Arrays.sort(samples, Comparator.comparingLong(StepsCadenceRecordSample::getEpochMillis));
+        long[] times = new long[samples.length];
+        double[] rate = new double[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            times[i] = samples[i].getEpochMillis();
+            rate[i] = samples[i].getRate();
         }
+        parcel.writeInt(samples.length);
+        new CompactSampleEncoding.Writer(samples.length)
+                .writeTimes(times)
+                .writeDoubles(rate, VALUE_DECIMALS)
+                .writeTo(parcel);
     }
 
     /**
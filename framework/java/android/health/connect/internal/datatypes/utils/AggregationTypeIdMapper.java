@@ -25,6 +25,9 @@ import static android.health.connect.datatypes.FloorsClimbedRecord.FLOORS_CLIMBE
 import static android.health.connect.datatypes.HeartRateRecord.BPM_AVG;
 import static android.health.connect.datatypes.HeartRateRecord.BPM_MAX;
 import static android.health.connect.datatypes.HeartRateRecord.BPM_MIN;
+import static android.health.connect.datatypes.HeartRateRecord.BPM_PERCENTILE_5;
+import static android.health.connect.datatypes.HeartRateRecord.BPM_PERCENTILE_50;
+import static android.health.connect.datatypes.HeartRateRecord.BPM_PERCENTILE_95;
 import static android.health.connect.datatypes.HeartRateRecord.HEART_MEASUREMENTS_COUNT;
 import static android.health.connect.datatypes.HeightRecord.HEIGHT_AVG;
 import static android.health.connect.datatypes.HeightRecord.HEIGHT_MAX;
@@ -105,7 +108,7 @@ import java.util.Map;
  * @hide
  */
 public final class AggregationTypeIdMapper {
-    private static final int MAP_SIZE = 65;
+    private static final int MAP_SIZE = 71;
     private static volatile AggregationTypeIdMapper sAggregationTypeIdMapper;
     private final Map<Integer, AggregationResultCreator> mIdToAggregateResult;
     private final Map<Integer, AggregationType<?>> mIdDataAggregationTypeMap;
@@ -128,7 +131,10 @@ public final class AggregationTypeIdMapper {
                         WHEEL_CHAIR_PUSHES_COUNT_TOTAL,
                         HEART_MEASUREMENTS_COUNT,
                         SLEEP_DURATION_TOTAL,
-                        EXERCISE_DURATION_TOTAL));
+                        EXERCISE_DURATION_TOTAL,
+                        BPM_PERCENTILE_5,
+                        BPM_PERCENTILE_50,
+                        BPM_PERCENTILE_95));
         addDoubleIdsToAggregateResultMap(Arrays.asList(FLOORS_CLIMBED_TOTAL));
         addPowerIdsToAggregateResultMap(Arrays.asList(POWER_MIN, POWER_MAX, POWER_AVG));
         addEnergyIdsToAggregateResultMap(
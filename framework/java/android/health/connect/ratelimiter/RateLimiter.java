@@ -18,25 +18,32 @@ package android.health.connect.ratelimiter;
 
 import android.annotation.IntDef;
 import android.health.connect.HealthConnectException;
+import android.os.SystemClock;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.GuardedBy;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.time.Duration;
-import java.time.Instant;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Basic rate limiter that assigns a fixed request rate quota. If no quota has previously been noted
  * (e.g. first request scenario), the full quota for each window will be immediately granted.
  *
+ * <p>Each uid has a fixed size array of token buckets, one per {@link QuotaBucket}. A bucket is
+ * stored as the single elapsed realtime at which it will be full again: spending quota moves that
+ * time forward by the cost times the window divided by the max quota, and is refused if the bucket
+ * would then need more than the window to fill up again. Buckets are updated with compare and set,
+ * so concurrent calls only hold a lock to look up the buckets of their uid, and don't allocate.
+ *
+ * <p>Reads are also charged by their cost, reported after the call with {@link #recordReadCost}, as
+ * a call reading thousands of records weighs much more than one reading a single record. A read is
+ * refused while the read cost quota is overspent by previous reads.
+ *
  * @hide
  */
 public final class RateLimiter {
@@ -45,27 +52,34 @@ public final class RateLimiter {
     // The maximum size in bytes of a single record a client can insert in one go.
     public static final String RECORD_SIZE_LIMIT_IN_BYTES = "record_size_limit_in_bytes";
     private static final int DEFAULT_API_CALL_COST = 1;
-    private static final Map<Integer, Map<Integer, Quota>> sUserIdToQuotasMap = new HashMap<>();
+    private static final long WINDOW_15M_NANOS = TimeUnit.MINUTES.toNanos(15);
+    private static final long WINDOW_24H_NANOS = TimeUnit.HOURS.toNanos(24);
+    private static final int NUM_QUOTA_BUCKETS =
+            QuotaBucket.QUOTA_BUCKET_READ_COST_PER_24H_BACKGROUND + 1;
+    // Index of the memory quotas in the max quota array, after the api call quota buckets.
+    private static final int CHUNK_SIZE_LIMIT_INDEX = NUM_QUOTA_BUCKETS;
+    private static final int RECORD_SIZE_LIMIT_INDEX = NUM_QUOTA_BUCKETS + 1;
+    private static final int NUM_MAX_QUOTAS = NUM_QUOTA_BUCKETS + 2;
+    // Marks a max quota which has not been configured.
+    private static final float NO_MAX_QUOTA = -1;
+
+    private static final Object sLock = new Object();
+
+    // Per uid, the elapsed realtime in nanos at which each quota bucket is full again. Keyed by
+    // the primitive uid, so that looking up the buckets doesn't box it.
+    @GuardedBy("sLock")
+    private static final SparseArray<AtomicLongArray> sUidToQuotaFullTimes = new SparseArray<>();
 
-    private static final ConcurrentMap<Integer, Integer> sLocks = new ConcurrentHashMap<>();
-    private static final Map<Integer, Float> QUOTA_BUCKET_TO_MAX_API_CALL_QUOTA_MAP =
-            new HashMap<>();
-    private static final Map<String, Integer> QUOTA_BUCKET_TO_MAX_MEMORY_QUOTA_MAP =
-            new HashMap<>();
-    private static final ReentrantReadWriteLock sLock = new ReentrantReadWriteLock();
+    // Api call quotas indexed by quota bucket, followed by the memory quotas. Replaced as a whole
+    // on updates, so that readers always see a consistent configuration.
+    private static volatile float[] sMaxQuotas = createEmptyMaxQuotas();
 
-    @GuardedBy("sLock")
-    private static boolean sRateLimiterEnabled;
+    private static volatile boolean sRateLimiterEnabled;
 
     public static void tryAcquireApiCallQuota(
             int uid, @QuotaCategory.Type int quotaCategory, boolean isInForeground) {
-        sLock.readLock().lock();
-        try {
-            if (!sRateLimiterEnabled) {
-                return;
-            }
-        } finally {
-            sLock.readLock().unlock();
+        if (!sRateLimiterEnabled) {
+            return;
         }
         if (quotaCategory == QuotaCategory.QUOTA_CATEGORY_UNDEFINED) {
             throw new IllegalArgumentException("Quota category not defined.");
@@ -75,24 +89,79 @@ public final class RateLimiter {
         if (quotaCategory == QuotaCategory.QUOTA_CATEGORY_UNMETERED) {
             return;
         }
-        synchronized (getLockObject(uid)) {
-            spendResourcesIfAvailable(
-                    uid,
-                    getAffectedQuotaBuckets(quotaCategory, isInForeground),
-                    DEFAULT_API_CALL_COST);
+
+        @QuotaBucket.Type
+        int shortWindowBucket = getShortWindowQuotaBucket(quotaCategory, isInForeground);
+        @QuotaBucket.Type
+        int longWindowBucket = getLongWindowQuotaBucket(quotaCategory, isInForeground);
+        float[] maxQuotas = sMaxQuotas;
+        AtomicLongArray quotaFullTimes = getQuotaFullTimes(uid);
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (quotaCategory == QuotaCategory.QUOTA_CATEGORY_READ) {
+            checkQuotaNotOverspent(
+                    quotaFullTimes,
+                    isInForeground
+                            ? QuotaBucket.QUOTA_BUCKET_READ_COST_PER_15M_FOREGROUND
+                            : QuotaBucket.QUOTA_BUCKET_READ_COST_PER_15M_BACKGROUND,
+                    maxQuotas,
+                    now);
+            checkQuotaNotOverspent(
+                    quotaFullTimes,
+                    isInForeground
+                            ? QuotaBucket.QUOTA_BUCKET_READ_COST_PER_24H_FOREGROUND
+                            : QuotaBucket.QUOTA_BUCKET_READ_COST_PER_24H_BACKGROUND,
+                    maxQuotas,
+                    now);
+        }
+        long shortWindowCost =
+                spendQuota(
+                        quotaFullTimes, shortWindowBucket, maxQuotas, now, DEFAULT_API_CALL_COST);
+        try {
+            spendQuota(quotaFullTimes, longWindowBucket, maxQuotas, now, DEFAULT_API_CALL_COST);
+        } catch (RuntimeException e) {
+            // Give back what was spent from the short window, so that a refused call costs nothing.
+            quotaFullTimes.getAndAdd(shortWindowBucket, -shortWindowCost);
+            throw e;
+        }
+    }
+
+    /**
+     * Charges {@code cost} resource units, e.g. rows scanned and returned, of a completed read by
+     * {@code uid} to its read cost quotas. The read already happened, so this never fails, but
+     * overspending makes the next reads fail until the quota refills.
+     */
+    public static void recordReadCost(int uid, boolean isInForeground, long cost) {
+        if (!sRateLimiterEnabled || cost <= 0) {
+            return;
         }
+
+        float[] maxQuotas = sMaxQuotas;
+        AtomicLongArray quotaFullTimes = getQuotaFullTimes(uid);
+        long now = SystemClock.elapsedRealtimeNanos();
+        overspendQuota(
+                quotaFullTimes,
+                isInForeground
+                        ? QuotaBucket.QUOTA_BUCKET_READ_COST_PER_15M_FOREGROUND
+                        : QuotaBucket.QUOTA_BUCKET_READ_COST_PER_15M_BACKGROUND,
+                maxQuotas,
+                now,
+                cost);
+        overspendQuota(
+                quotaFullTimes,
+                isInForeground
+                        ? QuotaBucket.QUOTA_BUCKET_READ_COST_PER_24H_FOREGROUND
+                        : QuotaBucket.QUOTA_BUCKET_READ_COST_PER_24H_BACKGROUND,
+                maxQuotas,
+                now,
+                cost);
     }
 
     public static void checkMaxChunkMemoryUsage(long memoryCost) {
-        sLock.readLock().lock();
-        try {
-            if (!sRateLimiterEnabled) {
-                return;
-            }
-        } finally {
-            sLock.readLock().unlock();
+        if (!sRateLimiterEnabled) {
+            return;
         }
-        long memoryLimit = getConfiguredMaxApiMemoryQuota(CHUNK_SIZE_LIMIT_IN_BYTES);
+        long memoryLimit =
+                getConfiguredMaxApiMemoryQuota(CHUNK_SIZE_LIMIT_INDEX, CHUNK_SIZE_LIMIT_IN_BYTES);
         if (memoryCost > memoryLimit) {
             throw new HealthConnectException(
                     HealthConnectException.ERROR_RATE_LIMIT_EXCEEDED,
@@ -104,15 +173,11 @@ public final class RateLimiter {
     }
 
     public static void checkMaxRecordMemoryUsage(long memoryCost) {
-        sLock.readLock().lock();
-        try {
-            if (!sRateLimiterEnabled) {
-                return;
-            }
-        } finally {
-            sLock.readLock().unlock();
+        if (!sRateLimiterEnabled) {
+            return;
         }
-        long memoryLimit = getConfiguredMaxApiMemoryQuota(RECORD_SIZE_LIMIT_IN_BYTES);
+        long memoryLimit =
+                getConfiguredMaxApiMemoryQuota(RECORD_SIZE_LIMIT_INDEX, RECORD_SIZE_LIMIT_IN_BYTES);
         if (memoryCost > memoryLimit) {
             throw new HealthConnectException(
                     HealthConnectException.ERROR_RATE_LIMIT_EXCEEDED,
@@ -124,162 +189,230 @@ public final class RateLimiter {
     }
 
     public static void clearCache() {
-        sUserIdToQuotasMap.clear();
+        synchronized (sLock) {
+            sUidToQuotaFullTimes.clear();
+        }
     }
 
-    public static void updateApiCallQuotaMap(
+    public static synchronized void updateApiCallQuotaMap(
             Map<Integer, Integer> quotaBucketToMaxApiCallQuotaMap) {
-
-        for (Integer key : quotaBucketToMaxApiCallQuotaMap.keySet()) {
-            QUOTA_BUCKET_TO_MAX_API_CALL_QUOTA_MAP.put(
-                    key, (float) quotaBucketToMaxApiCallQuotaMap.get(key));
+        float[] maxQuotas = Arrays.copyOf(sMaxQuotas, NUM_MAX_QUOTAS);
+        for (Map.Entry<Integer, Integer> entry : quotaBucketToMaxApiCallQuotaMap.entrySet()) {
+            int quotaBucket = entry.getKey();
+            if (quotaBucket <= QuotaBucket.QUOTA_BUCKET_UNDEFINED
+                    || quotaBucket >= NUM_QUOTA_BUCKETS) {
+                throw new IllegalArgumentException("Invalid quota bucket.");
+            }
+            maxQuotas[quotaBucket] = entry.getValue();
         }
+        sMaxQuotas = maxQuotas;
     }
 
-    public static void updateMemoryQuotaMap(Map<String, Integer> quotaBucketToMaxMemoryQuotaMap) {
-        for (String key : quotaBucketToMaxMemoryQuotaMap.keySet()) {
-            QUOTA_BUCKET_TO_MAX_MEMORY_QUOTA_MAP.put(key, quotaBucketToMaxMemoryQuotaMap.get(key));
+    public static synchronized void updateMemoryQuotaMap(
+            Map<String, Integer> quotaBucketToMaxMemoryQuotaMap) {
+        float[] maxQuotas = Arrays.copyOf(sMaxQuotas, NUM_MAX_QUOTAS);
+        for (Map.Entry<String, Integer> entry : quotaBucketToMaxMemoryQuotaMap.entrySet()) {
+            switch (entry.getKey()) {
+                case CHUNK_SIZE_LIMIT_IN_BYTES:
+                    maxQuotas[CHUNK_SIZE_LIMIT_INDEX] = entry.getValue();
+                    break;
+                case RECORD_SIZE_LIMIT_IN_BYTES:
+                    maxQuotas[RECORD_SIZE_LIMIT_INDEX] = entry.getValue();
+                    break;
+                default:
+                    // Not a memory quota enforced by the rate limiter.
+            }
         }
+        sMaxQuotas = maxQuotas;
     }
 
     public static void updateEnableRateLimiterFlag(boolean enableRateLimiter) {
-        sLock.writeLock().lock();
-        try {
-            sRateLimiterEnabled = enableRateLimiter;
-        } finally {
-            sLock.writeLock().unlock();
-        }
+        sRateLimiterEnabled = enableRateLimiter;
     }
 
-    private static Object getLockObject(int uid) {
-        sLocks.putIfAbsent(uid, uid);
-        return sLocks.get(uid);
-    }
-
-    private static void spendResourcesIfAvailable(int uid, List<Integer> quotaBuckets, int cost) {
-        Map<Integer, Float> quotaBucketToAvailableQuotaMap =
-                quotaBuckets.stream()
-                        .collect(
-                                Collectors.toMap(
-                                        quotaBucket -> quotaBucket,
-                                        quotaBucket ->
-                                                getAvailableQuota(
-                                                        quotaBucket, getQuota(uid, quotaBucket))));
-        for (@QuotaBucket.Type int quotaBucket : quotaBuckets) {
-            hasSufficientQuota(quotaBucketToAvailableQuotaMap.get(quotaBucket), cost, quotaBucket);
-        }
-        for (@QuotaBucket.Type int quotaBucket : quotaBuckets) {
-            spendResources(uid, quotaBucket, quotaBucketToAvailableQuotaMap.get(quotaBucket), cost);
+    private static AtomicLongArray getQuotaFullTimes(int uid) {
+        synchronized (sLock) {
+            AtomicLongArray quotaFullTimes = sUidToQuotaFullTimes.get(uid);
+            if (quotaFullTimes == null) {
+                quotaFullTimes = new AtomicLongArray(NUM_QUOTA_BUCKETS);
+                sUidToQuotaFullTimes.put(uid, quotaFullTimes);
+            }
+            return quotaFullTimes;
         }
     }
 
-    private static void spendResources(
-            int uid, @QuotaBucket.Type int quotaBucket, float availableQuota, int cost) {
-        sUserIdToQuotasMap
-                .get(uid)
-                .put(quotaBucket, new Quota(Instant.now(), availableQuota - cost));
-    }
-
-    private static void hasSufficientQuota(
-            float availableQuota, int cost, @QuotaBucket.Type int quotaBucket) {
-        if (availableQuota < cost) {
-            throw new RateLimiterException(
-                    "API call quota exceeded, availableQuota: "
-                            + availableQuota
-                            + " requested: "
-                            + cost,
-                    quotaBucket,
-                    getConfiguredApiCallMaxQuota(quotaBucket));
+    /**
+     * Spends {@code cost} from {@code quotaBucket} in {@code quotaFullTimes} if available, and
+     * returns how far the bucket's full time moved forward.
+     */
+    private static long spendQuota(
+            AtomicLongArray quotaFullTimes,
+            @QuotaBucket.Type int quotaBucket,
+            float[] maxQuotas,
+            long now,
+            int cost) {
+        float maxQuota = getConfiguredApiCallMaxQuota(quotaBucket, maxQuotas);
+        long window = getWindowNanos(quotaBucket);
+        long costNanos =
+                maxQuota > 0 ? (long) (cost * (window / (double) maxQuota)) : Long.MAX_VALUE;
+        while (true) {
+            long fullTime = quotaFullTimes.get(quotaBucket);
+            // A bucket which was full by now has accumulated the max quota and no more.
+            long startTime = Math.max(fullTime, now);
+            if (costNanos > window - (startTime - now)) {
+                throw new RateLimiterException(
+                        "API call quota exceeded, availableQuota: "
+                                + getAvailableQuota(fullTime, now, window, maxQuota)
+                                + " requested: "
+                                + cost,
+                        quotaBucket,
+                        maxQuota);
+            }
+            if (quotaFullTimes.compareAndSet(quotaBucket, fullTime, startTime + costNanos)) {
+                return startTime + costNanos - fullTime;
+            }
         }
     }
 
-    private static float getAvailableQuota(@QuotaBucket.Type int quotaBucket, Quota quota) {
-        Instant lastUpdatedTime = quota.getLastUpdatedTime();
-        Instant currentTime = Instant.now();
-        Duration timeSinceLastQuotaSpend = Duration.between(lastUpdatedTime, currentTime);
-        Duration window = getWindowDuration(quotaBucket);
-        float accumulated =
-                timeSinceLastQuotaSpend.toMillis()
-                        * (getConfiguredApiCallMaxQuota(quotaBucket) / (float) window.toMillis());
-        // Cannot accumulate more than the configured max quota.
-        return Math.min(
-                quota.getRemainingQuota() + accumulated, getConfiguredApiCallMaxQuota(quotaBucket));
+    /**
+     * Spends {@code cost} from the read cost {@code quotaBucket} even if not available. The debt is
+     * capped at one window, so that a single huge read doesn't block the uid for longer than that.
+     * Does nothing if the quota isn't configured.
+     */
+    private static void overspendQuota(
+            AtomicLongArray quotaFullTimes,
+            @QuotaBucket.Type int quotaBucket,
+            float[] maxQuotas,
+            long now,
+            long cost) {
+        float maxQuota = maxQuotas[quotaBucket];
+        if (maxQuota == NO_MAX_QUOTA) {
+            return;
+        }
+        long window = getWindowNanos(quotaBucket);
+        long maxFullTime = now + 2 * window;
+        double costNanos = maxQuota > 0 ? cost * (window / (double) maxQuota) : Long.MAX_VALUE;
+        while (true) {
+            long fullTime = quotaFullTimes.get(quotaBucket);
+            long startTime = Math.max(fullTime, now);
+            long newFullTime =
+                    costNanos < maxFullTime - startTime
+                            ? startTime + (long) costNanos
+                            : maxFullTime;
+            if (newFullTime <= fullTime
+                    || quotaFullTimes.compareAndSet(quotaBucket, fullTime, newFullTime)) {
+                return;
+            }
+        }
     }
 
-    private static Quota getQuota(int uid, @QuotaBucket.Type int quotaBucket) {
-        // Handles first request scenario.
-        if (!sUserIdToQuotasMap.containsKey(uid)) {
-            sUserIdToQuotasMap.put(uid, new HashMap<>());
+    /**
+     * Throws if the read cost {@code quotaBucket} has been overspent, i.e. needs more than a
+     * window to be full again. Does nothing if the quota isn't configured.
+     */
+    private static void checkQuotaNotOverspent(
+            AtomicLongArray quotaFullTimes,
+            @QuotaBucket.Type int quotaBucket,
+            float[] maxQuotas,
+            long now) {
+        float maxQuota = maxQuotas[quotaBucket];
+        if (maxQuota == NO_MAX_QUOTA) {
+            return;
         }
-        Map<Integer, Quota> packageQuotas = sUserIdToQuotasMap.get(uid);
-        Quota quota = packageQuotas.get(quotaBucket);
-        if (quota == null) {
-            quota = getInitialQuota(quotaBucket);
+        long window = getWindowNanos(quotaBucket);
+        long overspentTime = quotaFullTimes.get(quotaBucket) - now - window;
+        if (overspentTime > 0) {
+            throw new RateLimiterException(
+                    "Read cost quota exceeded, overspent: "
+                            + overspentTime * (maxQuota / (float) window),
+                    quotaBucket,
+                    maxQuota);
         }
-        return quota;
     }
 
-    private static Quota getInitialQuota(@QuotaBucket.Type int bucket) {
-        return new Quota(Instant.now(), getConfiguredApiCallMaxQuota(bucket));
+    private static float getAvailableQuota(long fullTime, long now, long window, float maxQuota) {
+        long timeToFull = Math.max(fullTime - now, 0);
+        return Math.max(window - timeToFull, 0) * (maxQuota / (float) window);
     }
 
-    private static Duration getWindowDuration(@QuotaBucket.Type int quotaBucket) {
+    private static long getWindowNanos(@QuotaBucket.Type int quotaBucket) {
         switch (quotaBucket) {
             case QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_BACKGROUND:
             case QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_FOREGROUND:
             case QuotaBucket.QUOTA_BUCKET_READS_PER_24H_BACKGROUND:
             case QuotaBucket.QUOTA_BUCKET_READS_PER_24H_FOREGROUND:
-                return Duration.ofHours(24);
+            case QuotaBucket.QUOTA_BUCKET_READ_COST_PER_24H_FOREGROUND:
+            case QuotaBucket.QUOTA_BUCKET_READ_COST_PER_24H_BACKGROUND:
+                return WINDOW_24H_NANOS;
             case QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_BACKGROUND:
             case QuotaBucket.QUOTA_BUCKET_READS_PER_15M_FOREGROUND:
             case QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_FOREGROUND:
             case QuotaBucket.QUOTA_BUCKET_READS_PER_15M_BACKGROUND:
-                return Duration.ofMinutes(15);
+            case QuotaBucket.QUOTA_BUCKET_READ_COST_PER_15M_FOREGROUND:
+            case QuotaBucket.QUOTA_BUCKET_READ_COST_PER_15M_BACKGROUND:
+                return WINDOW_15M_NANOS;
             case QuotaBucket.QUOTA_BUCKET_UNDEFINED:
                 throw new IllegalArgumentException("Invalid quota bucket.");
         }
         throw new IllegalArgumentException("Invalid quota bucket.");
     }
 
-    private static float getConfiguredApiCallMaxQuota(@QuotaBucket.Type int quotaBucket) {
-        if (!QUOTA_BUCKET_TO_MAX_API_CALL_QUOTA_MAP.containsKey(quotaBucket)) {
+    private static float getConfiguredApiCallMaxQuota(
+            @QuotaBucket.Type int quotaBucket, float[] maxQuotas) {
+        float maxQuota = maxQuotas[quotaBucket];
+        if (maxQuota == NO_MAX_QUOTA) {
             throw new IllegalArgumentException(
                     "Max quota not found for quotaBucket: " + quotaBucket);
         }
-        return QUOTA_BUCKET_TO_MAX_API_CALL_QUOTA_MAP.get(quotaBucket);
+        return maxQuota;
     }
 
-    private static int getConfiguredMaxApiMemoryQuota(String quotaBucket) {
-        if (!QUOTA_BUCKET_TO_MAX_MEMORY_QUOTA_MAP.containsKey(quotaBucket)) {
+    private static int getConfiguredMaxApiMemoryQuota(int index, String quotaBucket) {
+        float maxQuota = sMaxQuotas[index];
+        if (maxQuota == NO_MAX_QUOTA) {
             throw new IllegalArgumentException(
                     "Max quota not found for quotaBucket: " + quotaBucket);
         }
-        return QUOTA_BUCKET_TO_MAX_MEMORY_QUOTA_MAP.get(quotaBucket);
+        return (int) maxQuota;
+    }
+
+    private static float[] createEmptyMaxQuotas() {
+        float[] maxQuotas = new float[NUM_MAX_QUOTAS];
+        Arrays.fill(maxQuotas, NO_MAX_QUOTA);
+        return maxQuotas;
+    }
+
+    @QuotaBucket.Type
+    private static int getShortWindowQuotaBucket(
+            @QuotaCategory.Type int quotaCategory, boolean isInForeground) {
+        switch (quotaCategory) {
+            case QuotaCategory.QUOTA_CATEGORY_READ:
+                return isInForeground
+                        ? QuotaBucket.QUOTA_BUCKET_READS_PER_15M_FOREGROUND
+                        : QuotaBucket.QUOTA_BUCKET_READS_PER_15M_BACKGROUND;
+            case QuotaCategory.QUOTA_CATEGORY_WRITE:
+                return isInForeground
+                        ? QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_FOREGROUND
+                        : QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_BACKGROUND;
+            case QuotaCategory.QUOTA_CATEGORY_UNDEFINED:
+            case QuotaCategory.QUOTA_CATEGORY_UNMETERED:
+                throw new IllegalArgumentException("Invalid quota category.");
+        }
+        throw new IllegalArgumentException("Invalid quota category.");
     }
 
-    private static List<Integer> getAffectedQuotaBuckets(
+    @QuotaBucket.Type
+    private static int getLongWindowQuotaBucket(
             @QuotaCategory.Type int quotaCategory, boolean isInForeground) {
         switch (quotaCategory) {
             case QuotaCategory.QUOTA_CATEGORY_READ:
-                if (isInForeground) {
-                    return List.of(
-                            QuotaBucket.QUOTA_BUCKET_READS_PER_15M_FOREGROUND,
-                            QuotaBucket.QUOTA_BUCKET_READS_PER_24H_FOREGROUND);
-                } else {
-                    return List.of(
-                            QuotaBucket.QUOTA_BUCKET_READS_PER_15M_BACKGROUND,
-                            QuotaBucket.QUOTA_BUCKET_READS_PER_24H_BACKGROUND);
-                }
+                return isInForeground
+                        ? QuotaBucket.QUOTA_BUCKET_READS_PER_24H_FOREGROUND
+                        : QuotaBucket.QUOTA_BUCKET_READS_PER_24H_BACKGROUND;
             case QuotaCategory.QUOTA_CATEGORY_WRITE:
-                if (isInForeground) {
-                    return List.of(
-                            QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_FOREGROUND,
-                            QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_FOREGROUND);
-                } else {
-                    return List.of(
-                            QuotaBucket.QUOTA_BUCKET_WRITES_PER_15M_BACKGROUND,
-                            QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_BACKGROUND);
-                }
+                return isInForeground
+                        ? QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_FOREGROUND
+                        : QuotaBucket.QUOTA_BUCKET_WRITES_PER_24H_BACKGROUND;
             case QuotaCategory.QUOTA_CATEGORY_UNDEFINED:
             case QuotaCategory.QUOTA_CATEGORY_UNMETERED:
                 throw new IllegalArgumentException("Invalid quota category.");
@@ -297,6 +430,10 @@ public final class RateLimiter {
         public static final int QUOTA_BUCKET_WRITES_PER_24H_FOREGROUND = 6;
         public static final int QUOTA_BUCKET_WRITES_PER_15M_BACKGROUND = 7;
         public static final int QUOTA_BUCKET_WRITES_PER_24H_BACKGROUND = 8;
+        public static final int QUOTA_BUCKET_READ_COST_PER_15M_FOREGROUND = 9;
+        public static final int QUOTA_BUCKET_READ_COST_PER_24H_FOREGROUND = 10;
+        public static final int QUOTA_BUCKET_READ_COST_PER_15M_BACKGROUND = 11;
+        public static final int QUOTA_BUCKET_READ_COST_PER_24H_BACKGROUND = 12;
 
         private QuotaBucket() {}
 
@@ -311,6 +448,10 @@ public final class RateLimiter {
             QUOTA_BUCKET_WRITES_PER_24H_FOREGROUND,
             QUOTA_BUCKET_WRITES_PER_15M_BACKGROUND,
             QUOTA_BUCKET_WRITES_PER_24H_BACKGROUND,
+            QUOTA_BUCKET_READ_COST_PER_15M_FOREGROUND,
+            QUOTA_BUCKET_READ_COST_PER_24H_FOREGROUND,
+            QUOTA_BUCKET_READ_COST_PER_15M_BACKGROUND,
+            QUOTA_BUCKET_READ_COST_PER_24H_BACKGROUND,
         })
         @Retention(RetentionPolicy.SOURCE)
         public @interface Type {}
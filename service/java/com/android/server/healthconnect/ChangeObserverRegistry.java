@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect;
+
+import static android.health.connect.Constants.DEFAULT_LONG;
+
+import android.annotation.NonNull;
+import android.health.connect.HealthConnectException;
+import android.health.connect.aidl.IChangeObserver;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.util.ArrayMap;
+import android.util.Slog;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the change observers registered by apps, and notifies them once change logs matching
+ * their filters have been committed, so that apps don't have to poll the change logs.
+ *
+ * <p>Notifications are debounced per observer: the first matching commit schedules a notification
+ * after {@link #NOTIFICATION_DELAY_MILLIS}, and the commits until then are batched into it.
+ *
+ * @hide
+ */
+public final class ChangeObserverRegistry {
+    private static final String TAG = "HealthConnectChangeObs";
+    @VisibleForTesting static final long NOTIFICATION_DELAY_MILLIS = 500;
+    @VisibleForTesting static final int MAX_OBSERVERS_PER_UID = 10;
+    private static volatile ChangeObserverRegistry sChangeObserverRegistry;
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final Map<IBinder, Observer> mObservers = new ArrayMap<>();
+
+    // Ids of the registrations requested but not run yet, by observer binder.
+    @GuardedBy("mLock")
+    private final Map<IBinder, List<Long>> mPendingRegistrations = new ArrayMap<>();
+
+    @GuardedBy("mLock")
+    private long mLastRegistrationId;
+
+    private ChangeObserverRegistry() {}
+
+    /**
+     * Records that {@code callback} is to be registered, and returns the id to pass to {@link
+     * #register}. Must be called when the registration is requested, before it is queued, so that
+     * unregistering {@code callback} in the meantime cancels it.
+     */
+    public long requestRegistration(@NonNull IChangeObserver callback) {
+        synchronized (mLock) {
+            long registrationId = ++mLastRegistrationId;
+            mPendingRegistrations
+                    .computeIfAbsent(callback.asBinder(), binder -> new ArrayList<>())
+                    .add(registrationId);
+            return registrationId;
+        }
+    }
+
+    /**
+     * Drops the registration {@code registrationId} of {@code callback} if it hasn't run, e.g.
+     * because the caller isn't allowed to register.
+     */
+    public void cancelRegistration(@NonNull IChangeObserver callback, long registrationId) {
+        synchronized (mLock) {
+            removePendingRegistrationLocked(callback.asBinder(), registrationId);
+        }
+    }
+
+    /**
+     * Registers {@code callback} to be notified of the change logs committed after {@code rowId}
+     * for any of {@code recordTypes}, written by any of {@code packageNamesToFilter}. Empty lists
+     * match all record types or apps. Registering an already registered callback replaces its
+     * filters. Does nothing if {@code callback} has been unregistered since {@code registrationId}
+     * was returned by {@link #requestRegistration}.
+     *
+     * @throws HealthConnectException with {@link HealthConnectException#ERROR_RATE_LIMIT_EXCEEDED}
+     *     if {@code uid} already registered {@link #MAX_OBSERVERS_PER_UID} observers.
+     */
+    public void register(
+            int uid,
+            @NonNull List<Integer> recordTypes,
+            @NonNull List<String> packageNamesToFilter,
+            long rowId,
+            @NonNull IChangeObserver callback,
+            long registrationId) {
+        IBinder binder = callback.asBinder();
+        Observer observer = new Observer(uid, recordTypes, packageNamesToFilter, rowId, callback);
+        synchronized (mLock) {
+            if (!removePendingRegistrationLocked(binder, registrationId)) {
+                return;
+            }
+
+            Observer previous = mObservers.get(binder);
+            if (previous == null && getObserverCount(uid) >= MAX_OBSERVERS_PER_UID) {
+                throw new HealthConnectException(
+                        HealthConnectException.ERROR_RATE_LIMIT_EXCEEDED,
+                        "Too many change observers registered by uid: " + uid);
+            }
+
+            try {
+                binder.linkToDeath(observer, 0);
+            } catch (RemoteException e) {
+                // The process which registered the observer is already dead.
+                return;
+            }
+
+            if (previous != null) {
+                binder.unlinkToDeath(previous, 0);
+            }
+            mObservers.put(binder, observer);
+            // Catches up with the change logs committed since rowId was read.
+            scheduleNotification(observer, ChangeLogsHelper.getInstance().getLatestRowIds());
+        }
+    }
+
+    /**
+     * Unregisters {@code callback} and cancels its pending registrations, does nothing if it isn't
+     * registered.
+     */
+    public void unregister(@NonNull IChangeObserver callback) {
+        IBinder binder = callback.asBinder();
+        synchronized (mLock) {
+            mPendingRegistrations.remove(binder);
+            Observer observer = mObservers.remove(binder);
+            if (observer != null) {
+                binder.unlinkToDeath(observer, 0);
+            }
+        }
+    }
+
+    /**
+     * Schedules the notification of the observers matching the change logs committed. Must only be
+     * called once the transaction which inserted the change logs has been committed.
+     */
+    public void onChangeLogsCommitted(@NonNull Map<Integer, Long> recordTypeToRowId) {
+        synchronized (mLock) {
+            for (Observer observer : mObservers.values()) {
+                scheduleNotification(observer, recordTypeToRowId);
+            }
+        }
+    }
+
+    /** Drops all the observers, e.g. when the user switches. */
+    public void clear() {
+        synchronized (mLock) {
+            for (Map.Entry<IBinder, Observer> entry : mObservers.entrySet()) {
+                entry.getKey().unlinkToDeath(entry.getValue(), 0);
+            }
+            mObservers.clear();
+            mPendingRegistrations.clear();
+        }
+    }
+
+    @VisibleForTesting
+    int getObserverCount(int uid) {
+        synchronized (mLock) {
+            int count = 0;
+            for (Observer observer : mObservers.values()) {
+                if (observer.mUid == uid) {
+                    count++;
+                }
+            }
+
+            return count;
+        }
+    }
+
+    // Returns false if the registration has been cancelled.
+    @GuardedBy("mLock")
+    private boolean removePendingRegistrationLocked(@NonNull IBinder binder, long registrationId) {
+        List<Long> registrationIds = mPendingRegistrations.get(binder);
+        if (registrationIds == null || !registrationIds.remove(Long.valueOf(registrationId))) {
+            return false;
+        }
+
+        if (registrationIds.isEmpty()) {
+            mPendingRegistrations.remove(binder);
+        }
+        return true;
+    }
+
+    @GuardedBy("mLock")
+    private void scheduleNotification(
+            @NonNull Observer observer, @NonNull Map<Integer, Long> recordTypeToRowId) {
+        long rowId = observer.getLatestMatchingRowId(recordTypeToRowId);
+        if (rowId <= observer.mPendingRowId) {
+            return;
+        }
+
+        observer.mPendingRowId = rowId;
+        if (!observer.mNotificationScheduled) {
+            observer.mNotificationScheduled = true;
+            HealthConnectThreadScheduler.scheduleInternalTask(
+                    () -> notifyObserver(observer), NOTIFICATION_DELAY_MILLIS);
+        }
+    }
+
+    private void notifyObserver(@NonNull Observer observer) {
+        long fromRowId;
+        long toRowId;
+        synchronized (mLock) {
+            observer.mNotificationScheduled = false;
+            if (mObservers.get(observer.mCallback.asBinder()) != observer) {
+                return;
+            }
+
+            fromRowId = observer.mNotifiedRowId;
+            toRowId = observer.mPendingRowId;
+            observer.mNotifiedRowId = toRowId;
+        }
+
+        // The committed row ids are only known per record type, so the apps which wrote the
+        // change logs are checked against the table.
+        if (!observer.mPackageNamesToFilter.isEmpty()
+                && !ChangeLogsHelper.getInstance()
+                        .hasChangeLogs(
+                                fromRowId,
+                                toRowId,
+                                observer.mRecordTypes,
+                                observer.mPackageNamesToFilter)) {
+            return;
+        }
+
+        try {
+            observer.mCallback.onChange();
+        } catch (RemoteException e) {
+            Slog.w(TAG, "Failed to notify change observer of uid: " + observer.mUid, e);
+            unregister(observer.mCallback);
+        }
+    }
+
+    @NonNull
+    public static synchronized ChangeObserverRegistry getInstance() {
+        if (sChangeObserverRegistry == null) {
+            sChangeObserverRegistry = new ChangeObserverRegistry();
+        }
+
+        return sChangeObserverRegistry;
+    }
+
+    private final class Observer implements IBinder.DeathRecipient {
+        private final int mUid;
+        private final List<Integer> mRecordTypes;
+        private final List<String> mPackageNamesToFilter;
+        private final IChangeObserver mCallback;
+
+        // Row id of the latest change log the observer was notified of.
+        @GuardedBy("mLock")
+        private long mNotifiedRowId;
+
+        // Row id of the latest matching change log committed.
+        @GuardedBy("mLock")
+        private long mPendingRowId;
+
+        @GuardedBy("mLock")
+        private boolean mNotificationScheduled;
+
+        Observer(
+                int uid,
+                @NonNull List<Integer> recordTypes,
+                @NonNull List<String> packageNamesToFilter,
+                long rowId,
+                @NonNull IChangeObserver callback) {
+            mUid = uid;
+            mRecordTypes = List.copyOf(recordTypes);
+            mPackageNamesToFilter = List.copyOf(packageNamesToFilter);
+            mCallback = callback;
+            mNotifiedRowId = rowId;
+            mPendingRowId = rowId;
+        }
+
+        @Override
+        public void binderDied() {
+            unregister(mCallback);
+        }
+
+        long getLatestMatchingRowId(@NonNull Map<Integer, Long> recordTypeToRowId) {
+            long latestRowId = DEFAULT_LONG;
+            for (Map.Entry<Integer, Long> entry : recordTypeToRowId.entrySet()) {
+                if (mRecordTypes.isEmpty() || mRecordTypes.contains(entry.getKey())) {
+                    latestRowId = Math.max(latestRowId, entry.getValue());
+                }
+            }
+
+            return latestRowId;
+        }
+    }
+}
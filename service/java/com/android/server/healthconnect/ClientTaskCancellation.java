@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect;
+
+import android.annotation.NonNull;
+import android.os.CancellationSignal;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.GuardedBy;
+
+/**
+ * Tracks whether a scheduled client task is still wanted. The task is cancelled once the process
+ * holding its callback dies, and expires if it hasn't started before its deadline.
+ *
+ * @hide
+ */
+final class ClientTaskCancellation implements IBinder.DeathRecipient {
+    private final CancellationSignal mCancellationSignal = new CancellationSignal();
+    private final IBinder mCallbackBinder;
+    private final long mDeadlineUptimeMillis;
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private boolean mLinked;
+
+    ClientTaskCancellation(@NonNull IBinder callbackBinder, long timeoutMillis) {
+        mCallbackBinder = callbackBinder;
+        mDeadlineUptimeMillis = SystemClock.uptimeMillis() + timeoutMillis;
+        synchronized (mLock) {
+            try {
+                mCallbackBinder.linkToDeath(this, 0);
+                mLinked = true;
+            } catch (RemoteException e) {
+                // The caller is already dead.
+                mCancellationSignal.cancel();
+            }
+        }
+    }
+
+    @Override
+    public void binderDied() {
+        mCancellationSignal.cancel();
+    }
+
+    /** Returns the signal cancelled once the caller dies, to pass to the database queries. */
+    @NonNull
+    CancellationSignal getCancellationSignal() {
+        return mCancellationSignal;
+    }
+
+    /** Returns true if the caller died, in which case the task can be dropped without a reply. */
+    boolean isCallerDead() {
+        return mCancellationSignal.isCanceled();
+    }
+
+    /** Returns true if the task didn't start before its deadline. */
+    boolean isExpired() {
+        return SystemClock.uptimeMillis() > mDeadlineUptimeMillis;
+    }
+
+    /** Stops watching the caller, to be called once the task has run or been dropped. */
+    void release() {
+        synchronized (mLock) {
+            if (mLinked) {
+                mCallbackBinder.unlinkToDeath(this, 0);
+                mLinked = false;
+            }
+        }
+    }
+}
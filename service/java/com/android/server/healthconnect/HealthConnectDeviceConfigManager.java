@@ -59,6 +59,14 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
             "max_write_requests_per_15m_foreground";
     private static final String MAX_WRITE_REQUESTS_PER_15M_BACKGROUND_FLAG =
             "max_write_requests_per_15m_background";
+    private static final String MAX_READ_COST_PER_24H_FOREGROUND_FLAG =
+            "max_read_cost_per_24h_foreground";
+    private static final String MAX_READ_COST_PER_24H_BACKGROUND_FLAG =
+            "max_read_cost_per_24h_background";
+    private static final String MAX_READ_COST_PER_15M_FOREGROUND_FLAG =
+            "max_read_cost_per_15m_foreground";
+    private static final String MAX_READ_COST_PER_15M_BACKGROUND_FLAG =
+            "max_read_cost_per_15m_background";
     private static final String MAX_WRITE_CHUNK_SIZE_FLAG = "max_write_chunk_size";
     private static final String MAX_WRITE_SINGLE_RECORD_SIZE_FLAG = "max_write_single_record_size";
 
@@ -116,6 +124,11 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
     public static final int QUOTA_BUCKET_PER_24H_FOREGROUND_DEFAULT_FLAG_VALUE = 8000;
     public static final int QUOTA_BUCKET_PER_15M_BACKGROUND_DEFAULT_FLAG_VALUE = 1000;
     public static final int QUOTA_BUCKET_PER_24H_BACKGROUND_DEFAULT_FLAG_VALUE = 8000;
+    // Read cost quotas are in resource units: rows scanned, rows returned and KiB parcelled.
+    public static final int READ_COST_PER_15M_FOREGROUND_DEFAULT_FLAG_VALUE = 1000000;
+    public static final int READ_COST_PER_24H_FOREGROUND_DEFAULT_FLAG_VALUE = 8000000;
+    public static final int READ_COST_PER_15M_BACKGROUND_DEFAULT_FLAG_VALUE = 1000000;
+    public static final int READ_COST_PER_24H_BACKGROUND_DEFAULT_FLAG_VALUE = 8000000;
     public static final int CHUNK_SIZE_LIMIT_IN_BYTES_DEFAULT_FLAG_VALUE = 5000000;
     public static final int RECORD_SIZE_LIMIT_IN_BYTES_DEFAULT_FLAG_VALUE = 1000000;
 
@@ -499,6 +512,30 @@ public class HealthConnectDeviceConfigManager implements DeviceConfig.OnProperti
                         DeviceConfig.NAMESPACE_HEALTH_FITNESS,
                         MAX_WRITE_REQUESTS_PER_15M_BACKGROUND_FLAG,
                         QUOTA_BUCKET_PER_15M_BACKGROUND_DEFAULT_FLAG_VALUE));
+        quotaBucketToMaxApiCallQuotaMap.put(
+                QuotaBucket.QUOTA_BUCKET_READ_COST_PER_24H_FOREGROUND,
+                DeviceConfig.getInt(
+                        DeviceConfig.NAMESPACE_HEALTH_FITNESS,
+                        MAX_READ_COST_PER_24H_FOREGROUND_FLAG,
+                        READ_COST_PER_24H_FOREGROUND_DEFAULT_FLAG_VALUE));
+        quotaBucketToMaxApiCallQuotaMap.put(
+                QuotaBucket.QUOTA_BUCKET_READ_COST_PER_24H_BACKGROUND,
+                DeviceConfig.getInt(
+                        DeviceConfig.NAMESPACE_HEALTH_FITNESS,
+                        MAX_READ_COST_PER_24H_BACKGROUND_FLAG,
+                        READ_COST_PER_24H_BACKGROUND_DEFAULT_FLAG_VALUE));
+        quotaBucketToMaxApiCallQuotaMap.put(
+                QuotaBucket.QUOTA_BUCKET_READ_COST_PER_15M_FOREGROUND,
+                DeviceConfig.getInt(
+                        DeviceConfig.NAMESPACE_HEALTH_FITNESS,
+                        MAX_READ_COST_PER_15M_FOREGROUND_FLAG,
+                        READ_COST_PER_15M_FOREGROUND_DEFAULT_FLAG_VALUE));
+        quotaBucketToMaxApiCallQuotaMap.put(
+                QuotaBucket.QUOTA_BUCKET_READ_COST_PER_15M_BACKGROUND,
+                DeviceConfig.getInt(
+                        DeviceConfig.NAMESPACE_HEALTH_FITNESS,
+                        MAX_READ_COST_PER_15M_BACKGROUND_FLAG,
+                        READ_COST_PER_15M_BACKGROUND_DEFAULT_FLAG_VALUE));
         quotaBucketToMaxMemoryQuotaMap.put(
                 RateLimiter.CHUNK_SIZE_LIMIT_IN_BYTES,
                 DeviceConfig.getInt(
@@ -18,7 +18,10 @@ package com.android.server.healthconnect;
 
 import android.annotation.NonNull;
 import android.annotation.Nullable;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.health.connect.HealthConnectManager;
 import android.health.connect.ratelimiter.RateLimiter;
 import android.os.Process;
@@ -26,6 +29,7 @@ import android.os.UserHandle;
 import android.os.UserManager;
 import android.util.Slog;
 
+import com.android.modules.utils.BackgroundThread;
 import com.android.server.SystemService;
 import com.android.server.healthconnect.migration.MigrationBroadcastScheduler;
 import com.android.server.healthconnect.migration.MigrationCleaner;
@@ -40,6 +44,7 @@ import com.android.server.healthconnect.permission.HealthConnectPermissionHelper
 import com.android.server.healthconnect.permission.HealthPermissionIntentAppsTracker;
 import com.android.server.healthconnect.permission.PermissionPackageChangesOrchestrator;
 import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.datatypehelpers.AccessLogsHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.DeviceInfoHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.HealthDataCategoryPriorityHelper;
@@ -122,13 +127,29 @@ public class HealthConnectManagerService extends SystemService {
 
     @Override
     public void onStart() {
+        UidImportanceTracker.getInstance().start(mContext);
         mPermissionPackageChangesOrchestrator.registerBroadcastReceiver(mContext);
         new MigratorPackageChangesReceiver(MigrationStateManager.getInitialisedInstance())
                 .registerBroadcastReceiver(mContext);
+        registerShutdownReceiver();
         publishBinderService(Context.HEALTHCONNECT_SERVICE, mHealthConnectService);
         HealthConnectDeviceConfigManager.getInitialisedInstance().updateRateLimiterValues();
     }
 
+    // Writes the buffered access logs before the device shuts down.
+    private void registerShutdownReceiver() {
+        mContext.registerReceiver(
+                new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        AccessLogsHelper.getInstance().flushAccessLogs();
+                    }
+                },
+                new IntentFilter(Intent.ACTION_SHUTDOWN),
+                null,
+                BackgroundThread.getHandler());
+    }
+
     /**
      * NOTE: Don't put any code that uses DB in onUserSwitching, such code should be part of
      * switchToSetupForUser which is only called once DB is in usable state.
@@ -142,6 +163,7 @@ public class HealthConnectManagerService extends SystemService {
         }
 
         HealthConnectThreadScheduler.shutdownThreadPools();
+        ChangeObserverRegistry.getInstance().clear();
         AppInfoHelper.getInstance().clearCache();
         DeviceInfoHelper.getInstance().clearCache();
         HealthDataCategoryPriorityHelper.getInstance().clearCache();
@@ -17,88 +17,296 @@
 package com.android.server.healthconnect;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.os.SystemClock;
+import android.util.ArraySet;
 import android.util.Log;
 
 import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 
+import java.io.PrintWriter;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.LinkedBlockingQueue;
 
 /**
- * A scheduler class to run the tasks in a Round Robin fashion based on client package names.
+ * A scheduler class to run the tasks in a Deficit Round Robin fashion based on client uids.
+ *
+ * <p>Each task comes with an estimated cost, see {@link HealthConnectTaskCost}. Every time a uid's
+ * turn comes it is credited {@link #QUANTUM}, and it runs tasks for as long as its credit covers
+ * their cost. Uids issuing cheap tasks thus get through more of them than uids issuing expensive
+ * ones, while each uid gets about the same share of work.
+ *
+ * <p>Adding tasks, which happens on every API call, only synchronizes on the queue of the calling
+ * uid. Picking the next task is done under a lock by the executor threads.
  *
  * @hide
  */
 public final class HealthConnectRoundRobinScheduler {
     private static final String TAG = "HealthConnectScheduler";
-    private final ConcurrentSkipListMap<Integer, Queue<Runnable>> mTasks =
-            new ConcurrentSkipListMap<>();
+
+    @VisibleForTesting static final long QUANTUM = 8 * HealthConnectTaskCost.DEFAULT_COST;
+
+    private final ConcurrentSkipListMap<Integer, UidTasks> mTasks = new ConcurrentSkipListMap<>();
+    private final SchedulerTaskStats mStats = new SchedulerTaskStats();
     private final Object mLock = new Object();
+    // Whether a uid can have only one task running at a time, for schedulers feeding a pool.
+    private final boolean mOneInFlightTaskPerUid;
 
     @GuardedBy("mLock")
-    private boolean mPauseScheduler;
+    private final Set<Integer> mUidsWithInFlightTask = new ArraySet<>();
+
+    private volatile boolean mPauseScheduler;
 
     @GuardedBy("mLock")
     private Integer mLastKeyUsed;
 
+    HealthConnectRoundRobinScheduler() {
+        this(/* oneInFlightTaskPerUid= */ false);
+    }
+
+    HealthConnectRoundRobinScheduler(boolean oneInFlightTaskPerUid) {
+        mOneInFlightTaskPerUid = oneInFlightTaskPerUid;
+    }
+
     void resume() {
         synchronized (mLock) {
+            // Drop tasks that raced with pausing the scheduler.
+            mTasks.clear();
             mPauseScheduler = false;
         }
     }
 
-    void addTask(int uid, Runnable task) {
+    void addTask(int uid, @NonNull Runnable task, long cost) {
+        addTask(uid, task, cost, /* cancellation= */ null);
+    }
+
+    /**
+     * Adds a task that is dropped without running if its caller dies while it is queued. The task
+     * is responsible for releasing {@code cancellation} when it runs.
+     */
+    void addTask(
+            int uid,
+            @NonNull Runnable task,
+            long cost,
+            @Nullable ClientTaskCancellation cancellation) {
+        // If the scheduler is currently paused (this can happen if the platform is doing a user
+        // switch), ignore this request. This most likely means that we won't be able to deliver
+        // the result back anyway.
+        if (mPauseScheduler) {
+            Log.e(TAG, "Unable to schedule task for uid: " + uid);
+            return;
+        }
+
+        ScheduledTask scheduledTask =
+                new ScheduledTask(
+                        task, Math.max(1, cost), SystemClock.uptimeMillis(), cancellation);
+        // A queue that became empty can be removed by getNextTask, in which case it refuses the
+        // task and a new queue is created.
+        while (!mTasks.computeIfAbsent(uid, key -> new UidTasks()).add(scheduledTask)) {}
+    }
+
+    /**
+     * Returns the next task in deficit round robin order.
+     *
+     * <p>If this scheduler allows one in flight task per uid, tasks of uids that have a task
+     * running are skipped and null is returned if all the queued tasks belong to such uids. The
+     * uid's next task becomes available once the returned task has run.
+     */
+    @Nullable
+    Runnable getNextTask() {
         synchronized (mLock) {
-            // If the scheduler is currently paused (this can happen if the platform is doing a user
-            // switch), ignore this request. This most likely means that we won't be able to deliver
-            // the result back anyway.
-            if (mPauseScheduler) {
-                Log.e(TAG, "Unable to schedule task for uid: " + uid);
-                return;
+            Map.Entry<Integer, UidTasks> entry = getNextEntryLocked();
+            if (entry == null) {
+                if (mOneInFlightTaskPerUid) {
+                    return null;
+                }
+
+                throw new InternalError("Task scheduled but none found");
             }
 
-            mTasks.putIfAbsent(uid, new LinkedBlockingQueue<>());
-            mTasks.get(uid).add(task);
+            int uid = entry.getKey();
+            UidTasks uidTasks = entry.getValue();
+            ScheduledTask scheduledTask = uidTasks.mQueue.poll();
+            uidTasks.mDeficit -= scheduledTask.mCost;
+            if (uidTasks.mQueue.isEmpty()) {
+                // Credit isn't kept while a uid has nothing to run.
+                uidTasks.mDeficit = 0;
+            }
+            mLastKeyUsed = uid;
+            if (mOneInFlightTaskPerUid) {
+                mUidsWithInFlightTask.add(uid);
+            }
+
+            return () -> {
+                long startTime = SystemClock.uptimeMillis();
+                try {
+                    scheduledTask.mTask.run();
+                } finally {
+                    long endTime = SystemClock.uptimeMillis();
+                    mStats.record(
+                            uid, startTime - scheduledTask.mEnqueueTime, endTime - startTime);
+                    if (mOneInFlightTaskPerUid) {
+                        synchronized (mLock) {
+                            mUidsWithInFlightTask.remove(uid);
+                        }
+                    }
+                }
+            };
         }
     }
 
-    @NonNull
-    Runnable getNextTask() {
+    /** Returns true if there are queued tasks that haven't been handed out yet. */
+    boolean hasPendingTasks() {
+        for (UidTasks uidTasks : mTasks.values()) {
+            if (!uidTasks.mQueue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void killTasksAndPauseScheduler() {
         synchronized (mLock) {
-            if (mLastKeyUsed == null) {
-                mLastKeyUsed = mTasks.firstKey();
+            mPauseScheduler = true;
+            mTasks.clear();
+        }
+    }
+
+    /** Dumps the queued tasks and the task timings of each uid. */
+    void dump(@NonNull PrintWriter pw, @NonNull String prefix) {
+        pw.println(prefix + "paused=" + mPauseScheduler);
+        pw.println(prefix + "queued tasks:");
+        for (Map.Entry<Integer, UidTasks> entry : mTasks.entrySet()) {
+            int queuedTasks = entry.getValue().mQueue.size();
+            if (queuedTasks > 0) {
+                pw.println(prefix + "  uid=" + entry.getKey() + " count=" + queuedTasks);
             }
+        }
+        pw.println(prefix + "task timings:");
+        mStats.dump(pw, prefix + "  ");
+    }
 
-            Map.Entry<Integer, Queue<Runnable>> entry = mTasks.higherEntry(mLastKeyUsed);
-            while (entry != null && entry.getValue().isEmpty()) {
-                mTasks.remove(entry.getKey());
-                entry = mTasks.higherEntry(entry.getKey());
+    // Returns the entry of the uid whose task runs next, and credits the uids visited on the way.
+    @GuardedBy("mLock")
+    @Nullable
+    private Map.Entry<Integer, UidTasks> getNextEntryLocked() {
+        if (mLastKeyUsed != null) {
+            // Keep serving the last uid while its credit covers its next task.
+            UidTasks uidTasks = mTasks.get(mLastKeyUsed);
+            if (uidTasks != null) {
+                dropTasksOfDeadCallersLocked(mLastKeyUsed, uidTasks);
             }
+            if (uidTasks != null && canRunLocked(mLastKeyUsed, uidTasks)) {
+                ScheduledTask nextTask = uidTasks.mQueue.peek();
+                if (nextTask != null && uidTasks.mDeficit >= nextTask.mCost) {
+                    return Map.entry(mLastKeyUsed, uidTasks);
+                }
+            }
+        }
 
+        int numberOfUids = mTasks.size();
+        int visitsWithoutRunnableTask = 0;
+        Integer key = mLastKeyUsed;
+        while (visitsWithoutRunnableTask <= numberOfUids) {
+            Map.Entry<Integer, UidTasks> entry =
+                    key == null ? mTasks.firstEntry() : mTasks.higherEntry(key);
             if (entry == null) {
-                // Reached the end, no tasks found. Reset to first entry and try again.
+                // Reached the end, start over from the first uid.
                 entry = mTasks.firstEntry();
-                while (entry != null && entry.getValue().isEmpty()) {
-                    mTasks.remove(entry.getKey());
-                    entry = mTasks.higherEntry(entry.getKey());
+                if (entry == null) {
+                    return null;
                 }
             }
+            key = entry.getKey();
+            UidTasks uidTasks = entry.getValue();
+
+            dropTasksOfDeadCallersLocked(key, uidTasks);
+            if (uidTasks.removeIfEmpty()) {
+                mTasks.remove(key, uidTasks);
+                numberOfUids--;
+                continue;
+            }
 
-            if (entry != null) {
-                mLastKeyUsed = entry.getKey();
-                return entry.getValue().poll();
+            if (!canRunLocked(key, uidTasks)) {
+                visitsWithoutRunnableTask++;
+                continue;
             }
 
-            throw new InternalError("Task scheduled but none found");
+            visitsWithoutRunnableTask = 0;
+            uidTasks.mDeficit += QUANTUM;
+            if (uidTasks.mDeficit >= uidTasks.mQueue.peek().mCost) {
+                return entry;
+            }
         }
+
+        return null;
     }
 
-    void killTasksAndPauseScheduler() {
-        synchronized (mLock) {
-            mPauseScheduler = true;
-            mTasks.clear();
+    // Drops the tasks at the head of the uid's queue whose caller has died, since their result
+    // can't be delivered.
+    @GuardedBy("mLock")
+    private void dropTasksOfDeadCallersLocked(int uid, @NonNull UidTasks uidTasks) {
+        ScheduledTask scheduledTask = uidTasks.mQueue.peek();
+        while (scheduledTask != null
+                && scheduledTask.mCancellation != null
+                && scheduledTask.mCancellation.isCallerDead()) {
+            Log.i(TAG, "Dropping task of dead caller for uid: " + uid);
+            uidTasks.mQueue.poll();
+            scheduledTask.mCancellation.release();
+            scheduledTask = uidTasks.mQueue.peek();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private boolean canRunLocked(int uid, @NonNull UidTasks uidTasks) {
+        return !uidTasks.mQueue.isEmpty()
+                && !(mOneInFlightTaskPerUid && mUidsWithInFlightTask.contains(uid));
+    }
+
+    private static final class ScheduledTask {
+        final Runnable mTask;
+        final long mCost;
+        final long mEnqueueTime;
+        @Nullable final ClientTaskCancellation mCancellation;
+
+        ScheduledTask(
+                @NonNull Runnable task,
+                long cost,
+                long enqueueTime,
+                @Nullable ClientTaskCancellation cancellation) {
+            mTask = task;
+            mCost = cost;
+            mEnqueueTime = enqueueTime;
+            mCancellation = cancellation;
+        }
+    }
+
+    private static final class UidTasks {
+        final Queue<ScheduledTask> mQueue = new ConcurrentLinkedQueue<>();
+
+        // Only accessed while holding the scheduler lock.
+        long mDeficit;
+
+        @GuardedBy("this")
+        private boolean mRemoved;
+
+        synchronized boolean add(@NonNull ScheduledTask task) {
+            if (mRemoved) {
+                return false;
+            }
+
+            mQueue.add(task);
+            return true;
+        }
+
+        // Marks the queue as removed if it is empty, after which it doesn't accept tasks.
+        synchronized boolean removeIfEmpty() {
+            mRemoved = mQueue.isEmpty();
+            return mRemoved;
         }
     }
 }
@@ -64,6 +64,7 @@ import android.health.connect.aidl.IActivityDatesResponseCallback;
 import android.health.connect.aidl.IAggregateRecordsResponseCallback;
 import android.health.connect.aidl.IApplicationInfoResponseCallback;
 import android.health.connect.aidl.IChangeLogsResponseCallback;
+import android.health.connect.aidl.IChangeObserver;
 import android.health.connect.aidl.IDataStagingFinishedCallback;
 import android.health.connect.aidl.IEmptyResponseCallback;
 import android.health.connect.aidl.IGetChangeLogTokenCallback;
@@ -130,6 +131,7 @@ import com.android.server.healthconnect.permission.DataPermissionEnforcer;
 import com.android.server.healthconnect.permission.FirstGrantTimeManager;
 import com.android.server.healthconnect.permission.HealthConnectPermissionHelper;
 import com.android.server.healthconnect.storage.AutoDeleteService;
+import com.android.server.healthconnect.storage.ResourceUsage;
 import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.datatypehelpers.AccessLogsHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.ActivityDateHelper;
@@ -146,18 +148,20 @@ import com.android.server.healthconnect.storage.request.ReadTransactionRequest;
 import com.android.server.healthconnect.storage.request.UpsertTransactionRequest;
 import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -342,7 +346,7 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                         tryAndReturnResult(callback, uuids, builder);
 
                         HealthConnectThreadScheduler.scheduleInternalTask(
-                                () -> postInsertTasks(attributionSource, recordsParcel));
+                                () -> postInsertTasks(recordsParcel));
 
                         finishDataDeliveryWriteRecords(recordInternals, attributionSource);
                         logRecordTypeSpecificUpsertMetrics(
@@ -375,23 +379,15 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                false);
+                false,
+                HealthConnectTaskCost.forRecords(recordsParcel.getRecords().size()));
     }
 
-    private void postInsertTasks(
-            @NonNull AttributionSource attributionSource, @NonNull RecordsParcel recordsParcel) {
+    private void postInsertTasks(@NonNull RecordsParcel recordsParcel) {
         Trace.traceBegin(TRACE_TAG_INSERT_SUBTASKS, TAG_INSERT.concat("PostInsertTasks"));
 
+        // The record types used by the package are updated in the insert transaction.
         ActivityDateHelper.getInstance().insertRecordDate(recordsParcel.getRecords());
-        Set<Integer> recordsTypesInsertedSet =
-                recordsParcel.getRecords().stream()
-                        .map(RecordInternal::getRecordType)
-                        .collect(Collectors.toSet());
-        // Update AppInfo table with the record types of records inserted in the request for the
-        // current package.
-        AppInfoHelper.getInstance()
-                .updateAppInfoRecordTypesUsedOnInsert(
-                        recordsTypesInsertedSet, attributionSource.getPackageName());
 
         Trace.traceEnd(TRACE_TAG_INSERT_SUBTASKS);
     }
@@ -415,9 +411,8 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                                 holdsDataManagementPermission, READ_AGGREGATED_DATA)
                         .setPackageName(attributionSource.getPackageName());
 
-        HealthConnectThreadScheduler.schedule(
-                mContext,
-                () -> {
+        HealthConnectThreadScheduler.scheduleReadTask(
+                cancellationSignal -> {
                     try {
                         enforceIsForegroundUser(userHandle);
                         verifyPackageNameFromUid(uid, attributionSource);
@@ -446,10 +441,21 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                                     isInForeground,
                                     builder);
                         }
+                        ResourceUsage resourceUsage = new ResourceUsage();
                         callback.onResult(
                                 new AggregateTransactionRequest(
-                                                attributionSource.getPackageName(), request)
-                                        .getAggregateDataResponseParcel());
+                                                attributionSource.getPackageName(),
+                                                request,
+                                                userHandle)
+                                        .getAggregateDataResponseParcel(
+                                                cancellationSignal, resourceUsage));
+                        if (!holdsDataManagementPermission) {
+                            // Only apps in foreground can aggregate.
+                            RateLimiter.recordReadCost(
+                                    uid,
+                                    /* isInForeground= */ true,
+                                    resourceUsage.getResourceUnits());
+                        }
                         finishDataDeliveryRead(recordTypesToTest, attributionSource);
                         builder.setDataTypesFromRecordTypes(recordTypesToTest)
                                 .setHealthDataServiceApiStatusSuccess();
@@ -479,7 +485,9 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                holdsDataManagementPermission);
+                holdsDataManagementPermission,
+                HealthConnectTaskCost.forAggregation(request),
+                callback.asBinder());
     }
 
     /**
@@ -505,16 +513,16 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                 new HealthConnectServiceLogger.Builder(holdsDataManagementPermission, READ_DATA)
                         .setPackageName(attributionSource.getPackageName());
 
-        HealthConnectThreadScheduler.schedule(
-                mContext,
-                () -> {
+        HealthConnectThreadScheduler.scheduleReadTask(
+                cancellationSignal -> {
                     try {
                         enforceIsForegroundUser(userHandle);
                         verifyPackageNameFromUid(uid, attributionSource);
                         throwExceptionIfDataSyncInProgress();
                         AtomicBoolean enforceSelfRead = new AtomicBoolean();
+                        boolean isInForeground = false;
                         if (!holdsDataManagementPermission) {
-                            boolean isInForeground = mAppOpsManagerLocal.isUidInForeground(uid);
+                            isInForeground = mAppOpsManagerLocal.isUidInForeground(uid);
                             // If requesting app has only write permission allowed but no read
                             // permission for the record type or if app is not in foreground then
                             // allow to read its own records.
@@ -562,6 +570,7 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                                     startDateAccess = startInstant.toEpochMilli();
                                 }
                             }
+                            ResourceUsage resourceUsage = new ResourceUsage();
                             Pair<List<RecordInternal<?>>, Long> readRecordsResponse =
                                     mTransactionManager.readRecordsAndGetNextToken(
                                             new ReadTransactionRequest(
@@ -569,7 +578,9 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                                                     request,
                                                     startDateAccess,
                                                     enforceSelfRead.get(),
-                                                    extraReadPermsToGrantState));
+                                                    extraReadPermsToGrantState),
+                                            cancellationSignal,
+                                            resourceUsage);
                             builder.setNumberOfRecords(readRecordsResponse.first.size());
                             long pageToken =
                                     request.getRecordIdFiltersParcel() == null
@@ -603,10 +614,16 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                                         .addAccessLog(packageName, recordTypes, READ);
                                 Trace.traceEnd(TRACE_TAG_READ_SUBTASKS);
                             }
+                            RecordsParcel recordsParcel =
+                                    new RecordsParcel(readRecordsResponse.first);
                             callback.onResult(
-                                    new ReadRecordsResponseParcel(
-                                            new RecordsParcel(readRecordsResponse.first),
-                                            pageToken));
+                                    new ReadRecordsResponseParcel(recordsParcel, pageToken));
+                            if (!holdsDataManagementPermission) {
+                                resourceUsage.addBytesParcelled(
+                                        recordsParcel.getRecordsChunkSize());
+                                RateLimiter.recordReadCost(
+                                        uid, isInForeground, resourceUsage.getResourceUnits());
+                            }
                             finishDataDeliveryRead(request.getRecordType(), attributionSource);
                             if (requiresLogging) {
                                 logRecordTypeSpecificReadMetrics(
@@ -667,7 +684,9 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                holdsDataManagementPermission);
+                holdsDataManagementPermission,
+                HealthConnectTaskCost.forReadRecords(request),
+                callback.asBinder());
     }
 
     /**
@@ -769,7 +788,8 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
-                false);
+                false,
+                HealthConnectTaskCost.forRecords(recordsParcel.getRecords().size()));
     }
 
     /**
@@ -850,9 +870,8 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                 new HealthConnectServiceLogger.Builder(false, GET_CHANGES)
                         .setPackageName(attributionSource.getPackageName());
 
-        HealthConnectThreadScheduler.schedule(
-                mContext,
-                () -> {
+        HealthConnectThreadScheduler.scheduleReadTask(
+                cancellationSignal -> {
                     try {
                         enforceIsForegroundUser(userHandle);
                         verifyPackageNameFromUid(uid, attributionSource);
@@ -881,22 +900,30 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                                 ChangeLogsHelper.getInstance()
                                         .getChangeLogs(changeLogsTokenRequest, token);
 
+                        ResourceUsage resourceUsage = new ResourceUsage();
                         List<RecordInternal<?>> recordInternals =
                                 mTransactionManager.readRecords(
                                         new ReadTransactionRequest(
                                                 ChangeLogsHelper.getRecordTypeToInsertedUuids(
                                                         changeLogsResponse.getChangeLogsMap()),
-                                                startDateAccess));
+                                                startDateAccess),
+                                        cancellationSignal,
+                                        resourceUsage);
                         List<DeletedLog> deletedLogs =
                                 ChangeLogsHelper.getDeletedLogs(
                                         changeLogsResponse.getChangeLogsMap());
 
+                        RecordsParcel recordsParcel = new RecordsParcel(recordInternals);
                         callback.onResult(
                                 new ChangeLogsResponse(
-                                        new RecordsParcel(recordInternals),
+                                        recordsParcel,
                                         deletedLogs,
                                         changeLogsResponse.getNextPageToken(),
                                         changeLogsResponse.hasMorePages()));
+                        resourceUsage.addRowsReturned(deletedLogs.size());
+                        resourceUsage.addBytesParcelled(recordsParcel.getRecordsChunkSize());
+                        RateLimiter.recordReadCost(
+                                uid, isInForeground, resourceUsage.getResourceUnits());
                         finishDataDeliveryRead(
                                 changeLogsTokenRequest.getRecordTypes(), attributionSource);
                         builder.setHealthDataServiceApiStatusSuccess()
@@ -940,9 +967,95 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                     }
                 },
                 uid,
+                false,
+                HealthConnectTaskCost.forRecords(token.getPageSize()),
+                callback.asBinder());
+    }
+
+    /**
+     * @hide
+     * @see HealthConnectManager#registerChangeObserver
+     */
+    @Override
+    public void registerChangeObserver(
+            @NonNull AttributionSource attributionSource,
+            @NonNull ChangeLogTokenRequest request,
+            @NonNull IChangeObserver observer,
+            @NonNull IEmptyResponseCallback callback) {
+        final int uid = Binder.getCallingUid();
+        final UserHandle userHandle = Binder.getCallingUserHandle();
+        // Registering reads the latest change log row id like getting a token, and has no api
+        // method of its own in the logged atom.
+        final HealthConnectServiceLogger.Builder builder =
+                new HealthConnectServiceLogger.Builder(false, GET_CHANGES_TOKEN)
+                        .setPackageName(attributionSource.getPackageName());
+        // Taken before queuing the registration, so that it is cancelled by an unregistration
+        // received before it runs.
+        final ChangeObserverRegistry changeObserverRegistry = ChangeObserverRegistry.getInstance();
+        final long registrationId = changeObserverRegistry.requestRegistration(observer);
+        HealthConnectThreadScheduler.schedule(
+                mContext,
+                () -> {
+                    try {
+                        enforceIsForegroundUser(userHandle);
+                        verifyPackageNameFromUid(uid, attributionSource);
+                        tryAcquireApiCallQuota(
+                                uid,
+                                QuotaCategory.QUOTA_CATEGORY_READ,
+                                mAppOpsManagerLocal.isUidInForeground(uid),
+                                builder);
+                        throwExceptionIfDataSyncInProgress();
+                        mDataPermissionEnforcer.enforceRecordIdsReadPermissions(
+                                request.getRecordTypesList(), attributionSource);
+                        changeObserverRegistry.register(
+                                uid,
+                                request.getRecordTypesList(),
+                                request.getPackageNamesToFilter(),
+                                ChangeLogsHelper.getInstance().getLatestRowId(),
+                                observer,
+                                registrationId);
+                        callback.onResult();
+                        builder.setHealthDataServiceApiStatusSuccess();
+                    } catch (SQLiteException sqLiteException) {
+                        builder.setHealthDataServiceApiStatusError(HealthConnectException.ERROR_IO);
+                        Slog.e(TAG, "SQLiteException: ", sqLiteException);
+                        tryAndThrowException(
+                                callback, sqLiteException, HealthConnectException.ERROR_IO);
+                    } catch (SecurityException securityException) {
+                        builder.setHealthDataServiceApiStatusError(ERROR_SECURITY);
+                        Slog.e(TAG, "SecurityException: ", securityException);
+                        tryAndThrowException(callback, securityException, ERROR_SECURITY);
+                    } catch (HealthConnectException healthConnectException) {
+                        builder.setHealthDataServiceApiStatusError(
+                                healthConnectException.getErrorCode());
+                        Slog.e(TAG, "HealthConnectException: ", healthConnectException);
+                        tryAndThrowException(
+                                callback,
+                                healthConnectException,
+                                healthConnectException.getErrorCode());
+                    } catch (Exception exception) {
+                        builder.setHealthDataServiceApiStatusError(ERROR_INTERNAL);
+                        Slog.e(TAG, "Exception: ", exception);
+                        tryAndThrowException(callback, exception, ERROR_INTERNAL);
+                    } finally {
+                        // Does nothing if the registration ran.
+                        changeObserverRegistry.cancelRegistration(observer, registrationId);
+                        builder.build().log();
+                    }
+                },
+                uid,
                 false);
     }
 
+    /**
+     * @hide
+     * @see HealthConnectManager#unregisterChangeObserver
+     */
+    @Override
+    public void unregisterChangeObserver(@NonNull IChangeObserver observer) {
+        ChangeObserverRegistry.getInstance().unregister(observer);
+    }
+
     /**
      * API to delete records based on {@code request}
      *
@@ -1129,15 +1242,17 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
             throw new IllegalArgumentException(
                     "Requests with both id and non-id filters are not" + " supported");
         }
-        int numberOfRecordsDeleted =
-                mTransactionManager.deleteAll(
-                        new DeleteTransactionRequest(attributionSource.getPackageName(), request)
-                                .setHasManageHealthDataPermission(
-                                        hasDataManagementPermission(uid, pid)));
+        DeleteTransactionRequest deleteTransactionRequest =
+                new DeleteTransactionRequest(attributionSource.getPackageName(), request)
+                        .setHasManageHealthDataPermission(hasDataManagementPermission(uid, pid));
+        int numberOfRecordsDeleted = mTransactionManager.deleteAll(deleteTransactionRequest);
         tryAndReturnResult(callback, builder);
         finishDataDeliveryWrite(recordTypeIdsToDelete, attributionSource);
         HealthConnectThreadScheduler.scheduleInternalTask(
-                () -> postDeleteTasks(recordTypeIdsToDelete));
+                () ->
+                        postDeleteTasks(
+                                recordTypeIdsToDelete,
+                                deleteTransactionRequest.getAppInfoIdToDeletedRecordTypes()));
 
         builder.setNumberOfRecords(numberOfRecordsDeleted)
                 .setDataTypesFromRecordTypes(recordTypeIdsToDelete);
@@ -1287,12 +1402,14 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
      * Returns information, represented by {@code ApplicationInfoResponse}, for all the packages
      * that have contributed to the health connect DB.
      *
+     * @param includeIcons Whether to read the icons of the packages, which are otherwise null.
      * @param callback Callback to receive result of performing this operation. In case of an error
      *     or a permission failure the HealthConnect service, {@link IEmptyResponseCallback#onError}
      *     will be invoked with a {@link HealthConnectException}.
      */
     @Override
-    public void getContributorApplicationsInfo(@NonNull IApplicationInfoResponseCallback callback) {
+    public void getContributorApplicationsInfo(
+            boolean includeIcons, @NonNull IApplicationInfoResponseCallback callback) {
         final int uid = Binder.getCallingUid();
         final int pid = Binder.getCallingPid();
         final UserHandle userHandle = Binder.getCallingUserHandle();
@@ -1303,7 +1420,8 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                         mContext.enforcePermission(MANAGE_HEALTH_DATA_PERMISSION, pid, uid, null);
                         throwExceptionIfDataSyncInProgress();
                         List<AppInfo> applicationInfos =
-                                AppInfoHelper.getInstance().getApplicationInfosWithRecordTypes();
+                                AppInfoHelper.getInstance()
+                                        .getApplicationInfosWithRecordTypes(includeIcons);
 
                         callback.onResult(new ApplicationInfoResponseParcel(applicationInfos));
                     } catch (SQLiteException sqLiteException) {
@@ -1364,6 +1482,43 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
      */
     @Override
     public void queryAccessLogs(@NonNull String packageName, IAccessLogsResponseCallback callback) {
+        queryAccessLogs(callback, () -> AccessLogsHelper.getInstance().queryAccessLogs());
+    }
+
+    /**
+     * @see HealthConnectManager#queryAccessLogs
+     */
+    @Override
+    public void queryRecentAccessLogs(
+            @NonNull String packageName,
+            long startTimeMillis,
+            int maxResults,
+            IAccessLogsResponseCallback callback) {
+        queryAccessLogs(
+                callback,
+                () -> {
+                    if (maxResults <= 0) {
+                        throw new IllegalArgumentException(
+                                "maxResults must be positive: " + maxResults);
+                    }
+                    return AccessLogsHelper.getInstance()
+                            .queryAccessLogs(startTimeMillis, maxResults);
+                });
+    }
+
+    /**
+     * @see HealthConnectManager#queryLatestAccessLogs
+     */
+    @Override
+    public void queryLatestAccessLogs(
+            @NonNull String packageName, IAccessLogsResponseCallback callback) {
+        queryAccessLogs(
+                callback, () -> AccessLogsHelper.getInstance().queryLatestAccessLogPerPackage());
+    }
+
+    private void queryAccessLogs(
+            @NonNull IAccessLogsResponseCallback callback,
+            @NonNull Supplier<List<AccessLog>> accessLogsSupplier) {
         final int uid = Binder.getCallingUid();
         final int pid = Binder.getCallingPid();
         final UserHandle userHandle = Binder.getCallingUserHandle();
@@ -1374,9 +1529,14 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
                         enforceIsForegroundUser(userHandle);
                         mContext.enforcePermission(MANAGE_HEALTH_DATA_PERMISSION, pid, uid, null);
                         throwExceptionIfDataSyncInProgress();
-                        final List<AccessLog> accessLogsList =
-                                AccessLogsHelper.getInstance().queryAccessLogs();
+                        final List<AccessLog> accessLogsList = accessLogsSupplier.get();
                         callback.onResult(new AccessLogsResponseParcel(accessLogsList));
+                    } catch (IllegalArgumentException illegalArgumentException) {
+                        Slog.e(TAG, "IllegalArgumentException: ", illegalArgumentException);
+                        tryAndThrowException(
+                                callback,
+                                illegalArgumentException,
+                                HealthConnectException.ERROR_INVALID_ARGUMENT);
                     } catch (SecurityException securityException) {
                         Slog.e(TAG, "SecurityException: ", securityException);
                         tryAndThrowException(callback, securityException, ERROR_SECURITY);
@@ -1759,6 +1919,17 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
         }
     }
 
+    @Override
+    protected void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter pw, String[] args) {
+        if (mContext.checkCallingOrSelfPermission(Manifest.permission.DUMP)
+                != PERMISSION_GRANTED) {
+            pw.println("Permission Denial: can't dump HealthConnectService");
+            return;
+        }
+
+        HealthConnectThreadScheduler.dump(pw);
+    }
+
     /**
      * @see HealthConnectManager#getHealthConnectMigrationUiState
      */
@@ -2125,11 +2296,14 @@ final class HealthConnectServiceImpl extends IHealthConnectService.Stub {
         }
     }
 
-    private static void postDeleteTasks(List<Integer> recordTypeIdsToDelete) {
+    private static void postDeleteTasks(
+            List<Integer> recordTypeIdsToDelete,
+            Map<Long, Set<Integer>> appInfoIdToDeletedRecordTypes) {
         Trace.traceBegin(TRACE_TAG_DELETE_SUBTASKS, TAG_INSERT.concat("PostDeleteTasks"));
+        if (!appInfoIdToDeletedRecordTypes.isEmpty()) {
+            AppInfoHelper.getInstance().syncAppInfoRecordTypesUsed(appInfoIdToDeletedRecordTypes);
+        }
         if (recordTypeIdsToDelete != null && !recordTypeIdsToDelete.isEmpty()) {
-            AppInfoHelper.getInstance()
-                    .syncAppInfoRecordTypesUsed(new HashSet<>(recordTypeIdsToDelete));
             ActivityDateHelper.getInstance().reSyncByRecordTypeIds(recordTypeIdsToDelete);
         }
         Trace.traceEnd(TRACE_TAG_DELETE_SUBTASKS);
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect;
+
+import android.annotation.NonNull;
+import android.health.connect.aidl.AggregateDataRequestParcel;
+import android.health.connect.aidl.ReadRecordsRequestParcel;
+import android.health.connect.datatypes.AggregationType;
+import android.health.connect.internal.datatypes.utils.AggregationTypeIdMapper;
+
+import java.time.Duration;
+
+/**
+ * Estimates the cost of client tasks, used by {@link HealthConnectRoundRobinScheduler} to share
+ * the executors between uids by work done rather than by number of tasks.
+ *
+ * <p>A unit of cost is about the work of reading or writing a page of records.
+ *
+ * @hide
+ */
+public final class HealthConnectTaskCost {
+    /** Cost of a task that reads or writes a handful of rows. */
+    public static final long DEFAULT_COST = 1;
+
+    static final long MAX_COST = 64;
+
+    private static final int RECORDS_PER_COST_UNIT = 100;
+    private static final long MILLIS_PER_COST_UNIT = Duration.ofDays(30).toMillis();
+
+    private HealthConnectTaskCost() {}
+
+    /** Returns the cost of a task that reads or writes {@code numberOfRecords} records. */
+    public static long forRecords(int numberOfRecords) {
+        return clamp(DEFAULT_COST + numberOfRecords / RECORDS_PER_COST_UNIT);
+    }
+
+    /** Returns the cost of a read records request. */
+    public static long forReadRecords(@NonNull ReadRecordsRequestParcel request) {
+        if (request.getRecordIdFiltersParcel() != null) {
+            return forRecords(request.getRecordIdFiltersParcel().getRecordIdFilters().size());
+        }
+
+        return forRecords(request.getPageSize());
+    }
+
+    /**
+     * Returns the cost of an aggregate request, which grows with the number of record types read
+     * by its aggregations and the width of its time range.
+     */
+    public static long forAggregation(@NonNull AggregateDataRequestParcel request) {
+        long rangeMillis = request.getEndTime() - request.getStartTime();
+        if (request.getEndTime() > request.getStartTime() && rangeMillis < 0) {
+            // Overflow of an open ended range
+            rangeMillis = Long.MAX_VALUE;
+        }
+        long costPerRecordType = DEFAULT_COST + Math.max(0, rangeMillis) / MILLIS_PER_COST_UNIT;
+
+        long cost = 0;
+        AggregationTypeIdMapper aggregationTypeIdMapper = AggregationTypeIdMapper.getInstance();
+        for (int aggregateId : request.getAggregateIds()) {
+            // Unknown ids are rejected when the task runs.
+            AggregationType<?> aggregationType =
+                    aggregationTypeIdMapper.getAggregationTypeFor(aggregateId);
+            int numberOfRecordTypes =
+                    aggregationType == null
+                            ? 1
+                            : aggregationType.getApplicableRecordTypeIds().size();
+            cost += Math.min(MAX_COST, costPerRecordType) * numberOfRecordTypes;
+        }
+        return clamp(cost);
+    }
+
+    private static long clamp(long cost) {
+        return Math.max(DEFAULT_COST, Math.min(MAX_COST, cost));
+    }
+}
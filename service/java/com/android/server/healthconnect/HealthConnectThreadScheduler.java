@@ -17,15 +17,17 @@
 package com.android.server.healthconnect;
 
 import android.annotation.NonNull;
-import android.app.ActivityManager;
 import android.content.Context;
+import android.os.CancellationSignal;
+import android.os.IBinder;
 import android.util.Slog;
 
 import com.android.internal.annotations.VisibleForTesting;
 
-import java.util.List;
-import java.util.Objects;
+import java.io.PrintWriter;
+import java.time.Duration;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -37,17 +39,38 @@ import java.util.concurrent.TimeUnit;
 public final class HealthConnectThreadScheduler {
     private static final int NUM_EXECUTOR_THREADS_INTERNAL_BACKGROUND = 1;
     private static final long KEEP_ALIVE_TIME_INTERNAL_BACKGROUND = 60L;
+    private static final int NUM_EXECUTOR_THREADS_DELAYED_INTERNAL = 1;
     private static final int NUM_EXECUTOR_THREADS_BACKGROUND = 1;
     private static final long KEEP_ALIVE_TIME_BACKGROUND = 60L;
     private static final int NUM_EXECUTOR_THREADS_FOREGROUND = 1;
     private static final long KEEP_ALIVE_TIME_SHARED = 60L;
     private static final int NUM_EXECUTOR_THREADS_CONTROLLER = 1;
     private static final long KEEP_ALIVE_TIME_CONTROLLER = 60L;
+    private static final int MAX_NUM_EXECUTOR_THREADS_READER = 4;
+    private static final int NUM_EXECUTOR_THREADS_READER =
+            Math.max(
+                    1,
+                    Math.min(
+                            MAX_NUM_EXECUTOR_THREADS_READER,
+                            Runtime.getRuntime().availableProcessors() / 2));
+    private static final long KEEP_ALIVE_TIME_READER = 60L;
+    // Read tasks still queued after this long fail without querying the database.
+    @VisibleForTesting
+    static final long READ_TASK_TIMEOUT_MILLIS = Duration.ofMinutes(1).toMillis();
 
     // Scheduler to run the tasks in a RR fashion based on client package names.
     private static final HealthConnectRoundRobinScheduler
             HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER =
                     new HealthConnectRoundRobinScheduler();
+    // Scheduler to run the read tasks in a RR fashion, with one task per uid at a time so that a
+    // single client can't occupy the whole reader pool.
+    private static final HealthConnectRoundRobinScheduler
+            HEALTH_CONNECT_READER_ROUND_ROBIN_SCHEDULER =
+                    new HealthConnectRoundRobinScheduler(/* oneInFlightTaskPerUid= */ true);
+    // Same for the read tasks of foreground apps, which the reader pool runs first.
+    private static final HealthConnectRoundRobinScheduler
+            HEALTH_CONNECT_FOREGROUND_READER_ROUND_ROBIN_SCHEDULER =
+                    new HealthConnectRoundRobinScheduler(/* oneInFlightTaskPerUid= */ true);
     private static final String TAG = "HealthConnectScheduler";
 
     // Executor to run HC background tasks
@@ -68,6 +91,10 @@ public final class HealthConnectThreadScheduler {
                     KEEP_ALIVE_TIME_INTERNAL_BACKGROUND,
                     TimeUnit.SECONDS,
                     new LinkedBlockingQueue<>());
+    // Executor to delay HC internal tasks, which then run on the internal background executor
+    @VisibleForTesting
+    static volatile ScheduledThreadPoolExecutor sDelayedInternalExecutor =
+            new ScheduledThreadPoolExecutor(NUM_EXECUTOR_THREADS_DELAYED_INTERNAL);
     // Executor to run HC tasks for clients
     @VisibleForTesting
     static volatile ThreadPoolExecutor sForegroundExecutor =
@@ -86,6 +113,15 @@ public final class HealthConnectThreadScheduler {
                     KEEP_ALIVE_TIME_CONTROLLER,
                     TimeUnit.SECONDS,
                     new LinkedBlockingQueue<>());
+    // Executor to run HC read tasks for clients, in parallel with the tasks that write
+    @VisibleForTesting
+    static volatile ThreadPoolExecutor sReaderExecutor =
+            new ThreadPoolExecutor(
+                    NUM_EXECUTOR_THREADS_READER,
+                    NUM_EXECUTOR_THREADS_READER,
+                    KEEP_ALIVE_TIME_READER,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>());
 
     public static void resetThreadPools() {
         sInternalBackgroundExecutor =
@@ -96,6 +132,9 @@ public final class HealthConnectThreadScheduler {
                         TimeUnit.SECONDS,
                         new LinkedBlockingQueue<>());
 
+        sDelayedInternalExecutor =
+                new ScheduledThreadPoolExecutor(NUM_EXECUTOR_THREADS_DELAYED_INTERNAL);
+
         sBackgroundThreadExecutor =
                 new ThreadPoolExecutor(
                         NUM_EXECUTOR_THREADS_BACKGROUND,
@@ -119,16 +158,30 @@ public final class HealthConnectThreadScheduler {
                         KEEP_ALIVE_TIME_CONTROLLER,
                         TimeUnit.SECONDS,
                         new LinkedBlockingQueue<>());
+
+        sReaderExecutor =
+                new ThreadPoolExecutor(
+                        NUM_EXECUTOR_THREADS_READER,
+                        NUM_EXECUTOR_THREADS_READER,
+                        KEEP_ALIVE_TIME_READER,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>());
         HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.resume();
+        HEALTH_CONNECT_FOREGROUND_READER_ROUND_ROBIN_SCHEDULER.resume();
+        HEALTH_CONNECT_READER_ROUND_ROBIN_SCHEDULER.resume();
     }
 
     static void shutdownThreadPools() {
         HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.killTasksAndPauseScheduler();
+        HEALTH_CONNECT_FOREGROUND_READER_ROUND_ROBIN_SCHEDULER.killTasksAndPauseScheduler();
+        HEALTH_CONNECT_READER_ROUND_ROBIN_SCHEDULER.killTasksAndPauseScheduler();
 
         sInternalBackgroundExecutor.shutdownNow();
+        sDelayedInternalExecutor.shutdownNow();
         sBackgroundThreadExecutor.shutdownNow();
         sForegroundExecutor.shutdownNow();
         sControllerExecutor.shutdownNow();
+        sReaderExecutor.shutdownNow();
     }
 
     /** Schedules the task on the executor dedicated for performing internal tasks */
@@ -136,6 +189,15 @@ public final class HealthConnectThreadScheduler {
         sInternalBackgroundExecutor.execute(getSafeRunnable(task));
     }
 
+    /**
+     * Schedules the task on the executor dedicated for performing internal tasks, once {@code
+     * delayMillis} have elapsed.
+     */
+    public static void scheduleInternalTask(Runnable task, long delayMillis) {
+        sDelayedInternalExecutor.schedule(
+                () -> scheduleInternalTask(task), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
     /** Schedules the task on the executor dedicated for performing controller tasks */
     static void scheduleControllerTask(Runnable task) {
         sControllerExecutor.execute(getSafeRunnable(task));
@@ -143,23 +205,34 @@ public final class HealthConnectThreadScheduler {
 
     /** Schedules the task on the best possible executor based on the parameters */
     static void schedule(Context context, @NonNull Runnable task, int uid, boolean isController) {
+        schedule(context, task, uid, isController, HealthConnectTaskCost.DEFAULT_COST);
+    }
+
+    /**
+     * Schedules the task on the best possible executor based on the parameters. Queued tasks run
+     * in deficit round robin order of the callers, using {@code cost} estimated by {@link
+     * HealthConnectTaskCost}.
+     */
+    static void schedule(
+            Context context, @NonNull Runnable task, int uid, boolean isController, long cost) {
         if (isController) {
             sControllerExecutor.execute(getSafeRunnable(task));
             return;
         }
 
-        if (isUidInForeground(context, uid)) {
+        UidImportanceTracker uidImportanceTracker = UidImportanceTracker.getInstance();
+        if (uidImportanceTracker.isUidInForeground(uid)) {
             sForegroundExecutor.execute(
                     getSafeRunnable(
                             () -> {
-                                if (!isUidInForeground(context, uid)) {
+                                if (!uidImportanceTracker.isUidInForeground(uid)) {
                                     // The app is no longer in foreground so move the task to
                                     // background thread. This is because foreground thread should
                                     // only be used by the foreground app and since the request of
                                     // this task is no longer in foreground we don't want it to
                                     // consume foreground resource anymore.
                                     HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.addTask(
-                                            uid, task);
+                                            uid, task, cost);
                                     sBackgroundThreadExecutor.execute(
                                             () ->
                                                     HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER
@@ -171,7 +244,7 @@ public final class HealthConnectThreadScheduler {
                                 task.run();
                             }));
         } else {
-            HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.addTask(uid, task);
+            HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.addTask(uid, task, cost);
             sBackgroundThreadExecutor.execute(
                     getSafeRunnable(
                             () ->
@@ -181,22 +254,108 @@ public final class HealthConnectThreadScheduler {
         }
     }
 
-    private static boolean isUidInForeground(Context context, int uid) {
-        ActivityManager activityManager = context.getSystemService(ActivityManager.class);
-        Objects.requireNonNull(activityManager);
-        List<ActivityManager.RunningAppProcessInfo> runningAppProcesses =
-                activityManager.getRunningAppProcesses();
-        if (runningAppProcesses == null) {
-            return false;
+    /**
+     * Schedules a task that only reads from the database, on the reader pool. The task is dropped
+     * if the process holding {@code callbackBinder} dies before it runs, and the {@link
+     * CancellationSignal} passed to it is cancelled if that process dies while it runs. If the task
+     * is still queued after {@link #READ_TASK_TIMEOUT_MILLIS} it runs with a cancelled signal, so
+     * that it reports the failure to its caller without querying the database.
+     *
+     * <p>Tasks of apps in foreground when scheduled run before the tasks of other apps. As each
+     * uid has only one task running at a time, a foreground app can't hold up the others.
+     */
+    static void scheduleReadTask(
+            @NonNull CancellableTask task,
+            int uid,
+            boolean isController,
+            long cost,
+            @NonNull IBinder callbackBinder) {
+        ClientTaskCancellation cancellation =
+                new ClientTaskCancellation(callbackBinder, READ_TASK_TIMEOUT_MILLIS);
+        Runnable runnable =
+                () -> {
+                    try {
+                        if (cancellation.isCallerDead()) {
+                            Slog.i(TAG, "Dropping task of dead caller for uid: " + uid);
+                            return;
+                        }
+                        if (cancellation.isExpired()) {
+                            Slog.w(TAG, "Read task expired in queue for uid: " + uid);
+                            cancellation.getCancellationSignal().cancel();
+                        }
+                        task.run(cancellation.getCancellationSignal());
+                    } finally {
+                        cancellation.release();
+                    }
+                };
+
+        if (isController) {
+            sControllerExecutor.execute(getSafeRunnable(runnable));
+            return;
+        }
+
+        HealthConnectRoundRobinScheduler scheduler =
+                UidImportanceTracker.getInstance().isUidInForeground(uid)
+                        ? HEALTH_CONNECT_FOREGROUND_READER_ROUND_ROBIN_SCHEDULER
+                        : HEALTH_CONNECT_READER_ROUND_ROBIN_SCHEDULER;
+        scheduler.addTask(uid, runnable, cost, cancellation);
+        sReaderExecutor.execute(getSafeRunnable(HealthConnectThreadScheduler::runNextReadTask));
+    }
+
+    /** Dumps the state of the executors and the client task queues. */
+    static void dump(@NonNull PrintWriter pw) {
+        pw.println("HealthConnectThreadScheduler:");
+        dumpExecutor(pw, "Internal background executor", sInternalBackgroundExecutor);
+        dumpExecutor(pw, "Delayed internal executor", sDelayedInternalExecutor);
+        dumpExecutor(pw, "Controller executor", sControllerExecutor);
+        dumpExecutor(pw, "Foreground executor", sForegroundExecutor);
+        dumpExecutor(pw, "Background executor", sBackgroundThreadExecutor);
+        HEALTH_CONNECT_BACKGROUND_ROUND_ROBIN_SCHEDULER.dump(pw, "    ");
+        dumpExecutor(pw, "Reader executor", sReaderExecutor);
+        pw.println("    Foreground reads:");
+        HEALTH_CONNECT_FOREGROUND_READER_ROUND_ROBIN_SCHEDULER.dump(pw, "      ");
+        pw.println("    Other reads:");
+        HEALTH_CONNECT_READER_ROUND_ROBIN_SCHEDULER.dump(pw, "      ");
+    }
+
+    private static void dumpExecutor(
+            @NonNull PrintWriter pw, @NonNull String name, @NonNull ThreadPoolExecutor executor) {
+        pw.println(
+                "  "
+                        + name
+                        + ": active="
+                        + executor.getActiveCount()
+                        + " queued="
+                        + executor.getQueue().size()
+                        + " completed="
+                        + executor.getCompletedTaskCount());
+    }
+
+    private static void runNextReadTask() {
+        Runnable task = HEALTH_CONNECT_FOREGROUND_READER_ROUND_ROBIN_SCHEDULER.getNextTask();
+        if (task == null) {
+            task = HEALTH_CONNECT_READER_ROUND_ROBIN_SCHEDULER.getNextTask();
+        }
+        if (task == null) {
+            // All the queued tasks belong to uids with a task running, they are picked up once
+            // those finish.
+            return;
         }
-        for (ActivityManager.RunningAppProcessInfo info : runningAppProcesses) {
-            if (info.uid == uid
-                    && info.importance
-                            == ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND) {
-                return true;
+
+        try {
+            task.run();
+        } finally {
+            if (HEALTH_CONNECT_FOREGROUND_READER_ROUND_ROBIN_SCHEDULER.hasPendingTasks()
+                    || HEALTH_CONNECT_READER_ROUND_ROBIN_SCHEDULER.hasPendingTasks()) {
+                sReaderExecutor.execute(
+                        getSafeRunnable(HealthConnectThreadScheduler::runNextReadTask));
             }
         }
-        return false;
+    }
+
+    /** A client task that stops its database queries once its cancellation signal is cancelled. */
+    interface CancellableTask {
+        void run(@NonNull CancellationSignal cancellationSignal);
     }
 
     // Makes sure that any exceptions don't end up in system_server.
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect;
+
+import android.annotation.NonNull;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per uid histograms of how long scheduled tasks wait in the queue and how long they run, for
+ * dumpsys. Recording doesn't take any lock.
+ *
+ * @hide
+ */
+final class SchedulerTaskStats {
+    // Bucket i counts the durations in [2^(i-1), 2^i) ms, bucket 0 the ones below 1 ms and the
+    // last bucket everything from about 16 seconds.
+    private static final int NUM_BUCKETS = 16;
+
+    private final Map<Integer, UidStats> mUidStats = new ConcurrentSkipListMap<>();
+
+    void record(int uid, long queueWaitMillis, long executionMillis) {
+        UidStats uidStats = mUidStats.computeIfAbsent(uid, key -> new UidStats());
+        uidStats.mQueueWait.incrementAndGet(getBucket(queueWaitMillis));
+        uidStats.mExecution.incrementAndGet(getBucket(executionMillis));
+    }
+
+    void dump(@NonNull PrintWriter pw, @NonNull String prefix) {
+        for (Map.Entry<Integer, UidStats> entry : mUidStats.entrySet()) {
+            pw.println(prefix + "uid=" + entry.getKey());
+            dumpHistogram(pw, prefix + "  queue wait: ", entry.getValue().mQueueWait);
+            dumpHistogram(pw, prefix + "  execution: ", entry.getValue().mExecution);
+        }
+    }
+
+    void clear() {
+        mUidStats.clear();
+    }
+
+    private static void dumpHistogram(
+            @NonNull PrintWriter pw, @NonNull String prefix, @NonNull AtomicLongArray histogram) {
+        long[] counts = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+            total += counts[i];
+        }
+
+        pw.println(
+                prefix
+                        + "count="
+                        + total
+                        + " p50<"
+                        + getPercentileUpperBoundMillis(counts, total, 50)
+                        + "ms p95<"
+                        + getPercentileUpperBoundMillis(counts, total, 95)
+                        + "ms p99<"
+                        + getPercentileUpperBoundMillis(counts, total, 99)
+                        + "ms");
+    }
+
+    private static String getPercentileUpperBoundMillis(long[] counts, long total, int percentile) {
+        long rank = Math.max(1, (percentile * total + 99) / 100);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS - 1; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return String.valueOf(1L << i);
+            }
+        }
+        return "inf";
+    }
+
+    private static int getBucket(long millis) {
+        if (millis < 1) {
+            return 0;
+        }
+        return Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+    }
+
+    private static final class UidStats {
+        final AtomicLongArray mQueueWait = new AtomicLongArray(NUM_BUCKETS);
+        final AtomicLongArray mExecution = new AtomicLongArray(NUM_BUCKETS);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect;
+
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_GONE;
+
+import android.annotation.NonNull;
+import android.app.ActivityManager;
+import android.content.Context;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the importance of uids, so that checking whether a caller is in foreground is a map
+ * lookup rather than an enumeration of the running processes.
+ *
+ * @hide
+ */
+public final class UidImportanceTracker {
+    private static volatile UidImportanceTracker sUidImportanceTracker;
+
+    private final Map<Integer, Integer> mUidToImportance = new ConcurrentHashMap<>();
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private boolean mStarted;
+
+    private UidImportanceTracker() {}
+
+    /**
+     * Starts tracking the importance of uids. The initial state is read from the running processes,
+     * and then kept up to date by an importance listener.
+     */
+    public void start(@NonNull Context context) {
+        synchronized (mLock) {
+            if (mStarted) {
+                return;
+            }
+
+            ActivityManager activityManager = context.getSystemService(ActivityManager.class);
+            Objects.requireNonNull(activityManager);
+            // Register first so that no change is missed between reading the running processes
+            // and listening to changes.
+            activityManager.addOnUidImportanceListener(
+                    this::onUidImportance, IMPORTANCE_FOREGROUND);
+            List<ActivityManager.RunningAppProcessInfo> runningAppProcesses =
+                    activityManager.getRunningAppProcesses();
+            if (runningAppProcesses != null) {
+                Map<Integer, Integer> uidToImportance = new ArrayMap<>();
+                for (ActivityManager.RunningAppProcessInfo info : runningAppProcesses) {
+                    uidToImportance.merge(info.uid, info.importance, Math::min);
+                }
+                // Changes reported by the listener since registering are more recent.
+                uidToImportance.forEach(mUidToImportance::putIfAbsent);
+            }
+            mStarted = true;
+        }
+    }
+
+    /** Returns true if {@code uid} currently has foreground importance. */
+    public boolean isUidInForeground(int uid) {
+        return mUidToImportance.getOrDefault(uid, IMPORTANCE_GONE) == IMPORTANCE_FOREGROUND;
+    }
+
+    @VisibleForTesting
+    void onUidImportance(int uid, int importance) {
+        if (importance == IMPORTANCE_GONE) {
+            mUidToImportance.remove(uid);
+        } else {
+            mUidToImportance.put(uid, importance);
+        }
+    }
+
+    @NonNull
+    public static synchronized UidImportanceTracker getInstance() {
+        if (sUidImportanceTracker == null) {
+            sUidImportanceTracker = new UidImportanceTracker();
+        }
+
+        return sUidImportanceTracker;
+    }
+}
@@ -336,22 +336,42 @@ public final class BackupRestore {
                 stageRemoteDataRequest.getPfdsByFileName();
 
         var backupFilesByFileNames = getBackupFilesByFileNames(userHandle);
+        try {
+            // The database file is copied on its own, so it must not miss transactions still in the
+            // write-ahead log, nor change during the copy.
+            TransactionManager.getInitialisedInstance()
+                    .runWithCheckpointedDatabase(
+                            () -> sendBackupFiles(pfdsByFileName, backupFilesByFileNames));
+        } catch (IllegalStateException e) {
+            Slog.e(TAG, "Failed to checkpoint the database for backup", e);
+            pfdsByFileName.forEach(this::closeBackupFile);
+        }
+    }
+
+    private void sendBackupFiles(
+            Map<String, ParcelFileDescriptor> pfdsByFileName,
+            Map<String, File> backupFilesByFileNames) {
         pfdsByFileName.forEach(
-                (fileName, pfd) -> {
-                    Path sourceFilePath = backupFilesByFileNames.get(fileName).toPath();
-                    try (FileOutputStream outputStream =
-                            new FileOutputStream(pfd.getFileDescriptor())) {
-                        Files.copy(sourceFilePath, outputStream);
-                    } catch (IOException | SecurityException e) {
-                        Slog.e(TAG, "Failed to send " + fileName + " for backup", e);
-                    } finally {
-                        try {
-                            pfd.close();
-                        } catch (IOException e) {
-                            Slog.e(TAG, "Failed to close " + fileName + " for backup", e);
-                        }
-                    }
-                });
+                (fileName, pfd) ->
+                        sendBackupFile(fileName, backupFilesByFileNames.get(fileName), pfd));
+    }
+
+    private void sendBackupFile(String fileName, File sourceFile, ParcelFileDescriptor pfd) {
+        try (FileOutputStream outputStream = new FileOutputStream(pfd.getFileDescriptor())) {
+            Files.copy(sourceFile.toPath(), outputStream);
+        } catch (IOException | SecurityException e) {
+            Slog.e(TAG, "Failed to send " + fileName + " for backup", e);
+        } finally {
+            closeBackupFile(fileName, pfd);
+        }
+    }
+
+    private void closeBackupFile(String fileName, ParcelFileDescriptor pfd) {
+        try {
+            pfd.close();
+        } catch (IOException e) {
+            Slog.e(TAG, "Failed to close " + fileName + " for backup", e);
+        }
     }
 
     /** Get the file names of all the files that are transported during backup / restore. */
@@ -972,6 +992,8 @@ public final class BackupRestore {
             for (var recordTypeMapEntry : recordTypeMap.entrySet()) {
                 mergeRecordsOfType(recordTypeMapEntry.getKey(), recordTypeMapEntry.getValue());
             }
+            // Merged records don't update the record types used by their packages.
+            AppInfoHelper.getInstance().syncAppInfoRecordTypesUsed();
 
             // Delete the staged db as we are done merging.
             Slog.i(TAG, "Deleting staged db after merging.");
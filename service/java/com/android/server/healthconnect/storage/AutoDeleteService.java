@@ -16,6 +16,7 @@
 
 package com.android.server.healthconnect.storage;
 
+import android.annotation.NonNull;
 import android.util.Slog;
 
 import com.android.server.healthconnect.storage.datatypehelpers.AccessLogsHelper;
@@ -28,7 +29,9 @@ import com.android.server.healthconnect.storage.request.DeleteTableRequest;
 import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A service that is run periodically to handle deletion of stale entries in HC DB.
@@ -60,11 +63,14 @@ public class AutoDeleteService {
         try {
             // Only do transactional operations here - as this job might get cancelled for several
             // reasons, such as: User switch, low battery etc.
-            deleteStaleRecordEntries();
+            Set<Integer> recordTypesDeleted = deleteStaleRecordEntries();
             deleteStaleChangeLogEntries();
+            compactChangeLogEntries();
             deleteStaleAccessLogEntries();
             // Update the recordTypesUsed by packages if required after the deletion of records.
-            AppInfoHelper.getInstance().syncAppInfoRecordTypesUsed();
+            if (!recordTypesDeleted.isEmpty()) {
+                AppInfoHelper.getInstance().syncAppInfoRecordTypesUsed(recordTypesDeleted);
+            }
             // Re-sync activity dates table
             ActivityDateHelper.getInstance().reSyncForAllRecords();
         } catch (Exception e) {
@@ -73,7 +79,9 @@ public class AutoDeleteService {
         }
     }
 
-    private static void deleteStaleRecordEntries() {
+    /** Returns the record types of which records have been deleted. */
+    @NonNull
+    private static Set<Integer> deleteStaleRecordEntries() {
         String recordAutoDeletePeriodString =
                 PreferenceHelper.getInstance().getPreference(AUTO_DELETE_DURATION_RECORDS_KEY);
         int recordAutoDeletePeriod =
@@ -94,13 +102,14 @@ public class AutoDeleteService {
                                 deleteTableRequests.add(request);
                             });
             try {
-                TransactionManager.getInitialisedInstance()
+                return TransactionManager.getInitialisedInstance()
                         .deleteWithoutChangeLogs(deleteTableRequests);
             } catch (Exception exception) {
                 Slog.e(TAG, "Auto delete for records failed", exception);
                 // Don't rethrow as that will crash system_server
             }
         }
+        return Collections.emptySet();
     }
 
     private static void deleteStaleChangeLogEntries() {
@@ -117,6 +126,15 @@ public class AutoDeleteService {
         }
     }
 
+    private static void compactChangeLogEntries() {
+        try {
+            ChangeLogsHelper.getInstance().compactChangeLogs();
+        } catch (Exception exception) {
+            Slog.e(TAG, "Compaction of Change logs failed", exception);
+            // Don't rethrow as that will crash system_server
+        }
+    }
+
     private static void deleteStaleAccessLogEntries() {
         try {
             TransactionManager.getInitialisedInstance()
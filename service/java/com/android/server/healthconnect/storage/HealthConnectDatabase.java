@@ -52,14 +52,24 @@ public class HealthConnectDatabase extends SQLiteOpenHelper {
     public static final int DB_VERSION_UUID_BLOB = 9;
 
     public static final int DB_VERSION_GENERATED_LOCAL_TIME = 10;
+
+    public static final int DB_VERSION_SERIES_SUMMARY = 11;
+
+    public static final int DB_VERSION_SESSION_EXCLUDED_DURATION = 12;
+
+    public static final int DB_VERSION_CHANGE_LOGS_COMPOSITE_INDEX = 13;
+
+    public static final int DB_VERSION_ACCESS_LOGS_INDEXES = 14;
     private static final String TAG = "HealthConnectDatabase";
-    private static final int DATABASE_VERSION = 10;
+    private static final int DATABASE_VERSION = 14;
     private static final String DATABASE_NAME = "healthconnect.db";
     @NonNull private final Collection<RecordHelper<?>> mRecordHelpers;
     private final Context mContext;
 
     public HealthConnectDatabase(@NonNull Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Lets reads run on several connections in parallel with the single writer connection.
+        setWriteAheadLoggingEnabled(true);
         mRecordHelpers = RecordHelperProvider.getInstance().getRecordHelpers().values();
         mContext = context;
     }
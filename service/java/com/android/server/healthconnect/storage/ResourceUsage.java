@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage;
+
+/**
+ * Accumulates the resources used by a read call, to charge the caller by what the call cost rather
+ * than by the number of calls.
+ *
+ * @hide
+ */
+public final class ResourceUsage {
+    // Parcelled bytes charged as one resource unit, the same as one row scanned or returned.
+    private static final long BYTES_PER_RESOURCE_UNIT = 1024;
+
+    private long mRowsScanned;
+    private long mRowsReturned;
+    private long mBytesParcelled;
+
+    /** Adds {@code rows} rows read from the database. */
+    public void addRowsScanned(long rows) {
+        mRowsScanned += rows;
+    }
+
+    /** Adds {@code rows} rows returned to the caller. */
+    public void addRowsReturned(long rows) {
+        mRowsReturned += rows;
+    }
+
+    /** Adds {@code bytes} bytes of response parcelled to the caller. */
+    public void addBytesParcelled(long bytes) {
+        mBytesParcelled += bytes;
+    }
+
+    public long getRowsScanned() {
+        return mRowsScanned;
+    }
+
+    public long getRowsReturned() {
+        return mRowsReturned;
+    }
+
+    public long getBytesParcelled() {
+        return mBytesParcelled;
+    }
+
+    /** Returns the resource units used, as charged by the read cost quotas. */
+    public long getResourceUnits() {
+        return mRowsScanned
+                + mRowsReturned
+                + (mBytesParcelled + BYTES_PER_RESOURCE_UNIT - 1) / BYTES_PER_RESOURCE_UNIT;
+    }
+}
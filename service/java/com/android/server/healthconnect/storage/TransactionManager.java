@@ -20,28 +20,40 @@ import static android.health.connect.Constants.DEFAULT_LONG;
 import static android.health.connect.Constants.DEFAULT_PAGE_SIZE;
 import static android.health.connect.Constants.PARENT_KEY;
 import static android.health.connect.HealthConnectException.ERROR_INTERNAL;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_UNKNOWN;
 
 import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.APP_INFO_ID_COLUMN_NAME;
 import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.PRIMARY_COLUMN_NAME;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.health.connect.Constants;
 import android.health.connect.HealthConnectException;
+import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.RecordInternal;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
 import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Pair;
 import android.util.Slog;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.healthconnect.HealthConnectUserContext;
+import com.android.server.healthconnect.storage.datatypehelpers.AccessLogsHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.RecordHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.aggregation.AggregationResultCache;
 import com.android.server.healthconnect.storage.request.AggregateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTransactionRequest;
@@ -51,12 +63,15 @@ import com.android.server.healthconnect.storage.request.UpsertTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTransactionRequest;
 import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
+import com.android.server.healthconnect.utils.SingleFlight;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -73,6 +88,15 @@ public final class TransactionManager {
     private static final String TAG = "HealthConnectTransactionMan";
     private static final ConcurrentHashMap<UserHandle, HealthConnectDatabase>
             mUserHandleToDatabaseMap = new ConcurrentHashMap<>();
+    // Identical reads running concurrently share the queries of the first one.
+    private static final SingleFlight<List<Object>, Pair<List<RecordInternal<?>>, Long>>
+            IN_FLIGHT_READS = new SingleFlight<>();
+    // Estimated size at which a read page is cut short, so that pages of sessions with long routes
+    // or of long series stay bounded. Larger than the binder limit as small records would otherwise
+    // need many more pages.
+    private static final long MAX_READ_PAGE_SIZE_BYTES = 1024 * 1024;
+    private static final int CHECKPOINT_MAX_ATTEMPTS = 5;
+    private static final long CHECKPOINT_RETRY_DELAY_MILLIS = 100;
     private static volatile TransactionManager sTransactionManager;
     private volatile HealthConnectDatabase mHealthConnectDatabase;
 
@@ -91,6 +115,8 @@ public final class TransactionManager {
 
         mHealthConnectDatabase =
                 mUserHandleToDatabaseMap.get(healthConnectUserContext.getCurrentUserHandle());
+        ChangeLogsHelper.getInstance().clearCache();
+        AggregationResultCache.getInstance().invalidateAll();
     }
 
     /**
@@ -107,29 +133,42 @@ public final class TransactionManager {
         }
 
         final SQLiteDatabase db = getWritableDb();
+        final Map<Integer, Long> changeLogRowIds = new ArrayMap<>();
+        final AppInfoHelper.RecordTypesUsedUpdate recordTypesUsedUpdate =
+                request.getRecordTypesUsedUpdate();
         db.beginTransaction();
         try {
             for (UpsertTableRequest upsertRequest : request.getUpsertRequests()) {
                 insertOrReplaceRecord(db, upsertRequest);
             }
-            for (UpsertTableRequest insertRequestsForChangeLog :
-                    request.getInsertRequestsForChangeLogs()) {
-                insertRecord(db, insertRequestsForChangeLog);
-            }
+            insertChangeLogs(db, request.getInsertRequestsForChangeLogs(), changeLogRowIds);
 
             for (UpsertTableRequest insertRequestsForAccessLogs : request.getAccessLogs()) {
                 insertRecord(db, insertRequestsForAccessLogs);
             }
 
+            if (recordTypesUsedUpdate != null) {
+                recordTypesUsedUpdate.writeTo(db);
+            }
+
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
         }
+        ChangeLogsHelper.getInstance().onChangeLogsCommitted(changeLogRowIds);
+        if (recordTypesUsedUpdate != null) {
+            recordTypesUsedUpdate.onCommitted();
+        }
 
         return request.getUUIdsInOrder();
     }
 
-    /** Ignores if a record is already present. */
+    /**
+     * Ignores if a record is already present.
+     *
+     * <p>NOTE: No change logs are generated for these inserts, so cached aggregation results are
+     * dropped.
+     */
     public void insertAll(@NonNull List<UpsertTableRequest> requests) throws SQLiteException {
         final SQLiteDatabase db = getWritableDb();
         db.beginTransaction();
@@ -140,6 +179,7 @@ public final class TransactionManager {
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
+            AggregationResultCache.getInstance().invalidateAll();
         }
     }
 
@@ -181,6 +221,7 @@ public final class TransactionManager {
      */
     public int deleteAll(@NonNull DeleteTransactionRequest request) throws SQLiteException {
         final SQLiteDatabase db = getWritableDb();
+        final Map<Integer, Long> changeLogRowIds = new ArrayMap<>();
         db.beginTransaction();
         int numberOfRecordsDeleted = 0;
         try {
@@ -190,7 +231,12 @@ public final class TransactionManager {
                     Delete request needs UUID before the entry can be
                     deleted, fetch and set it in {@code request}
                     */
-                    try (Cursor cursor = db.rawQuery(deleteTableRequest.getReadCommand(), null)) {
+                    try (Cursor cursor =
+                            rawQuery(
+                                    db,
+                                    deleteTableRequest.getReadCommand(),
+                                    deleteTableRequest.getBindArgs(),
+                                    /* cancellationSignal= */ null)) {
                         int numberOfUuidsToDelete = 0;
                         while (cursor.moveToNext()) {
                             numberOfUuidsToDelete++;
@@ -212,16 +258,21 @@ public final class TransactionManager {
                     }
                 }
                 numberOfRecordsDeleted += deleteTableRequest.getTotalNumberOfRecordsDeleted();
-                db.execSQL(deleteTableRequest.getDeleteCommand());
+                db.execSQL(deleteTableRequest.getDeleteCommand(), deleteTableRequest.getBindArgs());
             }
 
-            request.getChangeLogUpsertRequests()
-                    .forEach((insertRequest) -> insertRecord(db, insertRequest));
+            insertChangeLogs(db, request.getChangeLogUpsertRequests(), changeLogRowIds);
 
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
+            if (changeLogRowIds.isEmpty()) {
+                // Deletes using filters don't write change logs, which the cached aggregation
+                // results are versioned by.
+                AggregationResultCache.getInstance().invalidateAll();
+            }
         }
+        ChangeLogsHelper.getInstance().onChangeLogsCommitted(changeLogRowIds);
         return numberOfRecordsDeleted;
     }
 
@@ -232,15 +283,40 @@ public final class TransactionManager {
      */
     @NonNull
     public void populateWithAggregation(AggregateTableRequest aggregateTableRequest) {
+        populateWithAggregation(
+                aggregateTableRequest, /* cancellationSignal= */ null, /* resourceUsage= */ null);
+    }
+
+    /**
+     * Handles the aggregation requests for {@code aggregateTableRequest}
+     *
+     * @param aggregateTableRequest an aggregate request.
+     * @param cancellationSignal stops the aggregation queries when cancelled, which then throw
+     *     {@link android.os.OperationCanceledException}.
+     * @param resourceUsage if not null, the rows fetched by the queries are added to it.
+     */
+    public void populateWithAggregation(
+            AggregateTableRequest aggregateTableRequest,
+            @Nullable CancellationSignal cancellationSignal,
+            @Nullable ResourceUsage resourceUsage) {
         final SQLiteDatabase db = getReadableDb();
         if (!aggregateTableRequest.getRecordHelper().isRecordOperationsEnabled()) {
             return;
         }
-        try (Cursor cursor = db.rawQuery(aggregateTableRequest.getAggregationCommand(), null);
+        try (Cursor cursor =
+                        db.rawQuery(
+                                aggregateTableRequest.getAggregationCommand(),
+                                null,
+                                cancellationSignal);
                 Cursor metaDataCursor =
                         db.rawQuery(
-                                aggregateTableRequest.getCommandToFetchAggregateMetadata(), null)) {
+                                aggregateTableRequest.getCommandToFetchAggregateMetadata(),
+                                null,
+                                cancellationSignal)) {
             aggregateTableRequest.onResultsFetched(cursor, metaDataCursor);
+            if (resourceUsage != null) {
+                resourceUsage.addRowsScanned(cursor.getCount() + metaDataCursor.getCount());
+            }
         }
     }
 
@@ -252,12 +328,29 @@ public final class TransactionManager {
      */
     public List<RecordInternal<?>> readRecords(@NonNull ReadTransactionRequest request)
             throws SQLiteException {
+        return readRecords(request, /* cancellationSignal= */ null, /* resourceUsage= */ null);
+    }
+
+    /**
+     * Reads the records {@link RecordInternal} stored in the HealthConnect database.
+     *
+     * @param request a read request.
+     * @param cancellationSignal stops the reads when cancelled, which then throw {@link
+     *     android.os.OperationCanceledException}.
+     * @param resourceUsage if not null, the rows scanned and returned are added to it.
+     * @return List of records read {@link RecordInternal} from table based on ids.
+     */
+    public List<RecordInternal<?>> readRecords(
+            @NonNull ReadTransactionRequest request,
+            @Nullable CancellationSignal cancellationSignal,
+            @Nullable ResourceUsage resourceUsage)
+            throws SQLiteException {
         List<RecordInternal<?>> recordInternals = new ArrayList<>();
         request.getReadRequests()
                 .forEach(
                         (readTableRequest -> {
                             if (readTableRequest.getRecordHelper().isRecordOperationsEnabled()) {
-                                try (Cursor cursor = read(readTableRequest)) {
+                                try (Cursor cursor = read(readTableRequest, cancellationSignal)) {
                                     Objects.requireNonNull(readTableRequest.getRecordHelper());
                                     List<RecordInternal<?>> internalRecords =
                                             readTableRequest
@@ -265,12 +358,21 @@ public final class TransactionManager {
                                                     .getInternalRecords(cursor, DEFAULT_PAGE_SIZE);
 
                                     populateInternalRecordsWithExtraData(
-                                            internalRecords, readTableRequest);
+                                            internalRecords,
+                                            readTableRequest,
+                                            cancellationSignal,
+                                            resourceUsage);
+                                    if (resourceUsage != null) {
+                                        resourceUsage.addRowsScanned(cursor.getCount());
+                                    }
 
                                     recordInternals.addAll(internalRecords);
                                 }
                             }
                         }));
+        if (resourceUsage != null) {
+            resourceUsage.addRowsReturned(recordInternals.size());
+        }
         return recordInternals;
     }
 
@@ -284,33 +386,146 @@ public final class TransactionManager {
      */
     public Pair<List<RecordInternal<?>>, Long> readRecordsAndGetNextToken(
             @NonNull ReadTransactionRequest request) throws SQLiteException {
+        return readRecordsAndGetNextToken(
+                request, /* cancellationSignal= */ null, /* resourceUsage= */ null);
+    }
+
+    /**
+     * Reads the records {@link RecordInternal} stored in the HealthConnect database and returns the
+     * max row_id as next page token.
+     *
+     * @param request a read request.
+     * @param cancellationSignal stops the reads when cancelled, which then throw {@link
+     *     android.os.OperationCanceledException}.
+     * @param resourceUsage if not null, the rows scanned and returned are added to it. Rows are
+     *     only scanned by the caller running the queries shared by identical concurrent reads.
+     * @return Pair containing records list read {@link RecordInternal} from the table and a next
+     *     page token for pagination
+     */
+    public Pair<List<RecordInternal<?>>, Long> readRecordsAndGetNextToken(
+            @NonNull ReadTransactionRequest request,
+            @Nullable CancellationSignal cancellationSignal,
+            @Nullable ResourceUsage resourceUsage)
+            throws SQLiteException {
         // throw an exception if read requested is not for a single record type
         // i.e. size of read table request is not equal to 1.
         if (request.getReadRequests().size() != 1) {
             throw new IllegalArgumentException("Read requested is not for a single record type");
         }
-        List<RecordInternal<?>> recordInternalList;
-        long token = DEFAULT_LONG;
         ReadTableRequest readTableRequest = request.getReadRequests().get(0);
         RecordHelper<?> helper = readTableRequest.getRecordHelper();
         Objects.requireNonNull(helper);
         if (!helper.isRecordOperationsEnabled()) {
-            recordInternalList = new ArrayList<>(0);
-            return Pair.create(recordInternalList, token);
+            return Pair.create(new ArrayList<>(0), DEFAULT_LONG);
+        }
+
+        // Reads by ids have no next page, so they can't be cut short by the page size estimate.
+        long maxPageSizeBytes =
+                request.hasRecordIdFilters() ? Long.MAX_VALUE : MAX_READ_PAGE_SIZE_BYTES;
+        Pair<List<RecordInternal<?>>, Long> recordsAndToken =
+                IN_FLIGHT_READS.execute(
+                        getReadKey(readTableRequest, maxPageSizeBytes),
+                        () ->
+                                readPageAndGetNextToken(
+                                        readTableRequest,
+                                        maxPageSizeBytes,
+                                        cancellationSignal,
+                                        resourceUsage));
+        if (resourceUsage != null) {
+            resourceUsage.addRowsReturned(recordsAndToken.first.size());
         }
+        // Each caller gets its own list, the records themselves are shared and only read from.
+        return Pair.create(new ArrayList<>(recordsAndToken.first), recordsAndToken.second);
+    }
 
-        try (Cursor cursor = read(readTableRequest)) {
-            recordInternalList = helper.getInternalRecords(cursor, readTableRequest.getPageSize());
+    private Pair<List<RecordInternal<?>>, Long> readPageAndGetNextToken(
+            @NonNull ReadTableRequest readTableRequest,
+            long maxPageSizeBytes,
+            @Nullable CancellationSignal cancellationSignal,
+            @Nullable ResourceUsage resourceUsage) {
+        RecordHelper<?> helper = readTableRequest.getRecordHelper();
+        List<RecordInternal<?>> recordInternalList;
+        long token = DEFAULT_LONG;
+        try (Cursor cursor = read(readTableRequest, cancellationSignal)) {
+            recordInternalList =
+                    helper.getInternalRecords(
+                            cursor,
+                            readTableRequest.getPageSize(),
+                            maxPageSizeBytes,
+                            /* packageNamesByAppIds= */ null);
             String startTimeColumnName = helper.getStartTimeColumnName();
 
-            populateInternalRecordsWithExtraData(recordInternalList, readTableRequest);
+            populateInternalRecordsWithExtraData(
+                    recordInternalList, readTableRequest, cancellationSignal, resourceUsage);
             if (cursor.moveToNext()) {
                 token = getCursorLong(cursor, startTimeColumnName);
             }
+            if (resourceUsage != null) {
+                resourceUsage.addRowsScanned(cursor.getCount());
+            }
         }
         return Pair.create(recordInternalList, token);
     }
 
+    // Identifies the reads returning the same page: same queries on the same database, with no
+    // change to the records since. Writes without change logs are caught by the cache generation.
+    @VisibleForTesting
+    List<Object> getReadKey(@NonNull ReadTableRequest readTableRequest, long maxPageSizeBytes) {
+        List<Object> key = new ArrayList<>();
+        key.add(mHealthConnectDatabase);
+        key.add(AggregationResultCache.getInstance().getGeneration());
+        key.add(
+                ChangeLogsHelper.getInstance()
+                        .getLatestRowIdFor(
+                                readTableRequest.getRecordHelper().getRecordIdentifier()));
+        key.add(readTableRequest.getPageSize());
+        key.add(maxPageSizeBytes);
+        addToReadKey(key, readTableRequest);
+        if (readTableRequest.getExtraReadRequests() != null) {
+            for (ReadTableRequest extraReadRequest : readTableRequest.getExtraReadRequests()) {
+                addToReadKey(key, extraReadRequest);
+            }
+        }
+        return key;
+    }
+
+    private static void addToReadKey(
+            @NonNull List<Object> key, @NonNull ReadTableRequest readTableRequest) {
+        key.add(readTableRequest.getReadCommand());
+        for (Object bindArg : readTableRequest.getBindArgs()) {
+            // Arrays are compared by reference, their content is compared through a buffer.
+            key.add(bindArg instanceof byte[] ? ByteBuffer.wrap((byte[]) bindArg) : bindArg);
+        }
+    }
+
+    /**
+     * Runs {@code sql} with {@code bindArgs} bound to its parameters. Unlike {@link
+     * SQLiteDatabase#rawQuery}, which only binds strings, the args are bound with their type, so
+     * that blobs such as uuids can be bound.
+     */
+    private static Cursor rawQuery(
+            @NonNull SQLiteDatabase db,
+            @NonNull String sql,
+            @NonNull Object[] bindArgs,
+            @Nullable CancellationSignal cancellationSignal) {
+        if (bindArgs.length == 0) {
+            return db.rawQuery(sql, null, cancellationSignal);
+        }
+
+        // The cursor factory gets the query before it runs, so the args are bound there.
+        return db.rawQueryWithFactory(
+                (database, driver, editTable, query) -> {
+                    for (int i = 0; i < bindArgs.length; i++) {
+                        DatabaseUtils.bindObjectToProgram(query, i + 1, bindArgs[i]);
+                    }
+                    return new SQLiteCursor(driver, editTable, query);
+                },
+                sql,
+                /* selectionArgs= */ null,
+                /* editTable= */ null,
+                cancellationSignal);
+    }
+
     /**
      * Inserts record into the table in {@code request} into the HealthConnect database.
      *
@@ -369,10 +584,21 @@ public final class TransactionManager {
     /** Note: It is the responsibility of the caller to close the returned cursor */
     @NonNull
     public Cursor read(@NonNull ReadTableRequest request) {
+        return read(request, /* cancellationSignal= */ null);
+    }
+
+    /** Note: It is the responsibility of the caller to close the returned cursor */
+    @NonNull
+    public Cursor read(
+            @NonNull ReadTableRequest request, @Nullable CancellationSignal cancellationSignal) {
         if (Constants.DEBUG) {
             Slog.d(TAG, "Read query: " + request.getReadCommand());
         }
-        return getReadableDb().rawQuery(request.getReadCommand(), null);
+        return rawQuery(
+                getReadableDb(),
+                request.getReadCommand(),
+                request.getBindArgs(),
+                cancellationSignal);
     }
 
     public long getLastRowIdFor(String tableName) {
@@ -407,7 +633,7 @@ public final class TransactionManager {
 
     public void delete(DeleteTableRequest request) {
         final SQLiteDatabase db = getWritableDb();
-        db.execSQL(request.getDeleteCommand());
+        db.execSQL(request.getDeleteCommand(), request.getBindArgs());
     }
 
     /**
@@ -417,15 +643,13 @@ public final class TransactionManager {
      */
     public void updateAll(@NonNull UpsertTransactionRequest request) {
         final SQLiteDatabase db = getWritableDb();
+        final Map<Integer, Long> changeLogRowIds = new ArrayMap<>();
         db.beginTransaction();
         try {
             for (UpsertTableRequest upsertRequest : request.getUpsertRequests()) {
                 updateRecord(db, upsertRequest);
             }
-            for (UpsertTableRequest insertRequestsForChangeLog :
-                    request.getInsertRequestsForChangeLogs()) {
-                insertRecord(db, insertRequestsForChangeLog);
-            }
+            insertChangeLogs(db, request.getInsertRequestsForChangeLogs(), changeLogRowIds);
             for (UpsertTableRequest insertRequestsForAccessLogs : request.getAccessLogs()) {
                 insertRecord(db, insertRequestsForAccessLogs);
             }
@@ -433,6 +657,7 @@ public final class TransactionManager {
         } finally {
             db.endTransaction();
         }
+        ChangeLogsHelper.getInstance().onChangeLogsCommitted(changeLogRowIds);
     }
 
     /**
@@ -473,28 +698,52 @@ public final class TransactionManager {
         return packagesForRecordTypeMap;
     }
 
+    /** Returns true if the app with {@code appInfoId} has any record of {@code recordType}. */
+    public boolean hasRecordsOf(@RecordTypeIdentifier.RecordType int recordType, long appInfoId) {
+        RecordHelper<?> recordHelper =
+                RecordHelperProvider.getInstance().getRecordHelper(recordType);
+        try (Cursor cursor = read(recordHelper.getReadTableRequestForAnyRecordOf(appInfoId))) {
+            return cursor.moveToFirst();
+        }
+    }
+
     /**
      * ONLY DO OPERATIONS IN A SINGLE TRANSACTION HERE
      *
      * <p>This is because this function is called from {@link AutoDeleteService}, and we want to
      * make sure that either all its operation succeed or fail in a single run.
+     *
+     * @return the record types of the requests which deleted any row.
      */
-    public void deleteWithoutChangeLogs(@NonNull List<DeleteTableRequest> deleteTableRequests) {
+    @NonNull
+    public Set<Integer> deleteWithoutChangeLogs(
+            @NonNull List<DeleteTableRequest> deleteTableRequests) {
         Objects.requireNonNull(deleteTableRequests);
         final SQLiteDatabase db = getWritableDb();
+        Set<Integer> recordTypesDeleted = new ArraySet<>();
         db.beginTransaction();
         try {
             for (DeleteTableRequest deleteTableRequest : deleteTableRequests) {
-                db.execSQL(deleteTableRequest.getDeleteCommand());
+                db.execSQL(deleteTableRequest.getDeleteCommand(), deleteTableRequest.getBindArgs());
+                if (deleteTableRequest.getRecordType() != RECORD_TYPE_UNKNOWN
+                        && DatabaseUtils.longForQuery(db, "SELECT changes()", null) > 0) {
+                    recordTypesDeleted.add(deleteTableRequest.getRecordType());
+                }
             }
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
+            AggregationResultCache.getInstance().invalidateAll();
         }
+        return recordTypesDeleted;
     }
 
     public void onUserSwitching() {
+        // Buffered access logs belong to the user switched from.
+        AccessLogsHelper.getInstance().flushAccessLogs();
         mHealthConnectDatabase.close();
+        ChangeLogsHelper.getInstance().clearCache();
+        AggregationResultCache.getInstance().invalidateAll();
     }
 
     private void insertAll(
@@ -522,6 +771,21 @@ public final class TransactionManager {
         }
     }
 
+    /**
+     * Inserts change log requests and records the row id of the latest one per record type in
+     * {@code recordTypeToRowId}. Assumes that caller will be handling the transaction.
+     */
+    private void insertChangeLogs(
+            @NonNull SQLiteDatabase db,
+            @NonNull List<UpsertTableRequest> changeLogRequests,
+            @NonNull Map<Integer, Long> recordTypeToRowId) {
+        for (UpsertTableRequest changeLogRequest : changeLogRequests) {
+            long rowId = insertRecord(db, changeLogRequest);
+            recordTypeToRowId.merge(
+                    ChangeLogsHelper.getRecordType(changeLogRequest), rowId, Math::max);
+        }
+    }
+
     /** Assumes that caller will be closing {@code db} and handling the transaction if required */
     public long insertRecord(@NonNull SQLiteDatabase db, @NonNull UpsertTableRequest request) {
         long rowId = db.insertOrThrow(request.getTable(), null, request.getContentValues());
@@ -580,6 +844,52 @@ public final class TransactionManager {
         return mHealthConnectDatabase.getDatabasePath();
     }
 
+    /**
+     * Runs {@code task} while the file at {@link #getDatabasePath()} holds all the committed
+     * transactions and doesn't change, so that it can be copied on its own.
+     *
+     * <p>The write-ahead log is checkpointed into the file and truncated, then writers are blocked
+     * until {@code task} returns. With no commits, no automatic checkpoint writes to the file
+     * either.
+     *
+     * @throws IllegalStateException if the log stays busy, e.g. because of long running reads.
+     */
+    public void runWithCheckpointedDatabase(@NonNull Runnable task) {
+        final SQLiteDatabase db = getWritableDb();
+        final File walFile = new File(getDatabasePath().getPath() + "-wal");
+        for (int attempt = 0; attempt < CHECKPOINT_MAX_ATTEMPTS; attempt++) {
+            if (attempt > 0) {
+                SystemClock.sleep(CHECKPOINT_RETRY_DELAY_MILLIS);
+            }
+            if (!checkpointAndTruncate(db)) {
+                continue;
+            }
+
+            db.beginTransaction();
+            try {
+                // A write committed between the checkpoint and the transaction is still in the
+                // log, and may be being checkpointed into the file.
+                if (walFile.length() == 0) {
+                    task.run();
+                    return;
+                }
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        throw new IllegalStateException(
+                "Could not checkpoint the database in " + CHECKPOINT_MAX_ATTEMPTS + " attempts");
+    }
+
+    private static boolean checkpointAndTruncate(SQLiteDatabase db) {
+        // Returns whether the checkpoint was blocked, the frames in the log and the frames
+        // checkpointed.
+        try (Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null)) {
+            return cursor.moveToFirst() && cursor.getInt(0) == 0;
+        }
+    }
+
     public void updateTable(UpsertTableRequest upsertTableRequest) {
         getWritableDb()
                 .update(
@@ -642,15 +952,21 @@ public final class TransactionManager {
      * android.health.connect.internal.datatypes.ExerciseRouteInternal}.
      */
     private void populateInternalRecordsWithExtraData(
-            List<RecordInternal<?>> records, ReadTableRequest request) {
+            List<RecordInternal<?>> records,
+            ReadTableRequest request,
+            @Nullable CancellationSignal cancellationSignal,
+            @Nullable ResourceUsage resourceUsage) {
         if (request.getExtraReadRequests() == null) {
             return;
         }
         for (ReadTableRequest extraDataRequest : request.getExtraReadRequests()) {
-            Cursor cursorExtraData = read(extraDataRequest);
+            Cursor cursorExtraData = read(extraDataRequest, cancellationSignal);
             request.getRecordHelper()
                     .updateInternalRecordsWithExtraFields(
                             records, cursorExtraData, extraDataRequest.getTableName());
+            if (resourceUsage != null) {
+                resourceUsage.addRowsScanned(cursorExtraData.getCount());
+            }
         }
     }
 
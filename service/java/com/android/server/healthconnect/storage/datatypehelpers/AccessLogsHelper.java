@@ -16,7 +16,7 @@
 
 package com.android.server.healthconnect.storage.datatypehelpers;
 
-import static com.android.server.healthconnect.storage.datatypehelpers.InstantRecordHelper.TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.HealthConnectDatabase.DB_VERSION_ACCESS_LOGS_INDEXES;
 import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.PRIMARY_COLUMN_NAME;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.DELIMITER;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER_NOT_NULL;
@@ -29,22 +29,34 @@ import static com.android.server.healthconnect.storage.utils.StorageUtils.getCur
 import android.annotation.NonNull;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.health.connect.accesslog.AccessLog;
 import android.health.connect.accesslog.AccessLog.OperationType;
 import android.health.connect.datatypes.RecordTypeIdentifier;
+import android.util.ArrayMap;
 import android.util.Pair;
+import android.util.Slog;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.healthconnect.HealthConnectThreadScheduler;
 import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.OrderByClause;
+import com.android.server.healthconnect.storage.utils.WhereClauses;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -58,23 +70,229 @@ public final class AccessLogsHelper {
     private static final String APP_ID_COLUMN_NAME = "app_id";
     private static final String ACCESS_TIME_COLUMN_NAME = "access_time";
     private static final String OPERATION_TYPE_COLUMN_NAME = "operation_type";
+    private static final String APP_ID_ACCESS_TIME_INDEX_NAME = "app_id_access_time";
     private static final int NUM_COLS = 5;
     private static final int DEFAULT_ACCESS_LOG_TIME_PERIOD_IN_DAYS = 7;
+    // Buffered access logs are written at most this long after the first one was added, or as soon
+    // as there are FLUSH_THRESHOLD of them.
+    @VisibleForTesting static final long FLUSH_DELAY_MILLIS = Duration.ofSeconds(30).toMillis();
+    @VisibleForTesting static final int FLUSH_THRESHOLD = 100;
+    // An access log is merged into a buffered one of the same app, operation and record types if
+    // that one was added less than this long before.
+    @VisibleForTesting static final long MERGE_WINDOW_MILLIS = Duration.ofSeconds(10).toMillis();
+    private static final String TAG = "HealthConnectAccessLogs";
     private static volatile AccessLogsHelper sAccessLogsHelper;
 
+    // Held while buffered access logs are written, so that queries see them exactly once.
+    private final Object mFlushLock = new Object();
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private List<PendingAccessLog> mPendingAccessLogs = new ArrayList<>();
+
+    // Buffered access logs before this index may have been returned by a query, so they are not
+    // merged into anymore.
+    @GuardedBy("mLock")
+    private int mFirstMergeableIndex;
+
+    @GuardedBy("mLock")
+    private boolean mFlushScheduled;
+
     private AccessLogsHelper() {}
 
     @NonNull
     public CreateTableRequest getCreateTableRequest() {
-        return new CreateTableRequest(TABLE_NAME, getColumnInfo());
+        return createIndexes(new CreateTableRequest(TABLE_NAME, getColumnInfo()));
     }
 
     /**
-     * @return AccessLog list
+     * @return AccessLog list, including the access logs not written to the table yet, ordered by
+     *     access time
      */
     public List<AccessLog> queryAccessLogs() {
-        final ReadTableRequest readTableRequest = new ReadTableRequest(TABLE_NAME);
+        synchronized (mFlushLock) {
+            List<PendingAccessLog> pendingAccessLogs = getPendingAccessLogsForQuery();
+
+            List<AccessLog> accessLogsList = readAccessLogs(new ReadTableRequest(TABLE_NAME));
+            for (PendingAccessLog pendingAccessLog : pendingAccessLogs) {
+                accessLogsList.add(pendingAccessLog.toAccessLog());
+            }
+            // Upserts are logged in their own transaction, so they may be more recent than the
+            // buffered access logs.
+            accessLogsList.sort(Comparator.comparing(AccessLog::getAccessTime));
+
+            return accessLogsList;
+        }
+    }
+
+    /**
+     * Returns the latest {@code maxResults} access logs with an access time at or after {@code
+     * startTimeMillis}, including the access logs not written to the table yet, latest first. All
+     * of them are returned if {@code maxResults} is {@link Integer#MAX_VALUE}.
+     */
+    @NonNull
+    public List<AccessLog> queryAccessLogs(long startTimeMillis, int maxResults) {
+        synchronized (mFlushLock) {
+            List<PendingAccessLog> pendingAccessLogs = getPendingAccessLogsForQuery();
+
+            ReadTableRequest readTableRequest =
+                    new ReadTableRequest(TABLE_NAME)
+                            .setWhereClause(
+                                    new WhereClauses()
+                                            .addWhereGreaterThanOrEqualClause(
+                                                    ACCESS_TIME_COLUMN_NAME, startTimeMillis))
+                            .setOrderBy(
+                                    new OrderByClause()
+                                            .addOrderByClause(ACCESS_TIME_COLUMN_NAME, false));
+            // The limit is one more than the page size, which can't exceed Integer.MAX_VALUE.
+            if (maxResults < Integer.MAX_VALUE) {
+                readTableRequest.setLimit(maxResults);
+            }
+            List<AccessLog> accessLogsList = readAccessLogs(readTableRequest);
+            for (PendingAccessLog pendingAccessLog : pendingAccessLogs) {
+                if (pendingAccessLog.mAccessTime >= startTimeMillis) {
+                    accessLogsList.add(pendingAccessLog.toAccessLog());
+                }
+            }
+            accessLogsList.sort(Comparator.comparing(AccessLog::getAccessTime).reversed());
+
+            return new ArrayList<>(
+                    accessLogsList.subList(0, Math.min(maxResults, accessLogsList.size())));
+        }
+    }
+
+    /**
+     * Returns the latest access log of each app, including the access logs not written to the
+     * table yet, latest first.
+     */
+    @NonNull
+    public List<AccessLog> queryLatestAccessLogPerPackage() {
+        synchronized (mFlushLock) {
+            List<PendingAccessLog> pendingAccessLogs = getPendingAccessLogsForQuery();
+
+            Map<String, AccessLog> packageNameToAccessLog = new ArrayMap<>();
+            // A single pass over the app and access time index. With a single MAX aggregate,
+            // SQLite reads the other columns from the row with the latest access of each app.
+            List<AccessLog> storedAccessLogs =
+                    readAccessLogs(
+                            new ReadTableRequest(TABLE_NAME)
+                                    .setColumnNames(
+                                            List.of(
+                                                    APP_ID_COLUMN_NAME,
+                                                    RECORD_TYPE_COLUMN_NAME,
+                                                    "MAX("
+                                                            + ACCESS_TIME_COLUMN_NAME
+                                                            + ") AS "
+                                                            + ACCESS_TIME_COLUMN_NAME,
+                                                    OPERATION_TYPE_COLUMN_NAME))
+                                    .setGroupBy(APP_ID_COLUMN_NAME));
+            for (AccessLog accessLog : storedAccessLogs) {
+                packageNameToAccessLog.put(accessLog.getPackageName(), accessLog);
+            }
+            for (PendingAccessLog pendingAccessLog : pendingAccessLogs) {
+                // Upserts are logged in their own transaction, so a stored access log may be more
+                // recent than a buffered one.
+                packageNameToAccessLog.merge(
+                        pendingAccessLog.mPackageName,
+                        pendingAccessLog.toAccessLog(),
+                        (accessLog, otherAccessLog) ->
+                                otherAccessLog.getAccessTime().isAfter(accessLog.getAccessTime())
+                                        ? otherAccessLog
+                                        : accessLog);
+            }
+
+            List<AccessLog> accessLogsList = new ArrayList<>(packageNameToAccessLog.values());
+            accessLogsList.sort(Comparator.comparing(AccessLog::getAccessTime).reversed());
 
+            return accessLogsList;
+        }
+    }
+
+    /**
+     * Adds an access log for a read operation request. Access logs are buffered and written to the
+     * table in batches, so that reads don't have to write to the database.
+     */
+    public void addAccessLog(
+            String packageName,
+            @RecordTypeIdentifier.RecordType List<Integer> recordTypeList,
+            @OperationType.OperationTypes int operationType) {
+        long accessTime = Instant.now().toEpochMilli();
+        boolean flushNow = false;
+        synchronized (mLock) {
+            for (int i = mPendingAccessLogs.size() - 1; i >= mFirstMergeableIndex; i--) {
+                PendingAccessLog pendingAccessLog = mPendingAccessLogs.get(i);
+                if (accessTime - pendingAccessLog.mAccessTime >= MERGE_WINDOW_MILLIS) {
+                    break;
+                }
+                if (pendingAccessLog.matches(packageName, recordTypeList, operationType)) {
+                    mPendingAccessLogs.remove(i);
+                    break;
+                }
+            }
+            mPendingAccessLogs.add(
+                    new PendingAccessLog(packageName, recordTypeList, accessTime, operationType));
+
+            if (mPendingAccessLogs.size() >= FLUSH_THRESHOLD) {
+                flushNow = true;
+            } else if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                HealthConnectThreadScheduler.scheduleInternalTask(
+                        this::flushAccessLogs, FLUSH_DELAY_MILLIS);
+            }
+        }
+
+        if (flushNow) {
+            HealthConnectThreadScheduler.scheduleInternalTask(this::flushAccessLogs);
+        }
+    }
+
+    /**
+     * Writes the buffered access logs to the table in a single transaction, e.g. before the user
+     * switches.
+     */
+    public void flushAccessLogs() {
+        synchronized (mFlushLock) {
+            List<PendingAccessLog> pendingAccessLogs;
+            synchronized (mLock) {
+                pendingAccessLogs = mPendingAccessLogs;
+                mPendingAccessLogs = new ArrayList<>();
+                mFirstMergeableIndex = 0;
+                mFlushScheduled = false;
+            }
+
+            if (pendingAccessLogs.isEmpty()) {
+                return;
+            }
+
+            List<UpsertTableRequest> requests = new ArrayList<>(pendingAccessLogs.size());
+            for (PendingAccessLog pendingAccessLog : pendingAccessLogs) {
+                requests.add(
+                        getUpsertTableRequest(
+                                pendingAccessLog.mPackageName,
+                                pendingAccessLog.mRecordTypes,
+                                pendingAccessLog.mOperationType,
+                                pendingAccessLog.mAccessTime));
+            }
+            try {
+                // Access logs don't change any record, so the cached aggregations stay valid.
+                TransactionManager.getInitialisedInstance().insertOrIgnoreOnConflict(requests);
+            } catch (SQLiteException e) {
+                Slog.e(TAG, "Failed to write " + requests.size() + " access logs", e);
+            }
+        }
+    }
+
+    // Returns the buffered access logs, which won't be merged into anymore as they are returned.
+    @NonNull
+    private List<PendingAccessLog> getPendingAccessLogsForQuery() {
+        synchronized (mLock) {
+            mFirstMergeableIndex = mPendingAccessLogs.size();
+            return new ArrayList<>(mPendingAccessLogs);
+        }
+    }
+
+    @NonNull
+    private List<AccessLog> readAccessLogs(@NonNull ReadTableRequest readTableRequest) {
         List<AccessLog> accessLogsList = new ArrayList<>();
         final AppInfoHelper appInfoHelper = AppInfoHelper.getInstance();
         final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
@@ -98,26 +316,24 @@ public final class AccessLogsHelper {
         return accessLogsList;
     }
 
-    /** Adds an entry in to the access logs table for every insert or read operation request */
-    public void addAccessLog(
-            String packageName,
-            @RecordTypeIdentifier.RecordType List<Integer> recordTypeList,
-            @OperationType.OperationTypes int operationType) {
-        UpsertTableRequest request =
-                getUpsertTableRequest(packageName, recordTypeList, operationType);
-        TransactionManager.getInitialisedInstance().insert(request);
-    }
-
     @NonNull
     public UpsertTableRequest getUpsertTableRequest(
             String packageName, List<Integer> recordTypeList, int operationType) {
+        return getUpsertTableRequest(
+                packageName, recordTypeList, operationType, Instant.now().toEpochMilli());
+    }
+
+    @VisibleForTesting
+    @NonNull
+    UpsertTableRequest getUpsertTableRequest(
+            String packageName, List<Integer> recordTypeList, int operationType, long accessTime) {
         ContentValues contentValues = new ContentValues();
         contentValues.put(
                 RECORD_TYPE_COLUMN_NAME,
                 recordTypeList.stream().map(String::valueOf).collect(Collectors.joining(",")));
         contentValues.put(
                 APP_ID_COLUMN_NAME, AppInfoHelper.getInstance().getAppInfoId(packageName));
-        contentValues.put(ACCESS_TIME_COLUMN_NAME, Instant.now().toEpochMilli());
+        contentValues.put(ACCESS_TIME_COLUMN_NAME, accessTime);
         contentValues.put(OPERATION_TYPE_COLUMN_NAME, operationType);
 
         return new UpsertTableRequest(TABLE_NAME, contentValues);
@@ -130,7 +346,7 @@ public final class AccessLogsHelper {
     public DeleteTableRequest getDeleteRequestForAutoDelete() {
         return new DeleteTableRequest(TABLE_NAME)
                 .setTimeFilter(
-                        TIME_COLUMN_NAME,
+                        ACCESS_TIME_COLUMN_NAME,
                         Instant.EPOCH.toEpochMilli(),
                         Instant.now()
                                 .minus(DEFAULT_ACCESS_LOG_TIME_PERIOD_IN_DAYS, ChronoUnit.DAYS)
@@ -149,7 +365,29 @@ public final class AccessLogsHelper {
         return columnInfo;
     }
 
-    public void onUpgrade(int oldVersion, int newVersion, SQLiteDatabase db) {}
+    public void onUpgrade(int oldVersion, int newVersion, SQLiteDatabase db) {
+        if (oldVersion < DB_VERSION_ACCESS_LOGS_INDEXES) {
+            List<String> createIndexStatements =
+                    createIndexes(new CreateTableRequest(TABLE_NAME, getColumnInfo()))
+                            .getCreateIndexStatements();
+            try {
+                createIndexStatements.forEach(db::execSQL);
+            } catch (SQLException sqlException) {
+                // Ignore this means the indexes exist. This is possible via module rollback
+                // followed by an upgrade
+            }
+        }
+    }
+
+    // The access time index serves the time bounded queries and the auto delete, the app index
+    // the latest access of each app.
+    @NonNull
+    private static CreateTableRequest createIndexes(@NonNull CreateTableRequest request) {
+        return request.createIndexOn(ACCESS_TIME_COLUMN_NAME)
+                .createIndexOn(
+                        APP_ID_ACCESS_TIME_INDEX_NAME,
+                        List.of(APP_ID_COLUMN_NAME, ACCESS_TIME_COLUMN_NAME));
+    }
 
     public static synchronized AccessLogsHelper getInstance() {
         if (sAccessLogsHelper == null) {
@@ -158,4 +396,29 @@ public final class AccessLogsHelper {
 
         return sAccessLogsHelper;
     }
+
+    private static final class PendingAccessLog {
+        private final String mPackageName;
+        private final List<Integer> mRecordTypes;
+        private final long mAccessTime;
+        private final int mOperationType;
+
+        PendingAccessLog(
+                String packageName, List<Integer> recordTypes, long accessTime, int operationType) {
+            mPackageName = packageName;
+            mRecordTypes = recordTypes;
+            mAccessTime = accessTime;
+            mOperationType = operationType;
+        }
+
+        AccessLog toAccessLog() {
+            return new AccessLog(mPackageName, mRecordTypes, mAccessTime, mOperationType);
+        }
+
+        boolean matches(String packageName, List<Integer> recordTypes, int operationType) {
+            return mOperationType == operationType
+                    && mPackageName.equals(packageName)
+                    && mRecordTypes.equals(recordTypes);
+        }
+    }
 }
@@ -51,9 +51,11 @@ import android.health.connect.internal.datatypes.AppInfoInternal;
 import android.health.connect.internal.datatypes.RecordInternal;
 import android.health.connect.internal.datatypes.utils.RecordMapper;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.Pair;
 import android.util.Slog;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
@@ -72,7 +74,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -92,33 +94,52 @@ public final class AppInfoHelper {
     private static final String TAG = "HealthConnectAppInfoHelper";
     private static final String RECORD_TYPES_USED_COLUMN_NAME = "record_types_used";
     private static final int COMPRESS_FACTOR = 100;
+    // Upper bound of the memory used by the decoded icons kept in memory.
+    private static final int MAX_ICON_CACHE_SIZE_BYTES = 4 * 1024 * 1024;
     private static volatile AppInfoHelper sAppInfoHelper;
 
     /**
-     * Map to store appInfoId -> packageName mapping for populating record for read
+     * Snapshot of the application_info_table. It is never modified once published, writes publish
+     * an updated copy instead, so that the per record lookups don't need any lock.
      *
-     * <p>TO HAVE THREAD SAFETY DON'T USE THESE VARIABLES DIRECTLY, INSTEAD USE ITS GETTER
+     * <p>TO HAVE THREAD SAFETY DON'T USE THIS VARIABLE DIRECTLY, INSTEAD USE ITS GETTER
      */
-    private volatile ConcurrentHashMap<Long, String> mIdPackageNameMap;
+    @Nullable private volatile AppInfoCache mAppInfoCache;
+
+    /** Serializes the writes to the application_info_table and to {@link #mAppInfoCache}. */
+    private final Object mWriteLock = new Object();
+
+    /** Number of times record types have been removed from the record types used of a package. */
+    private final AtomicLong mRecordTypesUsedRemovalCount = new AtomicLong();
+
     /**
-     * Map to store application package-name -> AppInfo mapping (such as packageName -> appName,
-     * icon, rowId in the DB etc.)
-     *
-     * <p>TO HAVE THREAD SAFETY DON'T USE THESE VARIABLES DIRECTLY, INSTEAD USE ITS GETTER
+     * Decoded icons of the most recently requested packages. Icons are only needed by the
+     * controller UI, so {@link #mAppInfoCache} doesn't hold them and they are read on demand.
      */
-    private volatile ConcurrentHashMap<String, AppInfoInternal> mAppInfoMap;
+    private final LruCache<String, Bitmap> mIconCache =
+            new LruCache<>(MAX_ICON_CACHE_SIZE_BYTES) {
+                @Override
+                protected int sizeOf(String packageName, Bitmap icon) {
+                    return icon.getAllocationByteCount();
+                }
+            };
 
     private AppInfoHelper() {}
 
     /** Deletes all entries from the database and clears the cache. */
-    public synchronized void clearData(TransactionManager transactionManager) {
-        transactionManager.delete(new DeleteTableRequest(TABLE_NAME));
-        clearCache();
+    public void clearData(TransactionManager transactionManager) {
+        synchronized (mWriteLock) {
+            transactionManager.delete(new DeleteTableRequest(TABLE_NAME));
+            mAppInfoCache = null;
+            mIconCache.evictAll();
+        }
     }
 
-    public synchronized void clearCache() {
-        mAppInfoMap = null;
-        mIdPackageNameMap = null;
+    public void clearCache() {
+        synchronized (mWriteLock) {
+            mAppInfoCache = null;
+            mIconCache.evictAll();
+        }
     }
 
     /**
@@ -172,10 +193,9 @@ public final class AppInfoHelper {
             boolean onlyUpdate) {
         if (!isAppInstalled(context, packageName)) {
             // using pre-existing value of recordTypesUsed.
+            AppInfoInternal currentAppInfo = getAppInfoMap().get(packageName);
             var recordTypesUsed =
-                    containsAppInfo(packageName)
-                            ? mAppInfoMap.get(packageName).getRecordTypesUsed()
-                            : null;
+                    currentAppInfo != null ? currentAppInfo.getRecordTypesUsed() : null;
             AppInfoInternal appInfoInternal =
                     new AppInfoInternal(
                             DEFAULT_LONG, packageName, name, decodeBitmap(icon), recordTypesUsed);
@@ -231,24 +251,24 @@ public final class AppInfoHelper {
         return appInfo.getId();
     }
 
-    private boolean containsAppInfo(String packageName) {
-        return getAppInfoMap().containsKey(packageName);
-    }
-
     /**
      * @param packageNames List of package names
      * @return A list of appinfo ids from the application_info_table.
      */
     public List<Long> getAppInfoIds(List<String> packageNames) {
         if (DEBUG) {
-            Slog.d(TAG, "App info map: " + mAppInfoMap);
+            Slog.d(TAG, "App info map: " + getAppInfoMap());
         }
         if (packageNames == null || packageNames.isEmpty()) {
             return Collections.emptyList();
         }
 
+        Map<String, AppInfoInternal> appInfoMap = getAppInfoMap();
         List<Long> result = new ArrayList<>(packageNames.size());
-        packageNames.forEach(packageName -> result.add(getAppInfoId(packageName)));
+        for (String packageName : packageNames) {
+            AppInfoInternal appInfo = appInfoMap.get(packageName);
+            result.add(appInfo == null ? DEFAULT_LONG : appInfo.getId());
+        }
 
         return result;
     }
@@ -264,10 +284,11 @@ public final class AppInfoHelper {
             return Collections.emptyList();
         }
 
+        Map<Long, String> idPackageNameMap = getIdPackageNameMap();
         List<String> packageNames = new ArrayList<>();
         packageIds.forEach(
                 (packageId) -> {
-                    String packageName = getIdPackageNameMap().get(packageId);
+                    String packageName = idPackageNameMap.get(packageId);
                     requireNonNull(packageName);
 
                     packageNames.add(packageName);
@@ -276,17 +297,55 @@ public final class AppInfoHelper {
         return packageNames;
     }
 
-    /** Returns a list of AppInfo objects which are contributing data to some recordType. */
-    public List<AppInfo> getApplicationInfosWithRecordTypes() {
+    /**
+     * Returns a list of AppInfo objects which are contributing data to some recordType.
+     *
+     * @param includeIcons whether to read the icons of the apps, which are otherwise null
+     */
+    public List<AppInfo> getApplicationInfosWithRecordTypes(boolean includeIcons) {
         return getAppInfoMap().values().stream()
                 .filter(
                         (appInfo) ->
                                 (appInfo.getRecordTypesUsed() != null
                                         && !appInfo.getRecordTypesUsed().isEmpty()))
-                .map(AppInfoInternal::toExternal)
+                .map(
+                        (appInfo) ->
+                                new AppInfo.Builder(
+                                                appInfo.getPackageName(),
+                                                appInfo.getName(),
+                                                includeIcons
+                                                        ? getAppIcon(appInfo.getPackageName())
+                                                        : null)
+                                        .build())
                 .collect(Collectors.toList());
     }
 
+    /** Returns the icon stored for {@code packageName}, or null if there is none. */
+    @Nullable
+    public Bitmap getAppIcon(@NonNull String packageName) {
+        Bitmap icon = mIconCache.get(packageName);
+        if (icon != null) {
+            return icon;
+        }
+
+        ReadTableRequest readTableRequest =
+                new ReadTableRequest(TABLE_NAME)
+                        .setColumnNames(List.of(APP_ICON_COLUMN_NAME))
+                        .setWhereClause(
+                                new WhereClauses()
+                                        .addWhereEqualsClause(PACKAGE_COLUMN_NAME, packageName));
+        try (Cursor cursor = TransactionManager.getInitialisedInstance().read(readTableRequest)) {
+            if (cursor.moveToFirst()) {
+                icon = decodeBitmap(getCursorBlob(cursor, APP_ICON_COLUMN_NAME));
+            }
+        }
+
+        if (icon != null) {
+            mIconCache.put(packageName, icon);
+        }
+        return icon;
+    }
+
     /** Returns AppInfo id for the provided {@code packageName}, creating it if needed. */
     public long getOrInsertAppInfoId(@NonNull String packageName, @NonNull Context context) {
         AppInfoInternal appInfoInternal = getAppInfoMap().get(packageName);
@@ -304,20 +363,26 @@ public final class AppInfoHelper {
         return appInfoInternal.getId();
     }
 
-    private synchronized void populateAppInfoMap() {
-        if (mAppInfoMap != null) {
-            return;
-        }
-        ConcurrentHashMap<String, AppInfoInternal> appInfoMap = new ConcurrentHashMap<>();
-        ConcurrentHashMap<Long, String> idPackageNameMap = new ConcurrentHashMap<>();
+    @GuardedBy("mWriteLock")
+    @NonNull
+    private AppInfoCache readAppInfoCache() {
+        Map<String, AppInfoInternal> appInfoMap = new HashMap<>();
+        Map<Long, String> idPackageNameMap = new HashMap<>();
         final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
-        try (Cursor cursor = transactionManager.read(new ReadTableRequest(TABLE_NAME))) {
+        // Icons are read on demand, see getAppIcon.
+        ReadTableRequest readTableRequest =
+                new ReadTableRequest(TABLE_NAME)
+                        .setColumnNames(
+                                List.of(
+                                        RecordHelper.PRIMARY_COLUMN_NAME,
+                                        PACKAGE_COLUMN_NAME,
+                                        APPLICATION_COLUMN_NAME,
+                                        RECORD_TYPES_USED_COLUMN_NAME));
+        try (Cursor cursor = transactionManager.read(readTableRequest)) {
             while (cursor.moveToNext()) {
                 long rowId = getCursorLong(cursor, RecordHelper.PRIMARY_COLUMN_NAME);
                 String packageName = getCursorString(cursor, PACKAGE_COLUMN_NAME);
                 String appName = getCursorString(cursor, APPLICATION_COLUMN_NAME);
-                byte[] icon = getCursorBlob(cursor, APP_ICON_COLUMN_NAME);
-                Bitmap bitmap = decodeBitmap(icon);
                 String recordTypesUsed = getCursorString(cursor, RECORD_TYPES_USED_COLUMN_NAME);
 
                 Set<Integer> recordTypesListAsSet = getRecordTypesAsSet(recordTypesUsed);
@@ -325,12 +390,15 @@ public final class AppInfoHelper {
                 appInfoMap.put(
                         packageName,
                         new AppInfoInternal(
-                                rowId, packageName, appName, bitmap, recordTypesListAsSet));
+                                rowId,
+                                packageName,
+                                appName,
+                                /* icon= */ null,
+                                recordTypesListAsSet));
                 idPackageNameMap.put(rowId, packageName);
             }
         }
-        mAppInfoMap = appInfoMap;
-        mIdPackageNameMap = idPackageNameMap;
+        return new AppInfoCache(appInfoMap, idPackageNameMap);
     }
 
     @Nullable
@@ -344,132 +412,117 @@ public final class AppInfoHelper {
     }
 
     /**
-     * Updates recordTypesUsed for the {@code packageName} in app info table.
+     * Returns the update adding {@code recordTypes} to the record types used by {@code
+     * packageName}, to be applied as part of the transaction inserting records of these types.
+     * Returns null if {@code recordTypes} is empty.
      *
-     * <p><b>NOTE:</b> This method should only be used for insert operation on recordType tables.
-     * Should not be called elsewhere.
+     * <p>Most inserts are for record types the package already wrote, this is checked on the
+     * current snapshot so that such inserts don't write the table nor take any lock.
      *
-     * <p>see {@link AppInfoHelper#syncAppInfoMapRecordTypesUsed(Map)}} for updating this table
-     * during delete operations on recordTypes.
-     *
-     * @param recordTypes The record types that needs to be inserted.
-     * @param packageName The package for which the records need to be inserted.
+     * <p>see {@link AppInfoHelper#syncAppInfoRecordTypesUsed(Set)} for updating this table during
+     * delete operations on recordTypes.
      */
-    @SuppressLint("LongLogTag")
-    public synchronized void updateAppInfoRecordTypesUsedOnInsert(
-            Set<Integer> recordTypes, String packageName) {
-        AppInfoInternal appInfo = getAppInfoMap().get(packageName);
-        if (appInfo == null) {
-            Log.e(
-                    TAG,
-                    "AppInfo for the current package: "
-                            + packageName
-                            + " does not exist. "
-                            + "Hence recordTypesUsed is not getting updated.");
-
-            return;
+    @Nullable
+    public RecordTypesUsedUpdate getRecordTypesUsedUpdate(
+            @NonNull String packageName, @NonNull Set<Integer> recordTypes) {
+        if (recordTypes.isEmpty()) {
+            return null;
         }
 
-        if (recordTypes == null || recordTypes.isEmpty()) {
-            return;
-        }
-        Set<Integer> updatedRecordTypes = new HashSet<>(recordTypes);
-        if (appInfo.getRecordTypesUsed() != null) {
-            updatedRecordTypes.addAll(appInfo.getRecordTypesUsed());
-        }
-        if (!updatedRecordTypes.equals(appInfo.getRecordTypesUsed())) {
-            updateAppInfoRecordTypesUsedSync(packageName, appInfo, updatedRecordTypes);
-        }
+        // Read before the snapshot, as removals publish their snapshot before counting.
+        long removalCount = mRecordTypesUsedRemovalCount.get();
+        AppInfoInternal appInfo = getAppInfoMap().get(packageName);
+        boolean requiresWrite =
+                appInfo == null
+                        || appInfo.getRecordTypesUsed() == null
+                        || !appInfo.getRecordTypesUsed().containsAll(recordTypes);
+        return new RecordTypesUsedUpdate(packageName, recordTypes, removalCount, requiresWrite);
     }
 
     /**
-     * Updates recordTypesUsed by for all packages in app info table.
+     * Updates recordTypesUsed for all packages in app info table, by reading the distinct packages
+     * of every record table.
      *
-     * <p><b>NOTE:</b> This method should only be used for delete operation on recordType tables.
-     * Should not be called elsewhere.
-     *
-     * <p>Use this method to update the table for passed recordTypes, not passing any record will
-     * update all recordTypes.
-     *
-     * <p>see {@link AppInfoHelper#updateAppInfoRecordTypesUsedOnInsert(Set, String)} for updating
-     * this table during insert operations on recordTypes.
+     * <p>This is a heavy operation, only use it after records have been written without going
+     * through {@link #getRecordTypesUsedUpdate}, e.g. on migration or restore.
      */
-    public synchronized void syncAppInfoRecordTypesUsed() {
-        syncAppInfoRecordTypesUsed(null);
+    public void syncAppInfoRecordTypesUsed() {
+        synchronized (mWriteLock) {
+            syncAppInfoMapRecordTypesUsed(
+                    TransactionManager.getInitialisedInstance()
+                            .getDistinctPackageNamesForRecordsTable(
+                                    RecordMapper.getInstance()
+                                            .getRecordIdToExternalRecordClassMap()
+                                            .keySet()));
+        }
     }
 
     /**
-     * Updates recordTypesUsed by for all packages in app info table.
-     *
-     * <p><b>NOTE:</b> This method should only be used for delete operation on recordType tables.
-     * Should not be called elsewhere.
+     * Removes {@code recordTypesToBeSynced} from the recordTypesUsed of the packages which no
+     * longer have records of them. This is done after records of these types have been deleted.
      *
-     * <p>Use this method to update the table for passed {@code recordTypesToBeSynced}, not passing
-     * any record will update all recordTypes.
+     * <p>Only the packages recorded as using these types are checked, each by looking up one of
+     * its records rather than reading the distinct packages of the record tables.
+     */
+    public void syncAppInfoRecordTypesUsed(@NonNull Set<Integer> recordTypesToBeSynced) {
+        synchronized (mWriteLock) {
+            for (AppInfoInternal appInfo : getAppInfoMap().values()) {
+                removeUnusedRecordTypesLocked(appInfo, recordTypesToBeSynced);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #syncAppInfoRecordTypesUsed(Set)}, but only checks the packages whose records
+     * have been deleted.
      *
-     * <p>see {@link AppInfoHelper#updateAppInfoRecordTypesUsedOnInsert(Set, String)} for updating
-     * this table during insert operations on recordTypes.
+     * @param appInfoIdToRecordTypes the record types of the deleted records, by app info id.
      */
-    public synchronized void syncAppInfoRecordTypesUsed(
-            @Nullable Set<Integer> recordTypesToBeSynced) {
-        Set<Integer> recordTypesToBeUpdated =
-                Objects.requireNonNullElseGet(
-                        recordTypesToBeSynced,
-                        () ->
-                                RecordMapper.getInstance()
-                                        .getRecordIdToExternalRecordClassMap()
-                                        .keySet());
-
-        HashMap<Integer, HashSet<String>> recordTypeToContributingPackagesMap =
-                TransactionManager.getInitialisedInstance()
-                        .getDistinctPackageNamesForRecordsTable(recordTypesToBeUpdated);
-
-        if (recordTypesToBeSynced == null) {
-            syncAppInfoMapRecordTypesUsed(recordTypeToContributingPackagesMap);
-        } else {
-            getAppInfoMap()
-                    .keySet()
-                    .forEach(
-                            (packageName) -> {
-                                deleteRecordTypesForPackagesIfRequiredInternal(
-                                        recordTypesToBeUpdated,
-                                        recordTypeToContributingPackagesMap,
-                                        packageName);
-                            });
+    public void syncAppInfoRecordTypesUsed(
+            @NonNull Map<Long, Set<Integer>> appInfoIdToRecordTypes) {
+        synchronized (mWriteLock) {
+            for (Map.Entry<Long, Set<Integer>> entry : appInfoIdToRecordTypes.entrySet()) {
+                String packageName = getIdPackageNameMap().get(entry.getKey());
+                AppInfoInternal appInfo =
+                        packageName == null ? null : getAppInfoMap().get(packageName);
+                if (appInfo != null) {
+                    removeUnusedRecordTypesLocked(appInfo, entry.getValue());
+                }
+            }
         }
     }
 
     /**
      * This method updates recordTypesUsed for all packages and hence is a heavy operation. This
-     * method is used during AutoDeleteService and is run once per day.
+     * method is used after migration and restore.
      */
+    @GuardedBy("mWriteLock")
     @SuppressLint("LongLogTag")
-    private synchronized void syncAppInfoMapRecordTypesUsed(
+    private void syncAppInfoMapRecordTypesUsed(
             @NonNull Map<Integer, HashSet<String>> recordTypeToContributingPackagesMap) {
         HashMap<String, List<Integer>> packageToRecordTypesMap =
                 getPackageToRecordTypesMap(recordTypeToContributingPackagesMap);
-        getAppInfoMap()
-                .forEach(
-                        (packageName, appInfo) -> {
-                            if (packageToRecordTypesMap.containsKey(packageName)) {
-                                updateAppInfoRecordTypesUsedSync(
-                                        packageName,
-                                        appInfo,
-                                        new HashSet<>(packageToRecordTypesMap.get(packageName)));
-                            } else {
-                                updateAppInfoRecordTypesUsedSync(
-                                        packageName, appInfo, /* recordTypesUsed */ null);
-                            }
-                            if (DEBUG) {
-                                Log.d(
-                                        TAG,
-                                        "Syncing packages and corresponding recordTypesUsed for"
-                                                + " package : "
-                                                + packageName
-                                                + ", recordTypesUsed : "
-                                                + appInfo.getRecordTypesUsed());
-                            }
-                        });
+        // Iterates over the snapshot taken before the updates, each update publishes a new one.
+        for (Map.Entry<String, AppInfoInternal> entry : getAppInfoMap().entrySet()) {
+            String packageName = entry.getKey();
+            Set<Integer> recordTypesUsed =
+                    packageToRecordTypesMap.containsKey(packageName)
+                            ? new HashSet<>(packageToRecordTypesMap.get(packageName))
+                            : null;
+            if (Objects.equals(recordTypesUsed, entry.getValue().getRecordTypesUsed())) {
+                continue;
+            }
+            updateAppInfoRecordTypesUsedSync(packageName, entry.getValue(), recordTypesUsed);
+            if (DEBUG) {
+                Log.d(
+                        TAG,
+                        "Syncing packages and corresponding recordTypesUsed for"
+                                + " package : "
+                                + packageName
+                                + ", recordTypesUsed : "
+                                + recordTypesUsed);
+            }
+        }
     }
 
     private HashMap<String, List<Integer>> getPackageToRecordTypesMap(
@@ -499,70 +552,77 @@ public final class AppInfoHelper {
      * Checks and deletes record types in app info table for which the package is no longer
      * contributing data. This is done after delete records operation has been performed.
      */
-    @SuppressLint("LongLogTag")
-    private synchronized void deleteRecordTypesForPackagesIfRequiredInternal(
-            Set<Integer> recordTypesToBeDeleted,
-            HashMap<Integer, HashSet<String>> currentRecordTypePackageMap,
-            String packageName) {
-        AppInfoInternal appInfo = getAppInfoMap().get(packageName);
-        if (appInfo == null) {
-            Log.e(
-                    TAG,
-                    "AppInfo for the current package: "
-                            + packageName
-                            + " does not exist. "
-                            + "Hence recordTypesUsed is not getting updated.");
-
-            return;
-        }
-        if (appInfo.getRecordTypesUsed() == null || appInfo.getRecordTypesUsed().isEmpty()) {
+    @GuardedBy("mWriteLock")
+    private void removeUnusedRecordTypesLocked(
+            @NonNull AppInfoInternal appInfo, @NonNull Set<Integer> recordTypes) {
+        Set<Integer> recordTypesUsed = appInfo.getRecordTypesUsed();
+        if (recordTypesUsed == null || recordTypesUsed.isEmpty()) {
             // return since this package is not contributing to any recordType and hence there
             // is nothing to delete.
             return;
         }
-        Set<Integer> updatedRecordTypesUsed = new HashSet<>(appInfo.getRecordTypesUsed());
-        for (Integer recordType : recordTypesToBeDeleted) {
-            // get the distinct packages used by the record after the deletion process, check if
-            // the recordType does not have the current package then remove record type from
-            // the package's app info record.
-            if (!currentRecordTypePackageMap.get(recordType).contains(packageName)) {
+
+        TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
+        Set<Integer> updatedRecordTypesUsed = new HashSet<>(recordTypesUsed);
+        for (Integer recordType : recordTypes) {
+            if (recordTypesUsed.contains(recordType)
+                    && !transactionManager.hasRecordsOf(recordType, appInfo.getId())) {
                 updatedRecordTypesUsed.remove(recordType);
             }
         }
-        if (updatedRecordTypesUsed.equals(appInfo.getRecordTypesUsed())) {
+        if (updatedRecordTypesUsed.size() == recordTypesUsed.size()) {
             return;
         }
         if (updatedRecordTypesUsed.isEmpty()) {
             updatedRecordTypesUsed = null;
         }
-        updateAppInfoRecordTypesUsedSync(packageName, appInfo, updatedRecordTypesUsed);
+        updateAppInfoRecordTypesUsedSync(
+                appInfo.getPackageName(), appInfo, updatedRecordTypesUsed);
     }
 
+    @GuardedBy("mWriteLock")
     @SuppressLint("LongLogTag")
-    private synchronized void updateAppInfoRecordTypesUsedSync(
+    private void updateAppInfoRecordTypesUsedSync(
             @NonNull String packageName,
             @NonNull AppInfoInternal appInfo,
             Set<Integer> recordTypesUsed) {
-        appInfo.setRecordTypesUsed(recordTypesUsed);
-        // create upsert table request to modify app info table, keyed by packages name.
-        WhereClauses whereClauseForAppInfoTableUpdate = new WhereClauses();
-        whereClauseForAppInfoTableUpdate.addWhereEqualsClause(
-                PACKAGE_COLUMN_NAME, appInfo.getPackageName());
+        boolean removesRecordTypes =
+                appInfo.getRecordTypesUsed() != null
+                        && (recordTypesUsed == null
+                                || !recordTypesUsed.containsAll(appInfo.getRecordTypesUsed()));
+        // The published AppInfo may be in use by readers, update a copy of it.
+        AppInfoInternal updatedAppInfo =
+                new AppInfoInternal(
+                        appInfo.getId(),
+                        appInfo.getPackageName(),
+                        appInfo.getName(),
+                        /* icon= */ null,
+                        recordTypesUsed);
+        // create upsert table request to modify app info table, keyed by packages name. The
+        // cached AppInfo has no icon, so only the record types used are updated.
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(PACKAGE_COLUMN_NAME, packageName);
+        contentValues.put(
+                RECORD_TYPES_USED_COLUMN_NAME, getRecordTypesUsedAsString(recordTypesUsed));
         UpsertTableRequest upsertRequestForAppInfoUpdate =
-                new UpsertTableRequest(
-                        TABLE_NAME, getContentValues(packageName, appInfo), UNIQUE_COLUMN_INFO);
+                new UpsertTableRequest(TABLE_NAME, contentValues, UNIQUE_COLUMN_INFO);
         TransactionManager.getInitialisedInstance().update(upsertRequestForAppInfoUpdate);
 
         // update locally stored maps to keep data in sync.
-        getAppInfoMap().put(packageName, appInfo);
-        getIdPackageNameMap().put(appInfo.getId(), packageName);
+        putInCacheLocked(packageName, updatedAppInfo);
+        if (removesRecordTypes) {
+            // Inserts in flight may have checked the removed record types, see
+            // RecordTypesUsedUpdate#onCommitted. Only counted once the snapshot without them is
+            // published, so that an insert reading the new count also reads that snapshot.
+            mRecordTypesUsedRemovalCount.incrementAndGet();
+        }
         if (DEBUG) {
             Log.d(
                     TAG,
                     "Updated app info table. PackageName : "
                             + packageName
                             + " , RecordTypesUsed : "
-                            + appInfo.getRecordTypesUsed()
+                            + recordTypesUsed
                             + ".");
         }
     }
@@ -592,20 +652,45 @@ public final class AppInfoHelper {
         return recordTypeContributingPackagesMap;
     }
 
-    private Map<String, AppInfoInternal> getAppInfoMap() {
-        if (Objects.isNull(mAppInfoMap)) {
-            populateAppInfoMap();
+    @NonNull
+    private AppInfoCache getAppInfoCache() {
+        AppInfoCache appInfoCache = mAppInfoCache;
+        if (appInfoCache != null) {
+            return appInfoCache;
         }
 
-        return mAppInfoMap;
+        synchronized (mWriteLock) {
+            if (mAppInfoCache == null) {
+                mAppInfoCache = readAppInfoCache();
+            }
+
+            return mAppInfoCache;
+        }
+    }
+
+    /** Returns package-name -> AppInfo mapping (such as appName, icon, rowId in the DB etc.) */
+    private Map<String, AppInfoInternal> getAppInfoMap() {
+        return getAppInfoCache().mAppInfoMap;
     }
 
+    /** Returns appInfoId -> packageName mapping for populating record for read. */
     private Map<Long, String> getIdPackageNameMap() {
-        if (mIdPackageNameMap == null) {
-            populateAppInfoMap();
-        }
+        return getAppInfoCache().mIdPackageNameMap;
+    }
 
-        return mIdPackageNameMap;
+    /** Publishes {@code appInfo} without its icon, see {@link #getAppIcon}. */
+    @GuardedBy("mWriteLock")
+    private void putInCacheLocked(@NonNull String packageName, @NonNull AppInfoInternal appInfo) {
+        if (appInfo.getIcon() != null) {
+            appInfo =
+                    new AppInfoInternal(
+                            appInfo.getId(),
+                            appInfo.getPackageName(),
+                            appInfo.getName(),
+                            /* icon= */ null,
+                            appInfo.getRecordTypesUsed());
+        }
+        mAppInfoCache = getAppInfoCache().withAppInfo(packageName, appInfo);
     }
 
     private AppInfoInternal getAppInfo(@NonNull String packageName, @NonNull Context context)
@@ -620,37 +705,43 @@ public final class AppInfoHelper {
         return new AppInfoInternal(DEFAULT_LONG, packageName, appName, bitmap, null);
     }
 
-    private synchronized void insertIfNotPresent(
-            @NonNull String packageName, @NonNull AppInfoInternal appInfo) {
-        if (getAppInfoMap().containsKey(packageName)) {
-            return;
-        }
-
-        long rowId =
-                TransactionManager.getInitialisedInstance()
-                        .insert(
-                                new UpsertTableRequest(
-                                        TABLE_NAME,
-                                        getContentValues(packageName, appInfo),
-                                        UNIQUE_COLUMN_INFO));
-        appInfo.setId(rowId);
-        getAppInfoMap().put(packageName, appInfo);
-        getIdPackageNameMap().put(appInfo.getId(), packageName);
-    }
+    private void insertIfNotPresent(@NonNull String packageName, @NonNull AppInfoInternal appInfo) {
+        synchronized (mWriteLock) {
+            if (getAppInfoMap().containsKey(packageName)) {
+                return;
+            }
 
-    private synchronized void updateIfPresent(String packageName, AppInfoInternal appInfoInternal) {
-        if (!getAppInfoMap().containsKey(packageName)) {
-            return;
+            long rowId =
+                    TransactionManager.getInitialisedInstance()
+                            .insert(
+                                    new UpsertTableRequest(
+                                            TABLE_NAME,
+                                            getContentValues(packageName, appInfo),
+                                            UNIQUE_COLUMN_INFO));
+            appInfo.setId(rowId);
+            putInCacheLocked(packageName, appInfo);
         }
+    }
 
-        UpsertTableRequest upsertTableRequest =
-                new UpsertTableRequest(
-                        TABLE_NAME,
-                        getContentValues(packageName, appInfoInternal),
-                        UNIQUE_COLUMN_INFO);
+    private void updateIfPresent(String packageName, AppInfoInternal appInfoInternal) {
+        synchronized (mWriteLock) {
+            AppInfoInternal currentAppInfo = getAppInfoMap().get(packageName);
+            if (currentAppInfo == null) {
+                return;
+            }
 
-        TransactionManager.getInitialisedInstance().updateTable(upsertTableRequest);
-        getAppInfoMap().put(packageName, appInfoInternal);
+            UpsertTableRequest upsertTableRequest =
+                    new UpsertTableRequest(
+                            TABLE_NAME,
+                            getContentValues(packageName, appInfoInternal),
+                            UNIQUE_COLUMN_INFO);
+
+            TransactionManager.getInitialisedInstance().updateTable(upsertTableRequest);
+            // The row keeps its id, keep the id -> package name mapping pointing to it.
+            appInfoInternal.setId(currentAppInfo.getId());
+            putInCacheLocked(packageName, appInfoInternal);
+            mIconCache.remove(packageName);
+        }
     }
 
     @NonNull
@@ -659,18 +750,22 @@ public final class AppInfoHelper {
         contentValues.put(PACKAGE_COLUMN_NAME, packageName);
         contentValues.put(APPLICATION_COLUMN_NAME, appInfo.getName());
         contentValues.put(APP_ICON_COLUMN_NAME, encodeBitmap(appInfo.getIcon()));
-        String recordTypesUsedAsString = null;
+        contentValues.put(
+                RECORD_TYPES_USED_COLUMN_NAME,
+                getRecordTypesUsedAsString(appInfo.getRecordTypesUsed()));
+
+        return contentValues;
+    }
+
+    @Nullable
+    private static String getRecordTypesUsedAsString(@Nullable Set<Integer> recordTypesUsed) {
         // Since a list of recordTypeIds cannot be saved directly in the database, record types IDs
         // are concatenated using ',' and are saved as a string.
-        if (appInfo.getRecordTypesUsed() != null) {
-            recordTypesUsedAsString =
-                    appInfo.getRecordTypesUsed().stream()
-                            .map(String::valueOf)
-                            .collect(Collectors.joining(","));
+        if (recordTypesUsed == null) {
+            return null;
         }
-        contentValues.put(RECORD_TYPES_USED_COLUMN_NAME, recordTypesUsedAsString);
 
-        return contentValues;
+        return recordTypesUsed.stream().map(String::valueOf).collect(Collectors.joining(","));
     }
 
     /**
@@ -732,4 +827,133 @@ public final class AppInfoHelper {
         drawable.draw(canvas);
         return bmp;
     }
+
+    /**
+     * Immutable package-name -> AppInfo and appInfoId -> packageName maps of the same version of
+     * the application_info_table.
+     */
+    private static final class AppInfoCache {
+        private final Map<String, AppInfoInternal> mAppInfoMap;
+        private final Map<Long, String> mIdPackageNameMap;
+
+        AppInfoCache(
+                @NonNull Map<String, AppInfoInternal> appInfoMap,
+                @NonNull Map<Long, String> idPackageNameMap) {
+            mAppInfoMap = Collections.unmodifiableMap(appInfoMap);
+            mIdPackageNameMap = Collections.unmodifiableMap(idPackageNameMap);
+        }
+
+        /** Returns a copy of this cache with {@code appInfo} stored for {@code packageName}. */
+        @NonNull
+        AppInfoCache withAppInfo(@NonNull String packageName, @NonNull AppInfoInternal appInfo) {
+            Map<String, AppInfoInternal> appInfoMap = new HashMap<>(mAppInfoMap);
+            appInfoMap.put(packageName, appInfo);
+            Map<Long, String> idPackageNameMap = new HashMap<>(mIdPackageNameMap);
+            idPackageNameMap.put(appInfo.getId(), packageName);
+            return new AppInfoCache(appInfoMap, idPackageNameMap);
+        }
+    }
+
+    /**
+     * Adds record types to the record types used by a package as part of the transaction inserting
+     * its records, so that the table is only written when the package uses new record types.
+     */
+    public final class RecordTypesUsedUpdate {
+        private final String mPackageName;
+        private final Set<Integer> mRecordTypes;
+        private final long mRemovalCount;
+        private final boolean mRequiresWrite;
+
+        private RecordTypesUsedUpdate(
+                @NonNull String packageName,
+                @NonNull Set<Integer> recordTypes,
+                long removalCount,
+                boolean requiresWrite) {
+            mPackageName = packageName;
+            mRecordTypes = Set.copyOf(recordTypes);
+            mRemovalCount = removalCount;
+            mRequiresWrite = requiresWrite;
+        }
+
+        /**
+         * Adds the record types to the ones stored for the package, in the transaction open on
+         * {@code db}. Doesn't take the write lock, which writers hold while waiting for the
+         * database.
+         */
+        public void writeTo(@NonNull SQLiteDatabase db) {
+            if (!mRequiresWrite) {
+                return;
+            }
+
+            // Read the stored value rather than the snapshot, so that record types written by
+            // concurrent inserts of the package aren't overwritten.
+            String whereClause = PACKAGE_COLUMN_NAME + " = ?";
+            String[] whereArgs = new String[] {mPackageName};
+            Set<Integer> recordTypesUsed = new HashSet<>(mRecordTypes);
+            try (Cursor cursor =
+                    db.query(
+                            TABLE_NAME,
+                            new String[] {RECORD_TYPES_USED_COLUMN_NAME},
+                            whereClause,
+                            whereArgs,
+                            /* groupBy= */ null,
+                            /* having= */ null,
+                            /* orderBy= */ null)) {
+                if (!cursor.moveToFirst()) {
+                    return;
+                }
+
+                Set<Integer> storedRecordTypesUsed =
+                        getRecordTypesAsSet(getCursorString(cursor, RECORD_TYPES_USED_COLUMN_NAME));
+                if (storedRecordTypesUsed != null) {
+                    if (storedRecordTypesUsed.containsAll(mRecordTypes)) {
+                        return;
+                    }
+                    recordTypesUsed.addAll(storedRecordTypesUsed);
+                }
+            }
+
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(
+                    RECORD_TYPES_USED_COLUMN_NAME, getRecordTypesUsedAsString(recordTypesUsed));
+            db.update(TABLE_NAME, contentValues, whereClause, whereArgs);
+        }
+
+        /** Publishes the record types once the insert transaction is committed. */
+        public void onCommitted() {
+            if (!mRequiresWrite && mRecordTypesUsedRemovalCount.get() == mRemovalCount) {
+                return;
+            }
+
+            synchronized (mWriteLock) {
+                AppInfoInternal appInfo = getAppInfoMap().get(mPackageName);
+                if (appInfo == null) {
+                    return;
+                }
+
+                Set<Integer> recordTypesUsed = new HashSet<>(mRecordTypes);
+                if (appInfo.getRecordTypesUsed() != null) {
+                    recordTypesUsed.addAll(appInfo.getRecordTypesUsed());
+                }
+                if (recordTypesUsed.equals(appInfo.getRecordTypesUsed())) {
+                    return;
+                }
+
+                if (mRecordTypesUsedRemovalCount.get() != mRemovalCount) {
+                    // A sync may have removed these record types after they were checked, but
+                    // before the inserted records were committed. Write them again.
+                    updateAppInfoRecordTypesUsedSync(mPackageName, appInfo, recordTypesUsed);
+                } else {
+                    putInCacheLocked(
+                            mPackageName,
+                            new AppInfoInternal(
+                                    appInfo.getId(),
+                                    appInfo.getPackageName(),
+                                    appInfo.getName(),
+                                    /* icon= */ null,
+                                    recordTypesUsed));
+                }
+            }
+        }
+    }
 }
@@ -93,10 +93,14 @@ public final class BasalMetabolicRateRecordHelper
 
     @Override
     public double[] deriveAggregate(Cursor cursor, AggregateTableRequest request) {
+        List<Pair<Long, Long>> groupIntervals = request.getGroupSplitIntervals();
         DeriveBasalCaloriesBurnedHelper deriveBasalCaloriesBurnedHelper =
                 new DeriveBasalCaloriesBurnedHelper(
-                        cursor, BASAL_METABOLIC_RATE_COLUMN_NAME, request.getTimeColumnName());
-        List<Pair<Long, Long>> groupIntervals = request.getGroupSplitIntervals();
+                        cursor,
+                        BASAL_METABOLIC_RATE_COLUMN_NAME,
+                        request.getTimeColumnName(),
+                        groupIntervals.get(0).first,
+                        groupIntervals.get(groupIntervals.size() - 1).second);
         return deriveBasalCaloriesBurnedHelper.getBasalCaloriesBurned(groupIntervals);
     }
 
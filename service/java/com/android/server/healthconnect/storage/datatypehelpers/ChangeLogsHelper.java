@@ -20,6 +20,7 @@ import static android.health.connect.Constants.DEFAULT_LONG;
 import static android.health.connect.Constants.DELETE;
 import static android.health.connect.Constants.UPSERT;
 
+import static com.android.server.healthconnect.storage.HealthConnectDatabase.DB_VERSION_CHANGE_LOGS_COMPOSITE_INDEX;
 import static com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsRequestHelper.DEFAULT_CHANGE_LOG_TIME_PERIOD_IN_DAYS;
 import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.PRIMARY_COLUMN_NAME;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.BLOB_NON_NULL;
@@ -31,19 +32,25 @@ import static com.android.server.healthconnect.storage.utils.StorageUtils.getCur
 import android.annotation.NonNull;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.health.connect.accesslog.AccessLog.OperationType;
 import android.health.connect.changelog.ChangeLogsRequest;
 import android.health.connect.changelog.ChangeLogsResponse.DeletedLog;
 import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Pair;
 
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.healthconnect.ChangeObserverRegistry;
+import com.android.server.healthconnect.HealthConnectThreadScheduler;
 import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.OrderByClause;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
@@ -54,7 +61,10 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -70,8 +80,22 @@ public final class ChangeLogsHelper {
     private static final String OPERATION_TYPE_COLUMN_NAME = "operation_type";
     private static final String TIME_COLUMN_NAME = "time";
     private static final int NUM_COLS = 5;
+    // Index for the reads of change logs filtered on both record types and apps. As SQLite
+    // appends the row id, each (record type, app) pair is a range of row ids in this index.
+    private static final String RECORD_TYPE_APP_ID_INDEX_NAME = "record_type_app_id";
+    // Number of change log rows inserted after which the change logs are compacted.
+    private static final long COMPACTION_INTERVAL_ROWS = 5000;
+    // Maximum number of change log rows compacted in one transaction.
+    @VisibleForTesting static final int COMPACTION_BATCH_SIZE = 500;
     private static volatile ChangeLogsHelper sChangeLogsHelper;
 
+    /** Row id of the latest committed change log for each record type. */
+    private final ConcurrentHashMap<Integer, Long> mRecordTypeToLatestRowId =
+            new ConcurrentHashMap<>();
+
+    /** Row id of the latest change log when the change logs were last compacted. */
+    private final AtomicLong mRowIdAtLastCompaction = new AtomicLong(DEFAULT_LONG);
+
     private ChangeLogsHelper() {}
 
     public DeleteTableRequest getDeleteRequestForAutoDelete() {
@@ -88,11 +112,29 @@ public final class ChangeLogsHelper {
     public CreateTableRequest getCreateTableRequest() {
         return new CreateTableRequest(TABLE_NAME, getColumnInfo())
                 .createIndexOn(RECORD_TYPE_COLUMN_NAME)
-                .createIndexOn(APP_ID_COLUMN_NAME);
+                .createIndexOn(APP_ID_COLUMN_NAME)
+                .createIndexOn(
+                        RECORD_TYPE_APP_ID_INDEX_NAME,
+                        List.of(RECORD_TYPE_COLUMN_NAME, APP_ID_COLUMN_NAME));
     }
 
     // Called on DB update.
-    public void onUpgrade(int oldVersion, int newVersion, @NonNull SQLiteDatabase db) {}
+    public void onUpgrade(int oldVersion, int newVersion, @NonNull SQLiteDatabase db) {
+        if (oldVersion < DB_VERSION_CHANGE_LOGS_COMPOSITE_INDEX) {
+            List<String> createIndexStatements =
+                    new CreateTableRequest(TABLE_NAME, getColumnInfo())
+                            .createIndexOn(
+                                    RECORD_TYPE_APP_ID_INDEX_NAME,
+                                    List.of(RECORD_TYPE_COLUMN_NAME, APP_ID_COLUMN_NAME))
+                            .getCreateIndexStatements();
+            try {
+                createIndexStatements.forEach(db::execSQL);
+            } catch (SQLException sqlException) {
+                // Ignore this means the index exists. This is possible via module rollback
+                // followed by an upgrade
+            }
+        }
+    }
 
     /** Returns change logs post the time when {@code changeLogTokenRequest} was generated */
     public ChangeLogsResponse getChangeLogs(
@@ -116,10 +158,14 @@ public final class ChangeLogsHelper {
 
         // In setLimit(pagesize) method size will be set to pageSize + 1,so that if number of
         // records returned is more than pageSize we know there are more records available to return
-        // for the next read.
+        // for the next read. The next page starts after the last row id read, so rows are ordered
+        // by row id whichever index the query uses.
         int pageSize = changeLogsRequest.getPageSize();
         final ReadTableRequest readTableRequest =
-                new ReadTableRequest(TABLE_NAME).setWhereClause(whereClause).setLimit(pageSize);
+                new ReadTableRequest(TABLE_NAME)
+                        .setWhereClause(whereClause)
+                        .setOrderBy(new OrderByClause().addOrderByClause(PRIMARY_COLUMN_NAME, true))
+                        .setLimit(pageSize);
 
         Map<Integer, ChangeLogs> operationToChangeLogMap = new ArrayMap<>();
         TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
@@ -146,10 +192,250 @@ public final class ChangeLogsHelper {
         return new ChangeLogsResponse(operationToChangeLogMap, nextToken, hasMoreRecords);
     }
 
+    /**
+     * Returns true if there are change logs with a row id in ({@code fromRowId}, {@code toRowId}]
+     * for any of {@code recordTypes}, written by any of {@code packageNamesToFilter}. Empty lists
+     * match all record types or apps.
+     */
+    public boolean hasChangeLogs(
+            long fromRowId,
+            long toRowId,
+            @NonNull List<Integer> recordTypes,
+            @NonNull List<String> packageNamesToFilter) {
+        WhereClauses whereClause = getRowIdRangeWhereClause(fromRowId, toRowId);
+        if (!recordTypes.isEmpty()) {
+            whereClause.addWhereInIntsClause(RECORD_TYPE_COLUMN_NAME, recordTypes);
+        }
+
+        if (!packageNamesToFilter.isEmpty()) {
+            whereClause.addWhereInLongsClause(
+                    APP_ID_COLUMN_NAME,
+                    AppInfoHelper.getInstance().getAppInfoIds(packageNamesToFilter));
+        }
+
+        ReadTableRequest readTableRequest =
+                new ReadTableRequest(TABLE_NAME)
+                        .setColumnNames(List.of(PRIMARY_COLUMN_NAME))
+                        .setWhereClause(whereClause)
+                        .setLimit(1);
+        try (Cursor cursor =
+                TransactionManager.getInitialisedInstance().read(readTableRequest)) {
+            return cursor.moveToFirst();
+        }
+    }
+
     public long getLatestRowId() {
         return TransactionManager.getInitialisedInstance().getLastRowIdFor(TABLE_NAME);
     }
 
+    /**
+     * Returns the row id of the latest change log committed for {@code recordType} since the
+     * current user's DB was opened, or {@code DEFAULT_LONG} if there is none. Doesn't query the DB.
+     */
+    public long getLatestRowIdFor(@RecordTypeIdentifier.RecordType int recordType) {
+        return mRecordTypeToLatestRowId.getOrDefault(recordType, DEFAULT_LONG);
+    }
+
+    /**
+     * Returns the row id of the latest change log committed for each record type since the current
+     * user's DB was opened. Doesn't query the DB.
+     */
+    @NonNull
+    public Map<Integer, Long> getLatestRowIds() {
+        return Map.copyOf(mRecordTypeToLatestRowId);
+    }
+
+    /**
+     * Updates the in-memory latest change log row ids. Must only be called once the transaction
+     * which inserted the change logs has been committed.
+     */
+    public void onChangeLogsCommitted(@NonNull Map<Integer, Long> recordTypeToRowId) {
+        long latestRowId = DEFAULT_LONG;
+        for (Map.Entry<Integer, Long> entry : recordTypeToRowId.entrySet()) {
+            mRecordTypeToLatestRowId.merge(entry.getKey(), entry.getValue(), Math::max);
+            latestRowId = Math.max(latestRowId, entry.getValue());
+        }
+        maybeScheduleCompaction(latestRowId);
+        ChangeObserverRegistry.getInstance().onChangeLogsCommitted(recordTypeToRowId);
+    }
+
+    /** Clears the in-memory latest change log row ids, e.g. when the user switches. */
+    public void clearCache() {
+        mRecordTypeToLatestRowId.clear();
+        mRowIdAtLastCompaction.set(DEFAULT_LONG);
+    }
+
+    /**
+     * Removes the change log entries superseded by a later entry for the same record, i.e. with
+     * the same record type, app and uuid, so that each changed record is returned once per sync.
+     * Rows left without any uuid are deleted.
+     *
+     * <p>The entry kept for a record is its latest one, which comes after all the entries it
+     * supersedes. Reading from any token hence still returns the latest operation of each record
+     * changed after that token.
+     *
+     * <p>Only the change logs after the oldest row id stored in a token are compacted, as the ones
+     * before can't be read anymore.
+     */
+    public void compactChangeLogs() {
+        long oldestTokenRowId = ChangeLogsRequestHelper.getInstance().getOldestRowIdChangeLogs();
+        if (oldestTokenRowId == DEFAULT_LONG) {
+            // No token has been generated, so no change log can be read.
+            return;
+        }
+        compactChangeLogs(oldestTokenRowId, getLatestRowId());
+    }
+
+    /**
+     * Compacts the change logs with a row id in ({@code fromRowId}, {@code toRowId}], see {@link
+     * #compactChangeLogs()}. Entries are only removed when superseded by an entry in this range.
+     */
+    @VisibleForTesting
+    void compactChangeLogs(long fromRowId, long toRowId) {
+        if (fromRowId >= toRowId) {
+            return;
+        }
+
+        TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
+        List<Integer> recordTypes = new ArrayList<>();
+        try (Cursor cursor =
+                transactionManager.read(
+                        new ReadTableRequest(TABLE_NAME)
+                                .setColumnNames(List.of(RECORD_TYPE_COLUMN_NAME))
+                                .setWhereClause(getRowIdRangeWhereClause(fromRowId, toRowId))
+                                .setDistinctClause(true))) {
+            while (cursor.moveToNext()) {
+                recordTypes.add(getCursorInt(cursor, RECORD_TYPE_COLUMN_NAME));
+            }
+        }
+
+        // Rows are compacted from the latest one, in batches each in its own transaction so that
+        // writes are not blocked for long. Only the uuids of one type are held in memory.
+        for (int recordType : recordTypes) {
+            Map<Long, Set<UUID>> appIdToLaterUuids = new ArrayMap<>();
+            AtomicLong upperRowId = new AtomicLong(toRowId);
+            while (upperRowId.get() > fromRowId) {
+                transactionManager.runAsTransaction(
+                        db ->
+                                upperRowId.set(
+                                        compactChangeLogsBatch(
+                                                db,
+                                                recordType,
+                                                fromRowId,
+                                                upperRowId.get(),
+                                                appIdToLaterUuids)));
+            }
+        }
+    }
+
+    /**
+     * Compacts the latest {@code COMPACTION_BATCH_SIZE} change logs of {@code recordType} with a
+     * row id in ({@code fromRowId}, {@code toRowId}], against the uuids in {@code
+     * appIdToLaterUuids}, to which the uuids read are added. Returns the row id before which to
+     * compact the next batch, {@code fromRowId} if there is none.
+     */
+    private long compactChangeLogsBatch(
+            @NonNull SQLiteDatabase db,
+            int recordType,
+            long fromRowId,
+            long toRowId,
+            @NonNull Map<Long, Set<UUID>> appIdToLaterUuids) {
+        // Row id to the uuids left in that row, null if none is left.
+        Map<Long, List<UUID>> compactedRows = new ArrayMap<>();
+        long nextToRowId = fromRowId;
+        int rowCount = 0;
+        try (Cursor cursor =
+                db.query(
+                        TABLE_NAME,
+                        new String[] {PRIMARY_COLUMN_NAME, APP_ID_COLUMN_NAME, UUIDS_COLUMN_NAME},
+                        RECORD_TYPE_COLUMN_NAME
+                                + " = ? AND "
+                                + PRIMARY_COLUMN_NAME
+                                + " > ? AND "
+                                + PRIMARY_COLUMN_NAME
+                                + " <= ?",
+                        new String[] {
+                            String.valueOf(recordType),
+                            String.valueOf(fromRowId),
+                            String.valueOf(toRowId)
+                        },
+                        /* groupBy= */ null,
+                        /* having= */ null,
+                        PRIMARY_COLUMN_NAME + " DESC",
+                        String.valueOf(COMPACTION_BATCH_SIZE))) {
+            while (cursor.moveToNext()) {
+                long rowId = getCursorLong(cursor, PRIMARY_COLUMN_NAME);
+                Set<UUID> laterUuids =
+                        appIdToLaterUuids.computeIfAbsent(
+                                getCursorLong(cursor, APP_ID_COLUMN_NAME), k -> new ArraySet<>());
+                List<UUID> uuids = StorageUtils.getCursorUUIDList(cursor, UUIDS_COLUMN_NAME);
+                List<UUID> latestUuids = new ArrayList<>(uuids.size());
+                for (UUID uuid : uuids) {
+                    if (laterUuids.add(uuid)) {
+                        latestUuids.add(uuid);
+                    }
+                }
+                if (latestUuids.size() < uuids.size()) {
+                    compactedRows.put(rowId, latestUuids.isEmpty() ? null : latestUuids);
+                }
+                rowCount++;
+                // Row ids are read in descending order, the next batch is before this row.
+                nextToRowId = rowId - 1;
+            }
+        }
+
+        // Rows are only updated once the cursor is closed, as it may re-run the query.
+        for (Map.Entry<Long, List<UUID>> compactedRow : compactedRows.entrySet()) {
+            String[] whereArgs = new String[] {String.valueOf(compactedRow.getKey())};
+            if (compactedRow.getValue() == null) {
+                db.delete(TABLE_NAME, PRIMARY_COLUMN_NAME + " = ?", whereArgs);
+            } else {
+                ContentValues contentValues = new ContentValues();
+                contentValues.put(
+                        UUIDS_COLUMN_NAME,
+                        StorageUtils.getSingleByteArray(compactedRow.getValue()));
+                db.update(TABLE_NAME, contentValues, PRIMARY_COLUMN_NAME + " = ?", whereArgs);
+            }
+        }
+
+        return rowCount < COMPACTION_BATCH_SIZE ? fromRowId : nextToRowId;
+    }
+
+    @NonNull
+    private static WhereClauses getRowIdRangeWhereClause(long fromRowId, long toRowId) {
+        return new WhereClauses()
+                .addWhereGreaterThanClause(PRIMARY_COLUMN_NAME, fromRowId)
+                .addWhereLessThanOrEqualClause(PRIMARY_COLUMN_NAME, toRowId);
+    }
+
+    private void maybeScheduleCompaction(long latestRowId) {
+        if (latestRowId == DEFAULT_LONG) {
+            return;
+        }
+
+        long rowIdAtLastCompaction = mRowIdAtLastCompaction.get();
+        if (rowIdAtLastCompaction == DEFAULT_LONG) {
+            // Counts from the first change log since the DB was opened, the daily job compacts the
+            // ones before.
+            mRowIdAtLastCompaction.compareAndSet(DEFAULT_LONG, latestRowId);
+            return;
+        }
+
+        // Only the change logs since the last compaction are compacted, the daily job compacts
+        // the entries superseded across these ranges.
+        if (latestRowId - rowIdAtLastCompaction >= COMPACTION_INTERVAL_ROWS
+                && mRowIdAtLastCompaction.compareAndSet(rowIdAtLastCompaction, latestRowId)) {
+            HealthConnectThreadScheduler.scheduleInternalTask(
+                    () -> compactChangeLogs(rowIdAtLastCompaction, latestRowId));
+        }
+    }
+
+    /** Returns the record type of a change log insert request created by {@link ChangeLogs}. */
+    @RecordTypeIdentifier.RecordType
+    public static int getRecordType(@NonNull UpsertTableRequest changeLogRequest) {
+        return changeLogRequest.getContentValues().getAsInteger(RECORD_TYPE_COLUMN_NAME);
+    }
+
     private int addChangeLogs(Cursor cursor, Map<Integer, ChangeLogs> changeLogs) {
         @RecordTypeIdentifier.RecordType
         int recordType = getCursorInt(cursor, RECORD_TYPE_COLUMN_NAME);
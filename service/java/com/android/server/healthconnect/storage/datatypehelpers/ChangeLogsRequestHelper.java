@@ -16,6 +16,8 @@
 
 package com.android.server.healthconnect.storage.datatypehelpers;
 
+import static android.health.connect.Constants.DEFAULT_LONG;
+
 import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.PRIMARY_COLUMN_NAME;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.DELIMITER;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER;
@@ -24,6 +26,7 @@ import static com.android.server.healthconnect.storage.utils.StorageUtils.TEXT_N
 import static com.android.server.healthconnect.storage.utils.StorageUtils.TEXT_NULL;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorInt;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorIntegerList;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorString;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorStringList;
 
@@ -39,6 +42,7 @@ import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.OrderByClause;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
@@ -102,6 +106,27 @@ public final class ChangeLogsRequestHelper {
                         .insert(new UpsertTableRequest(TABLE_NAME, contentValues)));
     }
 
+    /**
+     * Returns the smallest change logs row id stored in a token, or {@code DEFAULT_LONG} if there
+     * is no token. The change logs up to this row id can't be read with any token.
+     */
+    public long getOldestRowIdChangeLogs() {
+        ReadTableRequest readTableRequest =
+                new ReadTableRequest(TABLE_NAME)
+                        .setColumnNames(List.of(ROW_ID_CHANGE_LOGS_TABLE_COLUMN_NAME))
+                        .setOrderBy(
+                                new OrderByClause()
+                                        .addOrderByClause(
+                                                ROW_ID_CHANGE_LOGS_TABLE_COLUMN_NAME, true))
+                        .setLimit(1);
+        try (Cursor cursor =
+                TransactionManager.getInitialisedInstance().read(readTableRequest)) {
+            return cursor.moveToFirst()
+                    ? getCursorLong(cursor, ROW_ID_CHANGE_LOGS_TABLE_COLUMN_NAME)
+                    : DEFAULT_LONG;
+        }
+    }
+
     public DeleteTableRequest getDeleteRequestForAutoDelete() {
         return new DeleteTableRequest(TABLE_NAME)
                 .setTimeFilter(
@@ -102,4 +102,17 @@ public class CyclingPedalingCadenceRecordHelper
                 cyclingPedalingCadenceRecord.getRevolutionsPerMinute());
         contentValues.put(EPOCH_MILLIS_COLUMN_NAME, cyclingPedalingCadenceRecord.getEpochMillis());
     }
+
+    @Override
+    @NonNull
+    String getSampleValueColumnName() {
+        return REVOLUTIONS_PER_MINUTE_COLUMN_NAME;
+    }
+
+    @Override
+    double getSampleValue(
+            @NonNull CyclingPedalingCadenceRecordInternal.CyclingPedalingCadenceRecordSample
+                    sample) {
+        return sample.getRevolutionsPerMinute();
+    }
 }
@@ -39,12 +39,17 @@ import com.android.server.healthconnect.storage.utils.StorageUtils;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
 /**
  * Helper class to Derive BasalCaloriesTotal aggregate
  *
+ * <p>Each input series (BMR, lean body mass, height and weight) is read at most once for the whole
+ * requested range, together with its most recent value before the range, and every interval is
+ * then derived in memory.
+ *
  * @hide
  */
 public final class DeriveBasalCaloriesBurnedHelper {
@@ -56,22 +61,35 @@ public final class DeriveBasalCaloriesBurnedHelper {
     private static final double DEFAULT_HEIGHT_IN_METERS = 1.7;
     private static final int DEFAULT_GENDER_CONSTANT = -78;
     private static final String TAG = "DeriveBasalCalories";
-    private final Cursor mCursor;
-    private final String mColumnName;
-    private double mRateOfEnergyBurntInWatts = 0;
-    private String mTimeColumnName;
+    private final String mTimeColumnName;
+    private final long mRangeStartTime;
+    private final long mRangeEndTime;
+    private final Timeline mBmrTimeline;
+    private Timeline mLeanBodyMassTimeline;
+    private Timeline mHeightTimeline;
+    private Timeline mWeightTimeline;
 
     @SuppressWarnings("GoodTime") // constant age represented by primitive
     private static final int DEFAULT_AGE = 30;
 
+    /**
+     * @param cursor BMR records inside the range, ordered by {@code timeColumnName}.
+     * @param rangeStartTime start of the earliest interval which will be derived.
+     * @param rangeEndTime end of the latest interval which will be derived.
+     */
     public DeriveBasalCaloriesBurnedHelper(
-            @NonNull Cursor cursor, @NonNull String columnName, @NonNull String timeColumnName) {
+            @NonNull Cursor cursor,
+            @NonNull String columnName,
+            @NonNull String timeColumnName,
+            long rangeStartTime,
+            long rangeEndTime) {
         Objects.requireNonNull(cursor);
         Objects.requireNonNull(columnName);
         Objects.requireNonNull(timeColumnName);
-        mCursor = cursor;
-        mColumnName = columnName;
         mTimeColumnName = timeColumnName;
+        mRangeStartTime = rangeStartTime;
+        mRangeEndTime = rangeEndTime;
+        mBmrTimeline = loadBmrTimeline(cursor, columnName);
     }
 
     /**
@@ -84,127 +102,72 @@ public final class DeriveBasalCaloriesBurnedHelper {
             return 0;
         }
 
-        double currentGroupTotal = 0;
-        // calculate aggregate for current interval between start and end time by iterating
-        // cursor until current time is inside current group interval
-        if (mCursor.getCount() == 0) {
-            return derivedBasalCaloriesViaReadBack(intervalStartTime, intervalEndTime);
-        }
-
-        long lastItemTime = -1;
-        while (mCursor.moveToNext()) {
-            long time = StorageUtils.getCursorLong(mCursor, mTimeColumnName);
-
-            if (lastItemTime == -1) {
-                if (time > intervalStartTime && mRateOfEnergyBurntInWatts == 0) {
-                    if (time > intervalEndTime) {
-                        mCursor.moveToPrevious();
-                        return derivedBasalCaloriesViaReadBack(intervalStartTime, intervalEndTime);
-                    }
-
-                    currentGroupTotal += derivedBasalCaloriesViaReadBack(intervalStartTime, time);
-                    lastItemTime = time;
-                } else {
-                    lastItemTime = intervalStartTime;
-                }
-
-                mRateOfEnergyBurntInWatts = StorageUtils.getCursorDouble(mCursor, mColumnName);
-                continue;
-            }
-
-            if (time >= intervalEndTime) {
-                mCursor.moveToPrevious();
-                break;
-            }
-
-            currentGroupTotal +=
-                    getCurrentIntervalEnergy(mRateOfEnergyBurntInWatts, lastItemTime, time);
-            mRateOfEnergyBurntInWatts = StorageUtils.getCursorDouble(mCursor, mColumnName);
-            lastItemTime = time;
+        // Before the first BMR entry, fall back to lean body mass.
+        int index = mBmrTimeline.floorIndex(intervalStartTime);
+        long currentTime = intervalStartTime;
+        double total = 0;
+        if (index == -1) {
+            long fallbackEndTime =
+                    mBmrTimeline.size() == 0
+                            ? intervalEndTime
+                            : Math.min(mBmrTimeline.getTime(0), intervalEndTime);
+            total += derivedBasalCaloriesBurnedFromLeanBodyMass(currentTime, fallbackEndTime);
+            currentTime = fallbackEndTime;
+            index = 0;
         }
 
-        if (lastItemTime == -1) {
-            currentGroupTotal +=
-                    getCurrentIntervalEnergy(
-                            mRateOfEnergyBurntInWatts, intervalStartTime, intervalEndTime);
-        } else if (lastItemTime < intervalEndTime) {
-            currentGroupTotal +=
+        while (currentTime < intervalEndTime) {
+            long nextTime =
+                    index + 1 < mBmrTimeline.size()
+                            ? Math.min(mBmrTimeline.getTime(index + 1), intervalEndTime)
+                            : intervalEndTime;
+            total +=
                     getCurrentIntervalEnergy(
-                            mRateOfEnergyBurntInWatts, lastItemTime, intervalEndTime);
+                            mBmrTimeline.getValue(index), currentTime, nextTime);
+            currentTime = nextTime;
+            index++;
         }
 
-        return currentGroupTotal;
+        return total;
     }
 
-    private double derivedBasalCaloriesViaReadBack(long intervalStartTime, long intervalEndTime) {
-        if (mRateOfEnergyBurntInWatts != 0) {
-            return getCurrentIntervalEnergy(
-                    mRateOfEnergyBurntInWatts, intervalStartTime, intervalEndTime);
+    private double derivedBasalCaloriesBurnedFromLeanBodyMass(
+            long intervalStartTime, long intervalEndTime) {
+        if (intervalStartTime >= intervalEndTime) {
+            return 0;
         }
 
-        final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
-        try (Cursor cursor =
-                transactionManager.read(
-                        new ReadTableRequest(BASAL_METABOLIC_RATE_RECORD_TABLE_NAME)
-                                .setColumnNames(List.of(BASAL_METABOLIC_RATE_COLUMN_NAME))
-                                .setWhereClause(
-                                        new WhereClauses()
-                                                .addWhereLessThanOrEqualClause(
-                                                        mTimeColumnName, intervalStartTime))
-                                .setLimit(0)
-                                .setOrderBy(
-                                        new OrderByClause()
-                                                .addOrderByClause(mTimeColumnName, false)))) {
-            if (cursor.getCount() == 0) {
-                // No data found, fallback to LBM
-                return derivedBasalCaloriesBurnedFromLeanBodyMass(
-                        intervalStartTime, intervalEndTime);
-            }
-            cursor.moveToNext();
-            mRateOfEnergyBurntInWatts =
-                    StorageUtils.getCursorDouble(cursor, BASAL_METABOLIC_RATE_COLUMN_NAME);
-            return getCurrentIntervalEnergy(
-                    mRateOfEnergyBurntInWatts, intervalStartTime, intervalEndTime);
+        if (mLeanBodyMassTimeline == null) {
+            mLeanBodyMassTimeline =
+                    loadTimelineForDerivingBMR(LEAN_BODY_MASS_RECORD_TABLE_NAME, MASS_COLUMN_NAME);
         }
-    }
 
-    private double derivedBasalCaloriesBurnedFromLeanBodyMass(
-            long intervalStartTime, long intervalEndTime) {
+        // Before the first lean body mass entry, fall back to profile data.
+        int index = mLeanBodyMassTimeline.floorIndex(intervalStartTime);
+        long currentTime = intervalStartTime;
         double totalCalories = 0;
-        try (Cursor lbmCursor = getLeanBodyMassCursor(intervalStartTime, intervalEndTime)) {
-            if (lbmCursor.getCount() == 0) {
-                // No data found, fallback to profile data
-                return derivedBasalCaloriesBurnedFromProfile(intervalStartTime, intervalEndTime);
-            }
-
-            long lastReadTime = -1;
-            double bmrFromLbmInCaloriesPerDay = 0;
-            while (lbmCursor.moveToNext()) {
-                double mass = StorageUtils.getCursorDouble(lbmCursor, MASS_COLUMN_NAME);
-                long time = StorageUtils.getCursorLong(lbmCursor, mTimeColumnName);
-                if (lastReadTime == -1) {
-                    // Derive calories from profile for start time to first entry time, if required
-                    if (time > intervalStartTime) {
-                        totalCalories +=
-                                derivedBasalCaloriesBurnedFromProfile(intervalStartTime, time);
-                        lastReadTime = time;
-                    } else {
-                        lastReadTime = intervalStartTime;
-                    }
-                    bmrFromLbmInCaloriesPerDay = getBmrFromLbmInCaloriesPerDay(mass);
-                    continue;
-                }
-
-                totalCalories += getCalories(bmrFromLbmInCaloriesPerDay, lastReadTime, time);
-
-                bmrFromLbmInCaloriesPerDay = getBmrFromLbmInCaloriesPerDay(mass);
-                lastReadTime = time;
-            }
+        if (index == -1) {
+            long fallbackEndTime =
+                    mLeanBodyMassTimeline.size() == 0
+                            ? intervalEndTime
+                            : Math.min(mLeanBodyMassTimeline.getTime(0), intervalEndTime);
+            totalCalories += derivedBasalCaloriesBurnedFromProfile(currentTime, fallbackEndTime);
+            currentTime = fallbackEndTime;
+            index = 0;
+        }
 
-            if (lastReadTime < intervalEndTime) {
-                totalCalories +=
-                        getCalories(bmrFromLbmInCaloriesPerDay, lastReadTime, intervalEndTime);
-            }
+        while (currentTime < intervalEndTime) {
+            long nextTime =
+                    index + 1 < mLeanBodyMassTimeline.size()
+                            ? Math.min(mLeanBodyMassTimeline.getTime(index + 1), intervalEndTime)
+                            : intervalEndTime;
+            totalCalories +=
+                    getCalories(
+                            getBmrFromLbmInCaloriesPerDay(mLeanBodyMassTimeline.getValue(index)),
+                            currentTime,
+                            nextTime);
+            currentTime = nextTime;
+            index++;
         }
 
         return totalCalories;
@@ -216,123 +179,108 @@ public final class DeriveBasalCaloriesBurnedHelper {
 
     private double derivedBasalCaloriesBurnedFromProfile(
             long intervalStartTime, long intervalEndTime) {
-        double caloriesFromProfile = 0;
-        try (Cursor heightCursor = getHeightCursor(intervalStartTime, intervalEndTime);
-                Cursor weightCursor = getWeightCursor(intervalStartTime, intervalEndTime)) {
-            if (heightCursor.getCount() == 0 && weightCursor.getCount() == 0) {
-                return getCaloriesFromHeightAndWeight(
-                        DEFAULT_HEIGHT_IN_METERS,
-                        DEFAULT_WEIGHT_IN_GMS,
-                        intervalStartTime,
-                        intervalEndTime);
-            }
-
-            boolean hasHeight = heightCursor.moveToNext();
-            boolean hasWeight = weightCursor.moveToNext();
-            long lastTimeUsed = -1;
-            double height = DEFAULT_HEIGHT_IN_METERS;
-            double weight = DEFAULT_WEIGHT_IN_GMS;
-
-            long heightTime = Integer.MAX_VALUE;
-            long weightTime = Integer.MAX_VALUE;
-            while (hasHeight || hasWeight) {
-                if (hasHeight) {
-                    heightTime = StorageUtils.getCursorLong(heightCursor, mTimeColumnName);
-                }
-
-                if (hasWeight) {
-                    weightTime = StorageUtils.getCursorLong(weightCursor, mTimeColumnName);
-                }
+        if (intervalStartTime >= intervalEndTime) {
+            return 0;
+        }
 
-                if (lastTimeUsed < intervalStartTime) {
-                    lastTimeUsed = Math.min(heightTime, weightTime);
-                    if (lastTimeUsed > intervalStartTime) {
-                        caloriesFromProfile +=
-                                getCaloriesFromHeightAndWeight(
-                                        height, weight, intervalStartTime, lastTimeUsed);
-                    }
-                } else {
-                    long time = Math.min(heightTime, weightTime);
-                    caloriesFromProfile +=
-                            getCaloriesFromHeightAndWeight(height, weight, lastTimeUsed, time);
-                    lastTimeUsed = time;
-                }
+        if (mHeightTimeline == null) {
+            mHeightTimeline =
+                    loadTimelineForDerivingBMR(HEIGHT_RECORD_TABLE_NAME, HEIGHT_COLUMN_NAME);
+        }
+        if (mWeightTimeline == null) {
+            mWeightTimeline =
+                    loadTimelineForDerivingBMR(WEIGHT_RECORD_TABLE_NAME, WEIGHT_COLUMN_NAME);
+        }
 
-                // Move the cursor one by one to calculate BMR as accurately as possible.
-                if ((heightTime < weightTime) && hasHeight) {
-                    height = StorageUtils.getCursorDouble(heightCursor, HEIGHT_COLUMN_NAME);
-                    hasHeight = heightCursor.moveToNext();
-                } else if ((weightTime < heightTime) && hasWeight) {
-                    weight = StorageUtils.getCursorDouble(weightCursor, WEIGHT_COLUMN_NAME);
-                    hasWeight = weightCursor.moveToNext();
-                } else {
-                    if (hasWeight) {
-                        weight = StorageUtils.getCursorDouble(weightCursor, WEIGHT_COLUMN_NAME);
-                        hasWeight = weightCursor.moveToNext();
-                    }
-
-                    if (hasHeight) {
-                        height = StorageUtils.getCursorDouble(heightCursor, HEIGHT_COLUMN_NAME);
-                        hasHeight = heightCursor.moveToNext();
-                    }
-                }
+        // Walk through every point in time where either height or weight changes.
+        int heightIndex = mHeightTimeline.floorIndex(intervalStartTime);
+        int weightIndex = mWeightTimeline.floorIndex(intervalStartTime);
+        long currentTime = intervalStartTime;
+        double caloriesFromProfile = 0;
+        while (currentTime < intervalEndTime) {
+            long nextHeightTime =
+                    heightIndex + 1 < mHeightTimeline.size()
+                            ? mHeightTimeline.getTime(heightIndex + 1)
+                            : Long.MAX_VALUE;
+            long nextWeightTime =
+                    weightIndex + 1 < mWeightTimeline.size()
+                            ? mWeightTimeline.getTime(weightIndex + 1)
+                            : Long.MAX_VALUE;
+            long nextTime = Math.min(Math.min(nextHeightTime, nextWeightTime), intervalEndTime);
+            double height =
+                    heightIndex == -1
+                            ? DEFAULT_HEIGHT_IN_METERS
+                            : mHeightTimeline.getValue(heightIndex);
+            double weight =
+                    weightIndex == -1
+                            ? DEFAULT_WEIGHT_IN_GMS
+                            : mWeightTimeline.getValue(weightIndex);
+            caloriesFromProfile +=
+                    getCaloriesFromHeightAndWeight(height, weight, currentTime, nextTime);
+
+            if (nextHeightTime == nextTime) {
+                heightIndex++;
             }
-
-            if (lastTimeUsed < intervalEndTime) {
-                caloriesFromProfile +=
-                        getCaloriesFromHeightAndWeight(
-                                height, weight, lastTimeUsed, intervalEndTime);
+            if (nextWeightTime == nextTime) {
+                weightIndex++;
             }
+            currentTime = nextTime;
         }
 
         return caloriesFromProfile;
     }
 
-    private Cursor getLeanBodyMassCursor(long intervalStartTime, long intervalEndTime) {
-        return getReadCursorForDerivingBMR(
-                intervalStartTime,
-                intervalEndTime,
-                LEAN_BODY_MASS_RECORD_TABLE_NAME,
-                MASS_COLUMN_NAME);
-    }
+    /** Reads the BMR entries in range from {@code cursor} plus the latest one before the range. */
+    private Timeline loadBmrTimeline(Cursor cursor, String columnName) {
+        final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
+        Timeline timeline = new Timeline(cursor.getCount() + 1);
+        try (Cursor previousCursor =
+                transactionManager.read(
+                        getLatestValueReadRequest(
+                                BASAL_METABOLIC_RATE_RECORD_TABLE_NAME,
+                                BASAL_METABOLIC_RATE_COLUMN_NAME))) {
+            timeline.addAll(previousCursor, BASAL_METABOLIC_RATE_COLUMN_NAME, mTimeColumnName);
+        }
 
-    private Cursor getHeightCursor(long intervalStartTime, long intervalEndTime) {
-        return getReadCursorForDerivingBMR(
-                intervalStartTime, intervalEndTime, HEIGHT_RECORD_TABLE_NAME, HEIGHT_COLUMN_NAME);
+        cursor.moveToPosition(-1);
+        timeline.addAll(cursor, columnName, mTimeColumnName);
+        cursor.moveToPosition(-1);
+        timeline.sortIfNeeded();
+        return timeline;
     }
 
-    private Cursor getWeightCursor(long intervalStartTime, long intervalEndTime) {
-        return getReadCursorForDerivingBMR(
-                intervalStartTime, intervalEndTime, WEIGHT_RECORD_TABLE_NAME, WEIGHT_COLUMN_NAME);
+    private Timeline loadTimelineForDerivingBMR(String tableName, String colName) {
+        final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
+        try (Cursor cursor =
+                transactionManager.read(
+                        new ReadTableRequest(tableName)
+                                .setColumnNames(List.of(colName, mTimeColumnName))
+                                .setWhereClause(
+                                        new WhereClauses()
+                                                .addWhereBetweenTimeClause(
+                                                        mTimeColumnName,
+                                                        mRangeStartTime,
+                                                        mRangeEndTime))
+                                .setOrderBy(
+                                        new OrderByClause()
+                                                .addOrderByClause(mTimeColumnName, true))
+                                .setUnionReadRequests(
+                                        List.of(getLatestValueReadRequest(tableName, colName))))) {
+            Timeline timeline = new Timeline(cursor.getCount());
+            timeline.addAll(cursor, colName, mTimeColumnName);
+            timeline.sortIfNeeded();
+            return timeline;
+        }
     }
 
-    private Cursor getReadCursorForDerivingBMR(
-            long intervalStartTime, long intervalEndTime, String tableName, String colName) {
-        final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
-        return transactionManager.read(
-                new ReadTableRequest(tableName)
-                        .setColumnNames(List.of(colName, mTimeColumnName))
-                        .setWhereClause(
-                                new WhereClauses()
-                                        .addWhereBetweenTimeClause(
-                                                mTimeColumnName,
-                                                intervalStartTime,
-                                                intervalEndTime))
-                        .setOrderBy(new OrderByClause().addOrderByClause(mTimeColumnName, true))
-                        .setUnionReadRequests(
-                                List.of(
-                                        new ReadTableRequest(tableName)
-                                                .setColumnNames(List.of(colName, mTimeColumnName))
-                                                .setWhereClause(
-                                                        new WhereClauses()
-                                                                .addWhereLessThanOrEqualClause(
-                                                                        mTimeColumnName,
-                                                                        intervalStartTime))
-                                                .setLimit(0)
-                                                .setOrderBy(
-                                                        new OrderByClause()
-                                                                .addOrderByClause(
-                                                                        mTimeColumnName, false)))));
+    private ReadTableRequest getLatestValueReadRequest(String tableName, String colName) {
+        return new ReadTableRequest(tableName)
+                .setColumnNames(List.of(colName, mTimeColumnName))
+                .setWhereClause(
+                        new WhereClauses()
+                                .addWhereLessThanOrEqualClause(mTimeColumnName, mRangeStartTime))
+                .setLimit(0)
+                .setOrderBy(new OrderByClause().addOrderByClause(mTimeColumnName, false));
     }
 
     /**
@@ -410,4 +358,83 @@ public final class DeriveBasalCaloriesBurnedHelper {
     private double getCalPerDay(double rateOfEnergyBurntInWatt) {
         return rateOfEnergyBurntInWatt * HOURS_PER_DAY * WATT_TO_CAL_PER_HR;
     }
+
+    /** A series of values sorted by time, kept in primitive arrays. */
+    private static final class Timeline {
+        private long[] mTimes;
+        private double[] mValues;
+        private int mSize;
+
+        Timeline(int initialCapacity) {
+            mTimes = new long[Math.max(initialCapacity, 1)];
+            mValues = new double[Math.max(initialCapacity, 1)];
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        long getTime(int index) {
+            return mTimes[index];
+        }
+
+        double getValue(int index) {
+            return mValues[index];
+        }
+
+        void addAll(Cursor cursor, String valueColumnName, String timeColumnName) {
+            while (cursor.moveToNext()) {
+                if (mSize == mTimes.length) {
+                    mTimes = Arrays.copyOf(mTimes, mSize * 2);
+                    mValues = Arrays.copyOf(mValues, mSize * 2);
+                }
+                mTimes[mSize] = StorageUtils.getCursorLong(cursor, timeColumnName);
+                mValues[mSize] = StorageUtils.getCursorDouble(cursor, valueColumnName);
+                mSize++;
+            }
+        }
+
+        /** Entries are expected in order already, but the order of union reads isn't guaranteed. */
+        void sortIfNeeded() {
+            for (int i = 1; i < mSize; i++) {
+                if (mTimes[i - 1] > mTimes[i]) {
+                    sort();
+                    return;
+                }
+            }
+        }
+
+        /** Returns the index of the latest entry at or before {@code time}, or -1 if none. */
+        int floorIndex(long time) {
+            int low = 0;
+            int high = mSize - 1;
+            int result = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (mTimes[mid] <= time) {
+                    result = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return result;
+        }
+
+        private void sort() {
+            Integer[] order = new Integer[mSize];
+            for (int i = 0; i < mSize; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(mTimes[a], mTimes[b]));
+            long[] times = new long[mTimes.length];
+            double[] values = new double[mValues.length];
+            for (int i = 0; i < mSize; i++) {
+                times[i] = mTimes[order[i]];
+                values[i] = mValues[order[i]];
+            }
+            mTimes = times;
+            mValues = values;
+        }
+    }
 }
@@ -26,6 +26,7 @@ import static com.android.server.healthconnect.storage.utils.StorageUtils.getCur
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorString;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -33,16 +34,18 @@ import android.health.connect.datatypes.Device.DeviceType;
 import android.health.connect.internal.datatypes.RecordInternal;
 import android.util.Pair;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A class to help with the DB transaction for storing Device Info. {@link DeviceInfoHelper} acts as
@@ -57,10 +60,15 @@ public class DeviceInfoHelper {
     private static final String MODEL_COLUMN_NAME = "model";
     private static final String DEVICE_TYPE_COLUMN_NAME = "device_type";
     private static volatile DeviceInfoHelper sDeviceInfoHelper;
-    /** Map to store deviceInfoId -> DeviceInfo mapping for populating record for read */
-    private volatile ConcurrentHashMap<Long, DeviceInfo> mIdDeviceInfoMap;
-    /** ArrayMap to store DeviceInfo -> rowId mapping (model,manufacturer,device_type -> rowId) */
-    private volatile ConcurrentHashMap<DeviceInfo, Long> mDeviceInfoMap;
+
+    /**
+     * Snapshot of the device_info_table, replaced by an updated copy on every insert so that the
+     * per record lookups don't need any lock. Use {@link #getDeviceInfoCache} to read it.
+     */
+    @Nullable private volatile DeviceInfoCache mDeviceInfoCache;
+
+    /** Serializes the inserts to the device_info_table and the updates of the cache. */
+    private final Object mWriteLock = new Object();
 
     /**
      * Returns a requests representing the tables that should be created corresponding to this
@@ -108,18 +116,17 @@ public class DeviceInfoHelper {
         // empty by default
     }
 
-    public synchronized void clearCache() {
-        mDeviceInfoMap = null;
-        mIdDeviceInfoMap = null;
-    }
-
-    private synchronized void populateDeviceInfoMap() {
-        if (mDeviceInfoMap != null) {
-            return;
+    public void clearCache() {
+        synchronized (mWriteLock) {
+            mDeviceInfoCache = null;
         }
+    }
 
-        ConcurrentHashMap<DeviceInfo, Long> deviceInfoMap = new ConcurrentHashMap<>();
-        ConcurrentHashMap<Long, DeviceInfo> idDeviceInfoMap = new ConcurrentHashMap<>();
+    @GuardedBy("mWriteLock")
+    @NonNull
+    private DeviceInfoCache readDeviceInfoCache() {
+        Map<DeviceInfo, Long> deviceInfoMap = new HashMap<>();
+        Map<Long, DeviceInfo> idDeviceInfoMap = new HashMap<>();
         final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
         try (Cursor cursor = transactionManager.read(new ReadTableRequest(TABLE_NAME))) {
             while (cursor.moveToNext()) {
@@ -133,43 +140,55 @@ public class DeviceInfoHelper {
             }
         }
 
-        mDeviceInfoMap = deviceInfoMap;
-        mIdDeviceInfoMap = idDeviceInfoMap;
+        return new DeviceInfoCache(deviceInfoMap, idDeviceInfoMap);
     }
 
-    private Map<Long, DeviceInfo> getIdDeviceInfoMap() {
-        if (mIdDeviceInfoMap == null) {
-            populateDeviceInfoMap();
+    @NonNull
+    private DeviceInfoCache getDeviceInfoCache() {
+        DeviceInfoCache deviceInfoCache = mDeviceInfoCache;
+        if (deviceInfoCache != null) {
+            return deviceInfoCache;
         }
-        return mIdDeviceInfoMap;
-    }
 
-    private Map<DeviceInfo, Long> getDeviceInfoMap() {
-        if (mDeviceInfoMap == null) {
-            populateDeviceInfoMap();
+        synchronized (mWriteLock) {
+            if (mDeviceInfoCache == null) {
+                mDeviceInfoCache = readDeviceInfoCache();
+            }
+
+            return mDeviceInfoCache;
         }
+    }
 
-        return mDeviceInfoMap;
+    /** Returns deviceInfoId -> DeviceInfo mapping for populating record for read. */
+    private Map<Long, DeviceInfo> getIdDeviceInfoMap() {
+        return getDeviceInfoCache().mIdDeviceInfoMap;
     }
 
-    private synchronized long insertIfNotPresent(DeviceInfo deviceInfo) {
-        Long currentRowId = getDeviceInfoMap().get(deviceInfo);
-        if (currentRowId != null) {
-            return currentRowId;
-        }
+    /** Returns DeviceInfo -> rowId mapping (model,manufacturer,device_type -> rowId). */
+    private Map<DeviceInfo, Long> getDeviceInfoMap() {
+        return getDeviceInfoCache().mDeviceInfoMap;
+    }
 
-        long rowId =
-                TransactionManager.getInitialisedInstance()
-                        .insert(
-                                new UpsertTableRequest(
-                                        TABLE_NAME,
-                                        getContentValues(
-                                                deviceInfo.mManufacturer,
-                                                deviceInfo.mModel,
-                                                deviceInfo.mDeviceType)));
-        getDeviceInfoMap().put(deviceInfo, rowId);
-        getIdDeviceInfoMap().put(rowId, deviceInfo);
-        return rowId;
+    private long insertIfNotPresent(DeviceInfo deviceInfo) {
+        synchronized (mWriteLock) {
+            DeviceInfoCache deviceInfoCache = getDeviceInfoCache();
+            Long currentRowId = deviceInfoCache.mDeviceInfoMap.get(deviceInfo);
+            if (currentRowId != null) {
+                return currentRowId;
+            }
+
+            long rowId =
+                    TransactionManager.getInitialisedInstance()
+                            .insert(
+                                    new UpsertTableRequest(
+                                            TABLE_NAME,
+                                            getContentValues(
+                                                    deviceInfo.mManufacturer,
+                                                    deviceInfo.mModel,
+                                                    deviceInfo.mDeviceType)));
+            mDeviceInfoCache = deviceInfoCache.withDeviceInfo(deviceInfo, rowId);
+            return rowId;
+        }
     }
 
     @NonNull
@@ -250,4 +269,30 @@ public class DeviceInfoHelper {
             return mDeviceType == deviceInfo.mDeviceType;
         }
     }
+
+    /**
+     * Immutable DeviceInfo -> rowId and rowId -> DeviceInfo maps of the same version of the
+     * device_info_table.
+     */
+    private static final class DeviceInfoCache {
+        private final Map<DeviceInfo, Long> mDeviceInfoMap;
+        private final Map<Long, DeviceInfo> mIdDeviceInfoMap;
+
+        DeviceInfoCache(
+                @NonNull Map<DeviceInfo, Long> deviceInfoMap,
+                @NonNull Map<Long, DeviceInfo> idDeviceInfoMap) {
+            mDeviceInfoMap = Collections.unmodifiableMap(deviceInfoMap);
+            mIdDeviceInfoMap = Collections.unmodifiableMap(idDeviceInfoMap);
+        }
+
+        /** Returns a copy of this cache with {@code deviceInfo} stored with id {@code rowId}. */
+        @NonNull
+        DeviceInfoCache withDeviceInfo(@NonNull DeviceInfo deviceInfo, long rowId) {
+            Map<DeviceInfo, Long> deviceInfoMap = new HashMap<>(mDeviceInfoMap);
+            deviceInfoMap.put(deviceInfo, rowId);
+            Map<Long, DeviceInfo> idDeviceInfoMap = new HashMap<>(mIdDeviceInfoMap);
+            idDeviceInfoMap.put(rowId, deviceInfo);
+            return new DeviceInfoCache(deviceInfoMap, idDeviceInfoMap);
+        }
+    }
 }
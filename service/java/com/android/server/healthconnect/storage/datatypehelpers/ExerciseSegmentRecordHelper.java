@@ -126,7 +126,7 @@ public class ExerciseSegmentRecordHelper {
         return EXERCISE_SEGMENT_END_TIME;
     }
 
-    /** Returns sql join needed for calculating exercise sessions duration */
+    /** Returns sql join matching the segments excluded from the exercise session duration */
     public static SqlJoin getJoinForDurationAggregation(String parentTableName) {
         SqlJoin join = getJoinReadRequest(parentTableName);
         WhereClauses filterPauses = new WhereClauses();
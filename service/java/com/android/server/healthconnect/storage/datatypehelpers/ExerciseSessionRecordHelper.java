@@ -21,6 +21,7 @@ import static android.health.connect.HealthConnectException.ERROR_UNSUPPORTED_OP
 import static android.health.connect.HealthPermissions.READ_EXERCISE_ROUTE;
 import static android.health.connect.HealthPermissions.WRITE_EXERCISE_ROUTE;
 import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.EXERCISE_SESSION_DURATION_TOTAL;
+import static android.health.connect.datatypes.ExerciseSegmentType.DURATION_EXCLUDE_TYPES;
 
 import static com.android.server.healthconnect.storage.datatypehelpers.ExerciseLapRecordHelper.EXERCISE_LAPS_RECORD_TABLE_NAME;
 import static com.android.server.healthconnect.storage.datatypehelpers.ExerciseRouteRecordHelper.EXERCISE_ROUTE_RECORD_TABLE_NAME;
@@ -38,6 +39,7 @@ import static com.android.server.healthconnect.storage.utils.StorageUtils.getInt
 import android.annotation.NonNull;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.health.connect.HealthConnectException;
 import android.health.connect.aidl.ReadRecordsRequestParcel;
 import android.health.connect.datatypes.AggregationType;
@@ -60,7 +62,6 @@ import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
 import com.android.server.healthconnect.storage.utils.SqlJoin;
-import com.android.server.healthconnect.storage.utils.StorageUtils;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
 import java.util.ArrayList;
@@ -90,6 +91,10 @@ public final class ExerciseSessionRecordHelper
     private static final String TITLE_COLUMN_NAME = "title";
     private static final String HAS_ROUTE_COLUMN_NAME = "has_route";
 
+    // The route is read after the sessions, so its size is estimated from the session duration
+    // assuming one location per second.
+    private static final long ROUTE_LOCATION_PARCEL_SIZE_ESTIMATE_BYTES = 16;
+
     public ExerciseSessionRecordHelper() {
         super(RecordTypeIdentifier.RECORD_TYPE_EXERCISE_SESSION);
     }
@@ -132,24 +137,43 @@ public final class ExerciseSessionRecordHelper
         }
     }
 
+    @Override
+    long getParcelSizeEstimate(@NonNull ExerciseSessionRecordInternal exerciseSessionRecord) {
+        long estimate = super.getParcelSizeEstimate(exerciseSessionRecord);
+        if (exerciseSessionRecord.hasRoute()) {
+            long durationSeconds =
+                    (exerciseSessionRecord.getEndTimeInMillis()
+                                    - exerciseSessionRecord.getStartTimeInMillis())
+                            / 1000;
+            estimate += durationSeconds * ROUTE_LOCATION_PARCEL_SIZE_ESTIMATE_BYTES;
+        }
+        return estimate;
+    }
+
     @Override
     AggregateParams getAggregateParams(AggregationType<?> aggregateRequest) {
         List<String> sessionColumns = new ArrayList<>(super.getPriorityAggregationColumnNames());
-        sessionColumns.add(ExerciseSegmentRecordHelper.getStartTimeColumnName());
-        sessionColumns.add(ExerciseSegmentRecordHelper.getEndTimeColumnName());
+        sessionColumns.addAll(SessionExcludedDurationHelper.getAggregationColumnNames());
         if (aggregateRequest.getAggregationTypeIdentifier() == EXERCISE_SESSION_DURATION_TOTAL) {
             return new AggregateParams(EXERCISE_SESSION_RECORD_TABLE_NAME, sessionColumns)
-                    .setJoin(
-                            ExerciseSegmentRecordHelper.getJoinForDurationAggregation(
-                                    getMainTableName()))
                     .setPriorityAggregationExtraParams(
-                            new AggregateParams.PriorityAggregationExtraParams(
-                                    ExerciseSegmentRecordHelper.getStartTimeColumnName(),
-                                    ExerciseSegmentRecordHelper.getEndTimeColumnName()));
+                            SessionExcludedDurationHelper.getPriorityAggregationExtraParams());
         }
         return null;
     }
 
+    @Override
+    public void onUpgrade(@NonNull SQLiteDatabase db, int oldVersion, int newVersion) {
+        super.onUpgrade(db, oldVersion, newVersion);
+        SessionExcludedDurationHelper.onUpgrade(
+                db,
+                oldVersion,
+                getMainTableName(),
+                ExerciseSegmentRecordHelper.getJoinForDurationAggregation(getMainTableName()),
+                ExerciseSegmentRecordHelper.getStartTimeColumnName(),
+                ExerciseSegmentRecordHelper.getEndTimeColumnName());
+    }
+
     @Override
     void populateSpecificContentValues(
             @NonNull ContentValues contentValues,
@@ -160,6 +184,23 @@ public final class ExerciseSessionRecordHelper
         contentValues.put(
                 HAS_ROUTE_COLUMN_NAME,
                 exerciseSessionRecord.hasRoute() ? BOOLEAN_TRUE_VALUE : BOOLEAN_FALSE_VALUE);
+
+        List<Long> excludeStarts = new ArrayList<>();
+        List<Long> excludeEnds = new ArrayList<>();
+        if (exerciseSessionRecord.getSegments() != null) {
+            for (ExerciseSegmentInternal segment : exerciseSessionRecord.getSegments()) {
+                if (DURATION_EXCLUDE_TYPES.contains(segment.getSegmentType())) {
+                    excludeStarts.add(segment.getStartTime());
+                    excludeEnds.add(segment.getEndTime());
+                }
+            }
+        }
+        SessionExcludedDurationHelper.populateExcludedDurationTo(
+                contentValues,
+                exerciseSessionRecord.getStartTimeInMillis(),
+                exerciseSessionRecord.getEndTimeInMillis(),
+                excludeStarts,
+                excludeEnds);
     }
 
     @Override
@@ -226,11 +267,15 @@ public final class ExerciseSessionRecordHelper
     @Override
     @NonNull
     protected List<Pair<String, String>> getIntervalRecordColumnInfo() {
-        return Arrays.asList(
-                new Pair<>(NOTES_COLUMN_NAME, TEXT_NULL),
-                new Pair<>(EXERCISE_TYPE_COLUMN_NAME, INTEGER),
-                new Pair<>(TITLE_COLUMN_NAME, TEXT_NULL),
-                new Pair<>(HAS_ROUTE_COLUMN_NAME, INTEGER));
+        List<Pair<String, String>> columnInfo =
+                new ArrayList<>(
+                        Arrays.asList(
+                                new Pair<>(NOTES_COLUMN_NAME, TEXT_NULL),
+                                new Pair<>(EXERCISE_TYPE_COLUMN_NAME, INTEGER),
+                                new Pair<>(TITLE_COLUMN_NAME, TEXT_NULL),
+                                new Pair<>(HAS_ROUTE_COLUMN_NAME, INTEGER)));
+        columnInfo.addAll(SessionExcludedDurationHelper.getColumnInfo());
+        return columnInfo;
     }
 
     @Override
@@ -321,9 +366,7 @@ public final class ExerciseSessionRecordHelper
         }
 
         WhereClauses whereClause =
-                new WhereClauses()
-                        .addWhereInClauseWithoutQuotes(
-                                UUID_COLUMN_NAME, StorageUtils.getListOfHexString(uuids));
+                new WhereClauses().addWhereInUuidsClause(UUID_COLUMN_NAME, uuids);
         whereClause.addWhereLaterThanTimeClause(getStartTimeColumnName(), startDateAccess);
         return List.of(getRouteReadRequest(whereClause));
     }
@@ -23,6 +23,7 @@ import static com.android.server.healthconnect.storage.utils.StorageUtils.PRIMAR
 import static com.android.server.healthconnect.storage.utils.StorageUtils.TEXT_NOT_NULL;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.pm.PackageInfo;
@@ -37,6 +38,7 @@ import android.util.ArraySet;
 import android.util.Pair;
 import android.util.Slog;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.server.healthconnect.permission.HealthConnectPermissionHelper;
 import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
@@ -47,11 +49,12 @@ import com.android.server.healthconnect.storage.utils.StorageUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -71,10 +74,16 @@ public class HealthDataCategoryPriorityHelper {
     private static volatile HealthDataCategoryPriorityHelper sHealthDataCategoryPriorityHelper;
 
     /**
-     * map of {@link HealthDataCategory} to list of app ids from {@link AppInfoHelper}, in the order
-     * of their priority
+     * Immutable map of {@link HealthDataCategory} to list of app ids from {@link AppInfoHelper}, in
+     * the order of their priority. Updates publish a new map, so reads don't need any lock.
      */
-    private volatile ConcurrentHashMap<Integer, List<Long>> mHealthDataCategoryToAppIdPriorityMap;
+    @Nullable private volatile Map<Integer, List<Long>> mHealthDataCategoryToAppIdPriorityMap;
+
+    /** Serializes the updates of the priority orders, reads never take it. */
+    private final Object mWriteLock = new Object();
+
+    /** Bumped every time a priority order changes, see {@link #getPriorityVersion}. */
+    private final AtomicLong mPriorityVersion = new AtomicLong();
 
     private HealthDataCategoryPriorityHelper() {}
 
@@ -92,39 +101,40 @@ public class HealthDataCategoryPriorityHelper {
         return new CreateTableRequest(TABLE_NAME, getColumnInfo());
     }
 
-    public synchronized void appendToPriorityList(
+    public void appendToPriorityList(
             @NonNull String packageName,
             @HealthDataCategory.Type int dataCategory,
             Context context) {
-        List<Long> newPriorityOrder;
-        getHealthDataCategoryToAppIdPriorityMap().putIfAbsent(dataCategory, new ArrayList<>());
         long appInfoId = AppInfoHelper.getInstance().getOrInsertAppInfoId(packageName, context);
-        if (getHealthDataCategoryToAppIdPriorityMap().get(dataCategory).contains(appInfoId)) {
-            return;
-        }
-        newPriorityOrder =
-                new ArrayList<>(getHealthDataCategoryToAppIdPriorityMap().get(dataCategory));
-
         String defaultApp =
                 context.getResources()
                         .getString(
                                 Resources.getSystem()
                                         .getIdentifier(DEFAULT_APP_RESOURCE_NAME, null, null));
-        if (Objects.equals(packageName, defaultApp)) {
-            newPriorityOrder.add(0, appInfoId);
-        } else {
-            newPriorityOrder.add(appInfoId);
+        synchronized (mWriteLock) {
+            List<Long> currentPriorityOrder =
+                    getHealthDataCategoryToAppIdPriorityMap()
+                            .getOrDefault(dataCategory, Collections.emptyList());
+            if (currentPriorityOrder.contains(appInfoId)) {
+                return;
+            }
+            List<Long> newPriorityOrder = new ArrayList<>(currentPriorityOrder);
+            if (Objects.equals(packageName, defaultApp)) {
+                newPriorityOrder.add(0, appInfoId);
+            } else {
+                newPriorityOrder.add(appInfoId);
+            }
+            safelyUpdateDBAndUpdateCache(
+                    new UpsertTableRequest(
+                            TABLE_NAME,
+                            getContentValuesFor(dataCategory, newPriorityOrder),
+                            UNIQUE_COLUMN_INFO),
+                    dataCategory,
+                    newPriorityOrder);
         }
-        safelyUpdateDBAndUpdateCache(
-                new UpsertTableRequest(
-                        TABLE_NAME,
-                        getContentValuesFor(dataCategory, newPriorityOrder),
-                        UNIQUE_COLUMN_INFO),
-                dataCategory,
-                newPriorityOrder);
     }
 
-    public synchronized void removeFromPriorityList(
+    public void removeFromPriorityList(
             @NonNull String packageName,
             @HealthDataCategory.Type int dataCategory,
             HealthConnectPermissionHelper permissionHelper,
@@ -137,10 +147,12 @@ public class HealthDataCategoryPriorityHelper {
                 return;
             }
         }
-        removeFromPriorityListInternal(dataCategory, packageName);
+        synchronized (mWriteLock) {
+            removeFromPriorityListInternal(dataCategory, packageName);
+        }
     }
 
-    public synchronized void removeFromPriorityListIfNeeded(
+    public void removeFromPriorityListIfNeeded(
             @NonNull PackageInfo packageInfo, @NonNull Context context) {
         Set<Integer> dataCategoryWithPermission = new ArraySet<>();
         for (int i = 0; i < packageInfo.requestedPermissions.length; i++) {
@@ -155,18 +167,22 @@ public class HealthDataCategoryPriorityHelper {
                 }
             }
         }
-        for (int category : getHealthDataCategoryToAppIdPriorityMap().keySet()) {
-            if (!dataCategoryWithPermission.contains(category)) {
-                removeFromPriorityListInternal(category, packageInfo.packageName);
+        synchronized (mWriteLock) {
+            for (int category : getHealthDataCategoryToAppIdPriorityMap().keySet()) {
+                if (!dataCategoryWithPermission.contains(category)) {
+                    removeFromPriorityListInternal(category, packageInfo.packageName);
+                }
             }
         }
     }
 
     /** Removes app from priorityList for all HealthData Categories if the package is uninstalled */
-    public synchronized void removeAppFromPriorityList(@NonNull String packageName) {
+    public void removeAppFromPriorityList(@NonNull String packageName) {
         Objects.requireNonNull(packageName);
-        for (Integer dataCategory : getHealthDataCategoryToAppIdPriorityMap().keySet()) {
-            removeFromPriorityListInternal(dataCategory, packageName);
+        synchronized (mWriteLock) {
+            for (Integer dataCategory : getHealthDataCategoryToAppIdPriorityMap().keySet()) {
+                removeFromPriorityListInternal(dataCategory, packageName);
+            }
         }
     }
 
@@ -188,11 +204,18 @@ public class HealthDataCategoryPriorityHelper {
     }
 
     public void setPriorityOrder(int dataCategory, @NonNull List<String> packagePriorityOrder) {
+        List<Long> newPriorityOrder =
+                AppInfoHelper.getInstance().getAppInfoIds(packagePriorityOrder);
+        synchronized (mWriteLock) {
+            setPriorityOrderLocked(dataCategory, newPriorityOrder);
+        }
+    }
+
+    @GuardedBy("mWriteLock")
+    private void setPriorityOrderLocked(int dataCategory, @NonNull List<Long> newPriorityOrder) {
         List<Long> currentPriorityOrder =
                 getHealthDataCategoryToAppIdPriorityMap()
                         .getOrDefault(dataCategory, Collections.emptyList());
-        List<Long> newPriorityOrder =
-                AppInfoHelper.getInstance().getAppInfoIds(packagePriorityOrder);
 
         // Remove appId from the priority order if it is not part of the current priority order,
         // this is because in the time app tried to update the order an app permission might
@@ -213,35 +236,54 @@ public class HealthDataCategoryPriorityHelper {
     }
 
     /** Deletes all entries from the database and clears the cache. */
-    public synchronized void clearData(@NonNull TransactionManager transactionManager) {
-        transactionManager.delete(new DeleteTableRequest(TABLE_NAME));
-        clearCache();
+    public void clearData(@NonNull TransactionManager transactionManager) {
+        synchronized (mWriteLock) {
+            transactionManager.delete(new DeleteTableRequest(TABLE_NAME));
+            clearCache();
+        }
     }
 
-    public synchronized void clearCache() {
-        mHealthDataCategoryToAppIdPriorityMap = null;
+    public void clearCache() {
+        synchronized (mWriteLock) {
+            mHealthDataCategoryToAppIdPriorityMap = null;
+            mPriorityVersion.incrementAndGet();
+        }
     }
 
+    /**
+     * Returns a counter which changes every time any priority order changes. Used to invalidate
+     * results computed with a previous priority order.
+     */
+    public long getPriorityVersion() {
+        return mPriorityVersion.get();
+    }
+
+    @NonNull
     private Map<Integer, List<Long>> getHealthDataCategoryToAppIdPriorityMap() {
-        if (mHealthDataCategoryToAppIdPriorityMap == null) {
-            populateDataCategoryToAppIdPriorityMap();
+        Map<Integer, List<Long>> healthDataCategoryToAppIdPriorityMap =
+                mHealthDataCategoryToAppIdPriorityMap;
+        if (healthDataCategoryToAppIdPriorityMap != null) {
+            return healthDataCategoryToAppIdPriorityMap;
         }
 
-        return mHealthDataCategoryToAppIdPriorityMap;
+        synchronized (mWriteLock) {
+            if (mHealthDataCategoryToAppIdPriorityMap == null) {
+                mHealthDataCategoryToAppIdPriorityMap = readDataCategoryToAppIdPriorityMap();
+            }
+
+            return mHealthDataCategoryToAppIdPriorityMap;
+        }
     }
 
     /** Returns an immutable map of data categories along with their priority order. */
     public Map<Integer, List<Long>> getHealthDataCategoryToAppIdPriorityMapImmutable() {
-        return Collections.unmodifiableMap(getHealthDataCategoryToAppIdPriorityMap());
+        return getHealthDataCategoryToAppIdPriorityMap();
     }
 
-    private synchronized void populateDataCategoryToAppIdPriorityMap() {
-        if (mHealthDataCategoryToAppIdPriorityMap != null) {
-            return;
-        }
-
-        ConcurrentHashMap<Integer, List<Long>> healthDataCategoryToAppIdPriorityMap =
-                new ConcurrentHashMap<>();
+    @GuardedBy("mWriteLock")
+    @NonNull
+    private Map<Integer, List<Long>> readDataCategoryToAppIdPriorityMap() {
+        Map<Integer, List<Long>> healthDataCategoryToAppIdPriorityMap = new HashMap<>();
         final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
         try (Cursor cursor = transactionManager.read(new ReadTableRequest(TABLE_NAME))) {
             while (cursor.moveToNext()) {
@@ -251,31 +293,44 @@ public class HealthDataCategoryPriorityHelper {
                         StorageUtils.getCursorLongList(
                                 cursor, APP_ID_PRIORITY_ORDER_COLUMN_NAME, DELIMITER);
 
-                healthDataCategoryToAppIdPriorityMap.put(dataCategory, appIdsInOrder);
+                healthDataCategoryToAppIdPriorityMap.put(
+                        dataCategory, Collections.unmodifiableList(appIdsInOrder));
             }
         }
 
-        mHealthDataCategoryToAppIdPriorityMap = healthDataCategoryToAppIdPriorityMap;
+        return Collections.unmodifiableMap(healthDataCategoryToAppIdPriorityMap);
     }
 
-    private synchronized void safelyUpdateDBAndUpdateCache(
+    @GuardedBy("mWriteLock")
+    private void safelyUpdateDBAndUpdateCache(
             UpsertTableRequest request,
             @HealthDataCategory.Type int dataCategory,
             List<Long> newList) {
         try {
             TransactionManager.getInitialisedInstance().insertOrReplace(request);
-            getHealthDataCategoryToAppIdPriorityMap().put(dataCategory, newList);
+            Map<Integer, List<Long>> healthDataCategoryToAppIdPriorityMap =
+                    new HashMap<>(getHealthDataCategoryToAppIdPriorityMap());
+            healthDataCategoryToAppIdPriorityMap.put(dataCategory, List.copyOf(newList));
+            mHealthDataCategoryToAppIdPriorityMap =
+                    Collections.unmodifiableMap(healthDataCategoryToAppIdPriorityMap);
+            mPriorityVersion.incrementAndGet();
         } catch (Exception e) {
             Slog.e(TAG, "Priority update failed", e);
             throw e;
         }
     }
 
-    private synchronized void safelyUpdateDBAndUpdateCache(
+    @GuardedBy("mWriteLock")
+    private void safelyUpdateDBAndUpdateCache(
             DeleteTableRequest request, @HealthDataCategory.Type int dataCategory) {
         try {
             TransactionManager.getInitialisedInstance().delete(request);
-            getHealthDataCategoryToAppIdPriorityMap().remove(dataCategory);
+            Map<Integer, List<Long>> healthDataCategoryToAppIdPriorityMap =
+                    new HashMap<>(getHealthDataCategoryToAppIdPriorityMap());
+            healthDataCategoryToAppIdPriorityMap.remove(dataCategory);
+            mHealthDataCategoryToAppIdPriorityMap =
+                    Collections.unmodifiableMap(healthDataCategoryToAppIdPriorityMap);
+            mPriorityVersion.incrementAndGet();
         } catch (Exception e) {
             Slog.e(TAG, "Delete from priority DB failed: ", e);
             throw e;
@@ -319,7 +374,8 @@ public class HealthDataCategoryPriorityHelper {
         return sHealthDataCategoryPriorityHelper;
     }
 
-    private synchronized void removeFromPriorityListInternal(
+    @GuardedBy("mWriteLock")
+    private void removeFromPriorityListInternal(
             int dataCategory, @NonNull String packageName) {
         List<Long> newPriorityList =
                 new ArrayList<>(
@@ -19,6 +19,9 @@ package com.android.server.healthconnect.storage.datatypehelpers;
 import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.HEART_RATE_RECORD_BPM_AVG;
 import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.HEART_RATE_RECORD_BPM_MAX;
 import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.HEART_RATE_RECORD_BPM_MIN;
+import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.HEART_RATE_RECORD_BPM_PERCENTILE_5;
+import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.HEART_RATE_RECORD_BPM_PERCENTILE_50;
+import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.HEART_RATE_RECORD_BPM_PERCENTILE_95;
 import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.HEART_RATE_RECORD_MEASUREMENTS_COUNT;
 
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER;
@@ -26,6 +29,7 @@ import static com.android.server.healthconnect.storage.utils.StorageUtils.getCur
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorUUID;
 
+import android.annotation.NonNull;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.health.connect.AggregateResult;
@@ -36,10 +40,8 @@ import android.util.Pair;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.healthconnect.storage.request.AggregateParams;
-import com.android.server.healthconnect.storage.utils.SqlJoin;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.UUID;
@@ -58,6 +60,9 @@ public class HeartRateRecordHelper
     private static final String SERIES_TABLE_NAME = "heart_rate_record_series_table";
     private static final String BEATS_PER_MINUTE_COLUMN_NAME = "beats_per_minute";
     private static final String EPOCH_MILLIS_COLUMN_NAME = "epoch_millis";
+    // Heart rate samples are whole beats per minute, so percentiles computed with this bin width
+    // are exact.
+    private static final double BPM_HISTOGRAM_BIN_WIDTH = 1;
 
     public HeartRateRecordHelper() {
         super(RecordTypeIdentifier.RECORD_TYPE_HEART_RATE);
@@ -92,15 +97,14 @@ public class HeartRateRecordHelper
             case HEART_RATE_RECORD_BPM_MIN:
             case HEART_RATE_RECORD_BPM_AVG:
             case HEART_RATE_RECORD_MEASUREMENTS_COUNT:
-                return new AggregateParams(
-                                SERIES_TABLE_NAME,
-                                Collections.singletonList(BEATS_PER_MINUTE_COLUMN_NAME))
-                        .setJoin(
-                                new SqlJoin(
-                                        SERIES_TABLE_NAME,
-                                        TABLE_NAME,
-                                        PARENT_KEY_COLUMN_NAME,
-                                        PRIMARY_COLUMN_NAME));
+                return getSampleSummaryAggregateParams(
+                        aggregateRequest, BEATS_PER_MINUTE_COLUMN_NAME);
+            case HEART_RATE_RECORD_BPM_PERCENTILE_5:
+                return getSamplePercentileAggregateParams(5, BPM_HISTOGRAM_BIN_WIDTH);
+            case HEART_RATE_RECORD_BPM_PERCENTILE_50:
+                return getSamplePercentileAggregateParams(50, BPM_HISTOGRAM_BIN_WIDTH);
+            case HEART_RATE_RECORD_BPM_PERCENTILE_95:
+                return getSamplePercentileAggregateParams(95, BPM_HISTOGRAM_BIN_WIDTH);
             default:
                 return null;
         }
@@ -142,4 +146,15 @@ public class HeartRateRecordHelper
         contentValues.put(BEATS_PER_MINUTE_COLUMN_NAME, heartRateSample.getBeatsPerMinute());
         contentValues.put(EPOCH_MILLIS_COLUMN_NAME, heartRateSample.getEpochMillis());
     }
+
+    @Override
+    @NonNull
+    String getSampleValueColumnName() {
+        return BEATS_PER_MINUTE_COLUMN_NAME;
+    }
+
+    @Override
+    double getSampleValue(@NonNull HeartRateRecordInternal.HeartRateSample sample) {
+        return sample.getBeatsPerMinute();
+    }
 }
@@ -36,10 +36,8 @@ import android.health.connect.internal.datatypes.PowerRecordInternal;
 import android.util.Pair;
 
 import com.android.server.healthconnect.storage.request.AggregateParams;
-import com.android.server.healthconnect.storage.utils.SqlJoin;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.UUID;
@@ -88,14 +86,7 @@ public class PowerRecordHelper
             case POWER_RECORD_POWER_MIN:
             case POWER_RECORD_POWER_MAX:
             case POWER_RECORD_POWER_AVG:
-                return new AggregateParams(
-                                SERIES_TABLE_NAME, Collections.singletonList(POWER_COLUMN_NAME))
-                        .setJoin(
-                                new SqlJoin(
-                                        SERIES_TABLE_NAME,
-                                        TABLE_NAME,
-                                        PARENT_KEY_COLUMN_NAME,
-                                        PRIMARY_COLUMN_NAME));
+                return getSampleSummaryAggregateParams(aggregateRequest, POWER_COLUMN_NAME);
             default:
                 return null;
         }
@@ -137,4 +128,15 @@ public class PowerRecordHelper
         contentValues.put(POWER_COLUMN_NAME, powerRecord.getPower());
         contentValues.put(EPOCH_MILLIS_COLUMN_NAME, powerRecord.getEpochMillis());
     }
+
+    @Override
+    @NonNull
+    String getSampleValueColumnName() {
+        return POWER_COLUMN_NAME;
+    }
+
+    @Override
+    double getSampleValue(@NonNull PowerRecordInternal.PowerRecordSample sample) {
+        return sample.getPower();
+    }
 }
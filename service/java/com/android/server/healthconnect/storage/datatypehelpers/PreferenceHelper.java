@@ -27,6 +27,7 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Pair;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.DeleteTableRequest;
@@ -39,7 +40,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A helper class to store user preferences, set in UI APK for the platform.
@@ -53,29 +53,40 @@ public final class PreferenceHelper {
             Collections.singletonList(new Pair<>(KEY_COLUMN_NAME, TYPE_STRING));
     private static final String VALUE_COLUMN_NAME = "value";
     private static volatile PreferenceHelper sPreferenceHelper;
-    private volatile ConcurrentHashMap<String, String> mPreferences;
+    /** Immutable snapshot of the preferences, replaced by an updated copy on every write. */
+    @Nullable private volatile Map<String, String> mPreferences;
+
+    /** Serializes the writes to the preference_table and the updates of the snapshot. */
+    private final Object mWriteLock = new Object();
 
     private PreferenceHelper() {}
 
     /** Note: Overrides existing preference (if it exists) with the new value */
-    public synchronized void insertOrReplacePreference(String key, String value) {
-        TransactionManager.getInitialisedInstance()
-                .insertOrReplace(
-                        new UpsertTableRequest(
-                                TABLE_NAME, getContentValues(key, value), UNIQUE_COLUMN_INFO));
-        getPreferences().put(key, value);
+    public void insertOrReplacePreference(String key, String value) {
+        synchronized (mWriteLock) {
+            TransactionManager.getInitialisedInstance()
+                    .insertOrReplace(
+                            new UpsertTableRequest(
+                                    TABLE_NAME, getContentValues(key, value), UNIQUE_COLUMN_INFO));
+            Map<String, String> preferences = new HashMap<>(getPreferences());
+            preferences.put(key, value);
+            mPreferences = Collections.unmodifiableMap(preferences);
+        }
     }
 
     /** Removes key entry from the table */
-    public synchronized void removeKey(String id) {
-        TransactionManager.getInitialisedInstance()
-                .delete(new DeleteTableRequest(TABLE_NAME).setId(KEY_COLUMN_NAME, id));
-        getPreferences().remove(id);
+    public void removeKey(String id) {
+        synchronized (mWriteLock) {
+            TransactionManager.getInitialisedInstance()
+                    .delete(new DeleteTableRequest(TABLE_NAME).setId(KEY_COLUMN_NAME, id));
+            Map<String, String> preferences = new HashMap<>(getPreferences());
+            preferences.remove(id);
+            mPreferences = Collections.unmodifiableMap(preferences);
+        }
     }
 
     /** Inserts multiple preferences together in a transaction */
-    public synchronized void insertOrReplacePreferencesTransaction(
-            HashMap<String, String> keyValues) {
+    public void insertOrReplacePreferencesTransaction(HashMap<String, String> keyValues) {
         List<UpsertTableRequest> requests = new ArrayList<>();
         keyValues.forEach(
                 (key, value) ->
@@ -84,8 +95,12 @@ public final class PreferenceHelper {
                                         TABLE_NAME,
                                         getContentValues(key, value),
                                         UNIQUE_COLUMN_INFO)));
-        TransactionManager.getInitialisedInstance().insertOrReplaceAll(requests);
-        getPreferences().putAll(keyValues);
+        synchronized (mWriteLock) {
+            TransactionManager.getInitialisedInstance().insertOrReplaceAll(requests);
+            Map<String, String> preferences = new HashMap<>(getPreferences());
+            preferences.putAll(keyValues);
+            mPreferences = Collections.unmodifiableMap(preferences);
+        }
     }
 
     @NonNull
@@ -98,20 +113,31 @@ public final class PreferenceHelper {
         return getPreferences().get(key);
     }
 
-    public synchronized void clearCache() {
-        mPreferences = null;
+    public void clearCache() {
+        synchronized (mWriteLock) {
+            mPreferences = null;
+        }
     }
 
     /** Fetch preferences into memory. */
     public void initializePreferences() {
-        populatePreferences();
+        getPreferences();
     }
 
+    @NonNull
     private Map<String, String> getPreferences() {
-        if (mPreferences == null) {
-            populatePreferences();
+        Map<String, String> preferences = mPreferences;
+        if (preferences != null) {
+            return preferences;
+        }
+
+        synchronized (mWriteLock) {
+            if (mPreferences == null) {
+                mPreferences = readPreferences();
+            }
+
+            return mPreferences;
         }
-        return mPreferences;
     }
 
     @NonNull
@@ -122,20 +148,20 @@ public final class PreferenceHelper {
         return contentValues;
     }
 
-    private synchronized void populatePreferences() {
-        if (mPreferences != null) {
-            return;
-        }
-
-        mPreferences = new ConcurrentHashMap<>();
+    @GuardedBy("mWriteLock")
+    @NonNull
+    private Map<String, String> readPreferences() {
+        Map<String, String> preferences = new HashMap<>();
         final TransactionManager transactionManager = TransactionManager.getInitialisedInstance();
         try (Cursor cursor = transactionManager.read(new ReadTableRequest(TABLE_NAME))) {
             while (cursor.moveToNext()) {
                 String key = StorageUtils.getCursorString(cursor, KEY_COLUMN_NAME);
                 String value = StorageUtils.getCursorString(cursor, VALUE_COLUMN_NAME);
-                mPreferences.put(key, value);
+                preferences.put(key, value);
             }
         }
+
+        return Collections.unmodifiableMap(preferences);
     }
 
     @NonNull
@@ -92,6 +92,9 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
             List.of(
                     new Pair<>(DEDUPE_HASH_COLUMN_NAME, UpsertTableRequest.TYPE_BLOB),
                     new Pair<>(UUID_COLUMN_NAME, UpsertTableRequest.TYPE_BLOB));
+    // Rough parcelled size of the fields common to all records: uuid, package, client id, device
+    // info and times.
+    private static final long RECORD_PARCEL_SIZE_ESTIMATE_BYTES = 256;
     private static final String TAG_RECORD_HELPER = "HealthConnectRecordHelper";
     private static final int TRACE_TAG_RECORD_HELPER = TAG_RECORD_HELPER.hashCode();
     @RecordTypeIdentifier.RecordType private final int mRecordIdentifier;
@@ -101,7 +104,7 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
     }
 
     public DeleteTableRequest getDeleteRequestForAutoDelete(int recordAutoDeletePeriodInDays) {
-        return new DeleteTableRequest(getMainTableName())
+        return new DeleteTableRequest(getMainTableName(), getRecordIdentifier())
                 .setTimeFilter(
                         getStartTimeColumnName(),
                         Instant.EPOCH.toEpochMilli(),
@@ -349,8 +352,7 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
                 .setJoinClause(getJoinForReadRequest())
                 .setWhereClause(
                         new WhereClauses()
-                                .addWhereInClauseWithoutQuotes(
-                                        UUID_COLUMN_NAME, StorageUtils.getListOfHexString(uuids))
+                                .addWhereInUuidsClause(UUID_COLUMN_NAME, uuids)
                                 .addWhereLaterThanTimeClause(
                                         getStartTimeColumnName(), startDateAccess))
                 .setRecordHelper(this)
@@ -387,6 +389,20 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
                 .setDistinctClause(true);
     }
 
+    /**
+     * Returns ReadTableRequest reading at most one record of the app with {@code appInfoId}, to
+     * check whether the app has any record corresponding to this helper.
+     */
+    public ReadTableRequest getReadTableRequestForAnyRecordOf(long appInfoId) {
+        return new ReadTableRequest(getMainTableName())
+                .setColumnNames(List.of(APP_INFO_ID_COLUMN_NAME))
+                .setWhereClause(
+                        new WhereClauses()
+                                .addWhereEqualsClause(
+                                        APP_INFO_ID_COLUMN_NAME, String.valueOf(appInfoId)))
+                .setLimit(1);
+    }
+
     /** Returns List of Internal records from the cursor */
     @SuppressWarnings("unchecked")
     public List<RecordInternal<?>> getInternalRecords(Cursor cursor, int requestSize) {
@@ -394,16 +410,31 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
     }
 
     /** Returns List of Internal records from the cursor */
-    @SuppressWarnings("unchecked")
     public List<RecordInternal<?>> getInternalRecords(
             Cursor cursor, int requestSize, Map<Long, String> packageNamesByAppIds) {
+        return getInternalRecords(cursor, requestSize, Long.MAX_VALUE, packageNamesByAppIds);
+    }
+
+    /**
+     * Returns List of Internal records from the cursor, with at most {@code requestSize} records
+     * and an estimated parcel size of at most {@code maxPageBytes}. The records with the same start
+     * time as the first record are always returned, even if they exceed either limit.
+     */
+    @SuppressWarnings("unchecked")
+    public List<RecordInternal<?>> getInternalRecords(
+            Cursor cursor,
+            int requestSize,
+            long maxPageBytes,
+            Map<Long, String> packageNamesByAppIds) {
         Trace.traceBegin(TRACE_TAG_RECORD_HELPER, TAG_RECORD_HELPER.concat("GetInternalRecords"));
         List<RecordInternal<?>> recordInternalList = new ArrayList<>();
 
         int count = 0;
+        long bytes = 0;
         long prevStartTime = DEFAULT_LONG;
         long currentStartTime = DEFAULT_LONG;
         int tempCount = 0;
+        long tempBytes = 0;
         List<RecordInternal<?>> tempList = new ArrayList<>();
         while (cursor.moveToNext()) {
             try {
@@ -430,10 +461,12 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
 
                 prevStartTime = currentStartTime;
                 currentStartTime = getCursorLong(cursor, getStartTimeColumnName());
+                long recordBytes = getParcelSizeEstimate(record);
                 if (prevStartTime == DEFAULT_LONG || prevStartTime == currentStartTime) {
                     // Fetch and add records with same startTime to tempList
                     tempList.add(record);
                     tempCount++;
+                    tempBytes += recordBytes;
                 } else {
                     if (count == 0) {
                         // items in tempList having startTime same as the first record from cursor
@@ -442,23 +475,27 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
                         // records with startTime same as second record exceeds requestSize.
                         recordInternalList.addAll(tempList);
                         count = tempCount;
+                        bytes = tempBytes;
                         tempList.clear();
                         tempCount = 0;
-                        if (count >= requestSize) {
+                        if (count >= requestSize || bytes >= maxPageBytes) {
                             // startTime of current record should be fetched for pageToken
                             cursor.moveToPrevious();
                             break;
                         }
                         tempList.add(record);
                         tempCount = 1;
-                    } else if (tempCount + count <= requestSize) {
+                        tempBytes = recordBytes;
+                    } else if (tempCount + count <= requestSize
+                            && tempBytes + bytes <= maxPageBytes) {
                         // Makes sure after adding records in tempList with same starTime
-                        // the count does not exceed requestSize
+                        // the count does not exceed requestSize, nor the size maxPageBytes
                         recordInternalList.addAll(tempList);
                         count += tempCount;
+                        bytes += tempBytes;
                         tempList.clear();
                         tempCount = 0;
-                        if (count >= requestSize) {
+                        if (count >= requestSize || bytes >= maxPageBytes) {
                             // After adding records if count is equal to requestSize then startTime
                             // of current fetched record should be the next page token.
                             cursor.moveToPrevious();
@@ -466,9 +503,11 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
                         }
                         tempList.add(record);
                         tempCount = 1;
+                        tempBytes = recordBytes;
                     } else {
-                        // If adding records in tempList makes count > requestSize, then ignore temp
-                        // list and startTime of records in temp list should be the next page token.
+                        // If adding records in tempList makes count > requestSize, or the size
+                        // > maxPageBytes, then ignore temp list and startTime of records in temp
+                        // list should be the next page token.
                         tempList.clear();
                         int lastposition = cursor.getPosition();
                         cursor.moveToPosition(lastposition - 2);
@@ -483,12 +522,14 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
             }
         }
         if (!tempList.isEmpty()) {
-            if (tempCount + count <= requestSize) {
+            if (tempCount + count <= requestSize
+                    && (count == 0 || tempBytes + bytes <= maxPageBytes)) {
                 // If reached end of cursor while fetching records then add it to final list
                 recordInternalList.addAll(tempList);
             } else {
                 // If reached end of cursor while fetching and adding it will exceed requestSize
-                // then ignore them,startTime of the last record will be pageToken for next read.
+                // or maxPageBytes then ignore them,startTime of the last record will be pageToken
+                // for next read.
                 cursor.moveToPosition(cursor.getCount() - 2);
             }
         }
@@ -496,6 +537,14 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
         return recordInternalList;
     }
 
+    /**
+     * Returns an estimate of the size of {@code record} once parcelled, used to cut read pages
+     * before they grow too large. Helpers of records holding variable length data override this.
+     */
+    long getParcelSizeEstimate(@NonNull T record) {
+        return RECORD_PARCEL_SIZE_ESTIMATE_BYTES;
+    }
+
     /** Returns is the read of this record type is enabled */
     public boolean isRecordOperationsEnabled() {
         return true;
@@ -525,7 +574,7 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
 
     public DeleteTableRequest getDeleteTableRequest(List<UUID> ids) {
         return new DeleteTableRequest(getMainTableName(), getRecordIdentifier())
-                .setIds(UUID_COLUMN_NAME, StorageUtils.getListOfHexString(ids))
+                .setUuids(UUID_COLUMN_NAME, ids)
                 .setRequiresUuId(UUID_COLUMN_NAME)
                 .setEnforcePackageCheck(APP_INFO_ID_COLUMN_NAME, UUID_COLUMN_NAME);
     }
@@ -662,10 +711,7 @@ public abstract class RecordHelper<T extends RecordInternal<?>> {
                                 (recordIdFilter) ->
                                         StorageUtils.getUUIDFor(recordIdFilter, packageName))
                         .collect(Collectors.toList());
-        WhereClauses whereClauses =
-                new WhereClauses()
-                        .addWhereInClauseWithoutQuotes(
-                                UUID_COLUMN_NAME, StorageUtils.getListOfHexString(ids));
+        WhereClauses whereClauses = new WhereClauses().addWhereInUuidsClause(UUID_COLUMN_NAME, ids);
 
         if (enforceSelfRead) {
             long id = AppInfoHelper.getInstance().getAppInfoId(packageName);
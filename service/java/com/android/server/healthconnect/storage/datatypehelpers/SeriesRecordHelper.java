@@ -17,16 +17,27 @@
 package com.android.server.healthconnect.storage.datatypehelpers;
 
 import static android.health.connect.Constants.PARENT_KEY;
+import static android.health.connect.datatypes.AggregationType.AVG;
+import static android.health.connect.datatypes.AggregationType.COUNT;
+import static android.health.connect.datatypes.AggregationType.MAX;
+import static android.health.connect.datatypes.AggregationType.MIN;
 
+import static com.android.server.healthconnect.storage.HealthConnectDatabase.DB_VERSION_SERIES_SUMMARY;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.REAL;
 
 import android.annotation.NonNull;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.health.connect.datatypes.AggregationType;
 import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.SeriesRecordInternal;
 import android.util.Pair;
 
+import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.request.AlterTableRequest;
 import com.android.server.healthconnect.storage.request.CreateTableRequest;
 import com.android.server.healthconnect.storage.request.UpsertTableRequest;
 import com.android.server.healthconnect.storage.utils.SqlJoin;
@@ -34,12 +45,21 @@ import com.android.server.healthconnect.storage.utils.SqlJoin;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /** @hide */
 abstract class SeriesRecordHelper<
                 T extends SeriesRecordInternal<?, ?>, U extends SeriesRecordInternal.Sample>
         extends IntervalRecordHelper<T> {
     protected static final String PARENT_KEY_COLUMN_NAME = PARENT_KEY;
+    // Summary of the samples of each record, stored in the main table so that min, max, avg and
+    // count aggregations don't need to scan the series table.
+    private static final String SAMPLE_COUNT_COLUMN_NAME = "sample_count";
+    private static final String SAMPLE_SUM_COLUMN_NAME = "sample_sum";
+    private static final String SAMPLE_MIN_COLUMN_NAME = "sample_min";
+    private static final String SAMPLE_MAX_COLUMN_NAME = "sample_max";
+    // Samples are parcelled in columns of delta encoded varints, a few bytes each.
+    private static final long SAMPLE_PARCEL_SIZE_ESTIMATE_BYTES = 8;
 
     SeriesRecordHelper(@RecordTypeIdentifier.RecordType int recordIdentifier) {
         super(recordIdentifier);
@@ -83,9 +103,49 @@ abstract class SeriesRecordHelper<
     }
 
     @Override
+    public void onUpgrade(@NonNull SQLiteDatabase db, int oldVersion, int newVersion) {
+        super.onUpgrade(db, oldVersion, newVersion);
+        if (oldVersion < DB_VERSION_SERIES_SUMMARY) {
+            for (Pair<String, String> columnInfo : getSampleSummaryColumnInfo()) {
+                try {
+                    db.execSQL(
+                            new AlterTableRequest(getMainTableName(), List.of(columnInfo))
+                                    .getAlterTableAddColumnsCommand());
+                } catch (SQLException sqlException) {
+                    // Ignore this means the field exists. This is possible via module rollback
+                    // followed by an upgrade
+                }
+            }
+            db.execSQL(getBackfillSampleSummaryCommand());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
     final void populateSpecificContentValues(
             @NonNull ContentValues contentValues, @NonNull T record) {
-        // Empty as we don't want to populate any additional in the main table
+        Set<? extends SeriesRecordInternal.Sample> samples = record.getSamples();
+        if (samples == null || samples.isEmpty()) {
+            contentValues.put(SAMPLE_COUNT_COLUMN_NAME, 0);
+            contentValues.putNull(SAMPLE_SUM_COLUMN_NAME);
+            contentValues.putNull(SAMPLE_MIN_COLUMN_NAME);
+            contentValues.putNull(SAMPLE_MAX_COLUMN_NAME);
+            return;
+        }
+
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (SeriesRecordInternal.Sample sample : samples) {
+            double value = getSampleValue((U) sample);
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        contentValues.put(SAMPLE_COUNT_COLUMN_NAME, samples.size());
+        contentValues.put(SAMPLE_SUM_COLUMN_NAME, sum);
+        contentValues.put(SAMPLE_MIN_COLUMN_NAME, min);
+        contentValues.put(SAMPLE_MAX_COLUMN_NAME, max);
     }
 
     /** Populates record with datatype specific details */
@@ -94,15 +154,50 @@ abstract class SeriesRecordHelper<
         populateSpecificValues(cursor, record);
     }
 
+    @Override
+    final long getParcelSizeEstimate(@NonNull T record) {
+        return super.getParcelSizeEstimate(record)
+                + record.getSamples().size() * SAMPLE_PARCEL_SIZE_ESTIMATE_BYTES;
+    }
+
     /**
      * A typical series data type should not use the main table to store any of its data, and should
-     * instead implement get addition table related functions. Hence, an empty final function
+     * instead implement get addition table related functions. The main table only holds a summary
+     * of the samples, which is maintained here for all series data types.
      */
     @NonNull
     final List<Pair<String, String>> getIntervalRecordColumnInfo() {
-        // We don't want to populate anything additional in the main table. Series data types use
-        // additional table to store all the data.
-        return Collections.emptyList();
+        return getSampleSummaryColumnInfo();
+    }
+
+    /**
+     * Returns params to compute {@code aggregationType} from the sample summary of each record in
+     * the main table. The result is returned in {@code resultColumnName}.
+     *
+     * <p>This gives the same result as aggregating {@code resultColumnName} over the series table
+     * joined with the main table, as the time filter is applied to the record interval and hence
+     * all the samples of a matching record are always included.
+     */
+    @NonNull
+    final AggregateParams getSampleSummaryAggregateParams(
+            @NonNull AggregationType<?> aggregationType, @NonNull String resultColumnName) {
+        String aggregateExpression =
+                switch (aggregationType.getAggregateOperationType()) {
+                    case MIN -> "MIN(" + SAMPLE_MIN_COLUMN_NAME + ")";
+                    case MAX -> "MAX(" + SAMPLE_MAX_COLUMN_NAME + ")";
+                    case AVG -> "SUM("
+                            + SAMPLE_SUM_COLUMN_NAME
+                            + ") / SUM("
+                            + SAMPLE_COUNT_COLUMN_NAME
+                            + ")";
+                    case COUNT -> "SUM(" + SAMPLE_COUNT_COLUMN_NAME + ")";
+                    default -> throw new UnsupportedOperationException(
+                            "Unsupported aggregation for series summary: "
+                                    + aggregationType.getAggregateOperationType());
+                };
+
+        return new AggregateParams(getMainTableName(), Collections.singletonList(resultColumnName))
+                .setAggregateExpression(aggregateExpression);
     }
 
     /**
@@ -118,9 +213,88 @@ abstract class SeriesRecordHelper<
     /** Populates the {@code record} with values specific to dataytpe */
     abstract void populateSpecificValues(@NonNull Cursor cursor, T record);
 
+    /**
+     * Returns params to compute the {@code percentile} of the sample values from a histogram with
+     * bins of {@code histogramBinWidth}, built from the series table.
+     */
+    @NonNull
+    final AggregateParams getSamplePercentileAggregateParams(
+            double percentile, double histogramBinWidth) {
+        return new AggregateParams(
+                        getSeriesDataTableName(),
+                        Collections.singletonList(getSampleValueColumnName()))
+                .setJoin(
+                        new SqlJoin(
+                                getSeriesDataTableName(),
+                                getMainTableName(),
+                                PARENT_KEY_COLUMN_NAME,
+                                PRIMARY_COLUMN_NAME))
+                .setPercentile(percentile, histogramBinWidth);
+    }
+
     /** Puts the {@code sample} to the {@code contentValues} */
     abstract void populateSampleTo(@NonNull ContentValues contentValues, @NonNull U sample);
 
+    /** Returns the column of the series table which holds the value of the samples */
+    @NonNull
+    abstract String getSampleValueColumnName();
+
+    /** Returns the value of {@code sample} summarised in the main table */
+    abstract double getSampleValue(@NonNull U sample);
+
+    @NonNull
+    private static List<Pair<String, String>> getSampleSummaryColumnInfo() {
+        return List.of(
+                new Pair<>(SAMPLE_COUNT_COLUMN_NAME, INTEGER),
+                new Pair<>(SAMPLE_SUM_COLUMN_NAME, REAL),
+                new Pair<>(SAMPLE_MIN_COLUMN_NAME, REAL),
+                new Pair<>(SAMPLE_MAX_COLUMN_NAME, REAL));
+    }
+
+    @NonNull
+    private String getBackfillSampleSummaryCommand() {
+        String mainTableName = getMainTableName();
+        String fromSeriesTable =
+                " FROM "
+                        + getSeriesDataTableName()
+                        + " WHERE "
+                        + PARENT_KEY_COLUMN_NAME
+                        + " = "
+                        + mainTableName
+                        + "."
+                        + PRIMARY_COLUMN_NAME
+                        + ")";
+        String valueColumnName = getSampleValueColumnName();
+
+        return "UPDATE "
+                + mainTableName
+                + " SET "
+                + SAMPLE_COUNT_COLUMN_NAME
+                + " = (SELECT COUNT(*)"
+                + fromSeriesTable
+                + ", "
+                + SAMPLE_SUM_COLUMN_NAME
+                + " = (SELECT SUM("
+                + valueColumnName
+                + ")"
+                + fromSeriesTable
+                + ", "
+                + SAMPLE_MIN_COLUMN_NAME
+                + " = (SELECT MIN("
+                + valueColumnName
+                + ")"
+                + fromSeriesTable
+                + ", "
+                + SAMPLE_MAX_COLUMN_NAME
+                + " = (SELECT MAX("
+                + valueColumnName
+                + ")"
+                + fromSeriesTable
+                + " WHERE "
+                + SAMPLE_COUNT_COLUMN_NAME
+                + " IS NULL";
+    }
+
     @NonNull
     private List<Pair<String, String>> getSeriesTableColumnInfo() {
         ArrayList<Pair<String, String>> columnInfo = new ArrayList<>();
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static com.android.server.healthconnect.storage.HealthConnectDatabase.DB_VERSION_SESSION_EXCLUDED_DURATION;
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.END_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.START_TIME_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.PRIMARY_COLUMN_NAME;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.BLOB;
+import static com.android.server.healthconnect.storage.utils.StorageUtils.INTEGER;
+
+import android.annotation.NonNull;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Pair;
+
+import com.android.server.healthconnect.storage.datatypehelpers.aggregation.SessionDurationAggregationData;
+import com.android.server.healthconnect.storage.request.AggregateParams;
+import com.android.server.healthconnect.storage.request.AlterTableRequest;
+import com.android.server.healthconnect.storage.utils.SqlJoin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maintains the excluded duration of sleep and exercise sessions, i.e. the awake stages and the
+ * pause or rest segments, on the session row. Duration aggregations read it instead of joining
+ * the session with its stages or segments.
+ *
+ * @hide
+ */
+final class SessionExcludedDurationHelper {
+    // Total duration of the excluded intervals, null if any of them is outside the session.
+    private static final String EXCLUDED_DURATION_COLUMN_NAME = "excluded_duration";
+    // Sorted excluded interval start times followed by sorted end times, null if there are none.
+    private static final String EXCLUDED_INTERVALS_COLUMN_NAME = "excluded_intervals";
+
+    private SessionExcludedDurationHelper() {}
+
+    @NonNull
+    static List<Pair<String, String>> getColumnInfo() {
+        return List.of(
+                new Pair<>(EXCLUDED_DURATION_COLUMN_NAME, INTEGER),
+                new Pair<>(EXCLUDED_INTERVALS_COLUMN_NAME, BLOB));
+    }
+
+    /** Returns the columns to fetch for session duration aggregations. */
+    @NonNull
+    static List<String> getAggregationColumnNames() {
+        return List.of(EXCLUDED_DURATION_COLUMN_NAME, EXCLUDED_INTERVALS_COLUMN_NAME);
+    }
+
+    @NonNull
+    static AggregateParams.PriorityAggregationExtraParams getPriorityAggregationExtraParams() {
+        return new AggregateParams.PriorityAggregationExtraParams(
+                EXCLUDED_DURATION_COLUMN_NAME, EXCLUDED_INTERVALS_COLUMN_NAME);
+    }
+
+    /**
+     * Puts the excluded duration of the session from {@code sessionStartTime} to {@code
+     * sessionEndTime} with the given excluded intervals to {@code contentValues}.
+     */
+    static void populateExcludedDurationTo(
+            @NonNull ContentValues contentValues,
+            long sessionStartTime,
+            long sessionEndTime,
+            @NonNull List<Long> excludeStarts,
+            @NonNull List<Long> excludeEnds) {
+        if (excludeStarts.isEmpty()) {
+            contentValues.put(EXCLUDED_DURATION_COLUMN_NAME, 0);
+            contentValues.putNull(EXCLUDED_INTERVALS_COLUMN_NAME);
+            return;
+        }
+
+        long excludedDuration = 0;
+        boolean insideSession = true;
+        for (int i = 0; i < excludeStarts.size(); i++) {
+            excludedDuration += excludeEnds.get(i) - excludeStarts.get(i);
+            insideSession &=
+                    excludeStarts.get(i) >= sessionStartTime
+                            && excludeEnds.get(i) <= sessionEndTime;
+        }
+
+        if (insideSession) {
+            contentValues.put(EXCLUDED_DURATION_COLUMN_NAME, excludedDuration);
+        } else {
+            contentValues.putNull(EXCLUDED_DURATION_COLUMN_NAME);
+        }
+        contentValues.put(
+                EXCLUDED_INTERVALS_COLUMN_NAME,
+                SessionDurationAggregationData.encodeExcludeIntervals(excludeStarts, excludeEnds));
+    }
+
+    /**
+     * Adds the excluded duration columns to {@code sessionTableName} and populates them from the
+     * excluded intervals matched by {@code durationAggregationJoin}.
+     */
+    static void onUpgrade(
+            @NonNull SQLiteDatabase db,
+            int oldVersion,
+            @NonNull String sessionTableName,
+            @NonNull SqlJoin durationAggregationJoin,
+            @NonNull String excludeStartColumnName,
+            @NonNull String excludeEndColumnName) {
+        if (oldVersion >= DB_VERSION_SESSION_EXCLUDED_DURATION) {
+            return;
+        }
+
+        for (Pair<String, String> columnInfo : getColumnInfo()) {
+            try {
+                db.execSQL(
+                        new AlterTableRequest(sessionTableName, List.of(columnInfo))
+                                .getAlterTableAddColumnsCommand());
+            } catch (SQLException sqlException) {
+                // Ignore this means the field exists. This is possible via module rollback
+                // followed by an upgrade
+            }
+        }
+
+        String query =
+                "SELECT "
+                        + sessionTableName
+                        + "."
+                        + PRIMARY_COLUMN_NAME
+                        + ", "
+                        + START_TIME_COLUMN_NAME
+                        + ", "
+                        + END_TIME_COLUMN_NAME
+                        + ", "
+                        + excludeStartColumnName
+                        + ", "
+                        + excludeEndColumnName
+                        + " FROM "
+                        + sessionTableName
+                        + durationAggregationJoin.getJoinCommand()
+                        + " WHERE "
+                        + EXCLUDED_DURATION_COLUMN_NAME
+                        + " IS NULL AND "
+                        + EXCLUDED_INTERVALS_COLUMN_NAME
+                        + " IS NULL ORDER BY "
+                        + sessionTableName
+                        + "."
+                        + PRIMARY_COLUMN_NAME;
+        try (Cursor cursor = db.rawQuery(query, null)) {
+            List<Long> excludeStarts = new ArrayList<>();
+            List<Long> excludeEnds = new ArrayList<>();
+            boolean hasRow = cursor.moveToFirst();
+            while (hasRow) {
+                long rowId = cursor.getLong(0);
+                long sessionStartTime = cursor.getLong(1);
+                long sessionEndTime = cursor.getLong(2);
+                excludeStarts.clear();
+                excludeEnds.clear();
+                do {
+                    if (!cursor.isNull(3)) {
+                        excludeStarts.add(cursor.getLong(3));
+                        excludeEnds.add(cursor.getLong(4));
+                    }
+                    hasRow = cursor.moveToNext();
+                } while (hasRow && cursor.getLong(0) == rowId);
+
+                ContentValues contentValues = new ContentValues();
+                populateExcludedDurationTo(
+                        contentValues,
+                        sessionStartTime,
+                        sessionEndTime,
+                        excludeStarts,
+                        excludeEnds);
+                db.update(
+                        sessionTableName,
+                        contentValues,
+                        PRIMARY_COLUMN_NAME + " = ?",
+                        new String[] {String.valueOf(rowId)});
+            }
+        }
+    }
+}
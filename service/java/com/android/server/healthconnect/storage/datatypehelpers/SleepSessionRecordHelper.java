@@ -17,6 +17,7 @@
 package com.android.server.healthconnect.storage.datatypehelpers;
 
 import static android.health.connect.datatypes.AggregationType.AggregationTypeIdentifier.SLEEP_SESSION_DURATION_TOTAL;
+import static android.health.connect.datatypes.SleepSessionRecord.StageType.DURATION_EXCLUDE_TYPES;
 
 import static com.android.server.healthconnect.storage.utils.StorageUtils.TEXT_NULL;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorString;
@@ -25,11 +26,13 @@ import static com.android.server.healthconnect.storage.utils.StorageUtils.getCur
 import android.annotation.NonNull;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.health.connect.HealthConnectException;
 import android.health.connect.datatypes.AggregationType;
 import android.health.connect.datatypes.RecordTypeIdentifier;
 import android.health.connect.internal.datatypes.RecordInternal;
 import android.health.connect.internal.datatypes.SleepSessionRecordInternal;
+import android.health.connect.internal.datatypes.SleepStageInternal;
 import android.util.Pair;
 
 import com.android.server.healthconnect.HealthConnectDeviceConfigManager;
@@ -74,20 +77,26 @@ public final class SleepSessionRecordHelper
         if (aggregateRequest.getAggregationTypeIdentifier() == SLEEP_SESSION_DURATION_TOTAL) {
             ArrayList<String> sessionColumns =
                     new ArrayList<>(super.getPriorityAggregationColumnNames());
-            sessionColumns.add(SleepStageRecordHelper.getStartTimeColumnName());
-            sessionColumns.add(SleepStageRecordHelper.getEndTimeColumnName());
+            sessionColumns.addAll(SessionExcludedDurationHelper.getAggregationColumnNames());
             return new AggregateParams(SLEEP_SESSION_RECORD_TABLE_NAME, sessionColumns)
-                    .setJoin(
-                            SleepStageRecordHelper.getJoinForDurationAggregation(
-                                    getMainTableName()))
                     .setPriorityAggregationExtraParams(
-                            new AggregateParams.PriorityAggregationExtraParams(
-                                    SleepStageRecordHelper.getStartTimeColumnName(),
-                                    SleepStageRecordHelper.getEndTimeColumnName()));
+                            SessionExcludedDurationHelper.getPriorityAggregationExtraParams());
         }
         return null;
     }
 
+    @Override
+    public void onUpgrade(@NonNull SQLiteDatabase db, int oldVersion, int newVersion) {
+        super.onUpgrade(db, oldVersion, newVersion);
+        SessionExcludedDurationHelper.onUpgrade(
+                db,
+                oldVersion,
+                getMainTableName(),
+                SleepStageRecordHelper.getJoinForDurationAggregation(getMainTableName()),
+                SleepStageRecordHelper.getStartTimeColumnName(),
+                SleepStageRecordHelper.getEndTimeColumnName());
+    }
+
     @Override
     void populateSpecificRecordValue(
             @NonNull Cursor cursor, @NonNull SleepSessionRecordInternal sleepSessionRecord) {
@@ -111,6 +120,23 @@ public final class SleepSessionRecordHelper
             @NonNull SleepSessionRecordInternal sleepSessionRecord) {
         contentValues.put(NOTES_COLUMN_NAME, sleepSessionRecord.getNotes());
         contentValues.put(TITLE_COLUMN_NAME, sleepSessionRecord.getTitle());
+
+        List<Long> excludeStarts = new ArrayList<>();
+        List<Long> excludeEnds = new ArrayList<>();
+        if (sleepSessionRecord.getSleepStages() != null) {
+            for (SleepStageInternal stage : sleepSessionRecord.getSleepStages()) {
+                if (DURATION_EXCLUDE_TYPES.contains(stage.getStageType())) {
+                    excludeStarts.add(stage.getStartTime());
+                    excludeEnds.add(stage.getEndTime());
+                }
+            }
+        }
+        SessionExcludedDurationHelper.populateExcludedDurationTo(
+                contentValues,
+                sleepSessionRecord.getStartTimeInMillis(),
+                sleepSessionRecord.getEndTimeInMillis(),
+                excludeStarts,
+                excludeEnds);
     }
 
     @Override
@@ -138,8 +164,13 @@ public final class SleepSessionRecordHelper
     @Override
     @NonNull
     protected List<Pair<String, String>> getIntervalRecordColumnInfo() {
-        return Arrays.asList(
-                new Pair<>(NOTES_COLUMN_NAME, TEXT_NULL), new Pair<>(TITLE_COLUMN_NAME, TEXT_NULL));
+        List<Pair<String, String>> columnInfo =
+                new ArrayList<>(
+                        Arrays.asList(
+                                new Pair<>(NOTES_COLUMN_NAME, TEXT_NULL),
+                                new Pair<>(TITLE_COLUMN_NAME, TEXT_NULL)));
+        columnInfo.addAll(SessionExcludedDurationHelper.getColumnInfo());
+        return columnInfo;
     }
 
     @Override
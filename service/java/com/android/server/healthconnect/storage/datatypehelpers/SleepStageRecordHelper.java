@@ -61,7 +61,7 @@ public final class SleepStageRecordHelper {
         return SLEEP_STAGE_END_TIME;
     }
 
-    /** Returns sql join needed for calculating sleep duration */
+    /** Returns sql join matching the stages excluded from the sleep duration */
     public static SqlJoin getJoinForDurationAggregation(String parentTableName) {
         SqlJoin join = getJoinReadRequest(parentTableName);
         WhereClauses filterAwakes = new WhereClauses();
@@ -96,4 +96,15 @@ public class SpeedRecordHelper
         contentValues.put(SPEED_COLUMN_NAME, speedRecord.getSpeed());
         contentValues.put(EPOCH_MILLIS_COLUMN_NAME, speedRecord.getEpochMillis());
     }
+
+    @Override
+    @NonNull
+    String getSampleValueColumnName() {
+        return SPEED_COLUMN_NAME;
+    }
+
+    @Override
+    double getSampleValue(@NonNull SpeedRecordInternal.SpeedRecordSample sample) {
+        return sample.getSpeed();
+    }
 }
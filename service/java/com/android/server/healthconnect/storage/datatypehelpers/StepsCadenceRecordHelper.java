@@ -96,4 +96,15 @@ public class StepsCadenceRecordHelper
         contentValues.put(RATE_COLUMN_NAME, stepsCadenceRecord.getRate());
         contentValues.put(EPOCH_MILLIS_COLUMN_NAME, stepsCadenceRecord.getEpochMillis());
     }
+
+    @Override
+    @NonNull
+    String getSampleValueColumnName() {
+        return RATE_COLUMN_NAME;
+    }
+
+    @Override
+    double getSampleValue(@NonNull StepsCadenceRecordInternal.StepsCadenceRecordSample sample) {
+        return sample.getRate();
+    }
 }
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers.aggregation;
+
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_ACTIVE_CALORIES_BURNED;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_BASAL_METABOLIC_RATE;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_HEIGHT;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_LEAN_BODY_MASS;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_TOTAL_CALORIES_BURNED;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_WEIGHT;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.health.connect.AggregateResult;
+import android.health.connect.datatypes.AggregationType;
+import android.os.UserHandle;
+import android.util.LruCache;
+
+import com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.HealthDataCategoryPriorityHelper;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+
+import java.time.Duration;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of aggregation results, keyed by the shape of the aggregation query.
+ *
+ * <p>An entry is valid as long as no change log has been committed for any record type the
+ * aggregation reads from, the priority order has not changed and no write bypassing the change
+ * logs (auto delete, migration, restore) has happened since it was computed.
+ *
+ * @hide
+ */
+public final class AggregationResultCache {
+    private static final int MAX_ENTRIES = 64;
+
+    /** Record types read when deriving BMR or total calories burned. */
+    private static final List<Integer> DERIVED_CALORIES_DEPENDENCIES =
+            List.of(
+                    RECORD_TYPE_ACTIVE_CALORIES_BURNED,
+                    RECORD_TYPE_BASAL_METABOLIC_RATE,
+                    RECORD_TYPE_HEIGHT,
+                    RECORD_TYPE_LEAN_BODY_MASS,
+                    RECORD_TYPE_TOTAL_CALORIES_BURNED,
+                    RECORD_TYPE_WEIGHT);
+
+    private static volatile AggregationResultCache sAggregationResultCache;
+
+    private final LruCache<Key, Entry> mCache = new LruCache<>(MAX_ENTRIES);
+    private final AtomicLong mGeneration = new AtomicLong();
+
+    private AggregationResultCache() {}
+
+    /**
+     * Returns the cached results for {@code key}, or null if there are none or they have been
+     * invalidated by a write since they were computed.
+     */
+    @Nullable
+    public List<AggregateResult<?>> get(@NonNull Key key) {
+        Entry entry = mCache.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (!Arrays.equals(entry.mVersion, getVersion(key))) {
+            mCache.remove(key);
+            return null;
+        }
+
+        return entry.mResults;
+    }
+
+    /**
+     * Returns the current data version for {@code key}. Must be read before the aggregation is
+     * computed, and passed to {@link #put} once it is done, so that writes committed while the
+     * aggregation was running invalidate the entry.
+     */
+    @NonNull
+    public long[] getVersion(@NonNull Key key) {
+        List<Integer> recordTypes = key.getDependentRecordTypes();
+        long[] version = new long[recordTypes.size() + 2];
+        version[0] = mGeneration.get();
+        version[1] = HealthDataCategoryPriorityHelper.getInstance().getPriorityVersion();
+        ChangeLogsHelper changeLogsHelper = ChangeLogsHelper.getInstance();
+        for (int i = 0; i < recordTypes.size(); i++) {
+            version[i + 2] = changeLogsHelper.getLatestRowIdFor(recordTypes.get(i));
+        }
+
+        return version;
+    }
+
+    /** Caches {@code results} computed at data version {@code version} for {@code key}. */
+    public void put(
+            @NonNull Key key,
+            @NonNull long[] version,
+            @NonNull List<AggregateResult<?>> results) {
+        mCache.put(key, new Entry(version, Collections.unmodifiableList(results)));
+    }
+
+    /**
+     * Drops all the entries. Must be called after writes which don't generate change logs, and on
+     * user switch.
+     */
+    public void invalidateAll() {
+        mGeneration.incrementAndGet();
+        mCache.evictAll();
+    }
+
+    /**
+     * Returns a counter incremented by each {@link #invalidateAll}, so it changes on the writes
+     * which don't generate change logs.
+     */
+    public long getGeneration() {
+        return mGeneration.get();
+    }
+
+    @NonNull
+    public static synchronized AggregationResultCache getInstance() {
+        if (sAggregationResultCache == null) {
+            sAggregationResultCache = new AggregationResultCache();
+        }
+
+        return sAggregationResultCache;
+    }
+
+    /** Identifies an aggregation by everything which affects its result. */
+    public static final class Key {
+        private final AggregationType<?> mAggregationType;
+        private final long mStartTime;
+        private final long mEndTime;
+        private final boolean mUseLocalTime;
+        @Nullable private final Period mPeriod;
+        @Nullable private final Duration mDuration;
+        private final List<String> mPackageFilters;
+        private final UserHandle mUserHandle;
+
+        public Key(
+                @NonNull AggregationType<?> aggregationType,
+                long startTime,
+                long endTime,
+                boolean useLocalTime,
+                @Nullable Period period,
+                @Nullable Duration duration,
+                @NonNull List<String> packageFilters,
+                @NonNull UserHandle userHandle) {
+            Objects.requireNonNull(aggregationType);
+            Objects.requireNonNull(packageFilters);
+            Objects.requireNonNull(userHandle);
+            mAggregationType = aggregationType;
+            mStartTime = startTime;
+            mEndTime = endTime;
+            mUseLocalTime = useLocalTime;
+            mPeriod = period;
+            mDuration = duration;
+            List<String> sortedPackageFilters = new ArrayList<>(packageFilters);
+            Collections.sort(sortedPackageFilters);
+            mPackageFilters = sortedPackageFilters;
+            mUserHandle = userHandle;
+        }
+
+        private List<Integer> getDependentRecordTypes() {
+            List<Integer> recordTypes = mAggregationType.getApplicableRecordTypeIds();
+            for (int recordType : recordTypes) {
+                if (StorageUtils.isDerivedType(recordType)) {
+                    return DERIVED_CALORIES_DEPENDENCIES;
+                }
+            }
+
+            return recordTypes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return mAggregationType.getAggregationTypeIdentifier()
+                            == that.mAggregationType.getAggregationTypeIdentifier()
+                    && mStartTime == that.mStartTime
+                    && mEndTime == that.mEndTime
+                    && mUseLocalTime == that.mUseLocalTime
+                    && Objects.equals(mPeriod, that.mPeriod)
+                    && Objects.equals(mDuration, that.mDuration)
+                    && mPackageFilters.equals(that.mPackageFilters)
+                    && mUserHandle.equals(that.mUserHandle);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(
+                    mAggregationType.getAggregationTypeIdentifier(),
+                    mStartTime,
+                    mEndTime,
+                    mUseLocalTime,
+                    mPeriod,
+                    mDuration,
+                    mPackageFilters,
+                    mUserHandle);
+        }
+    }
+
+    private static final class Entry {
+        private final long[] mVersion;
+        private final List<AggregateResult<?>> mResults;
+
+        private Entry(long[] version, List<AggregateResult<?>> results) {
+            mVersion = version;
+            mResults = results;
+        }
+    }
+}
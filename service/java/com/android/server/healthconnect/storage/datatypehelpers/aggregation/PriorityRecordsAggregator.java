@@ -207,8 +207,8 @@ public class PriorityRecordsAggregator {
                     mExtraParams.getColumnToAggregateType());
             case SLEEP_SESSION_DURATION_TOTAL,
                     EXERCISE_SESSION_DURATION_TOTAL -> new SessionDurationAggregationData(
-                    mExtraParams.getExcludeIntervalStartColumnName(),
-                    mExtraParams.getExcludeIntervalEndColumnName());
+                    mExtraParams.getExcludedDurationColumnName(),
+                    mExtraParams.getExcludedIntervalsColumnName());
             default -> throw new UnsupportedOperationException(
                     "Priority aggregation do not support type: " + mAggregationType);
         };
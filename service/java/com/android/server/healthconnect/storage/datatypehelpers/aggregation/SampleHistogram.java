@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers.aggregation;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Fixed bin width histogram of series sample values, used to answer percentile aggregations.
+ *
+ * <p>Bin {@code i} holds the values in {@code [i * binWidth, (i + 1) * binWidth)}. Only non empty
+ * bins are stored, and histograms with the same bin width can be merged, so the sketch stays small
+ * regardless of the number of samples it summarises.
+ *
+ * @hide
+ */
+public final class SampleHistogram {
+    private final double mBinWidth;
+    private final TreeMap<Long, Long> mBinCounts = new TreeMap<>();
+    private long mTotalCount;
+
+    public SampleHistogram(double binWidth) {
+        if (binWidth <= 0) {
+            throw new IllegalArgumentException("Bin width must be positive: " + binWidth);
+        }
+
+        mBinWidth = binWidth;
+    }
+
+    /** Adds {@code count} samples to the bin with index {@code binIndex}. */
+    public void add(long binIndex, long count) {
+        if (count <= 0) {
+            return;
+        }
+
+        mBinCounts.merge(binIndex, count, Long::sum);
+        mTotalCount += count;
+    }
+
+    /** Adds all the samples of {@code other} to this histogram. */
+    public void merge(@NonNull SampleHistogram other) {
+        if (Double.compare(mBinWidth, other.mBinWidth) != 0) {
+            throw new IllegalArgumentException(
+                    "Can't merge histograms with bin widths " + mBinWidth + ", " + other.mBinWidth);
+        }
+
+        for (Map.Entry<Long, Long> bin : other.mBinCounts.entrySet()) {
+            add(bin.getKey(), bin.getValue());
+        }
+    }
+
+    /** Returns the number of samples in this histogram. */
+    public long getCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * Returns the lower bound of the bin holding the nearest rank {@code percentile}, in the range
+     * [0, 100], or null if the histogram is empty. Exact when the bin width is the resolution of
+     * the sample values.
+     */
+    @Nullable
+    public Double getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be in [0, 100]: " + percentile);
+        }
+
+        if (mTotalCount == 0) {
+            return null;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile * mTotalCount / 100));
+        long seen = 0;
+        for (Map.Entry<Long, Long> bin : mBinCounts.entrySet()) {
+            seen += bin.getValue();
+            if (seen >= rank) {
+                return bin.getKey() * mBinWidth;
+            }
+        }
+
+        return mBinCounts.lastKey() * mBinWidth;
+    }
+}
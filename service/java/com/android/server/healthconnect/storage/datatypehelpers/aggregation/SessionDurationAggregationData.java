@@ -16,6 +16,7 @@
 
 package com.android.server.healthconnect.storage.datatypehelpers.aggregation;
 
+import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorBlob;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.getCursorLong;
 import static com.android.server.healthconnect.storage.utils.StorageUtils.isNullValue;
 
@@ -25,11 +26,11 @@ import android.util.Slog;
 
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.UUID;
 
 /**
  * Helper class to aggregate Sleep and Exercise Sessions.
@@ -38,20 +39,47 @@ import java.util.UUID;
  */
 public class SessionDurationAggregationData extends AggregationRecordData {
     private static final String TAG = "HealthSessionPriorityAggregation";
-    private final String mExcludeIntervalStartTimeColumn;
-    private final String mExcludeIntervalEndTimeColumn;
+    private final String mExcludedDurationColumn;
+    private final String mExcludedIntervalsColumn;
     private static final long MILLIS_IN_SECOND = 1000L;
     List<Long> mExcludeStarts;
     List<Long> mExcludeEnds;
 
+    // Total duration of the excluded intervals if they all lie within the session, null otherwise.
+    private Long mExcludedDuration;
+    // Encoded excluded intervals, decoded only if the session is split between intervals.
+    private byte[] mExcludedIntervals;
+    private long mExcludedIntervalsOffset;
+
     public SessionDurationAggregationData(
-            String excludeIntervalStartTimeColumn, String excludeIntervalEndTimeColumn) {
-        mExcludeIntervalStartTimeColumn = excludeIntervalStartTimeColumn;
-        mExcludeIntervalEndTimeColumn = excludeIntervalEndTimeColumn;
+            String excludedDurationColumn, String excludedIntervalsColumn) {
+        mExcludedDurationColumn = excludedDurationColumn;
+        mExcludedIntervalsColumn = excludedIntervalsColumn;
+    }
+
+    /**
+     * Encodes the excluded intervals of a session, sorting starts and ends independently, into the
+     * blob stored on the session row.
+     */
+    public static byte[] encodeExcludeIntervals(List<Long> excludeStarts, List<Long> excludeEnds) {
+        List<Long> starts = new ArrayList<>(excludeStarts);
+        List<Long> ends = new ArrayList<>(excludeEnds);
+        starts.sort(Comparator.naturalOrder());
+        ends.sort(Comparator.naturalOrder());
+
+        ByteBuffer buffer = ByteBuffer.allocate(2 * Long.BYTES * starts.size());
+        starts.forEach(buffer::putLong);
+        ends.forEach(buffer::putLong);
+        return buffer.array();
     }
 
     @Override
     double getResultOnInterval(long startTime, long endTime) {
+        if (mExcludedDuration != null && startTime <= getStartTime() && endTime >= getEndTime()) {
+            // The whole session is in the interval, and so are all the excluded intervals.
+            return getEndTime() - getStartTime() - mExcludedDuration;
+        }
+
         return AggregationRecordData.calculateIntervalOverlapDuration(
                         getStartTime(), startTime, getEndTime(), endTime)
                 - calculateDurationToExclude(startTime, endTime);
@@ -59,22 +87,22 @@ public class SessionDurationAggregationData extends AggregationRecordData {
 
     @Override
     void populateSpecificAggregationData(Cursor cursor, boolean useLocalTime) {
-        UUID currentSessionUuid = readUuid(cursor);
-        do {
-            // Populate stages from each row.
-            updateIntervalsToExclude(cursor, useLocalTime);
-        } while (cursor.moveToNext() && currentSessionUuid.equals(readUuid(cursor)));
-        // In case we hit another record, move the cursor back to read next record in outer
-        // RecordHelper#getInternalRecords loop.
-        cursor.moveToPrevious();
-
-        if (mExcludeStarts != null) {
-            mExcludeStarts.sort(Comparator.naturalOrder());
-            mExcludeEnds.sort(Comparator.naturalOrder());
-
-            if (Constants.DEBUG) {
-                Slog.d(TAG, "Exclude intervals: " + mExcludeStarts + " ends: " + mExcludeEnds);
-            }
+        mExcludedIntervals =
+                isNullValue(cursor, mExcludedIntervalsColumn)
+                        ? null
+                        : getCursorBlob(cursor, mExcludedIntervalsColumn);
+        if (mExcludedIntervals == null) {
+            mExcludedDuration = 0L;
+            return;
+        }
+
+        if (useLocalTime) {
+            // Local session end time is shifted by the end zone offset, so the excluded intervals
+            // shifted by the start zone offset may not lie within the session anymore.
+            mExcludedIntervalsOffset =
+                    MILLIS_IN_SECOND * getStartTimeZoneOffset().getTotalSeconds();
+        } else if (!isNullValue(cursor, mExcludedDurationColumn)) {
+            mExcludedDuration = getCursorLong(cursor, mExcludedDurationColumn);
         }
     }
 
@@ -86,31 +114,29 @@ public class SessionDurationAggregationData extends AggregationRecordData {
         return this;
     }
 
-    private void updateIntervalsToExclude(Cursor cursor, boolean useLocalTime) {
-        if (isNullValue(cursor, mExcludeIntervalStartTimeColumn)) {
+    private void decodeExcludeIntervalsIfNeeded() {
+        if (mExcludeStarts != null || mExcludedIntervals == null) {
             return;
         }
 
-        if (mExcludeStarts == null) {
-            mExcludeStarts = new ArrayList<>();
-            mExcludeEnds = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(mExcludedIntervals);
+        int count = mExcludedIntervals.length / (2 * Long.BYTES);
+        mExcludeStarts = new ArrayList<>(count);
+        mExcludeEnds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            mExcludeStarts.add(buffer.getLong() + mExcludedIntervalsOffset);
         }
-
-        if (useLocalTime) {
-            mExcludeStarts.add(calculateLocalTime(cursor, mExcludeIntervalStartTimeColumn));
-            mExcludeEnds.add(calculateLocalTime(cursor, mExcludeIntervalEndTimeColumn));
-        } else {
-            mExcludeStarts.add(getCursorLong(cursor, mExcludeIntervalStartTimeColumn));
-            mExcludeEnds.add(getCursorLong(cursor, mExcludeIntervalEndTimeColumn));
+        for (int i = 0; i < count; i++) {
+            mExcludeEnds.add(buffer.getLong() + mExcludedIntervalsOffset);
         }
-    }
 
-    private Long calculateLocalTime(Cursor cursor, String physicalColumnName) {
-        return getCursorLong(cursor, physicalColumnName)
-                + MILLIS_IN_SECOND * getStartTimeZoneOffset().getTotalSeconds();
+        if (Constants.DEBUG) {
+            Slog.d(TAG, "Exclude intervals: " + mExcludeStarts + " ends: " + mExcludeEnds);
+        }
     }
 
     private long calculateDurationToExclude(long startTime, long endTime) {
+        decodeExcludeIntervalsIfNeeded();
         if (mExcludeStarts == null) {
             // No intervals to exclude for this record data.
             return 0;
@@ -46,6 +46,13 @@ public class AggregateParams {
 
     private String mTimeOffsetColumnName;
 
+    // Expression aggregated instead of applying the aggregate operation to the column to fetch.
+    private String mAggregateExpression;
+
+    // Percentile to compute from a histogram of the column to fetch, null for other aggregations.
+    private Double mPercentile;
+    private double mHistogramBinWidth;
+
     private PriorityAggregationExtraParams mPriorityAggregationExtraParams;
 
     public AggregateParams(String tableName, List<String> columnsToFetch, String timeColumnName) {
@@ -100,6 +107,18 @@ public class AggregateParams {
         return mTimeOffsetColumnName;
     }
 
+    public String getAggregateExpression() {
+        return mAggregateExpression;
+    }
+
+    public Double getPercentile() {
+        return mPercentile;
+    }
+
+    public double getHistogramBinWidth() {
+        return mHistogramBinWidth;
+    }
+
     /** Sets join type. */
     public AggregateParams setJoin(SqlJoin join) {
         mJoin = join;
@@ -111,6 +130,27 @@ public class AggregateParams {
         return this;
     }
 
+    /**
+     * Sets the SQL expression to select, aliased as the first column to fetch, for non priority
+     * aggregations. Used when the result can be computed from precomputed columns rather than by
+     * applying the aggregate operation to the column to fetch.
+     */
+    public AggregateParams setAggregateExpression(@NonNull String aggregateExpression) {
+        Objects.requireNonNull(aggregateExpression);
+        mAggregateExpression = aggregateExpression;
+        return this;
+    }
+
+    /**
+     * Sets the percentile, in the range [0, 100], to compute from a histogram of the first column
+     * to fetch with bins of {@code histogramBinWidth}.
+     */
+    public AggregateParams setPercentile(double percentile, double histogramBinWidth) {
+        mPercentile = percentile;
+        mHistogramBinWidth = histogramBinWidth;
+        return this;
+    }
+
     /** Appends additional columns to fetch. */
     public AggregateParams appendAdditionalColumns(List<String> additionColumns) {
         mColumnsToFetch.addAll(additionColumns);
@@ -158,13 +198,13 @@ public class AggregateParams {
         @ValueColumnType private int mColumnToAggregateType;
 
         private String mColumnToAggregateName;
-        private String mExcludeIntervalEndColumnName;
-        private String mExcludeIntervalStartColumnName;
+        private String mExcludedIntervalsColumnName;
+        private String mExcludedDurationColumnName;
 
         public PriorityAggregationExtraParams(
-                String excludeIntervalStartColumnName, String excludeIntervalEndColumnName) {
-            mExcludeIntervalStartColumnName = excludeIntervalStartColumnName;
-            mExcludeIntervalEndColumnName = excludeIntervalEndColumnName;
+                String excludedDurationColumnName, String excludedIntervalsColumnName) {
+            mExcludedDurationColumnName = excludedDurationColumnName;
+            mExcludedIntervalsColumnName = excludedIntervalsColumnName;
         }
 
         public PriorityAggregationExtraParams(
@@ -175,12 +215,12 @@ public class AggregateParams {
                     (aggregationType == Long.class ? VALUE_TYPE_LONG : VALUE_TYPE_DOUBLE);
         }
 
-        public String getExcludeIntervalStartColumnName() {
-            return mExcludeIntervalStartColumnName;
+        public String getExcludedDurationColumnName() {
+            return mExcludedDurationColumnName;
         }
 
-        public String getExcludeIntervalEndColumnName() {
-            return mExcludeIntervalEndColumnName;
+        public String getExcludedIntervalsColumnName() {
+            return mExcludedIntervalsColumnName;
         }
 
         @ValueColumnType
@@ -40,6 +40,7 @@ import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.RecordHelper;
 import com.android.server.healthconnect.storage.datatypehelpers.aggregation.PriorityRecordsAggregator;
+import com.android.server.healthconnect.storage.datatypehelpers.aggregation.SampleHistogram;
 import com.android.server.healthconnect.storage.utils.OrderByClause;
 import com.android.server.healthconnect.storage.utils.SqlJoin;
 import com.android.server.healthconnect.storage.utils.StorageUtils;
@@ -48,6 +49,7 @@ import com.android.server.healthconnect.storage.utils.WhereClauses;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.Period;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -60,6 +62,8 @@ import java.util.Map;
 public class AggregateTableRequest {
     private static final String TAG = "HealthConnectAggregate";
     private static final String GROUP_BY_COLUMN_NAME = "category";
+    private static final String HISTOGRAM_BIN_COLUMN_NAME = "histogram_bin";
+    private static final String HISTOGRAM_COUNT_COLUMN_NAME = "histogram_count";
 
     private final long DEFAULT_TIME = -1;
     private final String mTableName;
@@ -72,6 +76,10 @@ public class AggregateTableRequest {
     // null for other records.
     private final String mEndTimeColumnName;
     private final SqlJoin mSqlJoin;
+    private final String mAggregateExpression;
+    private final Double mPercentile;
+    private final double mHistogramBinWidth;
+    private final String mTimeOffsetColumnName;
     private List<Long> mPackageFilters;
     private long mStartTime = DEFAULT_TIME;
     private long mEndTime = DEFAULT_TIME;
@@ -94,6 +102,10 @@ public class AggregateTableRequest {
         mAggregationType = aggregationType;
         mRecordHelper = recordHelper;
         mSqlJoin = params.getJoin();
+        mAggregateExpression = params.getAggregateExpression();
+        mPercentile = params.getPercentile();
+        mHistogramBinWidth = params.getHistogramBinWidth();
+        mTimeOffsetColumnName = params.getTimeOffsetColumnName();
         mPriorityParams = params.getPriorityAggregationExtraParams();
         mEndTimeColumnName = params.getExtraTimeColumnName();
         mAdditionalColumnsToFetch = new ArrayList<>();
@@ -164,6 +176,26 @@ public class AggregateTableRequest {
             for (String columnName : mColumnNamesToAggregate) {
                 builder.append(columnName).append(", ");
             }
+        } else if (mPercentile != null) {
+            // CAST truncates towards zero, so step back one bin for negative fractional values to
+            // get the floor.
+            String binValue = mColumnNamesToAggregate.get(0) + " / " + mHistogramBinWidth;
+            builder.append("(CAST(")
+                    .append(binValue)
+                    .append(" AS INTEGER) - (")
+                    .append(binValue)
+                    .append(" < CAST(")
+                    .append(binValue)
+                    .append(" AS INTEGER))) as ")
+                    .append(HISTOGRAM_BIN_COLUMN_NAME)
+                    .append(", COUNT(*) as ")
+                    .append(HISTOGRAM_COUNT_COLUMN_NAME)
+                    .append(", ");
+        } else if (mAggregateExpression != null) {
+            builder.append(mAggregateExpression)
+                    .append(" as ")
+                    .append(mColumnNamesToAggregate.get(0))
+                    .append(", ");
         } else {
             aggCommand = getSqlCommandFor(mAggregationType.getAggregateOperationType());
 
@@ -239,6 +271,8 @@ public class AggregateTableRequest {
                 mRecordHelper.getRecordIdentifier(),
                 mAggregationType.getAggregateOperationType())) {
             processPriorityRequest(cursor);
+        } else if (mPercentile != null) {
+            processPercentileRequest(cursor);
         } else {
             processNoPrioritiesRequest(cursor);
         }
@@ -280,6 +314,45 @@ public class AggregateTableRequest {
         }
     }
 
+    private void processPercentileRequest(Cursor cursor) {
+        Map<Integer, SampleHistogram> histograms = new ArrayMap<>();
+        Map<Integer, ZoneOffset> zoneOffsets = new ArrayMap<>();
+        while (cursor.moveToNext()) {
+            int groupNumber =
+                    mGroupByColumnName == null
+                            ? 0
+                            : StorageUtils.getCursorInt(cursor, GROUP_BY_COLUMN_NAME);
+            SampleHistogram histogram = histograms.get(groupNumber);
+            if (histogram == null) {
+                histogram = new SampleHistogram(mHistogramBinWidth);
+                histograms.put(groupNumber, histogram);
+                zoneOffsets.put(
+                        groupNumber,
+                        ZoneOffset.ofTotalSeconds(
+                                StorageUtils.getCursorInt(cursor, mTimeOffsetColumnName)));
+            }
+            histogram.add(
+                    StorageUtils.getCursorLong(cursor, HISTOGRAM_BIN_COLUMN_NAME),
+                    StorageUtils.getCursorLong(cursor, HISTOGRAM_COUNT_COLUMN_NAME));
+        }
+
+        for (Map.Entry<Integer, SampleHistogram> entry : histograms.entrySet()) {
+            Double percentile = entry.getValue().getPercentile(mPercentile);
+            if (percentile == null) {
+                continue;
+            }
+
+            AggregateResult<?> result;
+            if (mAggregationType.getAggregateResultClass() == Long.class) {
+                result = new AggregateResult<>(Math.round(percentile));
+            } else {
+                result = new AggregateResult<>(percentile);
+            }
+            mAggregateResults.put(
+                    entry.getKey(), result.setZoneOffset(zoneOffsets.get(entry.getKey())));
+        }
+    }
+
     private void processNoPrioritiesRequest(Cursor cursor) {
         while (cursor.moveToNext()) {
             mAggregateResults.put(
@@ -328,8 +401,13 @@ public class AggregateTableRequest {
 
         builder.append(buildAggregationWhereCondition());
 
-        if (useGroupBy) {
+        boolean groupByHistogramBin = mPercentile != null && !isMetadata;
+        if (useGroupBy && groupByHistogramBin) {
+            builder.append(" GROUP BY " + GROUP_BY_COLUMN_NAME + ", " + HISTOGRAM_BIN_COLUMN_NAME);
+        } else if (useGroupBy) {
             builder.append(" GROUP BY " + GROUP_BY_COLUMN_NAME);
+        } else if (groupByHistogramBin) {
+            builder.append(" GROUP BY " + HISTOGRAM_BIN_COLUMN_NAME);
         }
 
         OrderByClause orderByClause = new OrderByClause();
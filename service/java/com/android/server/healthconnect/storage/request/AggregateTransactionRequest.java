@@ -17,6 +17,7 @@
 package com.android.server.healthconnect.storage.request;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.health.connect.AggregateRecordsResponse;
 import android.health.connect.AggregateResult;
 import android.health.connect.TimeRangeFilter;
@@ -25,11 +26,16 @@ import android.health.connect.aidl.AggregateDataRequestParcel;
 import android.health.connect.aidl.AggregateDataResponseParcel;
 import android.health.connect.datatypes.AggregationType;
 import android.health.connect.internal.datatypes.utils.AggregationTypeIdMapper;
+import android.os.CancellationSignal;
+import android.os.UserHandle;
 import android.util.ArrayMap;
 
+import com.android.server.healthconnect.storage.ResourceUsage;
 import com.android.server.healthconnect.storage.TransactionManager;
 import com.android.server.healthconnect.storage.datatypehelpers.RecordHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.aggregation.AggregationResultCache;
 import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
+import com.android.server.healthconnect.utils.SingleFlight;
 
 import java.time.Duration;
 import java.time.Period;
@@ -37,6 +43,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.stream.LongStream;
 
 /**
  * Refines aggregate request from what the client sent to a format that makes the most sense for the
@@ -45,16 +52,23 @@ import java.util.Objects;
  * @hide
  */
 public final class AggregateTransactionRequest {
+    private static final SingleFlight<List<Object>, List<AggregateResult<?>>>
+            IN_FLIGHT_AGGREGATIONS = new SingleFlight<>();
+
     private final String mPackageName;
     private final List<AggregateTableRequest> mAggregateTableRequests;
     private final Period mPeriod;
     private final Duration mDuration;
     private final TimeRangeFilter mTimeRangeFilter;
+    private final List<AggregationResultCache.Key> mCacheKeys;
 
     public AggregateTransactionRequest(
-            @NonNull String packageName, @NonNull AggregateDataRequestParcel request) {
+            @NonNull String packageName,
+            @NonNull AggregateDataRequestParcel request,
+            @NonNull UserHandle userHandle) {
         mPackageName = packageName;
         mAggregateTableRequests = new ArrayList<>(request.getAggregateIds().length);
+        mCacheKeys = new ArrayList<>(request.getAggregateIds().length);
         mPeriod = request.getPeriod();
         mDuration = request.getDuration();
         mTimeRangeFilter = request.getTimeRangeFilter();
@@ -84,6 +98,16 @@ public final class AggregateTransactionRequest {
                             mTimeRangeFilter);
                 }
                 mAggregateTableRequests.add(aggregateTableRequest);
+                mCacheKeys.add(
+                        new AggregationResultCache.Key(
+                                aggregationType,
+                                request.getStartTime(),
+                                request.getEndTime(),
+                                TimeRangeFilterHelper.isLocalTimeFilter(mTimeRangeFilter),
+                                mPeriod,
+                                mDuration,
+                                request.getPackageFilters(),
+                                userHandle));
             } else {
                 throw new UnsupportedOperationException();
             }
@@ -99,21 +123,60 @@ public final class AggregateTransactionRequest {
      * @return Compute and return aggregations
      */
     public AggregateDataResponseParcel getAggregateDataResponseParcel() {
+        return getAggregateDataResponseParcel(
+                /* cancellationSignal= */ null, /* resourceUsage= */ null);
+    }
+
+    /**
+     * Computes and returns the aggregations, stopping the queries once {@code cancellationSignal}
+     * is cancelled. If not null, {@code resourceUsage} gets the rows scanned and returned.
+     */
+    public AggregateDataResponseParcel getAggregateDataResponseParcel(
+            @Nullable CancellationSignal cancellationSignal,
+            @Nullable ResourceUsage resourceUsage) {
         Map<AggregationType<?>, List<AggregateResult<?>>> results = new ArrayMap<>();
-        for (AggregateTableRequest aggregateTableRequest : mAggregateTableRequests) {
-            // Compute aggregations
-            TransactionManager.getInitialisedInstance()
-                    .populateWithAggregation(aggregateTableRequest);
-            results.put(
-                    aggregateTableRequest.getAggregationType(),
-                    aggregateTableRequest.getAggregateResults());
+        final AggregationResultCache cache = AggregationResultCache.getInstance();
+        int responseSize = 0;
+        for (int i = 0; i < mAggregateTableRequests.size(); i++) {
+            AggregateTableRequest aggregateTableRequest = mAggregateTableRequests.get(i);
+            AggregationResultCache.Key cacheKey = mCacheKeys.get(i);
+            List<AggregateResult<?>> aggregateResults = cache.get(cacheKey);
+            if (aggregateResults == null) {
+                // Read the version before computing, so that writes committed in the meantime
+                // invalidate the cached results.
+                long[] version = cache.getVersion(cacheKey);
+                // Identical requests computing concurrently at the same data version share the
+                // queries of the first one.
+                aggregateResults =
+                        IN_FLIGHT_AGGREGATIONS.execute(
+                                List.of(cacheKey, LongStream.of(version).boxed().toList()),
+                                () -> {
+                                    // Compute aggregations
+                                    TransactionManager.getInitialisedInstance()
+                                            .populateWithAggregation(
+                                                    aggregateTableRequest,
+                                                    cancellationSignal,
+                                                    resourceUsage);
+                                    List<AggregateResult<?>> results =
+                                            aggregateTableRequest.getAggregateResults();
+                                    if (aggregateTableRequest
+                                            .getRecordHelper()
+                                            .isRecordOperationsEnabled()) {
+                                        cache.put(cacheKey, version, results);
+                                    }
+                                    return results;
+                                });
+            }
+            results.put(aggregateTableRequest.getAggregationType(), aggregateResults);
+            if (resourceUsage != null) {
+                resourceUsage.addRowsReturned(aggregateResults.size());
+            }
+            if (i == 0) {
+                responseSize = aggregateResults.size();
+            }
         }
 
         // Convert DB friendly results to aggregateRecordsResponses
-        int responseSize =
-                mAggregateTableRequests.isEmpty()
-                        ? 0
-                        : mAggregateTableRequests.get(0).getAggregateResults().size();
         List<AggregateRecordsResponse<?>> aggregateRecordsResponses = new ArrayList<>(responseSize);
         for (int i = 0; i < responseSize; i++) {
             Map<Integer, AggregateResult<?>> aggregateResultMap = new ArrayMap<>();
@@ -45,6 +45,7 @@ public final class CreateTableRequest {
     private final String mTableName;
     private final List<Pair<String, String>> mColumnInfo;
     private final List<String> mColumnsToIndex = new ArrayList<>();
+    private final List<Pair<String, List<String>>> mCompositeIndexes = new ArrayList<>();
     private final List<List<String>> mUniqueColumns = new ArrayList<>();
     private List<ForeignKey> mForeignKeys = new ArrayList<>();
     private List<CreateTableRequest> mChildTableRequests = Collections.emptyList();
@@ -76,6 +77,20 @@ public final class CreateTableRequest {
         return this;
     }
 
+    /**
+     * Creates an index named {@code indexName} on {@code columnNames}, in that order. SQLite
+     * appends the row id to every index, so the row id doesn't need to be listed.
+     */
+    @NonNull
+    public CreateTableRequest createIndexOn(
+            @NonNull String indexName, @NonNull List<String> columnNames) {
+        Objects.requireNonNull(indexName);
+        Objects.requireNonNull(columnNames);
+
+        mCompositeIndexes.add(new Pair<>(indexName, columnNames));
+        return this;
+    }
+
     @NonNull
     public List<CreateTableRequest> getChildTableRequests() {
         return mChildTableRequests;
@@ -159,6 +174,12 @@ public final class CreateTableRequest {
             }
         }
 
+        for (Pair<String, List<String>> compositeIndex : mCompositeIndexes) {
+            result.add(
+                    getCreateIndexCommand(
+                            mTableName + "_" + compositeIndex.first, compositeIndex.second));
+        }
+
         return result;
     }
 
@@ -31,6 +31,7 @@ import com.android.server.healthconnect.storage.utils.WhereClauses;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.UUID;
 
 /**
  * No need to have delete-requests for child tables as ideally they should be following cascaded
@@ -53,9 +54,9 @@ public class DeleteTableRequest {
     private long mEndTime = DEFAULT_LONG;
     private boolean mRequiresUuId;
     private List<String> mIds;
+    private List<UUID> mUuids;
     private boolean mEnforcePackageCheck;
     private int mNumberOfUuidsToDelete;
-    private WhereClauses mCustomWhereClauses;
     private long mLessThanOrEqualValue;
 
     public DeleteTableRequest(
@@ -98,6 +99,19 @@ public class DeleteTableRequest {
         return this;
     }
 
+    /**
+     * Sets the uuids of the rows to delete. Unlike {@link #setIds}, the uuids are bound to the
+     * statements, see {@link #getBindArgs()}.
+     */
+    public DeleteTableRequest setUuids(@NonNull String idColumnName, @NonNull List<UUID> uuids) {
+        Objects.requireNonNull(uuids);
+        Objects.requireNonNull(idColumnName);
+
+        mUuids = uuids;
+        mIdColumnName = idColumnName;
+        return this;
+    }
+
     public DeleteTableRequest setId(@NonNull String idColumnName, @NonNull String id) {
         Objects.requireNonNull(id);
         Objects.requireNonNull(idColumnName);
@@ -158,12 +172,17 @@ public class DeleteTableRequest {
                 + getWhereCommand();
     }
 
+    /**
+     * Returns the args to bind to the parameters of {@link #getDeleteCommand()} and {@link
+     * #getReadCommand()}, in the order of the parameters.
+     */
+    @NonNull
+    public Object[] getBindArgs() {
+        return getWhereClauses().getBindArgs().toArray();
+    }
+
     public String getWhereCommand() {
-        WhereClauses whereClauses =
-                Objects.isNull(mCustomWhereClauses) ? new WhereClauses() : mCustomWhereClauses;
-        whereClauses.addWhereInLongsClause(mPackageColumnName, mPackageFilters);
-        whereClauses.addWhereBetweenTimeClause(mTimeColumnName, mStartTime, mEndTime);
-        whereClauses.addWhereInClauseWithoutQuotes(mIdColumnName, mIds);
+        WhereClauses whereClauses = getWhereClauses();
 
         if (Constants.DEBUG) {
             Slog.d(
@@ -177,6 +196,16 @@ public class DeleteTableRequest {
         return whereClauses.get(true);
     }
 
+    private WhereClauses getWhereClauses() {
+        // Built on each call, as the commands and their bind args are read separately.
+        WhereClauses whereClauses = new WhereClauses();
+        whereClauses.addWhereInLongsClause(mPackageColumnName, mPackageFilters);
+        whereClauses.addWhereBetweenTimeClause(mTimeColumnName, mStartTime, mEndTime);
+        whereClauses.addWhereInClauseWithoutQuotes(mIdColumnName, mIds);
+        whereClauses.addWhereInUuidsClause(mIdColumnName, mUuids);
+        return whereClauses;
+    }
+
     @NonNull
     public DeleteTableRequest setTimeFilter(
             @NonNull String timeColumnName, long startTime, long endTime) {
@@ -212,6 +241,6 @@ public class DeleteTableRequest {
         if (requiresRead()) {
             return mNumberOfUuidsToDelete;
         }
-        return mIds.size();
+        return mUuids != null ? mUuids.size() : mIds.size();
     }
 }
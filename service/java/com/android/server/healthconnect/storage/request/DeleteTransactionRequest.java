@@ -48,6 +48,7 @@ public final class DeleteTransactionRequest {
     private static final String TAG = "HealthConnectDelete";
     private final List<DeleteTableRequest> mDeleteTableRequests;
     private final long mRequestingPackageNameId;
+    private final Map<Long, Set<Integer>> mAppInfoIdToDeletedRecordTypes = new ArrayMap<>();
     private ChangeLogsHelper.ChangeLogs mChangeLogs;
     private boolean mHasHealthDataManagementPermission;
 
@@ -127,12 +128,21 @@ public final class DeleteTransactionRequest {
      */
     public void onRecordFetched(
             @RecordTypeIdentifier.RecordType int recordType, long appId, UUID uuid) {
+        mAppInfoIdToDeletedRecordTypes
+                .computeIfAbsent(appId, (appInfoId) -> new ArraySet<>())
+                .add(recordType);
         if (mChangeLogs == null) {
             return;
         }
         mChangeLogs.addUUID(recordType, appId, uuid);
     }
 
+    /** Returns the record types of the records fetched for deletion, by app info id. */
+    @NonNull
+    public Map<Long, Set<Integer>> getAppInfoIdToDeletedRecordTypes() {
+        return mAppInfoIdToDeletedRecordTypes;
+    }
+
     @NonNull
     public List<UpsertTableRequest> getChangeLogUpsertRequests() {
         if (mChangeLogs == null) {
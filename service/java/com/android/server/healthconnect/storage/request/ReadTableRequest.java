@@ -33,6 +33,7 @@ import com.android.server.healthconnect.storage.utils.SqlJoin;
 import com.android.server.healthconnect.storage.utils.WhereClauses;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
@@ -51,6 +52,7 @@ public class ReadTableRequest {
     private SqlJoin mJoinClause;
     private WhereClauses mWhereClauses = new WhereClauses();
     private boolean mDistinct = false;
+    private String mGroupByColumnName;
     private OrderByClause mOrderByClause = new OrderByClause();
     private String mLimitClause = "";
     private int mPageSize = DEFAULT_PAGE_SIZE;
@@ -103,6 +105,18 @@ public class ReadTableRequest {
         return this;
     }
 
+    /**
+     * Groups the rows read by {@code columnName}, one row is read per group. The columns set with
+     * {@link ReadTableRequest#setColumnNames(List)} can then contain aggregate functions.
+     */
+    @NonNull
+    public ReadTableRequest setGroupBy(@NonNull String columnName) {
+        Objects.requireNonNull(columnName);
+
+        mGroupByColumnName = columnName;
+        return this;
+    }
+
     /** Returns SQL statement to perform read operation. */
     @NonNull
     public String getReadCommand() {
@@ -117,6 +131,9 @@ public class ReadTableRequest {
         builder.append(mTableName);
 
         builder.append(mWhereClauses.get(/* withWhereKeyword */ true));
+        if (mGroupByColumnName != null) {
+            builder.append(" GROUP BY ").append(mGroupByColumnName);
+        }
         builder.append(mOrderByClause.getOrderBy());
         builder.append(mLimitClause);
 
@@ -146,6 +163,22 @@ public class ReadTableRequest {
         return readQuery;
     }
 
+    /**
+     * Returns the args to bind to the parameters of {@link #getReadCommand()}, in the order of the
+     * parameters. Only the where clauses of this request and its union requests can have args.
+     */
+    @NonNull
+    public Object[] getBindArgs() {
+        List<Object> bindArgs = new ArrayList<>();
+        if (mUnionReadRequests != null) {
+            for (ReadTableRequest unionReadRequest : mUnionReadRequests) {
+                bindArgs.addAll(Arrays.asList(unionReadRequest.getBindArgs()));
+            }
+        }
+        bindArgs.addAll(mWhereClauses.getBindArgs());
+        return bindArgs.toArray();
+    }
+
     /** Get requests for populating extra data */
     @Nullable
     public List<ReadTableRequest> getExtraReadRequests() {
@@ -39,6 +39,7 @@ import java.util.UUID;
 public class ReadTransactionRequest {
     public static final String TYPE_NOT_PRESENT_PACKAGE_NAME = "package_name";
     private final List<ReadTableRequest> mReadTableRequests;
+    private final boolean mHasRecordIdFilters;
 
     public ReadTransactionRequest(
             String packageName,
@@ -56,6 +57,7 @@ public class ReadTransactionRequest {
                                 enforceSelfRead,
                                 startDateAccess,
                                 extraReadPermsMapping));
+        mHasRecordIdFilters = request.getRecordIdFiltersParcel() != null;
     }
 
     public ReadTransactionRequest(
@@ -67,10 +69,19 @@ public class ReadTransactionRequest {
                                 RecordHelperProvider.getInstance()
                                         .getRecordHelper(recordType)
                                         .getReadTableRequest(uuids, startDateAccess)));
+        mHasRecordIdFilters = true;
     }
 
     @NonNull
     public List<ReadTableRequest> getReadRequests() {
         return mReadTableRequests;
     }
+
+    /**
+     * Returns true if the records are read by their ids, in which case all of them are read at
+     * once as there is no next page to read the others.
+     */
+    public boolean hasRecordIdFilters() {
+        return mHasRecordIdFilters;
+    }
 }
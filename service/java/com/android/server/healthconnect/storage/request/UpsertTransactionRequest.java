@@ -62,6 +62,7 @@ public class UpsertTransactionRequest {
     private final List<UpsertTableRequest> mAccessLogs = new ArrayList<>();
     private final boolean mSkipPackageNameAndLogs;
     @RecordTypeIdentifier.RecordType Set<Integer> mRecordTypes = new ArraySet<>();
+    @Nullable private AppInfoHelper.RecordTypesUsedUpdate mRecordTypesUsedUpdate;
 
     private ArrayMap<String, Boolean> mExtraWritePermissionsToState;
 
@@ -137,6 +138,9 @@ public class UpsertTransactionRequest {
                         AccessLogsHelper.getInstance()
                                 .getUpsertTableRequest(
                                         packageName, new ArrayList<>(mRecordTypes), UPSERT));
+                mRecordTypesUsedUpdate =
+                        AppInfoHelper.getInstance()
+                                .getRecordTypesUsedUpdate(packageName, mRecordTypes);
             }
 
             Slog.d(
@@ -170,6 +174,15 @@ public class UpsertTransactionRequest {
         return insertChangeLogs.getUpsertTableRequests();
     }
 
+    /**
+     * Returns the update of the record types used by the package inserting the records, to be
+     * applied in the insert transaction, or null if there is nothing to update.
+     */
+    @Nullable
+    public AppInfoHelper.RecordTypesUsedUpdate getRecordTypesUsedUpdate() {
+        return mRecordTypesUsedUpdate;
+    }
+
     @NonNull
     public List<UpsertTableRequest> getUpsertRequests() {
         return mUpsertRequests;
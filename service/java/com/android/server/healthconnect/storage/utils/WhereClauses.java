@@ -16,15 +16,21 @@
 
 package com.android.server.healthconnect.storage.utils;
 
+import static com.android.server.healthconnect.storage.utils.StorageUtils.UUID_BYTE_SIZE;
+
 import com.android.server.healthconnect.storage.request.ReadTableRequest;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 /** @hide */
 public final class WhereClauses {
     private final List<String> mClauses = new ArrayList<>();
+    // Args bound to the parameters of the clauses, in the order the parameters appear in.
+    private final List<Object> mBindArgs = new ArrayList<>();
     private boolean mUseOr = false;
 
     public WhereClauses addWhereBetweenClause(String columnName, long start, long end) {
@@ -72,6 +78,31 @@ public final class WhereClauses {
         return this;
     }
 
+    /**
+     * Adds where in condition for the column holding uuids. The uuids are bound to the statement as
+     * a single blob, which SQLite splits into the uuids, rather than written to the SQL as hex
+     * literals. Use {@link #getBindArgs()} to get the args to bind.
+     */
+    public WhereClauses addWhereInUuidsClause(String columnName, List<UUID> uuids) {
+        if (uuids == null || uuids.isEmpty()) return this;
+
+        byte[] uuidsBlob = StorageUtils.getSingleByteArray(uuids);
+        mClauses.add(
+                columnName
+                        + " IN (WITH RECURSIVE uuid_offsets(byte_offset) AS (SELECT 1 UNION ALL"
+                        + " SELECT byte_offset + "
+                        + UUID_BYTE_SIZE
+                        + " FROM uuid_offsets WHERE byte_offset + "
+                        + UUID_BYTE_SIZE
+                        + " <= length(?)) SELECT substr(?, byte_offset, "
+                        + UUID_BYTE_SIZE
+                        + ") FROM uuid_offsets)");
+        mBindArgs.add(uuidsBlob);
+        mBindArgs.add(uuidsBlob);
+
+        return this;
+    }
+
     public WhereClauses addWhereEqualsClause(String columnName, String value) {
         if (columnName == null || value == null || value.isEmpty() || columnName.isEmpty()) {
             return this;
@@ -149,10 +180,16 @@ public final class WhereClauses {
      */
     public WhereClauses addWhereInSQLRequestClause(String columnName, ReadTableRequest inRequest) {
         mClauses.add(columnName + " IN (" + inRequest.getReadCommand() + ") ");
+        mBindArgs.addAll(Arrays.asList(inRequest.getBindArgs()));
 
         return this;
     }
 
+    /** Returns the args to bind to the clauses' parameters, in the order of the parameters. */
+    public List<Object> getBindArgs() {
+        return mBindArgs;
+    }
+
     /**
      * Returns where clauses joined by 'AND', if the input parameter isIncludeWHEREinClauses is true
      * then the clauses are preceded by 'WHERE'.
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.utils;
+
+import android.annotation.NonNull;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Runs a computation once for concurrent callers asking for the same key: callers arriving while
+ * the computation of their key is in flight wait for it and share its result.
+ *
+ * <p>Results are not kept once the computation is done. If the computation fails, the waiting
+ * callers run it themselves rather than sharing a failure that may be specific to the first caller,
+ * such as its cancellation.
+ *
+ * @param <K> key identifying identical computations.
+ * @param <V> result of the computation.
+ * @hide
+ */
+public final class SingleFlight<K, V> {
+    private final Map<K, CompletableFuture<V>> mInFlight = new ConcurrentHashMap<>();
+
+    /** Returns the result of {@code computation}, shared with concurrent calls for {@code key}. */
+    public V execute(@NonNull K key, @NonNull Supplier<V> computation) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = mInFlight.putIfAbsent(key, future);
+        if (inFlight != null) {
+            try {
+                return inFlight.join();
+            } catch (CompletionException e) {
+                return computation.get();
+            }
+        }
+
+        try {
+            V result = computation.get();
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            mInFlight.remove(key, future);
+        }
+    }
+}
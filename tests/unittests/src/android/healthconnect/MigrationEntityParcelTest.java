@@ -97,6 +97,29 @@ public class MigrationEntityParcelTest {
                 migrationEntityListSize, migrationEntityList, deserializedMigrationEntityList);
     }
 
+    @Test
+    public void testMigrationEntityListParsing_usingSharedMemory_smallerAfterLarger() {
+        int numRequiredEntities = getRequiredNumberOfEntities();
+        for (int numEntities : new int[] {4 * numRequiredEntities, 2 * numRequiredEntities}) {
+            List<MigrationEntity> migrationEntityList = new ArrayList<>();
+            for (int i = 0; i < numEntities; i++) {
+                migrationEntityList.add(HEIGHT_MIGRATION_ENTITY);
+            }
+            Parcel migrationEntityParcel =
+                    writeToParcel(new MigrationEntityParcel(migrationEntityList));
+            migrationEntityParcel.setDataPosition(0);
+
+            List<MigrationEntity> deserializedMigrationEntityList =
+                    MigrationEntityParcel.CREATOR
+                            .createFromParcel(migrationEntityParcel)
+                            .getMigrationEntities();
+
+            assertDeserializedListSize(numEntities, deserializedMigrationEntityList);
+            assertDeserializedHeightRecord(
+                    numEntities, migrationEntityList, deserializedMigrationEntityList);
+        }
+    }
+
     @Test
     public void testParcelType_usingSharedMemory() {
         int numRequiredEntities = getRequiredNumberOfEntities();
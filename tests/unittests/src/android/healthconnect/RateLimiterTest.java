@@ -19,11 +19,14 @@ package android.healthconnect;
 import static android.health.connect.ratelimiter.RateLimiter.CHUNK_SIZE_LIMIT_IN_BYTES;
 import static android.health.connect.ratelimiter.RateLimiter.RECORD_SIZE_LIMIT_IN_BYTES;
 
+import static com.google.common.truth.Truth.assertThat;
+
 import static org.hamcrest.CoreMatchers.containsString;
 
 import android.health.connect.HealthConnectException;
 import android.health.connect.ratelimiter.RateLimiter;
 import android.health.connect.ratelimiter.RateLimiter.QuotaCategory;
+import android.health.connect.ratelimiter.RateLimiterException;
 
 import com.android.server.healthconnect.HealthConnectDeviceConfigManager;
 
@@ -34,8 +37,14 @@ import org.junit.rules.ExpectedException;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class RateLimiterTest {
     private static final int UID = 1;
@@ -44,6 +53,7 @@ public class RateLimiterTest {
     private static final int MAX_FOREGROUND_CALL_15M = 1000;
     private static final int MAX_BACKGROUND_CALL_15M = 1000;
     private static final Duration WINDOW_15M = Duration.ofMinutes(15);
+    private static final int MAX_READ_COST_15M = 10000;
 
     @Rule public ExpectedException exception = ExpectedException.none();
 
@@ -165,6 +175,87 @@ public class RateLimiterTest {
         tryAcquireCallQuotaNTimes(quotaCategoryWrite, IS_IN_FOREGROUND_FALSE, ceilQuotaAcquired);
     }
 
+    @Test
+    public void testTryAcquireApiCallQuota_concurrentCalls_grantAtMostMaxQuota()
+            throws Exception {
+        RateLimiter.clearCache();
+        @QuotaCategory.Type int quotaCategoryRead = 2;
+        int numThreads = 4;
+        AtomicInteger granted = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        Instant startTime = Instant.now();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                futures.add(
+                        executorService.submit(
+                                () -> {
+                                    for (int j = 0; j < MAX_FOREGROUND_CALL_15M; j++) {
+                                        try {
+                                            RateLimiter.tryAcquireApiCallQuota(
+                                                    UID, quotaCategoryRead, IS_IN_FOREGROUND_TRUE);
+                                            granted.incrementAndGet();
+                                        } catch (RateLimiterException e) {
+                                            // Expected once the quota is spent.
+                                        }
+                                    }
+                                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        Instant endTime = Instant.now();
+
+        assertThat(granted.get()).isAtLeast(MAX_FOREGROUND_CALL_15M);
+        assertThat(granted.get())
+                .isAtMost(
+                        MAX_FOREGROUND_CALL_15M
+                                + getCeilQuotaAcquired(
+                                        startTime,
+                                        endTime,
+                                        WINDOW_15M,
+                                        MAX_FOREGROUND_CALL_15M));
+    }
+
+    @Test
+    public void testTryAcquireApiCallQuota_readCostOverspent_throws() {
+        RateLimiter.clearCache();
+        RateLimiter.updateApiCallQuotaMap(
+                Map.of(
+                        RateLimiter.QuotaBucket.QUOTA_BUCKET_READ_COST_PER_15M_FOREGROUND,
+                        MAX_READ_COST_15M,
+                        RateLimiter.QuotaBucket.QUOTA_BUCKET_READ_COST_PER_24H_FOREGROUND,
+                        MAX_READ_COST_15M * 8));
+        @QuotaCategory.Type int quotaCategoryRead = 2;
+        RateLimiter.tryAcquireApiCallQuota(UID, quotaCategoryRead, IS_IN_FOREGROUND_TRUE);
+        RateLimiter.recordReadCost(UID, IS_IN_FOREGROUND_TRUE, 2L * MAX_READ_COST_15M);
+
+        // Writes and background reads have their own quotas.
+        RateLimiter.tryAcquireApiCallQuota(UID, /* quotaCategory= */ 3, IS_IN_FOREGROUND_TRUE);
+        RateLimiter.tryAcquireApiCallQuota(UID, quotaCategoryRead, IS_IN_FOREGROUND_FALSE);
+        exception.expect(HealthConnectException.class);
+        exception.expectMessage(containsString("Read cost quota exceeded"));
+        RateLimiter.tryAcquireApiCallQuota(UID, quotaCategoryRead, IS_IN_FOREGROUND_TRUE);
+    }
+
+    @Test
+    public void testTryAcquireApiCallQuota_readCostWithinQuota() {
+        RateLimiter.clearCache();
+        RateLimiter.updateApiCallQuotaMap(
+                Map.of(
+                        RateLimiter.QuotaBucket.QUOTA_BUCKET_READ_COST_PER_15M_FOREGROUND,
+                        MAX_READ_COST_15M,
+                        RateLimiter.QuotaBucket.QUOTA_BUCKET_READ_COST_PER_24H_FOREGROUND,
+                        MAX_READ_COST_15M * 8));
+        @QuotaCategory.Type int quotaCategoryRead = 2;
+        RateLimiter.recordReadCost(UID, IS_IN_FOREGROUND_TRUE, MAX_READ_COST_15M);
+
+        RateLimiter.tryAcquireApiCallQuota(UID, quotaCategoryRead, IS_IN_FOREGROUND_TRUE);
+    }
+
     @Test
     public void checkMaxChunkMemoryUsage_LimitExceeded() {
         long valueExceeding = 5000001;
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.healthconnect.internal.datatypes.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import android.health.connect.internal.datatypes.utils.CompactSampleEncoding;
+import android.os.Parcel;
+
+import org.junit.Test;
+
+public class CompactSampleEncodingTest {
+
+    @Test
+    public void testWriteRead_roundTripsAllColumns() {
+        long[] times = {1_700_000_000_000L, 1_700_000_001_000L, 1_700_000_002_000L, 5L};
+        long[] values = {72, 75, -3, Long.MIN_VALUE};
+        double[] decimals = {12.345, Double.MIN_VALUE, Double.MIN_VALUE, Double.NaN};
+        double[] coordinates = {37.4219983, -122.084, 1e300, -0.0};
+
+        Parcel parcel = Parcel.obtain();
+        new CompactSampleEncoding.Writer(times.length)
+                .writeTimes(times)
+                .writeLongs(values)
+                .writeDoubles(decimals, CompactSampleEncoding.VALUE_DECIMALS)
+                .writeDoubles(coordinates, CompactSampleEncoding.COORDINATE_DECIMALS)
+                .writeTo(parcel);
+        parcel.writeInt(42);
+        parcel.setDataPosition(0);
+
+        CompactSampleEncoding.Reader reader = new CompactSampleEncoding.Reader(parcel);
+        assertThat(reader.readTimes(times.length)).isEqualTo(times);
+        assertThat(reader.readLongs(values.length)).isEqualTo(values);
+        assertThat(reader.readDoubles(decimals.length, CompactSampleEncoding.VALUE_DECIMALS))
+                .isEqualTo(decimals);
+        assertThat(
+                        reader.readDoubles(
+                                coordinates.length, CompactSampleEncoding.COORDINATE_DECIMALS))
+                .isEqualTo(coordinates);
+        assertThat(parcel.readInt()).isEqualTo(42);
+        parcel.recycle();
+    }
+
+    @Test
+    public void testWrite_regularSeries_isCompact() {
+        int size = 3600;
+        long[] times = new long[size];
+        long[] beatsPerMinute = new long[size];
+        for (int i = 0; i < size; i++) {
+            times[i] = 1_700_000_000_000L + i * 1000L;
+            beatsPerMinute[i] = 60 + i % 5;
+        }
+
+        Parcel parcel = Parcel.obtain();
+        new CompactSampleEncoding.Writer(size)
+                .writeTimes(times)
+                .writeLongs(beatsPerMinute)
+                .writeTo(parcel);
+
+        // Each sample was an int and a long.
+        assertThat(parcel.dataSize()).isLessThan(size * 3);
+        parcel.recycle();
+    }
+
+    @Test
+    public void testRead_unknownVersion_throws() {
+        Parcel parcel = Parcel.obtain();
+        parcel.writeInt(-1);
+        parcel.writeByteArray(new byte[0]);
+        parcel.setDataPosition(0);
+
+        assertThrows(
+                IllegalArgumentException.class, () -> new CompactSampleEncoding.Reader(parcel));
+        parcel.recycle();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect;
+
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_HEART_RATE;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_STEPS;
+
+import static com.android.server.healthconnect.ChangeObserverRegistry.MAX_OBSERVERS_PER_UID;
+import static com.android.server.healthconnect.ChangeObserverRegistry.NOTIFICATION_DELAY_MILLIS;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.health.connect.HealthConnectException;
+import android.health.connect.aidl.IChangeObserver;
+import android.os.Binder;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Map;
+
+@RunWith(AndroidJUnit4.class)
+public class ChangeObserverRegistryTest {
+    private static final int UID = 1000;
+    private static final long TIMEOUT_MILLIS = NOTIFICATION_DELAY_MILLIS * 4;
+
+    private ChangeObserverRegistry mRegistry;
+
+    @Before
+    public void setUp() {
+        mRegistry = ChangeObserverRegistry.getInstance();
+        mRegistry.clear();
+        ChangeLogsHelper.getInstance().clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        mRegistry.clear();
+        ChangeLogsHelper.getInstance().clearCache();
+    }
+
+    @Test
+    public void testOnChangeLogsCommitted_matchingRecordType_notifiesOnce() throws Exception {
+        IChangeObserver observer = createObserver();
+        register(List.of(RECORD_TYPE_STEPS), /* rowId= */ 1, observer);
+
+        mRegistry.onChangeLogsCommitted(Map.of(RECORD_TYPE_STEPS, 2L));
+        mRegistry.onChangeLogsCommitted(Map.of(RECORD_TYPE_STEPS, 3L));
+
+        verify(observer, timeout(TIMEOUT_MILLIS)).onChange();
+        verify(observer, after(TIMEOUT_MILLIS).times(1)).onChange();
+    }
+
+    @Test
+    public void testOnChangeLogsCommitted_otherRecordType_doesNotNotify() throws Exception {
+        IChangeObserver observer = createObserver();
+        register(List.of(RECORD_TYPE_STEPS), /* rowId= */ 1, observer);
+
+        mRegistry.onChangeLogsCommitted(Map.of(RECORD_TYPE_HEART_RATE, 2L));
+
+        verify(observer, after(TIMEOUT_MILLIS).never()).onChange();
+    }
+
+    @Test
+    public void testOnChangeLogsCommitted_noRecordTypes_notifiesOfAnyRecordType()
+            throws Exception {
+        IChangeObserver observer = createObserver();
+        register(List.of(), /* rowId= */ 1, observer);
+
+        mRegistry.onChangeLogsCommitted(Map.of(RECORD_TYPE_HEART_RATE, 2L));
+
+        verify(observer, timeout(TIMEOUT_MILLIS)).onChange();
+    }
+
+    @Test
+    public void testOnChangeLogsCommitted_beforeRegistrationRowId_doesNotNotify()
+            throws Exception {
+        IChangeObserver observer = createObserver();
+        register(List.of(RECORD_TYPE_STEPS), /* rowId= */ 5, observer);
+
+        mRegistry.onChangeLogsCommitted(Map.of(RECORD_TYPE_STEPS, 5L));
+
+        verify(observer, after(TIMEOUT_MILLIS).never()).onChange();
+    }
+
+    @Test
+    public void testOnChangeLogsCommitted_unregistered_doesNotNotify() throws Exception {
+        IChangeObserver observer = createObserver();
+        register(List.of(RECORD_TYPE_STEPS), /* rowId= */ 1, observer);
+        mRegistry.unregister(observer);
+
+        mRegistry.onChangeLogsCommitted(Map.of(RECORD_TYPE_STEPS, 2L));
+
+        verify(observer, after(TIMEOUT_MILLIS).never()).onChange();
+    }
+
+    @Test
+    public void testRegister_tooManyObservers_throws() {
+        for (int i = 0; i < MAX_OBSERVERS_PER_UID; i++) {
+            register(List.of(), /* rowId= */ 1, createObserver());
+        }
+
+        IChangeObserver observer = createObserver();
+        HealthConnectException exception =
+                assertThrows(
+                        HealthConnectException.class,
+                        () -> register(List.of(), /* rowId= */ 1, observer));
+        assertThat(exception.getErrorCode())
+                .isEqualTo(HealthConnectException.ERROR_RATE_LIMIT_EXCEEDED);
+        assertThat(mRegistry.getObserverCount(UID)).isEqualTo(MAX_OBSERVERS_PER_UID);
+    }
+
+    @Test
+    public void testRegister_unregisteredSinceRequested_doesNotRegister() throws Exception {
+        IChangeObserver observer = createObserver();
+        long registrationId = mRegistry.requestRegistration(observer);
+        mRegistry.unregister(observer);
+
+        mRegistry.register(
+                UID,
+                List.of(RECORD_TYPE_STEPS),
+                List.of(),
+                /* rowId= */ 1,
+                observer,
+                registrationId);
+        mRegistry.onChangeLogsCommitted(Map.of(RECORD_TYPE_STEPS, 2L));
+
+        assertThat(mRegistry.getObserverCount(UID)).isEqualTo(0);
+        verify(observer, after(TIMEOUT_MILLIS).never()).onChange();
+    }
+
+    private void register(List<Integer> recordTypes, long rowId, IChangeObserver observer) {
+        mRegistry.register(
+                UID,
+                recordTypes,
+                List.of(),
+                rowId,
+                observer,
+                mRegistry.requestRegistration(observer));
+    }
+
+    private static IChangeObserver createObserver() {
+        IChangeObserver observer = mock(IChangeObserver.class);
+        when(observer.asBinder()).thenReturn(new Binder());
+        return observer;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class HealthConnectRoundRobinSchedulerTest {
+    private static final int UID_CHEAP = 1;
+    private static final int UID_EXPENSIVE = 2;
+
+    private final List<Integer> mRunUids = new ArrayList<>();
+
+    @Test
+    public void testGetNextTask_sharesByCost() {
+        HealthConnectRoundRobinScheduler scheduler = new HealthConnectRoundRobinScheduler();
+        for (int i = 0; i < 20; i++) {
+            scheduler.addTask(UID_CHEAP, () -> mRunUids.add(UID_CHEAP), 1);
+            scheduler.addTask(
+                    UID_EXPENSIVE,
+                    () -> mRunUids.add(UID_EXPENSIVE),
+                    HealthConnectRoundRobinScheduler.QUANTUM * 2);
+        }
+
+        for (int i = 0; i < 2 * HealthConnectRoundRobinScheduler.QUANTUM + 1; i++) {
+            scheduler.getNextTask().run();
+        }
+
+        // Over two rounds the expensive uid has only saved up for one task, while the cheap uid
+        // has run a quantum of tasks in each round.
+        assertThat(mRunUids.stream().filter(uid -> uid == UID_EXPENSIVE).count()).isEqualTo(1);
+        assertThat(mRunUids.stream().filter(uid -> uid == UID_CHEAP).count())
+                .isEqualTo(2 * HealthConnectRoundRobinScheduler.QUANTUM);
+    }
+
+    @Test
+    public void testGetNextTask_sameCost_alternatesUids() {
+        HealthConnectRoundRobinScheduler scheduler = new HealthConnectRoundRobinScheduler();
+        for (int i = 0; i < 2; i++) {
+            scheduler.addTask(
+                    UID_CHEAP,
+                    () -> mRunUids.add(UID_CHEAP),
+                    HealthConnectRoundRobinScheduler.QUANTUM);
+            scheduler.addTask(
+                    UID_EXPENSIVE,
+                    () -> mRunUids.add(UID_EXPENSIVE),
+                    HealthConnectRoundRobinScheduler.QUANTUM);
+        }
+
+        for (int i = 0; i < 4; i++) {
+            scheduler.getNextTask().run();
+        }
+
+        assertThat(mRunUids)
+                .containsExactly(UID_CHEAP, UID_EXPENSIVE, UID_CHEAP, UID_EXPENSIVE)
+                .inOrder();
+        assertThat(scheduler.hasPendingTasks()).isFalse();
+    }
+
+    @Test
+    public void testGetNextTask_oneInFlightTaskPerUid_skipsRunningUid() {
+        HealthConnectRoundRobinScheduler scheduler =
+                new HealthConnectRoundRobinScheduler(/* oneInFlightTaskPerUid= */ true);
+        scheduler.addTask(UID_CHEAP, () -> mRunUids.add(UID_CHEAP), 1);
+        scheduler.addTask(UID_CHEAP, () -> mRunUids.add(UID_CHEAP), 1);
+
+        Runnable first = scheduler.getNextTask();
+        assertThat(scheduler.getNextTask()).isNull();
+
+        first.run();
+        Runnable second = scheduler.getNextTask();
+        assertThat(second).isNotNull();
+        second.run();
+        assertThat(mRunUids).containsExactly(UID_CHEAP, UID_CHEAP);
+    }
+}
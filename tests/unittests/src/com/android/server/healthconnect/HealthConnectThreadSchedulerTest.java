@@ -16,11 +16,17 @@
 
 package com.android.server.healthconnect;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.when;
 
 import android.app.ActivityManager;
 import android.content.Context;
+import android.os.Binder;
+import android.os.IBinder;
 import android.os.Process;
+import android.os.RemoteException;
 
 import androidx.test.platform.app.InstrumentationRegistry;
 import androidx.test.runner.AndroidJUnit4;
@@ -35,23 +41,29 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
-import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RunWith(AndroidJUnit4.class)
 public class HealthConnectThreadSchedulerTest {
+    private static final int BACKGROUND_UID = 100000;
+
     private ThreadPoolExecutor mInternalTaskScheduler;
     private ThreadPoolExecutor mControllerTaskScheduler;
     private ThreadPoolExecutor mForegroundTaskScheduler;
     private ThreadPoolExecutor mBackgroundTaskScheduler;
+    private ThreadPoolExecutor mReaderTaskScheduler;
     private long mInternalTaskSchedulerCompletedJobs;
     private long mControllerTaskSchedulerCompletedJobs;
     private long mForegroundTaskSchedulerCompletedJobs;
     private long mBackgroundTaskSchedulerCompletedJobs;
+    private long mReaderTaskSchedulerCompletedJobs;
     private Context mContext;
 
     @Mock private Context mMockContext;
     @Mock private ActivityManager mActivityManager;
+    @Mock private IBinder mCallbackBinder;
 
     @Before
     public void setUp() {
@@ -65,6 +77,8 @@ public class HealthConnectThreadSchedulerTest {
         mForegroundTaskSchedulerCompletedJobs = mForegroundTaskScheduler.getCompletedTaskCount();
         mBackgroundTaskScheduler = HealthConnectThreadScheduler.sBackgroundThreadExecutor;
         mBackgroundTaskSchedulerCompletedJobs = mBackgroundTaskScheduler.getCompletedTaskCount();
+        mReaderTaskScheduler = HealthConnectThreadScheduler.sReaderExecutor;
+        mReaderTaskSchedulerCompletedJobs = mReaderTaskScheduler.getCompletedTaskCount();
         mContext = InstrumentationRegistry.getInstrumentation().getContext();
     }
 
@@ -95,22 +109,150 @@ public class HealthConnectThreadSchedulerTest {
                     }
                 });
 
-        when(mMockContext.getSystemService(ActivityManager.class)).thenReturn(mActivityManager);
-        ActivityManager.RunningAppProcessInfo runningAppProcessInfo =
-                new ActivityManager.RunningAppProcessInfo();
-        runningAppProcessInfo.uid = Process.myUid();
-        runningAppProcessInfo.importance =
-                ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
-        when(mActivityManager.getRunningAppProcesses()).thenReturn(List.of(runningAppProcessInfo));
-
-        HealthConnectThreadScheduler.schedule(mMockContext, () -> {}, Process.myUid(), false);
+        UidImportanceTracker.getInstance()
+                .onUidImportance(
+                        Process.myUid(),
+                        ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND);
+        try {
+            HealthConnectThreadScheduler.schedule(mContext, () -> {}, Process.myUid(), false);
+            TestUtils.waitForTaskToFinishSuccessfully(
+                    () -> {
+                        if (mForegroundTaskScheduler.getCompletedTaskCount()
+                                != mForegroundTaskSchedulerCompletedJobs + 1) {
+                            throw new RuntimeException();
+                        }
+                    });
+        } finally {
+            UidImportanceTracker.getInstance()
+                    .onUidImportance(
+                            Process.myUid(), ActivityManager.RunningAppProcessInfo.IMPORTANCE_GONE);
+        }
+    }
+
+    @Test
+    public void testHealthConnectSchedulerScheduleReadOnly() throws Exception {
+        CountDownLatch firstTaskStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstTask = new CountDownLatch(1);
+        AtomicBoolean secondTaskRanConcurrently = new AtomicBoolean();
+        HealthConnectThreadScheduler.scheduleReadTask(
+                cancellationSignal -> {
+                    firstTaskStarted.countDown();
+                    try {
+                        releaseFirstTask.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                },
+                Process.myUid(),
+                false,
+                HealthConnectTaskCost.DEFAULT_COST,
+                new Binder());
+        HealthConnectThreadScheduler.scheduleReadTask(
+                cancellationSignal ->
+                        secondTaskRanConcurrently.set(releaseFirstTask.getCount() > 0),
+                Process.myUid(),
+                false,
+                HealthConnectTaskCost.DEFAULT_COST,
+                new Binder());
+
+        firstTaskStarted.await();
+        releaseFirstTask.countDown();
+        TestUtils.waitForTaskToFinishSuccessfully(
+                () -> {
+                    if (mReaderTaskScheduler.getCompletedTaskCount()
+                            < mReaderTaskSchedulerCompletedJobs + 3) {
+                        throw new RuntimeException();
+                    }
+                });
+        // Tasks of the same uid never run at the same time.
+        Truth.assertThat(secondTaskRanConcurrently.get()).isFalse();
+    }
+
+    @Test
+    public void testHealthConnectSchedulerScheduleReadOnly_foregroundTaskRunsFirst()
+            throws Exception {
+        // Occupies all the reader threads with tasks of other uids.
+        int readerThreads = mReaderTaskScheduler.getMaximumPoolSize();
+        CountDownLatch blockingTasksStarted = new CountDownLatch(readerThreads);
+        CountDownLatch releaseFirstBlockingTask = new CountDownLatch(1);
+        CountDownLatch releaseBlockingTasks = new CountDownLatch(1);
+        for (int i = 0; i < readerThreads; i++) {
+            CountDownLatch release = i == 0 ? releaseFirstBlockingTask : releaseBlockingTasks;
+            HealthConnectThreadScheduler.scheduleReadTask(
+                    cancellationSignal -> {
+                        blockingTasksStarted.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                    },
+                    BACKGROUND_UID + 1 + i,
+                    false,
+                    HealthConnectTaskCost.DEFAULT_COST,
+                    new Binder());
+        }
+        blockingTasksStarted.await();
+
+        CountDownLatch backgroundTaskRan = new CountDownLatch(1);
+        CountDownLatch foregroundTaskRan = new CountDownLatch(1);
+        AtomicBoolean foregroundTaskRanFirst = new AtomicBoolean();
+        HealthConnectThreadScheduler.scheduleReadTask(
+                cancellationSignal -> backgroundTaskRan.countDown(),
+                BACKGROUND_UID,
+                false,
+                HealthConnectTaskCost.DEFAULT_COST,
+                new Binder());
+        UidImportanceTracker.getInstance()
+                .onUidImportance(
+                        Process.myUid(),
+                        ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND);
+        try {
+            HealthConnectThreadScheduler.scheduleReadTask(
+                    cancellationSignal -> {
+                        foregroundTaskRanFirst.set(backgroundTaskRan.getCount() > 0);
+                        foregroundTaskRan.countDown();
+                    },
+                    Process.myUid(),
+                    false,
+                    HealthConnectTaskCost.DEFAULT_COST,
+                    new Binder());
+        } finally {
+            UidImportanceTracker.getInstance()
+                    .onUidImportance(
+                            Process.myUid(), ActivityManager.RunningAppProcessInfo.IMPORTANCE_GONE);
+        }
+
+        // Frees a single reader thread, which picks the foreground task although it was queued
+        // last.
+        releaseFirstBlockingTask.countDown();
+        foregroundTaskRan.await();
+        releaseBlockingTasks.countDown();
+        backgroundTaskRan.await();
+        Truth.assertThat(foregroundTaskRanFirst.get()).isTrue();
+    }
+
+    @Test
+    public void testHealthConnectSchedulerScheduleReadOnly_deadCaller_dropsTask()
+            throws Exception {
+        doThrow(new RemoteException()).when(mCallbackBinder).linkToDeath(any(), anyInt());
+        AtomicBoolean taskRan = new AtomicBoolean();
+
+        HealthConnectThreadScheduler.scheduleReadTask(
+                cancellationSignal -> taskRan.set(true),
+                Process.myUid(),
+                false,
+                HealthConnectTaskCost.DEFAULT_COST,
+                mCallbackBinder);
         TestUtils.waitForTaskToFinishSuccessfully(
                 () -> {
-                    if (mForegroundTaskScheduler.getCompletedTaskCount()
-                            != mForegroundTaskSchedulerCompletedJobs + 1) {
+                    if (mReaderTaskScheduler.getCompletedTaskCount()
+                            != mReaderTaskSchedulerCompletedJobs + 1) {
                         throw new RuntimeException();
                     }
                 });
+
+        Truth.assertThat(taskRan.get()).isFalse();
     }
 
     @Test
@@ -136,5 +278,6 @@ public class HealthConnectThreadSchedulerTest {
         Truth.assertThat(mControllerTaskSchedulerCompletedJobs).isEqualTo(0);
         Truth.assertThat(mForegroundTaskSchedulerCompletedJobs).isEqualTo(0);
         Truth.assertThat(mBackgroundTaskSchedulerCompletedJobs).isEqualTo(0);
+        Truth.assertThat(mReaderTaskSchedulerCompletedJobs).isEqualTo(0);
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect;
+
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_GONE;
+import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class UidImportanceTrackerTest {
+    private static final int UID = 1234567;
+
+    private final UidImportanceTracker mTracker = UidImportanceTracker.getInstance();
+
+    @After
+    public void tearDown() {
+        mTracker.onUidImportance(UID, IMPORTANCE_GONE);
+    }
+
+    @Test
+    public void testIsUidInForeground_unknownUid_returnsFalse() {
+        assertThat(mTracker.isUidInForeground(UID)).isFalse();
+    }
+
+    @Test
+    public void testIsUidInForeground_followsImportanceChanges() {
+        mTracker.onUidImportance(UID, IMPORTANCE_FOREGROUND);
+        assertThat(mTracker.isUidInForeground(UID)).isTrue();
+
+        mTracker.onUidImportance(UID, IMPORTANCE_VISIBLE);
+        assertThat(mTracker.isUidInForeground(UID)).isFalse();
+
+        mTracker.onUidImportance(UID, IMPORTANCE_FOREGROUND);
+        mTracker.onUidImportance(UID, IMPORTANCE_GONE);
+        assertThat(mTracker.isUidInForeground(UID)).isFalse();
+    }
+}
@@ -46,7 +46,9 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -207,6 +209,47 @@ public class BackupRestoreTest {
         assertThat(grantTimeFileBacked.length()).isEqualTo(dbFileToBackup.length());
     }
 
+    @Test
+    public void testGetAllBackupData_copiesDatabaseWhileCheckpointed() throws Exception {
+        File dbFileToBackup = createAndGetNonEmptyFile(mMockDataDirectory, DATABASE_NAME);
+        File dbFileBacked = createAndGetEmptyFile(mMockBackedDataDirectory, DATABASE_NAME);
+        when(mTransactionManager.getDatabasePath()).thenReturn(dbFileToBackup);
+        doAnswer(
+                        invocation -> {
+                            ((Runnable) invocation.getArgument(0)).run();
+                            return null;
+                        })
+                .when(mTransactionManager)
+                .runWithCheckpointedDatabase(any());
+
+        Map<String, ParcelFileDescriptor> pfdsByFileName = new ArrayMap<>();
+        pfdsByFileName.put(
+                dbFileBacked.getName(),
+                ParcelFileDescriptor.open(dbFileBacked, ParcelFileDescriptor.MODE_WRITE_ONLY));
+        mBackupRestore.getAllDataForBackup(new StageRemoteDataRequest(pfdsByFileName), mUserHandle);
+
+        assertThat(dbFileBacked.length()).isEqualTo(dbFileToBackup.length());
+    }
+
+    @Test
+    public void testGetAllBackupData_checkpointFails_doesNotCopyDatabase() throws Exception {
+        File dbFileToBackup = createAndGetNonEmptyFile(mMockDataDirectory, DATABASE_NAME);
+        File dbFileBacked = createAndGetEmptyFile(mMockBackedDataDirectory, DATABASE_NAME);
+        when(mTransactionManager.getDatabasePath()).thenReturn(dbFileToBackup);
+        doThrow(new IllegalStateException())
+                .when(mTransactionManager)
+                .runWithCheckpointedDatabase(any());
+
+        Map<String, ParcelFileDescriptor> pfdsByFileName = new ArrayMap<>();
+        ParcelFileDescriptor pfd =
+                ParcelFileDescriptor.open(dbFileBacked, ParcelFileDescriptor.MODE_WRITE_ONLY);
+        pfdsByFileName.put(dbFileBacked.getName(), pfd);
+        mBackupRestore.getAllDataForBackup(new StageRemoteDataRequest(pfdsByFileName), mUserHandle);
+
+        assertThat(dbFileBacked.length()).isEqualTo(0L);
+        assertThat(pfd.getFileDescriptor().valid()).isFalse();
+    }
+
     @Test
     public void testSetDataDownloadState_downloadStarted_schedulesDownloadTimeoutJob() {
         @HealthConnectManager.DataDownloadState int testDownloadStateSet = DATA_DOWNLOAD_STARTED;
@@ -151,7 +151,7 @@ public class AutoDeleteServiceTest {
                                 (List<DeleteTableRequest> deleteTableRequestsList) ->
                                         checkTableNames_getPreferenceReturnNull(
                                                 deleteTableRequestsList)));
-        verify(mAppInfoHelper).syncAppInfoRecordTypesUsed();
+        verify(mAppInfoHelper, never()).syncAppInfoRecordTypesUsed(Mockito.<Set<Integer>>any());
         verify(mActivityDateHelper).reSyncForAllRecords();
     }
 
@@ -175,10 +175,45 @@ public class AutoDeleteServiceTest {
                                 (List<DeleteTableRequest> deleteTableRequestsList) ->
                                         checkTableNames_getPreferenceReturnNonNull(
                                                 deleteTableRequestsList)));
-        verify(mAppInfoHelper).syncAppInfoRecordTypesUsed();
+        verify(mAppInfoHelper, never()).syncAppInfoRecordTypesUsed(Mockito.<Set<Integer>>any());
         verify(mActivityDateHelper).reSyncForAllRecords();
     }
 
+    @Test
+    public void testStartAutoDelete_recordsDeleted_syncsDeletedRecordTypes() {
+        when(PreferenceHelper.getInstance()).thenReturn(mPreferenceHelper);
+        when(TransactionManager.getInitialisedInstance()).thenReturn(mTransactionManager);
+        when(RecordHelperProvider.getInstance()).thenReturn(mRecordHelperProvider);
+        when(AppInfoHelper.getInstance()).thenReturn(mAppInfoHelper);
+        when(ActivityDateHelper.getInstance()).thenReturn(mActivityDateHelper);
+
+        when(mPreferenceHelper.getPreference(AUTO_DELETE_DURATION_RECORDS_KEY))
+                .thenReturn(String.valueOf(30));
+        when(mRecordHelperProvider.getRecordHelpers()).thenReturn(getRecordHelpers());
+        Set<String> recordTableNames = getTableNamesForDeletingStaleRecordEntries();
+        when(mTransactionManager.deleteWithoutChangeLogs(
+                        Mockito.argThat(
+                                (List<DeleteTableRequest> deleteTableRequestsList) ->
+                                        deleteTableRequestsList != null
+                                                && getTableNames(deleteTableRequestsList)
+                                                        .equals(recordTableNames))))
+                .thenReturn(Set.of(RecordTypeIdentifier.RECORD_TYPE_STEPS));
+
+        AutoDeleteService.startAutoDelete();
+
+        verify(mAppInfoHelper)
+                .syncAppInfoRecordTypesUsed(Set.of(RecordTypeIdentifier.RECORD_TYPE_STEPS));
+        verify(mAppInfoHelper, never()).syncAppInfoRecordTypesUsed();
+    }
+
+    private static Set<String> getTableNames(List<DeleteTableRequest> list) {
+        Set<String> tableNames = new HashSet<>();
+        for (DeleteTableRequest request : list) {
+            tableNames.add(request.getTableName());
+        }
+        return tableNames;
+    }
+
     private boolean checkTableNames_getPreferenceReturnNull(List<DeleteTableRequest> list) {
         Set<String> tableNames = new HashSet<>();
         for (DeleteTableRequest request : list) {
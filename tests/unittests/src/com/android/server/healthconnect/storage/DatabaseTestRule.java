@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Process;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.server.healthconnect.HealthConnectUserContext;
+import com.android.server.healthconnect.storage.datatypehelpers.AccessLogsHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.AppInfoHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.DeviceInfoHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.HealthDataCategoryPriorityHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.PreferenceHelper;
+import com.android.server.healthconnect.storage.datatypehelpers.aggregation.AggregationResultCache;
+
+import org.junit.rules.ExternalResource;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Provides the {@link TransactionManager} to tests, backed by a database in the data directory of
+ * the test package instead of the system directory. The database is cleared before and after each
+ * test.
+ */
+public final class DatabaseTestRule extends ExternalResource {
+    private Context mContext;
+    private TransactionManager mTransactionManager;
+
+    public Context getContext() {
+        return mContext;
+    }
+
+    public TransactionManager getTransactionManager() {
+        return mTransactionManager;
+    }
+
+    @Override
+    protected void before() {
+        mContext = InstrumentationRegistry.getInstrumentation().getContext();
+        mTransactionManager =
+                TransactionManager.getInstance(
+                        new HealthConnectUserContext(mContext, Process.myUserHandle()) {
+                            @Override
+                            public File getDatabasePath(String name) {
+                                return mContext.getDatabasePath(name);
+                            }
+                        });
+        clearDatabase();
+    }
+
+    @Override
+    protected void after() {
+        clearDatabase();
+    }
+
+    // Deletes all rows from every table and clears the caches of the helpers.
+    private void clearDatabase() {
+        AccessLogsHelper.getInstance().flushAccessLogs();
+        mTransactionManager.runAsTransaction(
+                db -> {
+                    List<String> tableNames = new ArrayList<>();
+                    try (Cursor cursor =
+                            db.rawQuery(
+                                    "SELECT name FROM sqlite_master WHERE type = 'table'"
+                                            + " AND name NOT IN ('android_metadata',"
+                                            + " 'sqlite_sequence')",
+                                    null)) {
+                        while (cursor.moveToNext()) {
+                            tableNames.add(cursor.getString(0));
+                        }
+                    }
+                    for (String tableName : tableNames) {
+                        db.execSQL("DELETE FROM " + tableName);
+                    }
+                });
+        AppInfoHelper.getInstance().clearCache();
+        DeviceInfoHelper.getInstance().clearCache();
+        ChangeLogsHelper.getInstance().clearCache();
+        PreferenceHelper.getInstance().clearCache();
+        HealthDataCategoryPriorityHelper.getInstance().clearCache();
+        AggregationResultCache.getInstance().invalidateAll();
+    }
+}
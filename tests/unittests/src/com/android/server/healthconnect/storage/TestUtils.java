@@ -16,8 +16,13 @@
 
 package com.android.server.healthconnect.storage;
 
+import android.health.connect.internal.datatypes.HeartRateRecordInternal;
+import android.health.connect.internal.datatypes.HeartRateRecordInternal.HeartRateSample;
+import android.util.ArraySet;
+
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Set;
 import java.util.concurrent.TimeoutException;
 
 public final class TestUtils {
@@ -36,4 +41,21 @@ public final class TestUtils {
             }
         }
     }
+
+    /**
+     * Returns a heart rate record starting at {@code startTimeMillis}, with one sample per second
+     * for each of {@code beatsPerMinute}.
+     */
+    public static HeartRateRecordInternal createHeartRateRecord(
+            long startTimeMillis, int... beatsPerMinute) {
+        Set<HeartRateSample> samples = new ArraySet<>(beatsPerMinute.length);
+        for (int i = 0; i < beatsPerMinute.length; i++) {
+            samples.add(new HeartRateSample(beatsPerMinute[i], startTimeMillis + i * 1000L));
+        }
+        HeartRateRecordInternal record = new HeartRateRecordInternal();
+        record.setSamples(samples);
+        record.setStartTime(startTimeMillis);
+        record.setEndTime(startTimeMillis + beatsPerMinute.length * 1000L);
+        return record;
+    }
 }
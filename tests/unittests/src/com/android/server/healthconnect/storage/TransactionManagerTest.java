@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage;
+
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_HEART_RATE;
+
+import static com.android.server.healthconnect.storage.TestUtils.createHeartRateRecord;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.health.connect.AggregateRecordsRequest;
+import android.health.connect.AggregateRecordsResponse;
+import android.health.connect.DeleteUsingFiltersRequest;
+import android.health.connect.ReadRecordsRequestUsingFilters;
+import android.health.connect.ReadRecordsRequestUsingIds;
+import android.health.connect.TimeInstantRangeFilter;
+import android.health.connect.aidl.AggregateDataRequestParcel;
+import android.health.connect.aidl.DeleteUsingFiltersRequestParcel;
+import android.health.connect.aidl.ReadRecordsRequestParcel;
+import android.health.connect.datatypes.HeartRateRecord;
+import android.health.connect.internal.datatypes.RecordInternal;
+import android.os.Process;
+import android.util.Pair;
+
+import com.android.server.healthconnect.storage.datatypehelpers.HeartRateRecordHelper;
+import com.android.server.healthconnect.storage.request.AggregateTransactionRequest;
+import com.android.server.healthconnect.storage.request.DeleteTableRequest;
+import com.android.server.healthconnect.storage.request.DeleteTransactionRequest;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+import com.android.server.healthconnect.storage.request.ReadTransactionRequest;
+import com.android.server.healthconnect.storage.request.UpsertTransactionRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class TransactionManagerTest {
+    private static final Instant START_TIME = Instant.parse("2023-06-01T10:00:00Z");
+
+    @Rule public final DatabaseTestRule mDatabaseRule = new DatabaseTestRule();
+
+    private Context mContext;
+    private TransactionManager mTransactionManager;
+
+    @Before
+    public void setUp() {
+        mContext = mDatabaseRule.getContext();
+        mTransactionManager = mDatabaseRule.getTransactionManager();
+    }
+
+    @Test
+    public void testDeleteAll_usingFilters_invalidatesCachedAggregations() {
+        insertRecords(
+                createHeartRateRecord(START_TIME.toEpochMilli(), 100),
+                createHeartRateRecord(START_TIME.plus(Duration.ofHours(1)).toEpochMilli(), 150));
+        assertThat(getMaxBpm()).isEqualTo(150L);
+
+        DeleteUsingFiltersRequest deleteRequest =
+                new DeleteUsingFiltersRequest.Builder()
+                        .addRecordType(HeartRateRecord.class)
+                        .setTimeRangeFilter(
+                                new TimeInstantRangeFilter.Builder()
+                                        .setStartTime(START_TIME.plus(Duration.ofMinutes(30)))
+                                        .setEndTime(START_TIME.plus(Duration.ofHours(2)))
+                                        .build())
+                        .build();
+        int deleted =
+                mTransactionManager.deleteAll(
+                        new DeleteTransactionRequest(
+                                        mContext.getPackageName(),
+                                        new DeleteUsingFiltersRequestParcel(deleteRequest))
+                                .setHasManageHealthDataPermission(true));
+
+        assertThat(deleted).isEqualTo(1);
+        assertThat(getMaxBpm()).isEqualTo(100L);
+    }
+
+    @Test
+    public void testReadRecordsAndGetNextToken_usingIds_readsRecordsPastPageSizeEstimate() {
+        // Each record has its samples estimated at over 256 KiB, so the 4 records are estimated at
+        // more than the 1 MiB read page.
+        int[] beatsPerMinute = new int[40000];
+        Arrays.fill(beatsPerMinute, 70);
+        List<RecordInternal<?>> records = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            records.add(
+                    createHeartRateRecord(
+                            START_TIME.plus(Duration.ofHours(12L * i)).toEpochMilli(),
+                            beatsPerMinute));
+        }
+        List<String> uuids = insertRecords(records.toArray(new RecordInternal<?>[0]));
+        ReadRecordsRequestUsingIds.Builder<HeartRateRecord> readRequest =
+                new ReadRecordsRequestUsingIds.Builder<>(HeartRateRecord.class);
+        uuids.forEach(readRequest::addId);
+
+        Pair<List<RecordInternal<?>>, Long> recordsAndToken =
+                mTransactionManager.readRecordsAndGetNextToken(
+                        new ReadTransactionRequest(
+                                mContext.getPackageName(),
+                                new ReadRecordsRequestParcel(readRequest.build()),
+                                /* startDateAccess= */ 0,
+                                /* enforceSelfRead= */ false,
+                                /* extraReadPermsMapping= */ Map.of()));
+
+        assertThat(
+                        recordsAndToken.first.stream()
+                                .map(record -> record.getUuid().toString())
+                                .toList())
+                .containsExactlyElementsIn(uuids);
+    }
+
+    @Test
+    public void testGetReadKey_afterDeleteWithoutChangeLogs_changes() {
+        insertRecords(
+                createHeartRateRecord(START_TIME.toEpochMilli(), 100),
+                createHeartRateRecord(START_TIME.plus(Duration.ofHours(1)).toEpochMilli(), 150));
+        ReadTableRequest readTableRequest = getReadHeartRateRequest().getReadRequests().get(0);
+        List<Object> readKey =
+                mTransactionManager.getReadKey(readTableRequest, /* maxPageSizeBytes= */ 0);
+        assertThat(mTransactionManager.readRecordsAndGetNextToken(getReadHeartRateRequest()).first)
+                .hasSize(2);
+
+        mTransactionManager.deleteWithoutChangeLogs(
+                List.of(
+                        new DeleteTableRequest(
+                                HeartRateRecordHelper.TABLE_NAME, RECORD_TYPE_HEART_RATE)));
+
+        // A read started now must not join one started before the delete.
+        assertThat(mTransactionManager.getReadKey(readTableRequest, /* maxPageSizeBytes= */ 0))
+                .isNotEqualTo(readKey);
+        assertThat(mTransactionManager.readRecordsAndGetNextToken(getReadHeartRateRequest()).first)
+                .isEmpty();
+    }
+
+    @Test
+    public void testRunWithCheckpointedDatabase_logIsEmptyAndWritersWait() throws Exception {
+        insertRecords(createHeartRateRecord(START_TIME.toEpochMilli(), 100));
+        File walFile = new File(mTransactionManager.getDatabasePath().getPath() + "-wal");
+        Thread writer =
+                new Thread(
+                        () ->
+                                insertRecords(
+                                        createHeartRateRecord(
+                                                START_TIME.plus(Duration.ofHours(1)).toEpochMilli(),
+                                                150)));
+
+        mTransactionManager.runWithCheckpointedDatabase(
+                () -> {
+                    assertThat(walFile.length()).isEqualTo(0L);
+                    writer.start();
+                    try {
+                        writer.join(/* millis= */ 500);
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    assertThat(writer.isAlive()).isTrue();
+                    assertThat(walFile.length()).isEqualTo(0L);
+                });
+        writer.join();
+
+        assertThat(getMaxBpm()).isEqualTo(150L);
+    }
+
+    private List<String> insertRecords(RecordInternal<?>... records) {
+        return mTransactionManager.insertAll(
+                new UpsertTransactionRequest(
+                        mContext.getPackageName(),
+                        List.of(records),
+                        mContext,
+                        /* isInsertRequest= */ true,
+                        /* extraPermsStateMap= */ Map.of()));
+    }
+
+    private ReadTransactionRequest getReadHeartRateRequest() {
+        ReadRecordsRequestUsingFilters<HeartRateRecord> request =
+                new ReadRecordsRequestUsingFilters.Builder<>(HeartRateRecord.class)
+                        .setTimeRangeFilter(
+                                new TimeInstantRangeFilter.Builder()
+                                        .setStartTime(START_TIME)
+                                        .setEndTime(START_TIME.plus(Duration.ofDays(1)))
+                                        .build())
+                        .build();
+        return new ReadTransactionRequest(
+                mContext.getPackageName(),
+                new ReadRecordsRequestParcel(request),
+                /* startDateAccess= */ 0,
+                /* enforceSelfRead= */ false,
+                /* extraReadPermsMapping= */ Map.of());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Long getMaxBpm() {
+        AggregateRecordsRequest<Long> request =
+                new AggregateRecordsRequest.Builder<Long>(
+                                new TimeInstantRangeFilter.Builder()
+                                        .setStartTime(START_TIME)
+                                        .setEndTime(START_TIME.plus(Duration.ofDays(1)))
+                                        .build())
+                        .addAggregationType(HeartRateRecord.BPM_MAX)
+                        .build();
+        AggregateRecordsResponse<Long> response =
+                (AggregateRecordsResponse<Long>)
+                        new AggregateTransactionRequest(
+                                        mContext.getPackageName(),
+                                        new AggregateDataRequestParcel(request),
+                                        Process.myUserHandle())
+                                .getAggregateDataResponseParcel()
+                                .getAggregateDataResponse();
+        return response.get(HeartRateRecord.BPM_MAX);
+    }
+}
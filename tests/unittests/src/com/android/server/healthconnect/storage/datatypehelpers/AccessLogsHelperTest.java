@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static android.health.connect.accesslog.AccessLog.OperationType.OPERATION_TYPE_READ;
+import static android.health.connect.accesslog.AccessLog.OperationType.OPERATION_TYPE_UPSERT;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_HEART_RATE;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_STEPS;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.AccessLogsHelper.FLUSH_THRESHOLD;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.health.connect.AggregateResult;
+import android.health.connect.accesslog.AccessLog;
+import android.health.connect.datatypes.HeartRateRecord;
+import android.health.connect.datatypes.StepsRecord;
+import android.os.SystemClock;
+
+import com.android.server.healthconnect.storage.DatabaseTestRule;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.datatypehelpers.aggregation.AggregationResultCache;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class AccessLogsHelperTest {
+    private static final long FLUSH_TIMEOUT_MILLIS = Duration.ofSeconds(5).toMillis();
+    private static final String OTHER_PACKAGE_NAME = "android.healthconnect.test.other";
+
+    @Rule public final DatabaseTestRule mDatabaseRule = new DatabaseTestRule();
+
+    private Context mContext;
+    private TransactionManager mTransactionManager;
+    private String mPackageName;
+
+    @Before
+    public void setUp() {
+        mContext = mDatabaseRule.getContext();
+        mTransactionManager = mDatabaseRule.getTransactionManager();
+        mPackageName = mContext.getPackageName();
+        AppInfoHelper.getInstance().getOrInsertAppInfoId(mPackageName, mContext);
+    }
+
+    @Test
+    public void testAddAccessLog_sameAccessWithinMergeWindow_merged() {
+        AccessLogsHelper.getInstance()
+                .addAccessLog(mPackageName, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+        AccessLogsHelper.getInstance()
+                .addAccessLog(mPackageName, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+
+        List<AccessLog> accessLogs = AccessLogsHelper.getInstance().queryAccessLogs();
+        assertThat(accessLogs).hasSize(1);
+        assertThat(accessLogs.get(0).getRecordTypes()).containsExactly(StepsRecord.class);
+        assertThat(accessLogs.get(0).getOperationType()).isEqualTo(OPERATION_TYPE_READ);
+    }
+
+    @Test
+    public void testAddAccessLog_otherRecordTypesOrOperation_notMerged() {
+        AccessLogsHelper.getInstance()
+                .addAccessLog(mPackageName, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+        AccessLogsHelper.getInstance()
+                .addAccessLog(mPackageName, List.of(RECORD_TYPE_HEART_RATE), OPERATION_TYPE_READ);
+        AccessLogsHelper.getInstance()
+                .addAccessLog(mPackageName, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_UPSERT);
+
+        assertThat(AccessLogsHelper.getInstance().queryAccessLogs()).hasSize(3);
+    }
+
+    @Test
+    public void testAddAccessLog_afterQuery_notMergedIntoReturnedLog() {
+        AccessLogsHelper.getInstance()
+                .addAccessLog(mPackageName, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+        assertThat(AccessLogsHelper.getInstance().queryAccessLogs()).hasSize(1);
+
+        AccessLogsHelper.getInstance()
+                .addAccessLog(mPackageName, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+
+        assertThat(AccessLogsHelper.getInstance().queryAccessLogs()).hasSize(2);
+    }
+
+    @Test
+    public void testAddAccessLog_flushThresholdReached_writesBufferedLogs() {
+        for (int i = 0; i < FLUSH_THRESHOLD; i++) {
+            // Distinct record type lists, so that the access logs are not merged.
+            AccessLogsHelper.getInstance()
+                    .addAccessLog(
+                            mPackageName,
+                            Collections.nCopies(i + 1, RECORD_TYPE_STEPS),
+                            OPERATION_TYPE_READ);
+        }
+
+        long deadline = SystemClock.elapsedRealtime() + FLUSH_TIMEOUT_MILLIS;
+        while (getStoredAccessLogCount() < FLUSH_THRESHOLD
+                && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(10);
+        }
+        assertThat(getStoredAccessLogCount()).isEqualTo((long) FLUSH_THRESHOLD);
+        assertThat(AccessLogsHelper.getInstance().queryAccessLogs()).hasSize(FLUSH_THRESHOLD);
+    }
+
+    @Test
+    public void testQueryAccessLogs_bufferedAndStoredLogs_returnedOnce() {
+        AccessLogsHelper.getInstance()
+                .addAccessLog(mPackageName, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+        AccessLogsHelper.getInstance().flushAccessLogs();
+        AccessLogsHelper.getInstance()
+                .addAccessLog(mPackageName, List.of(RECORD_TYPE_HEART_RATE), OPERATION_TYPE_READ);
+
+        assertThat(getStoredAccessLogCount()).isEqualTo(1L);
+        assertThat(AccessLogsHelper.getInstance().queryAccessLogs()).hasSize(2);
+        assertThat(AccessLogsHelper.getInstance().queryAccessLogs(0, 10)).hasSize(2);
+
+        AccessLogsHelper.getInstance().flushAccessLogs();
+
+        assertThat(getStoredAccessLogCount()).isEqualTo(2L);
+        assertThat(AccessLogsHelper.getInstance().queryAccessLogs()).hasSize(2);
+        assertThat(AccessLogsHelper.getInstance().queryAccessLogs(0, 10)).hasSize(2);
+    }
+
+    @Test
+    public void testFlushAccessLogs_keepsCachedAggregations() {
+        AggregationResultCache cache = AggregationResultCache.getInstance();
+        AggregationResultCache.Key key =
+                new AggregationResultCache.Key(
+                        StepsRecord.STEPS_COUNT_TOTAL,
+                        /* startTime= */ 0,
+                        /* endTime= */ 1000,
+                        /* useLocalTime= */ false,
+                        /* period= */ null,
+                        Duration.ofMillis(1000),
+                        List.of(),
+                        mContext.getUser());
+        cache.put(key, cache.getVersion(key), List.of(new AggregateResult<>(10L)));
+
+        AccessLogsHelper.getInstance()
+                .addAccessLog(mPackageName, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+        AccessLogsHelper.getInstance().flushAccessLogs();
+
+        assertThat(getStoredAccessLogCount()).isEqualTo(1L);
+        assertThat(cache.get(key)).isNotNull();
+    }
+
+    @Test
+    public void testQueryAccessLogs_startTimeAndMaxResults_returnsLatestFirst() {
+        insertAccessLog(mPackageName, RECORD_TYPE_STEPS, 1000);
+        insertAccessLog(mPackageName, RECORD_TYPE_STEPS, 2000);
+        insertAccessLog(mPackageName, RECORD_TYPE_STEPS, 4000);
+        insertAccessLog(mPackageName, RECORD_TYPE_STEPS, 3000);
+
+        assertThat(getAccessTimes(AccessLogsHelper.getInstance().queryAccessLogs(2000, 2)))
+                .containsExactly(4000L, 3000L)
+                .inOrder();
+        assertThat(
+                        getAccessTimes(
+                                AccessLogsHelper.getInstance()
+                                        .queryAccessLogs(2000, Integer.MAX_VALUE)))
+                .containsExactly(4000L, 3000L, 2000L)
+                .inOrder();
+    }
+
+    @Test
+    public void testQueryAccessLogs_bufferedLogs_boundedWithStoredLogs() {
+        long now = Instant.now().toEpochMilli();
+        insertAccessLog(mPackageName, RECORD_TYPE_STEPS, now - 2000);
+        insertAccessLog(mPackageName, RECORD_TYPE_STEPS, now - 1000);
+        AccessLogsHelper.getInstance()
+                .addAccessLog(mPackageName, List.of(RECORD_TYPE_HEART_RATE), OPERATION_TYPE_READ);
+
+        List<AccessLog> accessLogs = AccessLogsHelper.getInstance().queryAccessLogs(0, 2);
+
+        assertThat(accessLogs).hasSize(2);
+        assertThat(accessLogs.get(0).getRecordTypes()).containsExactly(HeartRateRecord.class);
+        assertThat(accessLogs.get(1).getAccessTime().toEpochMilli()).isEqualTo(now - 1000);
+    }
+
+    @Test
+    public void testQueryLatestAccessLogPerPackage_returnsLatestAccessOfEachApp() {
+        AppInfoHelper.getInstance()
+                .addOrUpdateAppInfoIfNotInstalled(
+                        mContext,
+                        OTHER_PACKAGE_NAME,
+                        "other",
+                        /* icon= */ null,
+                        /* onlyUpdate= */ false);
+        insertAccessLog(mPackageName, RECORD_TYPE_STEPS, 1000);
+        insertAccessLog(mPackageName, RECORD_TYPE_HEART_RATE, 3000);
+        insertAccessLog(mPackageName, RECORD_TYPE_STEPS, 2000);
+        insertAccessLog(OTHER_PACKAGE_NAME, RECORD_TYPE_STEPS, 2500);
+
+        List<AccessLog> accessLogs =
+                AccessLogsHelper.getInstance().queryLatestAccessLogPerPackage();
+
+        assertThat(accessLogs).hasSize(2);
+        assertThat(accessLogs.get(0).getPackageName()).isEqualTo(mPackageName);
+        assertThat(accessLogs.get(0).getAccessTime().toEpochMilli()).isEqualTo(3000L);
+        assertThat(accessLogs.get(0).getRecordTypes()).containsExactly(HeartRateRecord.class);
+        assertThat(accessLogs.get(1).getPackageName()).isEqualTo(OTHER_PACKAGE_NAME);
+        assertThat(accessLogs.get(1).getAccessTime().toEpochMilli()).isEqualTo(2500L);
+    }
+
+    @Test
+    public void testQueryLatestAccessLogPerPackage_storedLaterThanBuffered_keepsStoredLog() {
+        long accessTime = Instant.now().plus(Duration.ofMinutes(1)).toEpochMilli();
+        AccessLogsHelper.getInstance()
+                .addAccessLog(mPackageName, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+        // Upserts are logged in their own transaction, possibly after a buffered read.
+        insertAccessLog(mPackageName, RECORD_TYPE_HEART_RATE, accessTime);
+
+        List<AccessLog> accessLogs =
+                AccessLogsHelper.getInstance().queryLatestAccessLogPerPackage();
+
+        assertThat(accessLogs).hasSize(1);
+        assertThat(accessLogs.get(0).getAccessTime().toEpochMilli()).isEqualTo(accessTime);
+        assertThat(accessLogs.get(0).getRecordTypes()).containsExactly(HeartRateRecord.class);
+    }
+
+    @Test
+    public void testQueryLatestAccessLogPerPackage_bufferedLaterThanStored_keepsBufferedLog() {
+        insertAccessLog(mPackageName, RECORD_TYPE_HEART_RATE, 1000);
+        AccessLogsHelper.getInstance()
+                .addAccessLog(mPackageName, List.of(RECORD_TYPE_STEPS), OPERATION_TYPE_READ);
+
+        List<AccessLog> accessLogs =
+                AccessLogsHelper.getInstance().queryLatestAccessLogPerPackage();
+
+        assertThat(accessLogs).hasSize(1);
+        assertThat(accessLogs.get(0).getRecordTypes()).containsExactly(StepsRecord.class);
+    }
+
+    @Test
+    public void testCreateTable_indexesAccessTimeQueries() {
+        List<List<String>> indexedColumns = new ArrayList<>();
+        mTransactionManager.runAsTransaction(
+                db -> {
+                    List<String> indexNames = new ArrayList<>();
+                    try (Cursor cursor =
+                            db.rawQuery(
+                                    "PRAGMA index_list(" + AccessLogsHelper.TABLE_NAME + ")",
+                                    null)) {
+                        while (cursor.moveToNext()) {
+                            indexNames.add(cursor.getString(cursor.getColumnIndex("name")));
+                        }
+                    }
+                    for (String indexName : indexNames) {
+                        List<String> columns = new ArrayList<>();
+                        try (Cursor cursor =
+                                db.rawQuery("PRAGMA index_info(" + indexName + ")", null)) {
+                            while (cursor.moveToNext()) {
+                                columns.add(cursor.getString(cursor.getColumnIndex("name")));
+                            }
+                        }
+                        indexedColumns.add(columns);
+                    }
+                });
+
+        assertThat(indexedColumns).contains(List.of("access_time"));
+        assertThat(indexedColumns).contains(List.of("app_id", "access_time"));
+    }
+
+    private void insertAccessLog(String packageName, int recordType, long accessTime) {
+        mTransactionManager.insert(
+                AccessLogsHelper.getInstance()
+                        .getUpsertTableRequest(
+                                packageName, List.of(recordType), OPERATION_TYPE_READ, accessTime));
+    }
+
+    private static List<Long> getAccessTimes(List<AccessLog> accessLogs) {
+        List<Long> accessTimes = new ArrayList<>(accessLogs.size());
+        for (AccessLog accessLog : accessLogs) {
+            accessTimes.add(accessLog.getAccessTime().toEpochMilli());
+        }
+        return accessTimes;
+    }
+
+    private long getStoredAccessLogCount() {
+        return mTransactionManager.getNumberOfEntriesInTheTable(AccessLogsHelper.TABLE_NAME);
+    }
+}
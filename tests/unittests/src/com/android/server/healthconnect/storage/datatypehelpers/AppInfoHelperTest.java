@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static android.health.connect.Constants.DEFAULT_LONG;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_HEART_RATE;
+
+import static com.android.server.healthconnect.storage.TestUtils.createHeartRateRecord;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.health.connect.DeleteUsingFiltersRequest;
+import android.health.connect.TimeInstantRangeFilter;
+import android.health.connect.aidl.DeleteUsingFiltersRequestParcel;
+import android.health.connect.datatypes.HeartRateRecord;
+import android.health.connect.internal.datatypes.RecordInternal;
+
+import com.android.server.healthconnect.storage.DatabaseTestRule;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.DeleteTransactionRequest;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+import com.android.server.healthconnect.storage.request.UpsertTransactionRequest;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+import com.android.server.healthconnect.storage.utils.WhereClauses;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class AppInfoHelperTest {
+    private static final String TEST_PACKAGE_PREFIX = "android.healthconnect.test.app";
+    private static final String UNINSTALLED_PACKAGE_NAME = "android.healthconnect.test.uninstalled";
+    private static final Instant START_TIME = Instant.parse("2023-06-01T00:00:00Z");
+    private static final int PACKAGE_COUNT = 50;
+    private static final int READER_COUNT = 2;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    @Rule public final DatabaseTestRule mDatabaseRule = new DatabaseTestRule();
+
+    private Context mContext;
+    private TransactionManager mTransactionManager;
+
+    @Before
+    public void setUp() {
+        mContext = mDatabaseRule.getContext();
+        mTransactionManager = mDatabaseRule.getTransactionManager();
+    }
+
+    @Test
+    public void testReads_concurrentWithWrites_seeConsistentSnapshots() throws Exception {
+        List<String> packageNames = new ArrayList<>();
+        for (int i = 0; i < PACKAGE_COUNT; i++) {
+            packageNames.add(TEST_PACKAGE_PREFIX + i);
+        }
+        AppInfoHelper appInfoHelper = AppInfoHelper.getInstance();
+        AtomicBoolean writesDone = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(READER_COUNT);
+        List<Future<?>> readers = new ArrayList<>();
+        try {
+            for (int i = 0; i < READER_COUNT; i++) {
+                readers.add(
+                        executor.submit(
+                                () -> {
+                                    do {
+                                        for (String packageName : packageNames) {
+                                            assertConsistent(appInfoHelper, packageName);
+                                        }
+                                    } while (!writesDone.get());
+                                }));
+            }
+
+            for (String packageName : packageNames) {
+                appInfoHelper.addOrUpdateAppInfoIfNotInstalled(
+                        mContext, packageName, "name", /* icon= */ null, /* onlyUpdate= */ false);
+                appInfoHelper.addOrUpdateAppInfoIfNotInstalled(
+                        mContext,
+                        packageName,
+                        "new name",
+                        /* icon= */ null,
+                        /* onlyUpdate= */ true);
+            }
+            writesDone.set(true);
+
+            // Rethrows the failures of the readers.
+            for (Future<?> reader : readers) {
+                reader.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+        } finally {
+            writesDone.set(true);
+            executor.shutdownNow();
+        }
+
+        for (String packageName : packageNames) {
+            assertThat(appInfoHelper.getAppInfoId(packageName)).isNotEqualTo(DEFAULT_LONG);
+            assertConsistent(appInfoHelper, packageName);
+        }
+    }
+
+    @Test
+    public void testGetAppIcon_uninstalledPackage_returnsStoredIcon() {
+        AppInfoHelper appInfoHelper = AppInfoHelper.getInstance();
+        appInfoHelper.addOrUpdateAppInfoIfNotInstalled(
+                mContext,
+                UNINSTALLED_PACKAGE_NAME,
+                "name",
+                encodeIcon(/* size= */ 4),
+                /* onlyUpdate= */ false);
+
+        assertIconSize(appInfoHelper.getAppIcon(UNINSTALLED_PACKAGE_NAME), 4);
+    }
+
+    @Test
+    public void testGetAppIcon_cacheMiss_readsIconFromTable() {
+        AppInfoHelper appInfoHelper = AppInfoHelper.getInstance();
+        appInfoHelper.addOrUpdateAppInfoIfNotInstalled(
+                mContext,
+                UNINSTALLED_PACKAGE_NAME,
+                "name",
+                encodeIcon(/* size= */ 4),
+                /* onlyUpdate= */ false);
+        assertIconSize(appInfoHelper.getAppIcon(UNINSTALLED_PACKAGE_NAME), 4);
+
+        // Drops the decoded icons, as happens when they are evicted.
+        appInfoHelper.clearCache();
+
+        assertIconSize(appInfoHelper.getAppIcon(UNINSTALLED_PACKAGE_NAME), 4);
+    }
+
+    @Test
+    public void testGetAppIcon_afterUpdate_returnsNewIcon() {
+        AppInfoHelper appInfoHelper = AppInfoHelper.getInstance();
+        appInfoHelper.addOrUpdateAppInfoIfNotInstalled(
+                mContext,
+                UNINSTALLED_PACKAGE_NAME,
+                "name",
+                encodeIcon(/* size= */ 4),
+                /* onlyUpdate= */ false);
+        assertIconSize(appInfoHelper.getAppIcon(UNINSTALLED_PACKAGE_NAME), 4);
+
+        appInfoHelper.addOrUpdateAppInfoIfNotInstalled(
+                mContext,
+                UNINSTALLED_PACKAGE_NAME,
+                "name",
+                encodeIcon(/* size= */ 8),
+                /* onlyUpdate= */ true);
+
+        assertIconSize(appInfoHelper.getAppIcon(UNINSTALLED_PACKAGE_NAME), 8);
+    }
+
+    @Test
+    public void testGetAppIcon_noStoredIcon_returnsNull() {
+        AppInfoHelper appInfoHelper = AppInfoHelper.getInstance();
+        appInfoHelper.addOrUpdateAppInfoIfNotInstalled(
+                mContext,
+                UNINSTALLED_PACKAGE_NAME,
+                "name",
+                /* icon= */ null,
+                /* onlyUpdate= */ false);
+
+        assertThat(appInfoHelper.getAppIcon(UNINSTALLED_PACKAGE_NAME)).isNull();
+        assertThat(appInfoHelper.getAppIcon(TEST_PACKAGE_PREFIX)).isNull();
+    }
+
+    @Test
+    public void testInsert_newRecordType_addsRecordTypeUsed() {
+        insertRecords(createHeartRateRecord(START_TIME.toEpochMilli(), 100));
+
+        assertThat(getRecordTypesUsed()).containsExactly(RECORD_TYPE_HEART_RATE);
+        assertThat(getStoredRecordTypesUsed()).isEqualTo(String.valueOf(RECORD_TYPE_HEART_RATE));
+    }
+
+    @Test
+    public void testInsert_noNewRecordType_doesNotWriteTable() {
+        insertRecords(createHeartRateRecord(START_TIME.toEpochMilli(), 100));
+        // Only clears the stored value, so that a write of the insert below would show.
+        mTransactionManager.runAsTransaction(
+                db ->
+                        db.execSQL(
+                                "UPDATE "
+                                        + AppInfoHelper.TABLE_NAME
+                                        + " SET record_types_used = NULL"));
+
+        insertRecords(
+                createHeartRateRecord(START_TIME.plus(Duration.ofHours(1)).toEpochMilli(), 110));
+
+        assertThat(getStoredRecordTypesUsed()).isNull();
+        assertThat(getRecordTypesUsed()).containsExactly(RECORD_TYPE_HEART_RATE);
+    }
+
+    @Test
+    public void testDelete_lastRecordOfType_removesRecordTypeUsed() {
+        insertRecords(
+                createHeartRateRecord(START_TIME.toEpochMilli(), 100),
+                createHeartRateRecord(START_TIME.plus(Duration.ofHours(1)).toEpochMilli(), 110));
+
+        deleteHeartRateRecords(START_TIME, START_TIME.plus(Duration.ofMinutes(30)));
+
+        assertThat(getRecordTypesUsed()).containsExactly(RECORD_TYPE_HEART_RATE);
+        assertThat(getStoredRecordTypesUsed()).isEqualTo(String.valueOf(RECORD_TYPE_HEART_RATE));
+
+        deleteHeartRateRecords(START_TIME, START_TIME.plus(Duration.ofDays(1)));
+
+        assertThat(getRecordTypesUsed()).isEmpty();
+        assertThat(getStoredRecordTypesUsed()).isNull();
+    }
+
+    @Test
+    public void testInsert_concurrentWithRemoval_keepsRecordTypeUsed() {
+        insertRecords(createHeartRateRecord(START_TIME.toEpochMilli(), 100));
+        AppInfoHelper appInfoHelper = AppInfoHelper.getInstance();
+        // An insert of a record type the package already uses checks it before the removal...
+        AppInfoHelper.RecordTypesUsedUpdate update =
+                appInfoHelper.getRecordTypesUsedUpdate(
+                        mContext.getPackageName(), Set.of(RECORD_TYPE_HEART_RATE));
+
+        deleteHeartRateRecords(START_TIME, START_TIME.plus(Duration.ofDays(1)));
+        assertThat(getRecordTypesUsed()).isEmpty();
+
+        // ...and commits after it.
+        mTransactionManager.runAsTransaction(update::writeTo);
+        update.onCommitted();
+
+        assertThat(getRecordTypesUsed()).containsExactly(RECORD_TYPE_HEART_RATE);
+        assertThat(getStoredRecordTypesUsed()).isEqualTo(String.valueOf(RECORD_TYPE_HEART_RATE));
+    }
+
+    private void insertRecords(RecordInternal<?>... records) {
+        mTransactionManager.insertAll(
+                new UpsertTransactionRequest(
+                        mContext.getPackageName(),
+                        List.of(records),
+                        mContext,
+                        /* isInsertRequest= */ true,
+                        /* extraPermsStateMap= */ Map.of()));
+    }
+
+    /** Deletes the heart rate records in the range, then syncs like the delete API does. */
+    private void deleteHeartRateRecords(Instant startTime, Instant endTime) {
+        DeleteUsingFiltersRequest deleteRequest =
+                new DeleteUsingFiltersRequest.Builder()
+                        .addRecordType(HeartRateRecord.class)
+                        .setTimeRangeFilter(
+                                new TimeInstantRangeFilter.Builder()
+                                        .setStartTime(startTime)
+                                        .setEndTime(endTime)
+                                        .build())
+                        .build();
+        mTransactionManager.deleteAll(
+                new DeleteTransactionRequest(
+                                mContext.getPackageName(),
+                                new DeleteUsingFiltersRequestParcel(deleteRequest))
+                        .setHasManageHealthDataPermission(true));
+        AppInfoHelper appInfoHelper = AppInfoHelper.getInstance();
+        appInfoHelper.syncAppInfoRecordTypesUsed(
+                Map.of(
+                        appInfoHelper.getAppInfoId(mContext.getPackageName()),
+                        Set.of(RECORD_TYPE_HEART_RATE)));
+    }
+
+    private Set<Integer> getRecordTypesUsed() {
+        return AppInfoHelper.getInstance().getRecordTypesToContributingPackagesMap().keySet();
+    }
+
+    private String getStoredRecordTypesUsed() {
+        ReadTableRequest readTableRequest =
+                new ReadTableRequest(AppInfoHelper.TABLE_NAME)
+                        .setWhereClause(
+                                new WhereClauses()
+                                        .addWhereEqualsClause(
+                                                AppInfoHelper.PACKAGE_COLUMN_NAME,
+                                                mContext.getPackageName()));
+        try (Cursor cursor = mTransactionManager.read(readTableRequest)) {
+            assertThat(cursor.moveToFirst()).isTrue();
+            return StorageUtils.getCursorString(cursor, "record_types_used");
+        }
+    }
+
+    /** Checks that the id of {@code packageName}, if any, maps back to {@code packageName}. */
+    private static void assertConsistent(AppInfoHelper appInfoHelper, String packageName) {
+        long id = appInfoHelper.getAppInfoId(packageName);
+        if (id == DEFAULT_LONG) {
+            return;
+        }
+
+        assertThat(appInfoHelper.getPackageName(id)).isEqualTo(packageName);
+        assertThat(appInfoHelper.getAppInfoIds(List.of(packageName))).containsExactly(id);
+    }
+
+    private static void assertIconSize(Bitmap icon, int size) {
+        assertThat(icon).isNotNull();
+        assertThat(icon.getWidth()).isEqualTo(size);
+        assertThat(icon.getHeight()).isEqualTo(size);
+    }
+
+    private static byte[] encodeIcon(int size) {
+        Bitmap icon = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        icon.compress(Bitmap.CompressFormat.PNG, 100, stream);
+        return stream.toByteArray();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static android.health.connect.Constants.DELETE;
+import static android.health.connect.Constants.UPSERT;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_HEART_RATE;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_STEPS;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsHelper.COMPACTION_BATCH_SIZE;
+import static com.android.server.healthconnect.storage.datatypehelpers.RecordHelper.PRIMARY_COLUMN_NAME;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.health.connect.changelog.ChangeLogsRequest;
+import android.util.ArrayMap;
+
+import com.android.server.healthconnect.storage.DatabaseTestRule;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+import com.android.server.healthconnect.storage.request.UpsertTableRequest;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class ChangeLogsHelperTest {
+    private static final long APP_ID = 1;
+    private static final long OTHER_APP_ID = 2;
+    private static final UUID UUID_A = UUID.randomUUID();
+    private static final UUID UUID_B = UUID.randomUUID();
+    private static final UUID UUID_C = UUID.randomUUID();
+
+    @Rule public final DatabaseTestRule mDatabaseRule = new DatabaseTestRule();
+
+    private Context mContext;
+    private TransactionManager mTransactionManager;
+
+    @Before
+    public void setUp() {
+        mContext = mDatabaseRule.getContext();
+        mTransactionManager = mDatabaseRule.getTransactionManager();
+    }
+
+    @Test
+    public void testCompactChangeLogs_keepsLatestOperationReadFromEveryToken() {
+        List<Long> tokens = new ArrayList<>();
+        tokens.add(0L);
+        tokens.add(insertChangeLog(UPSERT, RECORD_TYPE_STEPS, APP_ID, UUID_A, UUID_B));
+        tokens.add(insertChangeLog(UPSERT, RECORD_TYPE_STEPS, APP_ID, UUID_A));
+        tokens.add(insertChangeLog(UPSERT, RECORD_TYPE_HEART_RATE, APP_ID, UUID_C));
+        tokens.add(insertChangeLog(UPSERT, RECORD_TYPE_STEPS, OTHER_APP_ID, UUID_B));
+        tokens.add(insertChangeLog(DELETE, RECORD_TYPE_STEPS, APP_ID, UUID_B));
+        tokens.add(insertChangeLog(UPSERT, RECORD_TYPE_HEART_RATE, APP_ID, UUID_C));
+        List<Map<UUID, Integer>> expectedChanges = new ArrayList<>();
+        for (long token : tokens) {
+            expectedChanges.add(getLatestOperations(token));
+        }
+
+        ChangeLogsHelper.getInstance().compactChangeLogs(0, tokens.get(tokens.size() - 1));
+
+        for (int i = 0; i < tokens.size(); i++) {
+            assertThat(getLatestOperations(tokens.get(i))).isEqualTo(expectedChanges.get(i));
+        }
+        // The first steps and heart rate change logs of the first app are superseded.
+        assertThat(getRowIds())
+                .containsExactly(tokens.get(2), tokens.get(4), tokens.get(5), tokens.get(6))
+                .inOrder();
+        assertThat(expectedChanges.get(0))
+                .containsExactly(UUID_A, UPSERT, UUID_B, DELETE, UUID_C, UPSERT);
+    }
+
+    @Test
+    public void testCompactChangeLogs_acrossBatches_keepsLatestOperations() {
+        List<UUID> uuids = List.of(UUID_A, UUID_B, UUID_C);
+        long lastRowId = 0;
+        for (int i = 0; i < 2 * COMPACTION_BATCH_SIZE + 1; i++) {
+            lastRowId =
+                    insertChangeLog(
+                            i % 2 == 0 ? UPSERT : DELETE,
+                            RECORD_TYPE_STEPS,
+                            APP_ID,
+                            uuids.get(i % uuids.size()));
+        }
+        Map<UUID, Integer> expectedChanges = getLatestOperations(0);
+
+        ChangeLogsHelper.getInstance().compactChangeLogs(0, lastRowId);
+
+        assertThat(getLatestOperations(0)).isEqualTo(expectedChanges);
+        assertThat(getRowIds()).containsExactly(lastRowId - 2, lastRowId - 1, lastRowId);
+    }
+
+    @Test
+    public void testCompactChangeLogs_range_onlyCompactsRowsInRange() {
+        long firstRowId = insertChangeLog(UPSERT, RECORD_TYPE_STEPS, APP_ID, UUID_A);
+        insertChangeLog(UPSERT, RECORD_TYPE_STEPS, APP_ID, UUID_A);
+        long thirdRowId = insertChangeLog(UPSERT, RECORD_TYPE_STEPS, APP_ID, UUID_A);
+        long fourthRowId = insertChangeLog(UPSERT, RECORD_TYPE_STEPS, APP_ID, UUID_A);
+
+        ChangeLogsHelper.getInstance().compactChangeLogs(firstRowId, thirdRowId);
+
+        assertThat(getRowIds()).containsExactly(firstRowId, thirdRowId, fourthRowId).inOrder();
+    }
+
+    @Test
+    public void testCompactChangeLogs_noToken_doesNotCompact() {
+        long firstRowId = insertChangeLog(UPSERT, RECORD_TYPE_STEPS, APP_ID, UUID_A);
+        long secondRowId = insertChangeLog(UPSERT, RECORD_TYPE_STEPS, APP_ID, UUID_A);
+
+        ChangeLogsHelper.getInstance().compactChangeLogs();
+
+        assertThat(getRowIds()).containsExactly(firstRowId, secondRowId).inOrder();
+    }
+
+    @Test
+    public void testCompactChangeLogs_onlyCompactsRowsAfterOldestToken() {
+        long firstRowId = insertChangeLog(UPSERT, RECORD_TYPE_STEPS, APP_ID, UUID_A);
+        insertChangeLog(UPSERT, RECORD_TYPE_STEPS, APP_ID, UUID_A);
+        long thirdRowId = insertChangeLog(UPSERT, RECORD_TYPE_STEPS, APP_ID, UUID_A);
+        ChangeLogsRequestHelper.getNextPageToken(
+                new ChangeLogsRequestHelper.TokenRequest(
+                        List.of(), List.of(), mContext.getPackageName(), firstRowId),
+                firstRowId);
+
+        ChangeLogsHelper.getInstance().compactChangeLogs();
+
+        assertThat(getRowIds()).containsExactly(firstRowId, thirdRowId).inOrder();
+    }
+
+    private long insertChangeLog(int operationType, int recordType, long appId, UUID... uuids) {
+        List<UpsertTableRequest> requests =
+                new ChangeLogsHelper.ChangeLogs(operationType, mContext.getPackageName(), 0)
+                        .addUUIDs(recordType, appId, List.of(uuids))
+                        .getUpsertTableRequests();
+        return mTransactionManager.insert(requests.get(0));
+    }
+
+    /**
+     * Reads all the change logs after {@code token} one row per page, so that the operations of a
+     * uuid are read in order, and returns the latest operation of each uuid.
+     */
+    private Map<UUID, Integer> getLatestOperations(long token) {
+        Map<UUID, Integer> uuidToOperation = new ArrayMap<>();
+        ChangeLogsRequestHelper.TokenRequest tokenRequest =
+                new ChangeLogsRequestHelper.TokenRequest(
+                        List.of(), List.of(), mContext.getPackageName(), token);
+        while (true) {
+            ChangeLogsHelper.ChangeLogsResponse response =
+                    ChangeLogsHelper.getInstance()
+                            .getChangeLogs(
+                                    tokenRequest,
+                                    new ChangeLogsRequest.Builder(String.valueOf(token))
+                                            .setPageSize(1)
+                                            .build());
+            response.getChangeLogsMap()
+                    .forEach(
+                            (operationType, changeLogs) ->
+                                    changeLogs
+                                            .getUUIds()
+                                            .forEach(
+                                                    uuid ->
+                                                            uuidToOperation.put(
+                                                                    uuid, operationType)));
+            if (!response.hasMorePages()) {
+                return uuidToOperation;
+            }
+            tokenRequest =
+                    ChangeLogsRequestHelper.getRequest(
+                            mContext.getPackageName(), response.getNextPageToken());
+        }
+    }
+
+    private List<Long> getRowIds() {
+        List<Long> rowIds = new ArrayList<>();
+        try (Cursor cursor =
+                mTransactionManager.read(new ReadTableRequest(ChangeLogsHelper.TABLE_NAME))) {
+            while (cursor.moveToNext()) {
+                rowIds.add(StorageUtils.getCursorLong(cursor, PRIMARY_COLUMN_NAME));
+            }
+        }
+        return rowIds;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.health.connect.AggregateRecordsGroupedByDurationResponse;
+import android.health.connect.AggregateRecordsRequest;
+import android.health.connect.TimeInstantRangeFilter;
+import android.health.connect.aidl.AggregateDataRequestParcel;
+import android.health.connect.datatypes.BasalMetabolicRateRecord;
+import android.health.connect.datatypes.units.Energy;
+import android.health.connect.internal.datatypes.BasalMetabolicRateRecordInternal;
+import android.health.connect.internal.datatypes.LeanBodyMassRecordInternal;
+import android.health.connect.internal.datatypes.RecordInternal;
+import android.os.Process;
+
+import com.android.server.healthconnect.storage.DatabaseTestRule;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.AggregateTransactionRequest;
+import com.android.server.healthconnect.storage.request.UpsertTransactionRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class DeriveBasalCaloriesBurnedHelperTest {
+    private static final Instant START_TIME = Instant.parse("2023-06-01T00:00:00Z");
+    private static final int DAYS = 3;
+    private static final double TOLERANCE = 0.01;
+    // 10 * 73 kg + 6.25 * 170 cm - 5 * 30 years - 78, in calories per day.
+    private static final double PROFILE_CALORIES_PER_DAY = 1_564_500;
+
+    @Rule public final DatabaseTestRule mDatabaseRule = new DatabaseTestRule();
+
+    private Context mContext;
+    private TransactionManager mTransactionManager;
+
+    @Before
+    public void setUp() {
+        mContext = mDatabaseRule.getContext();
+        mTransactionManager = mDatabaseRule.getTransactionManager();
+    }
+
+    @Test
+    public void testBasalCalories_bmrBeforeRange_usedForEveryInterval() {
+        insertRecords(createBmrRecord(START_TIME.minus(Duration.ofDays(1)), 80));
+
+        for (double calories : getDailyBasalCalories()) {
+            assertThat(calories).isWithin(TOLERANCE).of(getCaloriesPerDay(80));
+        }
+    }
+
+    @Test
+    public void testBasalCalories_bmrChangesInRange_splitsInterval() {
+        insertRecords(
+                createBmrRecord(START_TIME.minus(Duration.ofDays(1)), 80),
+                createBmrRecord(START_TIME.plus(Duration.ofHours(36)), 100));
+
+        List<Double> calories = getDailyBasalCalories();
+
+        assertThat(calories.get(0)).isWithin(TOLERANCE).of(getCaloriesPerDay(80));
+        assertThat(calories.get(1))
+                .isWithin(TOLERANCE)
+                .of((getCaloriesPerDay(80) + getCaloriesPerDay(100)) / 2);
+        assertThat(calories.get(2)).isWithin(TOLERANCE).of(getCaloriesPerDay(100));
+    }
+
+    @Test
+    public void testBasalCalories_noBmr_fallsBackToLeanBodyMassThenProfile() {
+        insertRecords(createLeanBodyMassRecord(START_TIME.plus(Duration.ofDays(1)), 50_000));
+
+        // 370 + 21.6 * 50 kg, in calories per day.
+        double leanBodyMassCaloriesPerDay = 1_450_000;
+        List<Double> calories = getDailyBasalCalories();
+
+        assertThat(calories.get(0)).isWithin(TOLERANCE).of(PROFILE_CALORIES_PER_DAY);
+        assertThat(calories.get(1)).isWithin(TOLERANCE).of(leanBodyMassCaloriesPerDay);
+        assertThat(calories.get(2)).isWithin(TOLERANCE).of(leanBodyMassCaloriesPerDay);
+    }
+
+    @Test
+    public void testBasalCalories_firstBmrInRange_usesProfileBeforeIt() {
+        insertRecords(createBmrRecord(START_TIME.plus(Duration.ofHours(36)), 80));
+
+        List<Double> calories = getDailyBasalCalories();
+
+        assertThat(calories.get(0)).isWithin(TOLERANCE).of(PROFILE_CALORIES_PER_DAY);
+        assertThat(calories.get(1))
+                .isWithin(TOLERANCE)
+                .of((PROFILE_CALORIES_PER_DAY + getCaloriesPerDay(80)) / 2);
+        assertThat(calories.get(2)).isWithin(TOLERANCE).of(getCaloriesPerDay(80));
+    }
+
+    private static double getCaloriesPerDay(double bmrInWatts) {
+        return bmrInWatts * 24 * 860;
+    }
+
+    private static BasalMetabolicRateRecordInternal createBmrRecord(Instant time, double watts) {
+        BasalMetabolicRateRecordInternal record = new BasalMetabolicRateRecordInternal();
+        record.setBasalMetabolicRate(watts);
+        record.setTime(time.toEpochMilli());
+        return record;
+    }
+
+    private static LeanBodyMassRecordInternal createLeanBodyMassRecord(
+            Instant time, double grams) {
+        LeanBodyMassRecordInternal record = new LeanBodyMassRecordInternal();
+        record.setMass(grams);
+        record.setTime(time.toEpochMilli());
+        return record;
+    }
+
+    private void insertRecords(RecordInternal<?>... records) {
+        mTransactionManager.insertAll(
+                new UpsertTransactionRequest(
+                        mContext.getPackageName(),
+                        List.of(records),
+                        mContext,
+                        /* isInsertRequest= */ true,
+                        /* extraPermsStateMap= */ Map.of()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Double> getDailyBasalCalories() {
+        AggregateRecordsRequest<Energy> request =
+                new AggregateRecordsRequest.Builder<Energy>(
+                                new TimeInstantRangeFilter.Builder()
+                                        .setStartTime(START_TIME)
+                                        .setEndTime(START_TIME.plus(Duration.ofDays(DAYS)))
+                                        .build())
+                        .addAggregationType(BasalMetabolicRateRecord.BASAL_CALORIES_TOTAL)
+                        .build();
+        List<AggregateRecordsGroupedByDurationResponse<?>> responses =
+                new AggregateTransactionRequest(
+                                mContext.getPackageName(),
+                                new AggregateDataRequestParcel(request, Duration.ofDays(1)),
+                                Process.myUserHandle())
+                        .getAggregateDataResponseParcel()
+                        .getAggregateDataResponseGroupedByDuration();
+        assertThat(responses).hasSize(DAYS);
+
+        List<Double> calories = new ArrayList<>(responses.size());
+        for (AggregateRecordsGroupedByDurationResponse<?> response : responses) {
+            calories.add(
+                    ((AggregateRecordsGroupedByDurationResponse<Energy>) response)
+                            .get(BasalMetabolicRateRecord.BASAL_CALORIES_TOTAL)
+                            .getInCalories());
+        }
+        return calories;
+    }
+}
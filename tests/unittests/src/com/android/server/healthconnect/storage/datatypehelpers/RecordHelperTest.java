@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static android.health.connect.Constants.DEFAULT_LONG;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_STEPS;
+
+import static com.android.server.healthconnect.storage.datatypehelpers.IntervalRecordHelper.START_TIME_COLUMN_NAME;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.health.connect.internal.datatypes.RecordInternal;
+import android.health.connect.internal.datatypes.StepsRecordInternal;
+import android.util.Pair;
+
+import com.android.server.healthconnect.storage.DatabaseTestRule;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+import com.android.server.healthconnect.storage.request.UpsertTransactionRequest;
+import com.android.server.healthconnect.storage.utils.OrderByClause;
+import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+import com.android.server.healthconnect.storage.utils.WhereClauses;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class RecordHelperTest {
+    private static final long START_TIME = Instant.parse("2023-06-01T10:00:00Z").toEpochMilli();
+    // Estimated parcel size of records without variable length data.
+    private static final long RECORD_BYTES = 256;
+    private static final int PAGE_SIZE = 100;
+
+    @Rule public final DatabaseTestRule mDatabaseRule = new DatabaseTestRule();
+
+    private Context mContext;
+    private TransactionManager mTransactionManager;
+
+    @Before
+    public void setUp() {
+        mContext = mDatabaseRule.getContext();
+        mTransactionManager = mDatabaseRule.getTransactionManager();
+    }
+
+    @Test
+    public void testGetInternalRecords_exceedsByteBudget_cutsPageShort() {
+        List<String> uuids = insertStepsRecords(0, 1, 2, 3, 4);
+
+        Pair<List<String>, Long> page = readPage(START_TIME, /* maxPageBytes= */ 3 * RECORD_BYTES);
+
+        assertThat(page.first).containsExactlyElementsIn(uuids.subList(0, 3)).inOrder();
+        assertThat(page.second).isEqualTo(getStartTime(3));
+    }
+
+    @Test
+    public void testGetInternalRecords_recordLargerThanBudget_returnsIt() {
+        List<String> uuids = insertStepsRecords(0, 1);
+
+        Pair<List<String>, Long> page = readPage(START_TIME, /* maxPageBytes= */ RECORD_BYTES / 2);
+
+        assertThat(page.first).containsExactly(uuids.get(0));
+        assertThat(page.second).isEqualTo(getStartTime(1));
+    }
+
+    @Test
+    public void testGetInternalRecords_followingTokens_returnsEachRecordOnce() {
+        // Records sharing a start time are never split between pages.
+        List<String> uuids = insertStepsRecords(0, 1, 1, 2, 3, 3, 3, 4, 5, 6, 6);
+
+        List<String> readUuids = new ArrayList<>();
+        long token = START_TIME;
+        int pages = 0;
+        while (token != DEFAULT_LONG) {
+            Pair<List<String>, Long> page = readPage(token, /* maxPageBytes= */ 3 * RECORD_BYTES);
+            assertThat(page.first).isNotEmpty();
+            readUuids.addAll(page.first);
+            token = page.second;
+            assertThat(++pages).isAtMost(uuids.size());
+        }
+
+        assertThat(readUuids).containsExactlyElementsIn(uuids);
+        assertThat(readUuids).containsNoDuplicates();
+    }
+
+    private static long getStartTime(int minutes) {
+        return START_TIME + Duration.ofMinutes(minutes).toMillis();
+    }
+
+    /** Inserts a steps record starting at each of the given minutes from the start time. */
+    private List<String> insertStepsRecords(int... startMinutes) {
+        List<RecordInternal<?>> records = new ArrayList<>(startMinutes.length);
+        for (int minutes : startMinutes) {
+            StepsRecordInternal record = new StepsRecordInternal();
+            record.setCount(100);
+            record.setStartTime(getStartTime(minutes));
+            record.setEndTime(getStartTime(minutes) + Duration.ofSeconds(30).toMillis());
+            records.add(record);
+        }
+        return mTransactionManager.insertAll(
+                new UpsertTransactionRequest(
+                        mContext.getPackageName(),
+                        records,
+                        mContext,
+                        /* isInsertRequest= */ true,
+                        /* extraPermsStateMap= */ Map.of()));
+    }
+
+    /** Reads a page from {@code startTime} and returns the uuids read and the next page token. */
+    private Pair<List<String>, Long> readPage(long startTime, long maxPageBytes) {
+        RecordHelper<?> helper =
+                RecordHelperProvider.getInstance().getRecordHelper(RECORD_TYPE_STEPS);
+        ReadTableRequest request =
+                new ReadTableRequest(StepsRecordHelper.STEPS_TABLE_NAME)
+                        .setWhereClause(
+                                new WhereClauses()
+                                        .addWhereGreaterThanOrEqualClause(
+                                                START_TIME_COLUMN_NAME, startTime))
+                        .setOrderBy(
+                                new OrderByClause().addOrderByClause(START_TIME_COLUMN_NAME, true));
+        try (Cursor cursor = mTransactionManager.read(request)) {
+            List<String> uuids = new ArrayList<>();
+            for (RecordInternal<?> record :
+                    helper.getInternalRecords(
+                            cursor, PAGE_SIZE, maxPageBytes, /* packageNamesByAppIds= */ null)) {
+                uuids.add(record.getUuid().toString());
+            }
+            long token =
+                    cursor.moveToNext()
+                            ? StorageUtils.getCursorLong(cursor, START_TIME_COLUMN_NAME)
+                            : DEFAULT_LONG;
+            return Pair.create(uuids, token);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_HEART_RATE;
+
+import static com.android.server.healthconnect.storage.HealthConnectDatabase.DB_VERSION_GENERATED_LOCAL_TIME;
+import static com.android.server.healthconnect.storage.HealthConnectDatabase.DB_VERSION_SERIES_SUMMARY;
+import static com.android.server.healthconnect.storage.TestUtils.createHeartRateRecord;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.health.connect.AggregateRecordsRequest;
+import android.health.connect.AggregateRecordsResponse;
+import android.health.connect.TimeInstantRangeFilter;
+import android.health.connect.aidl.AggregateDataRequestParcel;
+import android.health.connect.datatypes.AggregationType;
+import android.health.connect.datatypes.HeartRateRecord;
+import android.health.connect.internal.datatypes.HeartRateRecordInternal;
+import android.health.connect.internal.datatypes.RecordInternal;
+import android.os.Process;
+
+import com.android.server.healthconnect.storage.DatabaseTestRule;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.AggregateTransactionRequest;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+import com.android.server.healthconnect.storage.request.UpsertTransactionRequest;
+import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+public class SeriesRecordHelperTest {
+    private static final Instant START_TIME = Instant.parse("2023-06-01T10:00:00Z");
+
+    @Rule public final DatabaseTestRule mDatabaseRule = new DatabaseTestRule();
+
+    private Context mContext;
+    private TransactionManager mTransactionManager;
+
+    @Before
+    public void setUp() {
+        mContext = mDatabaseRule.getContext();
+        mTransactionManager = mDatabaseRule.getTransactionManager();
+    }
+
+    @Test
+    public void testInsert_storesSampleSummary() {
+        upsertRecords(
+                /* isInsertRequest= */ true,
+                createHeartRateRecord(START_TIME.toEpochMilli(), 60, 90, 75));
+
+        assertSampleSummary(/* count= */ 3, /* sum= */ 225, /* min= */ 60, /* max= */ 90);
+    }
+
+    @Test
+    public void testUpdate_replacesSampleSummary() {
+        List<String> uuids =
+                upsertRecords(
+                        /* isInsertRequest= */ true,
+                        createHeartRateRecord(START_TIME.toEpochMilli(), 60, 90, 75));
+
+        HeartRateRecordInternal updatedRecord =
+                createHeartRateRecord(START_TIME.toEpochMilli(), 120, 110);
+        updatedRecord.setUuid(uuids.get(0));
+        upsertRecords(/* isInsertRequest= */ false, updatedRecord);
+
+        assertSampleSummary(/* count= */ 2, /* sum= */ 230, /* min= */ 110, /* max= */ 120);
+    }
+
+    @Test
+    public void testUpgrade_backfillsSampleSummary() {
+        upsertRecords(
+                /* isInsertRequest= */ true,
+                createHeartRateRecord(START_TIME.toEpochMilli(), 60, 90, 75));
+        mTransactionManager.runAsTransaction(
+                db -> {
+                    db.execSQL(
+                            "UPDATE "
+                                    + HeartRateRecordHelper.TABLE_NAME
+                                    + " SET sample_count = NULL, sample_sum = NULL,"
+                                    + " sample_min = NULL, sample_max = NULL");
+                    RecordHelperProvider.getInstance()
+                            .getRecordHelper(RECORD_TYPE_HEART_RATE)
+                            .onUpgrade(
+                                    db,
+                                    DB_VERSION_GENERATED_LOCAL_TIME,
+                                    DB_VERSION_SERIES_SUMMARY);
+                });
+
+        assertSampleSummary(/* count= */ 3, /* sum= */ 225, /* min= */ 60, /* max= */ 90);
+    }
+
+    @Test
+    public void testAggregate_usesSampleSummariesOfAllRecords() {
+        upsertRecords(
+                /* isInsertRequest= */ true,
+                createHeartRateRecord(START_TIME.toEpochMilli(), 60, 90, 75),
+                createHeartRateRecord(START_TIME.plus(Duration.ofHours(1)).toEpochMilli(), 100));
+
+        assertThat(getAggregate(HeartRateRecord.BPM_MIN)).isEqualTo(60L);
+        assertThat(getAggregate(HeartRateRecord.BPM_MAX)).isEqualTo(100L);
+        assertThat(getAggregate(HeartRateRecord.BPM_AVG)).isEqualTo(81L);
+        assertThat(getAggregate(HeartRateRecord.HEART_MEASUREMENTS_COUNT)).isEqualTo(4L);
+    }
+
+    private void assertSampleSummary(int count, double sum, double min, double max) {
+        try (Cursor cursor =
+                mTransactionManager.read(new ReadTableRequest(HeartRateRecordHelper.TABLE_NAME))) {
+            assertThat(cursor.getCount()).isEqualTo(1);
+            cursor.moveToFirst();
+            assertThat(StorageUtils.getCursorInt(cursor, "sample_count")).isEqualTo(count);
+            assertThat(StorageUtils.getCursorDouble(cursor, "sample_sum")).isEqualTo(sum);
+            assertThat(StorageUtils.getCursorDouble(cursor, "sample_min")).isEqualTo(min);
+            assertThat(StorageUtils.getCursorDouble(cursor, "sample_max")).isEqualTo(max);
+        }
+    }
+
+    private List<String> upsertRecords(boolean isInsertRequest, RecordInternal<?>... records) {
+        UpsertTransactionRequest request =
+                new UpsertTransactionRequest(
+                        mContext.getPackageName(),
+                        List.of(records),
+                        mContext,
+                        isInsertRequest,
+                        /* extraPermsStateMap= */ Map.of());
+        if (isInsertRequest) {
+            return mTransactionManager.insertAll(request);
+        }
+        mTransactionManager.updateAll(request);
+        return List.of();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Long getAggregate(AggregationType<Long> type) {
+        AggregateRecordsRequest<Long> request =
+                new AggregateRecordsRequest.Builder<Long>(
+                                new TimeInstantRangeFilter.Builder()
+                                        .setStartTime(START_TIME)
+                                        .setEndTime(START_TIME.plus(Duration.ofDays(1)))
+                                        .build())
+                        .addAggregationType(type)
+                        .build();
+        AggregateRecordsResponse<Long> response =
+                (AggregateRecordsResponse<Long>)
+                        new AggregateTransactionRequest(
+                                        mContext.getPackageName(),
+                                        new AggregateDataRequestParcel(request),
+                                        Process.myUserHandle())
+                                .getAggregateDataResponseParcel()
+                                .getAggregateDataResponse();
+        return response.get(type);
+    }
+}
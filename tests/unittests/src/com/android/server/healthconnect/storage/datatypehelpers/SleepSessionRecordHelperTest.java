@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers;
+
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_SLEEP_SESSION;
+import static android.health.connect.datatypes.SleepSessionRecord.StageType.STAGE_TYPE_AWAKE;
+import static android.health.connect.datatypes.SleepSessionRecord.StageType.STAGE_TYPE_SLEEPING_DEEP;
+
+import static com.android.server.healthconnect.storage.HealthConnectDatabase.DB_VERSION_SERIES_SUMMARY;
+import static com.android.server.healthconnect.storage.HealthConnectDatabase.DB_VERSION_SESSION_EXCLUDED_DURATION;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.health.connect.internal.datatypes.SleepSessionRecordInternal;
+import android.health.connect.internal.datatypes.SleepStageInternal;
+
+import com.android.server.healthconnect.storage.DatabaseTestRule;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.datatypehelpers.aggregation.SessionDurationAggregationData;
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+import com.android.server.healthconnect.storage.request.UpsertTransactionRequest;
+import com.android.server.healthconnect.storage.utils.RecordHelperProvider;
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+public class SleepSessionRecordHelperTest {
+    private static final String TABLE_NAME = "sleep_session_record_table";
+    private static final long START_TIME = Instant.parse("2023-06-01T22:00:00Z").toEpochMilli();
+    private static final long END_TIME = START_TIME + Duration.ofHours(8).toMillis();
+    private static final long AWAKE_START_TIME = START_TIME + Duration.ofHours(3).toMillis();
+    private static final long AWAKE_END_TIME = AWAKE_START_TIME + Duration.ofMinutes(20).toMillis();
+
+    @Rule public final DatabaseTestRule mDatabaseRule = new DatabaseTestRule();
+
+    private Context mContext;
+    private TransactionManager mTransactionManager;
+
+    @Before
+    public void setUp() {
+        mContext = mDatabaseRule.getContext();
+        mTransactionManager = mDatabaseRule.getTransactionManager();
+    }
+
+    @Test
+    public void testInsert_storesExcludedDuration() {
+        insertSleepSession();
+
+        assertExcludedDuration();
+    }
+
+    @Test
+    public void testUpgrade_backfillsExcludedDuration() {
+        insertSleepSession();
+        mTransactionManager.runAsTransaction(
+                db -> {
+                    db.execSQL(
+                            "UPDATE "
+                                    + TABLE_NAME
+                                    + " SET excluded_duration = NULL, excluded_intervals = NULL");
+                    RecordHelperProvider.getInstance()
+                            .getRecordHelper(RECORD_TYPE_SLEEP_SESSION)
+                            .onUpgrade(
+                                    db,
+                                    DB_VERSION_SERIES_SUMMARY,
+                                    DB_VERSION_SESSION_EXCLUDED_DURATION);
+                });
+
+        assertExcludedDuration();
+    }
+
+    private void assertExcludedDuration() {
+        try (Cursor cursor = mTransactionManager.read(new ReadTableRequest(TABLE_NAME))) {
+            assertThat(cursor.getCount()).isEqualTo(1);
+            cursor.moveToFirst();
+            assertThat(StorageUtils.getCursorLong(cursor, "excluded_duration"))
+                    .isEqualTo(AWAKE_END_TIME - AWAKE_START_TIME);
+            assertThat(StorageUtils.getCursorBlob(cursor, "excluded_intervals"))
+                    .isEqualTo(
+                            SessionDurationAggregationData.encodeExcludeIntervals(
+                                    List.of(AWAKE_START_TIME), List.of(AWAKE_END_TIME)));
+        }
+    }
+
+    private void insertSleepSession() {
+        SleepSessionRecordInternal record = new SleepSessionRecordInternal();
+        record.setSleepStages(
+                List.of(
+                        new SleepStageInternal()
+                                .setStartTime(START_TIME)
+                                .setEndTime(AWAKE_START_TIME)
+                                .setStageType(STAGE_TYPE_SLEEPING_DEEP),
+                        new SleepStageInternal()
+                                .setStartTime(AWAKE_START_TIME)
+                                .setEndTime(AWAKE_END_TIME)
+                                .setStageType(STAGE_TYPE_AWAKE)));
+        record.setStartTime(START_TIME);
+        record.setEndTime(END_TIME);
+        mTransactionManager.insertAll(
+                new UpsertTransactionRequest(
+                        mContext.getPackageName(),
+                        List.of(record),
+                        mContext,
+                        /* isInsertRequest= */ true,
+                        /* extraPermsStateMap= */ Map.of()));
+    }
+}
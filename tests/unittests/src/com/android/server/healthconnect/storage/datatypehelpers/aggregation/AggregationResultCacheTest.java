@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers.aggregation;
+
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_HEART_RATE;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_STEPS;
+import static android.health.connect.datatypes.RecordTypeIdentifier.RECORD_TYPE_WEIGHT;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.health.connect.AggregateResult;
+import android.health.connect.datatypes.AggregationType;
+import android.health.connect.datatypes.StepsRecord;
+import android.health.connect.datatypes.TotalCaloriesBurnedRecord;
+import android.os.UserHandle;
+
+import com.android.server.healthconnect.storage.datatypehelpers.ChangeLogsHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+public class AggregationResultCacheTest {
+    private static final UserHandle USER = UserHandle.of(0);
+
+    private AggregationResultCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache = AggregationResultCache.getInstance();
+        mCache.invalidateAll();
+        ChangeLogsHelper.getInstance().clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        mCache.invalidateAll();
+        ChangeLogsHelper.getInstance().clearCache();
+    }
+
+    @Test
+    public void testGet_noEntry_returnsNull() {
+        assertThat(mCache.get(createKey(StepsRecord.STEPS_COUNT_TOTAL, List.of()))).isNull();
+    }
+
+    @Test
+    public void testGet_sameShape_returnsCachedResults() {
+        List<AggregateResult<?>> results = List.of(new AggregateResult<>(10L));
+        AggregationResultCache.Key key =
+                createKey(StepsRecord.STEPS_COUNT_TOTAL, List.of("b.package", "a.package"));
+        mCache.put(key, mCache.getVersion(key), results);
+
+        assertThat(
+                        mCache.get(
+                                createKey(
+                                        StepsRecord.STEPS_COUNT_TOTAL,
+                                        List.of("a.package", "b.package"))))
+                .containsExactlyElementsIn(results);
+    }
+
+    @Test
+    public void testGet_changeLogForDependentType_invalidates() {
+        AggregationResultCache.Key key = createKey(StepsRecord.STEPS_COUNT_TOTAL, List.of());
+        mCache.put(key, mCache.getVersion(key), List.of(new AggregateResult<>(10L)));
+
+        ChangeLogsHelper.getInstance().onChangeLogsCommitted(Map.of(RECORD_TYPE_STEPS, 5L));
+
+        assertThat(mCache.get(key)).isNull();
+    }
+
+    @Test
+    public void testGet_changeLogForOtherType_keepsEntry() {
+        AggregationResultCache.Key key = createKey(StepsRecord.STEPS_COUNT_TOTAL, List.of());
+        mCache.put(key, mCache.getVersion(key), List.of(new AggregateResult<>(10L)));
+
+        ChangeLogsHelper.getInstance().onChangeLogsCommitted(Map.of(RECORD_TYPE_HEART_RATE, 5L));
+
+        assertThat(mCache.get(key)).isNotNull();
+    }
+
+    @Test
+    public void testGet_derivedType_invalidatedByInputTypes() {
+        AggregationResultCache.Key key =
+                createKey(TotalCaloriesBurnedRecord.ENERGY_TOTAL, List.of());
+        mCache.put(key, mCache.getVersion(key), List.of(new AggregateResult<>(10.0)));
+
+        ChangeLogsHelper.getInstance().onChangeLogsCommitted(Map.of(RECORD_TYPE_WEIGHT, 5L));
+
+        assertThat(mCache.get(key)).isNull();
+    }
+
+    @Test
+    public void testGet_writeDuringComputation_invalidates() {
+        AggregationResultCache.Key key = createKey(StepsRecord.STEPS_COUNT_TOTAL, List.of());
+        long[] version = mCache.getVersion(key);
+        ChangeLogsHelper.getInstance().onChangeLogsCommitted(Map.of(RECORD_TYPE_STEPS, 5L));
+        mCache.put(key, version, List.of(new AggregateResult<>(10L)));
+
+        assertThat(mCache.get(key)).isNull();
+    }
+
+    @Test
+    public void testInvalidateAll_dropsEntries() {
+        AggregationResultCache.Key key = createKey(StepsRecord.STEPS_COUNT_TOTAL, List.of());
+        mCache.put(key, mCache.getVersion(key), List.of(new AggregateResult<>(10L)));
+
+        mCache.invalidateAll();
+
+        assertThat(mCache.get(key)).isNull();
+    }
+
+    private static AggregationResultCache.Key createKey(
+            AggregationType<?> aggregationType, List<String> packageFilters) {
+        return new AggregationResultCache.Key(
+                aggregationType,
+                /* startTime= */ 0,
+                /* endTime= */ 1000,
+                /* useLocalTime= */ false,
+                /* period= */ null,
+                Duration.ofMillis(1000),
+                packageFilters,
+                USER);
+    }
+}
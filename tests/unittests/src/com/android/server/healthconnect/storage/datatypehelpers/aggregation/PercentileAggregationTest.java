@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers.aggregation;
+
+import static com.android.server.healthconnect.storage.TestUtils.createHeartRateRecord;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.health.connect.AggregateRecordsGroupedByDurationResponse;
+import android.health.connect.AggregateRecordsRequest;
+import android.health.connect.AggregateRecordsResponse;
+import android.health.connect.TimeInstantRangeFilter;
+import android.health.connect.aidl.AggregateDataRequestParcel;
+import android.health.connect.aidl.AggregateDataResponseParcel;
+import android.health.connect.datatypes.HeartRateRecord;
+import android.health.connect.internal.datatypes.RecordInternal;
+import android.os.Process;
+
+import com.android.server.healthconnect.storage.DatabaseTestRule;
+import com.android.server.healthconnect.storage.TransactionManager;
+import com.android.server.healthconnect.storage.request.AggregateTransactionRequest;
+import com.android.server.healthconnect.storage.request.UpsertTransactionRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+public class PercentileAggregationTest {
+    private static final Instant START_TIME = Instant.parse("2023-06-01T10:00:00Z");
+
+    @Rule public final DatabaseTestRule mDatabaseRule = new DatabaseTestRule();
+
+    private Context mContext;
+    private TransactionManager mTransactionManager;
+
+    @Before
+    public void setUp() {
+        mContext = mDatabaseRule.getContext();
+        mTransactionManager = mDatabaseRule.getTransactionManager();
+    }
+
+    @Test
+    public void testBpmPercentiles_acrossRecords_returnsNearestRank() {
+        insertRecords(
+                createHeartRateRecord(
+                        START_TIME.toEpochMilli(), IntStream.rangeClosed(51, 100).toArray()),
+                createHeartRateRecord(
+                        START_TIME.plus(Duration.ofHours(1)).toEpochMilli(),
+                        IntStream.rangeClosed(1, 50).toArray()));
+
+        AggregateRecordsResponse<Long> response = getAggregateResponse();
+
+        assertThat(response.get(HeartRateRecord.BPM_PERCENTILE_5)).isEqualTo(5L);
+        assertThat(response.get(HeartRateRecord.BPM_PERCENTILE_50)).isEqualTo(50L);
+        assertThat(response.get(HeartRateRecord.BPM_PERCENTILE_95)).isEqualTo(95L);
+    }
+
+    @Test
+    public void testBpmPercentiles_groupedByDuration_computedPerGroup() {
+        insertRecords(
+                createHeartRateRecord(START_TIME.toEpochMilli(), 60, 70, 80, 90),
+                createHeartRateRecord(
+                        START_TIME.plus(Duration.ofHours(1)).toEpochMilli(), 120, 110, 100));
+
+        List<AggregateRecordsGroupedByDurationResponse<?>> responses =
+                getResponseParcel(Duration.ofHours(1)).getAggregateDataResponseGroupedByDuration();
+
+        assertThat(responses).hasSize(2);
+        assertThat(getPercentiles(responses.get(0))).containsExactly(60L, 70L, 90L).inOrder();
+        assertThat(getPercentiles(responses.get(1))).containsExactly(100L, 110L, 120L).inOrder();
+    }
+
+    @Test
+    public void testBpmPercentiles_noSamples_returnsNull() {
+        AggregateRecordsResponse<Long> response = getAggregateResponse();
+
+        assertThat(response.get(HeartRateRecord.BPM_PERCENTILE_50)).isNull();
+    }
+
+    @SuppressWarnings("unchecked")
+    private AggregateRecordsResponse<Long> getAggregateResponse() {
+        return (AggregateRecordsResponse<Long>)
+                getResponseParcel(/* duration= */ null).getAggregateDataResponse();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Long> getPercentiles(AggregateRecordsGroupedByDurationResponse<?> group) {
+        AggregateRecordsGroupedByDurationResponse<Long> response =
+                (AggregateRecordsGroupedByDurationResponse<Long>) group;
+        return List.of(
+                response.get(HeartRateRecord.BPM_PERCENTILE_5),
+                response.get(HeartRateRecord.BPM_PERCENTILE_50),
+                response.get(HeartRateRecord.BPM_PERCENTILE_95));
+    }
+
+    private void insertRecords(RecordInternal<?>... records) {
+        mTransactionManager.insertAll(
+                new UpsertTransactionRequest(
+                        mContext.getPackageName(),
+                        List.of(records),
+                        mContext,
+                        /* isInsertRequest= */ true,
+                        /* extraPermsStateMap= */ Map.of()));
+    }
+
+    private AggregateDataResponseParcel getResponseParcel(Duration duration) {
+        AggregateRecordsRequest<Long> request =
+                new AggregateRecordsRequest.Builder<Long>(
+                                new TimeInstantRangeFilter.Builder()
+                                        .setStartTime(START_TIME)
+                                        .setEndTime(START_TIME.plus(Duration.ofHours(2)))
+                                        .build())
+                        .addAggregationType(HeartRateRecord.BPM_PERCENTILE_5)
+                        .addAggregationType(HeartRateRecord.BPM_PERCENTILE_50)
+                        .addAggregationType(HeartRateRecord.BPM_PERCENTILE_95)
+                        .build();
+        return new AggregateTransactionRequest(
+                        mContext.getPackageName(),
+                        duration == null
+                                ? new AggregateDataRequestParcel(request)
+                                : new AggregateDataRequestParcel(request, duration),
+                        Process.myUserHandle())
+                .getAggregateDataResponseParcel();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers.aggregation;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+public class SampleHistogramTest {
+
+    @Test
+    public void testGetPercentile_empty_returnsNull() {
+        assertThat(new SampleHistogram(1).getPercentile(50)).isNull();
+    }
+
+    @Test
+    public void testGetPercentile_returnsNearestRank() {
+        SampleHistogram histogram = new SampleHistogram(1);
+        for (int bpm = 61; bpm <= 160; bpm++) {
+            histogram.add(bpm, 1);
+        }
+
+        assertThat(histogram.getCount()).isEqualTo(100);
+        assertThat(histogram.getPercentile(0)).isEqualTo(61);
+        assertThat(histogram.getPercentile(5)).isEqualTo(65);
+        assertThat(histogram.getPercentile(50)).isEqualTo(110);
+        assertThat(histogram.getPercentile(95)).isEqualTo(155);
+        assertThat(histogram.getPercentile(100)).isEqualTo(160);
+    }
+
+    @Test
+    public void testGetPercentile_weightedBins() {
+        SampleHistogram histogram = new SampleHistogram(10);
+        histogram.add(/* binIndex= */ 6, /* count= */ 90);
+        histogram.add(/* binIndex= */ 15, /* count= */ 10);
+
+        assertThat(histogram.getPercentile(90)).isEqualTo(60);
+        assertThat(histogram.getPercentile(91)).isEqualTo(150);
+    }
+
+    @Test
+    public void testMerge_addsCounts() {
+        SampleHistogram first = new SampleHistogram(1);
+        first.add(70, 3);
+        SampleHistogram second = new SampleHistogram(1);
+        second.add(70, 1);
+        second.add(120, 4);
+
+        first.merge(second);
+
+        assertThat(first.getCount()).isEqualTo(8);
+        assertThat(first.getPercentile(50)).isEqualTo(70);
+        assertThat(first.getPercentile(51)).isEqualTo(120);
+    }
+
+    @Test
+    public void testMerge_differentBinWidth_throws() {
+        SampleHistogram first = new SampleHistogram(1);
+        SampleHistogram second = new SampleHistogram(2);
+
+        assertThrows(IllegalArgumentException.class, () -> first.merge(second));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.datatypehelpers.aggregation;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.when;
+
+import android.database.Cursor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+
+public class SessionDurationAggregationDataTest {
+    private static final String EXCLUDED_DURATION_COLUMN = "excluded_duration";
+    private static final String EXCLUDED_INTERVALS_COLUMN = "excluded_intervals";
+    private static final int EXCLUDED_DURATION_INDEX = 0;
+    private static final int EXCLUDED_INTERVALS_INDEX = 1;
+
+    @Mock Cursor mCursor;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mCursor.getColumnIndex(EXCLUDED_DURATION_COLUMN)).thenReturn(EXCLUDED_DURATION_INDEX);
+        when(mCursor.getColumnIndex(EXCLUDED_INTERVALS_COLUMN))
+                .thenReturn(EXCLUDED_INTERVALS_INDEX);
+    }
+
+    @Test
+    public void testSessionInsideInterval_usesStoredExcludedDuration() {
+        // The stored duration deliberately differs from the intervals to tell the paths apart.
+        mockExcludedDuration(20L, List.of(10L), List.of(20L));
+
+        assertThat(createSessionData(0, 100).getResultOnInterval(0, 200)).isEqualTo(80.0);
+    }
+
+    @Test
+    public void testSessionSplitBetweenIntervals_usesStoredIntervals() {
+        mockExcludedDuration(20L, List.of(10L, 60L), List.of(20L, 70L));
+
+        SessionDurationAggregationData data = createSessionData(0, 100);
+
+        assertThat(data.getResultOnInterval(0, 50)).isEqualTo(40.0);
+        assertThat(data.getResultOnInterval(50, 100)).isEqualTo(40.0);
+    }
+
+    @Test
+    public void testNoStoredExcludedDuration_usesStoredIntervals() {
+        // Excluded intervals outside the session don't have a stored duration.
+        mockExcludedDuration(/* excludedDuration= */ null, List.of(90L), List.of(120L));
+
+        assertThat(createSessionData(0, 100).getResultOnInterval(0, 100)).isEqualTo(90.0);
+    }
+
+    @Test
+    public void testNoExcludedIntervals_returnsSessionDuration() {
+        mockExcludedDuration(0L, /* excludeStarts= */ null, /* excludeEnds= */ null);
+
+        SessionDurationAggregationData data = createSessionData(0, 100);
+
+        assertThat(data.getResultOnInterval(0, 200)).isEqualTo(100.0);
+        assertThat(data.getResultOnInterval(0, 30)).isEqualTo(30.0);
+    }
+
+    private SessionDurationAggregationData createSessionData(long startTime, long endTime) {
+        SessionDurationAggregationData data =
+                new SessionDurationAggregationData(
+                        EXCLUDED_DURATION_COLUMN, EXCLUDED_INTERVALS_COLUMN);
+        data.populateSpecificAggregationData(mCursor, /* useLocalTime= */ false);
+        data.setData(startTime, endTime, /* priority= */ 0, /* lastModifiedTime= */ 0);
+        return data;
+    }
+
+    private void mockExcludedDuration(
+            Long excludedDuration, List<Long> excludeStarts, List<Long> excludeEnds) {
+        when(mCursor.isNull(EXCLUDED_DURATION_INDEX)).thenReturn(excludedDuration == null);
+        if (excludedDuration != null) {
+            when(mCursor.getLong(EXCLUDED_DURATION_INDEX)).thenReturn(excludedDuration);
+        }
+        when(mCursor.isNull(EXCLUDED_INTERVALS_INDEX)).thenReturn(excludeStarts == null);
+        if (excludeStarts != null) {
+            when(mCursor.getBlob(EXCLUDED_INTERVALS_INDEX))
+                    .thenReturn(
+                            SessionDurationAggregationData.encodeExcludeIntervals(
+                                    excludeStarts, excludeEnds));
+        }
+    }
+}
@@ -58,6 +58,16 @@ public class CreateTableRequestTest {
         assertThat(mCreateTableRequest.getCreateIndexStatements()).isNotNull();
     }
 
+    @Test
+    public void testCreateTable_compositeIndex_getCreateIndexStatements() {
+        mCreateTableRequest.createIndexOn("composite", List.of(COLUMN_NAME, REFERENCE_COULMN));
+
+        assertThat(mCreateTableRequest.getCreateIndexStatements())
+                .containsExactly(
+                        "CREATE INDEX  idx_sample_table_composite ON"
+                                + " sample_table(sampleColumn,referenceColumn)");
+    }
+
     @Test
     public void testCreateTable_getChildTableRequests() {
         List<CreateTableRequest> childTables = new ArrayList<>();
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.request;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.server.healthconnect.storage.utils.StorageUtils;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+public class DeleteTableRequestTest {
+    private static final String TABLE_NAME = "sample_table";
+    private static final String UUID_COLUMN_NAME = "uuid";
+    private static final String PACKAGE_COLUMN_NAME = "app_info_id";
+    private static final String TIME_COLUMN_NAME = "start_time";
+
+    @Test
+    public void testSetUuids_bindsUuidsToDeleteAndReadCommands() {
+        List<UUID> uuids = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        DeleteTableRequest request =
+                new DeleteTableRequest(TABLE_NAME)
+                        .setUuids(UUID_COLUMN_NAME, uuids)
+                        .setRequiresUuId(UUID_COLUMN_NAME);
+
+        byte[] uuidsBlob = StorageUtils.getSingleByteArray(uuids);
+        assertThat(request.getDeleteCommand())
+                .doesNotContain(StorageUtils.getHexString(uuids.get(0)));
+        assertThat(request.getBindArgs()).asList().hasSize(2);
+        assertThat((byte[]) request.getBindArgs()[0]).isEqualTo(uuidsBlob);
+        assertThat(request.getBindArgs()[1]).isEqualTo(request.getBindArgs()[0]);
+    }
+
+    @Test
+    public void testGetBindArgs_afterGetReadCommand_bindsEachParameterOnce() {
+        DeleteTableRequest request =
+                new DeleteTableRequest(TABLE_NAME)
+                        .setPackageFilter(PACKAGE_COLUMN_NAME, List.of(1L, 2L))
+                        .setTimeFilter(TIME_COLUMN_NAME, /* startTime= */ 10, /* endTime= */ 20)
+                        .setUuids(UUID_COLUMN_NAME, List.of(UUID.randomUUID()))
+                        .setRequiresUuId(UUID_COLUMN_NAME);
+
+        String readCommand = request.getReadCommand();
+        Object[] bindArgs = request.getBindArgs();
+
+        assertThat(request.getReadCommand()).isEqualTo(readCommand);
+        assertThat(request.getBindArgs()).isEqualTo(bindArgs);
+        assertThat(bindArgs)
+                .hasLength((int) readCommand.chars().filter(c -> c == '?').count());
+    }
+
+    @Test
+    public void testSetUuids_getTotalNumberOfRecordsDeleted() {
+        DeleteTableRequest request =
+                new DeleteTableRequest(TABLE_NAME)
+                        .setUuids(UUID_COLUMN_NAME, List.of(UUID.randomUUID(), UUID.randomUUID()));
+
+        assertThat(request.getTotalNumberOfRecordsDeleted()).isEqualTo(2);
+    }
+}
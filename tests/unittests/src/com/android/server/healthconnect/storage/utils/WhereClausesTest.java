@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.storage.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.server.healthconnect.storage.request.ReadTableRequest;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+public class WhereClausesTest {
+
+    @Test
+    public void testAddWhereInUuidsClause_bindsUuidsAsBlob() {
+        List<UUID> uuids = List.of(UUID.randomUUID(), UUID.randomUUID());
+
+        WhereClauses whereClauses = new WhereClauses().addWhereInUuidsClause("uuid", uuids);
+
+        assertThat(whereClauses.get(/* withWhereKeyword= */ false)).startsWith("uuid IN (");
+        byte[] uuidsBlob = StorageUtils.getSingleByteArray(uuids);
+        assertThat(whereClauses.getBindArgs()).hasSize(2);
+        for (Object bindArg : whereClauses.getBindArgs()) {
+            assertThat((byte[]) bindArg).isEqualTo(uuidsBlob);
+        }
+    }
+
+    @Test
+    public void testAddWhereInUuidsClause_empty_noClause() {
+        WhereClauses whereClauses = new WhereClauses().addWhereInUuidsClause("uuid", List.of());
+
+        assertThat(whereClauses.get(/* withWhereKeyword= */ true)).isEmpty();
+        assertThat(whereClauses.getBindArgs()).isEmpty();
+    }
+
+    @Test
+    public void testAddWhereInSQLRequestClause_keepsBindArgsOfInnerRequest() {
+        ReadTableRequest innerRequest =
+                new ReadTableRequest("inner_table")
+                        .setWhereClause(
+                                new WhereClauses()
+                                        .addWhereInUuidsClause(
+                                                "uuid", List.of(UUID.randomUUID())));
+
+        WhereClauses whereClauses =
+                new WhereClauses().addWhereInSQLRequestClause("parent_key", innerRequest);
+
+        assertThat(whereClauses.getBindArgs())
+                .containsExactlyElementsIn(innerRequest.getBindArgs())
+                .inOrder();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.healthconnect.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest {
+    private final SingleFlight<String, Integer> mSingleFlight = new SingleFlight<>();
+
+    @Test
+    public void testExecute_concurrentSameKey_computesOnce() throws Exception {
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch computationStarted = new CountDownLatch(1);
+        CountDownLatch releaseComputation = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> first =
+                    executor.submit(
+                            () ->
+                                    mSingleFlight.execute(
+                                            "key",
+                                            () -> {
+                                                computationStarted.countDown();
+                                                awaitUninterruptibly(releaseComputation);
+                                                return computations.incrementAndGet();
+                                            }));
+            computationStarted.await();
+            Future<Integer> second =
+                    executor.submit(
+                            () -> mSingleFlight.execute("key", computations::incrementAndGet));
+            // Give the second caller time to join the computation in flight.
+            Thread.sleep(100);
+            releaseComputation.countDown();
+
+            assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+            assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+            assertThat(computations.get()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExecute_sequentialCalls_computeEachTime() {
+        AtomicInteger computations = new AtomicInteger();
+
+        mSingleFlight.execute("key", computations::incrementAndGet);
+        mSingleFlight.execute("key", computations::incrementAndGet);
+
+        assertThat(computations.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testExecute_failure_isThrownToCaller() {
+        assertThrows(
+                IllegalStateException.class,
+                () ->
+                        mSingleFlight.execute(
+                                "key",
+                                () -> {
+                                    throw new IllegalStateException();
+                                }));
+        assertThat(mSingleFlight.execute("key", () -> 1)).isEqualTo(1);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}